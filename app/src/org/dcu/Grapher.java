@@ -7,15 +7,38 @@
 
 package org.dcu;
 
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
-import org.apache.log4j.Level;
+import javax.json.JsonException;
+
 import org.apache.log4j.Logger;
+import org.dcu.prm.CBSPlanner;
+import org.dcu.prm.Exporter;
+import org.dcu.prm.ObstacleChange;
+import org.dcu.prm.PRMPlanner;
 import org.dcu.prm.Path;
+import org.dcu.prm.Position;
+import org.dcu.prm.ReservationTable;
+import org.dcu.prm.Snapshot;
+import org.dcu.prm.TimedPath;
 import org.dcu.prm.Workspace;
+import org.dcu.prm.Zone;
 import org.hyperledger.fabric.sdk.BlockEvent;
 import org.hyperledger.fabric.sdk.ChaincodeEvent;
 import org.hyperledger.fabric.sdk.ChaincodeEventListener;
@@ -30,17 +53,56 @@ public class Grapher extends RNode implements Runnable {
 	private HFClient client;
 	private Channel channel;
 	private Thread thread;
-	private boolean active = true;
+	private volatile boolean active = true;
 	private final Logger log = Logger.getLogger(Grapher.class);
 	private long startTime;
 
+	// committed paths handed over from the event listener thread
+	private static final int EVENT_QUEUE_SIZE = 256;
+	private final BlockingQueue<Path> events = new ArrayBlockingQueue<Path>(EVENT_QUEUE_SIZE);
+	private String listenerHandle;
+	private final CountDownLatch consensus = new CountDownLatch(1);
+
 	private String myName = "grapher";
 	private int numOfRobots;
 
+	// joint re-plan proposed once all robots committed but still collide;
+	// it runs on the consensus worker and stalls detection while it plans
+	public boolean proposeOnConflict = false;
+	public int numNodes = 500;
+	public int numEdges = 10;
+	public double stepSize = 0.1;
+	public double robotRadius = 0.2;
+	public double timeStep = 0.25;
+	private volatile List<TimedPath> proposal;
+	// a joint re-plan is only attempted once, even if it found nothing
+	private boolean proposed = false;
+
+	// visualization of the workspace once consensus is reached, the
+	// format follows the extension (.m, .svg or .bin)
+	public String[] exportFiles = { "workspace.m" };
+	private static final long EXPORT_INTERVAL_MS = 1000;
+	private final Exporter exporter = new Exporter(EXPORT_INTERVAL_MS);
+	// queried once for the exports, obstacle changes are applied as they come
+	private Workspace workspace;
+	private final Queue<ObstacleChange> obstacleChanges = new ConcurrentLinkedQueue<ObstacleChange>();
+	// checks the zones of a sharded workspace in parallel
+	private ExecutorService zoneCheckers;
+
+	/** Paths through one zone, and whether any two of them collide */
+	private static final class ZoneCheck {
+		final ArrayList<Path> paths;
+		final boolean conflictFree;
+
+		ZoneCheck(ArrayList<Path> paths, boolean conflictFree) {
+			this.paths = paths;
+			this.conflictFree = conflictFree;
+		}
+	}
+
 	public Grapher(int numOfRobots) throws Exception {
 		super();
 		this.numOfRobots = numOfRobots;
-		Logger.getRootLogger().setLevel(Level.INFO);
 		// create fabric-ca client
 		HFCAClient caClient = getHfCaClient(CA_ORG_URL, null);
 		// enroll or load admin
@@ -62,30 +124,33 @@ public class Grapher extends RNode implements Runnable {
 				if (chaincodeEvent.getEventName().equals(PATH_COMMITTED_EVENT)) {
 
 					try {
-						Path committedPath = new Path(new String(chaincodeEvent.getPayload(), "UTF-8"));
+						Path committedPath = Path.parse(chaincodeEvent.getPayload());
 						log.info("Robot[" + committedPath.id + "] committed Block# " + blockEvent.getBlockNumber() + " | TxID: " + chaincodeEvent.getTxId());
-					} catch (UnsupportedEncodingException e1) {
-						// TODO Auto-generated catch block
+
+						// never block the event thread, a full queue already
+						// guarantees a pending consensus evaluation
+						if (!events.offer(committedPath) && log.isDebugEnabled())
+							log.debug("Event queue full, coalescing Robot[" + committedPath.id + "]");
+
+					} catch (IllegalArgumentException | JsonException e1) {
+						// malformed path payload
 						e1.printStackTrace();
 					}
+				} else if (chaincodeEvent.getEventName().equals(OBSTACLE_CHANGED_EVENT)) {
 
 					try {
-						if (isConsensusReached()) {
-							log.info("Consensus Latency = " +
-									new Long((System.nanoTime() - startTime)/1000000) + " ms");
-							drawWorkspace();
-						}
-
-					} catch (IOException | InvalidArgumentException | ProposalException e) {
-						e.printStackTrace();
+						// applied to the workspace by the next export
+						obstacleChanges.add(ObstacleChange.parse(chaincodeEvent.getPayload()));
+					} catch (IllegalArgumentException | JsonException e1) {
+						e1.printStackTrace();
 					}
 				}
 			}
 		};
 
-		// register event listener/handler for path-committed event
-		channel.registerChaincodeEventListener(Pattern.compile(CHAINCODE_NAME),
-				Pattern.compile(PATH_COMMITTED_EVENT), chaincodeEventListener);
+		// register event listener/handler for path-committed and obstacle-changed events
+		listenerHandle = channel.registerChaincodeEventListener(Pattern.compile(CHAINCODE_NAME),
+				Pattern.compile(PATH_COMMITTED_EVENT + "|" + OBSTACLE_CHANGED_EVENT), chaincodeEventListener);
 
 		this.thread = new Thread(this);
 	}
@@ -94,37 +159,127 @@ public class Grapher extends RNode implements Runnable {
 		this.thread.start();
 	}
 
-	// draw workspace + paths in MATLAB
-	private void drawWorkspace()
-			throws ProposalException, InvalidArgumentException, IOException {
-		// get workspace
+	/**
+	 * Wait until all robots committed non-colliding paths
+	 *
+	 * @return true if consensus was reached before the timeout elapsed
+	 */
+	public boolean awaitConsensus(long timeout, TimeUnit unit) throws InterruptedException {
+		return consensus.await(timeout, unit);
+	}
+
+	/**
+	 * Stop listening for events and wait for the worker to finish the
+	 * evaluation in progress.
+	 */
+	public void shutdown() throws InterruptedException {
+		active = false;
+		try {
+			channel.unregisterChaincodeEventListener(listenerHandle);
+		} catch (InvalidArgumentException e) {
+			e.printStackTrace();
+		}
+		thread.interrupt();
+		thread.join();
+		if (zoneCheckers != null)
+			zoneCheckers.shutdownNow();
+		exporter.shutdown();
+	}
+
+	/**
+	 * @return conflict-free paths proposed for all robots, or null if
+	 * none was needed or found yet
+	 */
+	public List<TimedPath> getProposal() {
+		return proposal;
+	}
+
+	/**
+	 * Plan all robots jointly between the start and goal of the paths
+	 * they committed, instead of waiting for their re-plans to settle
+	 * through the ledger.
+	 *
+	 * @return conflict-free paths, or null if none was found
+	 */
+	public List<TimedPath> proposeJointSolution(List<Path> paths)
+			throws ProposalException, InvalidArgumentException, InterruptedException {
+
+		ArrayList<Position> starts = new ArrayList<Position>();
+		ArrayList<Position> goals = new ArrayList<Position>();
+		ArrayList<String> ids = new ArrayList<String>();
+		for (Path path : paths) {
+			starts.add(path.points.get(0));
+			goals.add(path.points.get(path.points.size()-1));
+			ids.add(path.id);
+		}
+
+		// road map of the bare workspace, robots are kept apart in time
 		Workspace workspace = qry_getWorkspace(client);
-		// get all paths
-		ArrayList<Path> paths = qry_getAllPaths(client, myName);
+		PRMPlanner roadmap = new PRMPlanner();
+		roadmap.buildRoadMap(workspace, numNodes, numEdges, stepSize);
+
+		CBSPlanner cbs = new CBSPlanner(roadmap, new ReservationTable(robotRadius, timeStep, robotRadius));
+		try {
+			List<TimedPath> solution = cbs.solve(workspace, starts, goals, ids);
+			if (solution == null) {
+				log.info("No joint solution after " + cbs.expandedNodes + " CBS nodes");
+				return null;
+			}
+			for (TimedPath path : solution) {
+				log.info("Proposed Robot[" + path.id + "] arrives at t = " + path.getEndStep() * timeStep + " s");
+			}
+			return solution;
+		} finally {
+			cbs.shutdown();
+		}
+	}
+
+	// hand workspace + paths over to the exporter
+	private void drawWorkspace(ArrayList<Path> paths)
+			throws ProposalException, InvalidArgumentException {
+		// get workspace
+		if (workspace == null)
+			workspace = qry_getWorkspace(client);
+
+		// changes the query already included are skipped by version
+		ObstacleChange change;
+		while ((change = obstacleChanges.poll()) != null) {
+			workspace.apply(change);
+		}
 
-		// add paths to workspace
+		// replace the paths of the last export
+		workspace.deleteAllPaths();
 		for (int i = 0; i < paths.size(); i++) {
 			workspace.addPath(paths.get(i));
 		}
 
-		// draw in Matlab
-		workspace.writeMatlabDisplayCode("workspace.m");
+		// written on the exporter thread
+		Snapshot snapshot = Snapshot.of(workspace, null);
+		for (String file : exportFiles) {
+			exporter.submit(snapshot, file);
+		}
 		log.debug("Workspace can be visualized in Matlab by running (multi-robot-workspace.m)");
-		log.debug(workspace.toString());
+		// rendered by log4j only if debug is enabled
+		log.debug(workspace);
 	}
 
 	// return true if consensus was reached
-	private boolean isConsensusReached()
-			throws InvalidArgumentException, ProposalException {
-		// get all paths
-		ArrayList<Path> paths = qry_getAllPaths(client, myName);
+	private boolean isConsensusReached(ArrayList<Path> paths) {
 
 		if (numOfRobots != paths.size())
 			// not all robots are done planning
 			return false;
 
-		// loop on all paths and check if any are colliding
 		// if colliding, then re-planning is on-going
+		if (!isConflictFree(paths))
+			return false;
+
+		log.info("!! CONSENSUS REACHED !!");
+		return true;
+	}
+
+	// loop on all paths and check if any are colliding
+	private static boolean isConflictFree(List<Path> paths) {
 		for (int i = 0; i < paths.size(); i++) {
 			for (int j = i+1; j < paths.size(); j++) {
 
@@ -132,6 +287,57 @@ public class Grapher extends RNode implements Runnable {
 					return false;
 			}
 		}
+		return true;
+	}
+
+	/**
+	 * Sharded workspace: every zone is queried and checked on its own
+	 * thread. Two paths can only collide in a zone both pass through, so
+	 * consensus is all robots having a path and no zone with a conflict.
+	 *
+	 * @param paths filled with the paths of all robots
+	 */
+	private boolean isConsensusReachedPerZone(ArrayList<Path> paths)
+			throws InvalidArgumentException, ProposalException, InterruptedException {
+
+		List<Future<ZoneCheck>> checks = new ArrayList<Future<ZoneCheck>>();
+		for (final Zone zone : workspace.zones.getZones()) {
+			checks.add(zoneCheckers.submit(new Callable<ZoneCheck>() {
+				@Override
+				public ZoneCheck call() throws Exception {
+					ArrayList<Path> zonePaths = qry_getZonePaths(client, myName, zone.id);
+					return new ZoneCheck(zonePaths, isConflictFree(zonePaths));
+				}
+			}));
+		}
+
+		boolean conflictFree = true;
+		// a path crossing zones is returned by each of them
+		Map<String, Path> robots = new LinkedHashMap<String, Path>();
+		for (int z = 0; z < checks.size(); z++) {
+			ZoneCheck check;
+			try {
+				check = checks.get(z).get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof ProposalException)
+					throw (ProposalException) e.getCause();
+				if (e.getCause() instanceof InvalidArgumentException)
+					throw (InvalidArgumentException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+			if (!check.conflictFree) {
+				conflictFree = false;
+				if (log.isDebugEnabled())
+					log.debug("Conflict in Zone[" + workspace.zones.getZones().get(z).id + "]");
+			}
+			for (Path path : check.paths) {
+				robots.put(path.id, path);
+			}
+		}
+		paths.addAll(robots.values());
+
+		if (!conflictFree || numOfRobots != paths.size())
+			return false;
 
 		log.info("!! CONSENSUS REACHED !!");
 		return true;
@@ -143,12 +349,69 @@ public class Grapher extends RNode implements Runnable {
 		// start counter for consensus latency
 		startTime = System.nanoTime();
 
-		while(active){
-			try{
-				Thread.sleep(1);
+		ArrayList<Path> batch = new ArrayList<Path>();
+
+		try {
+			workspace = qry_getWorkspace(client);
+		} catch (InvalidArgumentException | ProposalException e) {
+			e.printStackTrace();
+		}
+		if (workspace != null && workspace.zones != null) {
+			log.info("Evaluating consensus per zone over " + workspace.zones.size() + " zones");
+			zoneCheckers = Executors.newFixedThreadPool(workspace.zones.size(), new ThreadFactory() {
+				private int n = 0;
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, myName + "-zone-" + n++);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		while (active) {
+			try {
+				// wait for a commit, then take whatever else arrived meanwhile
+				batch.add(events.take());
+				events.drainTo(batch);
+			} catch (InterruptedException e) {
+				// shutdown requested
+				break;
 			}
-			catch(InterruptedException e){
-				System.out.println("Thread Interrupted!");
+
+			if (log.isDebugEnabled())
+				log.debug("Evaluating consensus after " + batch.size() + " commits");
+			batch.clear();
+
+			try {
+				// one evaluation for the whole burst
+				ArrayList<Path> paths;
+				boolean reached;
+				if (zoneCheckers != null) {
+					paths = new ArrayList<Path>();
+					reached = isConsensusReachedPerZone(paths);
+				} else {
+					paths = qry_getAllPaths(client, myName);
+					reached = isConsensusReached(paths);
+				}
+				if (reached) {
+					long latency = System.nanoTime() - startTime;
+					if (consensus.getCount() > 0)
+						CONSENSUS_TIMER.record(latency);
+					log.info("Consensus Latency = " + latency/1000000 + " ms");
+					consensus.countDown();
+					drawWorkspace(paths);
+				} else if (proposeOnConflict && !proposed && paths.size() == numOfRobots) {
+					proposed = true;
+					proposal = proposeJointSolution(paths);
+				}
+
+			} catch (InvalidArgumentException | ProposalException e) {
+				e.printStackTrace();
+			} catch (InterruptedException e) {
+				// shutdown requested while planning
+				break;
 			}
 		}
 	}
@@ -7,31 +7,66 @@
 
 package org.dcu;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.log4j.LogManager;
 import org.apache.log4j.xml.DOMConfigurator;
+import org.dcu.metrics.Metrics;
+import org.dcu.trace.Trace;
 
 public class MultiRobotTest extends Thread {
 
-	private static List<Robot> robots = new ArrayList<Robot>();
+	private static List<Robot> robots = Collections.synchronizedList(new ArrayList<Robot>());
 	private int numOfRobots;
+	private boolean concurrent;
 
-	public MultiRobotTest(int numOfRobots) {
+	// max time to wait for all robots to agree on their paths
+	private static final long CONSENSUS_TIMEOUT_MIN = 10;
+	// period of the metrics dump to the log
+	private static final long METRICS_PERIOD_SEC = 30;
+	// -Dtrace=<file> records a planning trace and dumps it there at the end
+	private static final String TRACE_FILE = System.getProperty("trace");
+
+	public MultiRobotTest(int numOfRobots, boolean concurrent) {
 		this.numOfRobots = numOfRobots;
+		this.concurrent = concurrent;
 	}
 
 	public static void main(String[] args) {
 
 		if (args.length < 1) {
 			System.err.println("Number of robots is missing");
+			System.err.println("Usage: MultiRobotTest <numOfRobots> [serial|concurrent]");
 			return;
 		}
 
-		System.out.println("-- SYNCHRONIZED MULTI-ROBOT FABRIC TEST --");
+		boolean concurrent = (args.length > 1) && args[1].equals("concurrent");
+
+		if (concurrent)
+			System.out.println("-- CONCURRENT MULTI-ROBOT FABRIC TEST --");
+		else
+			System.out.println("-- SYNCHRONIZED MULTI-ROBOT FABRIC TEST --");
 		DOMConfigurator.configure("log4j.xml");
+		// drain the asynchronous appender before the JVM goes down
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				LogManager.shutdown();
+			}
+		});
+		Metrics.exportMBeans();
+		Metrics.startReporter(METRICS_PERIOD_SEC, TimeUnit.SECONDS);
+		if (TRACE_FILE != null)
+			Trace.enable(Integer.getInteger("trace.capacity", Trace.DEFAULT_CAPACITY));
 
-		MultiRobotTest app = new MultiRobotTest(Integer.parseInt(args[0]));
+		MultiRobotTest app = new MultiRobotTest(Integer.parseInt(args[0]), concurrent);
 		app.start();
 	}
 
@@ -39,15 +74,40 @@ public class MultiRobotTest extends Thread {
 	public void run() {
 		super.run();
 
+		Grapher g = null;
 		try {
 			// start with Grapher
-			Grapher g = new Grapher(numOfRobots);
+			g = new Grapher(numOfRobots);
 			g.go();
 
 		} catch (Exception e1) {
 			e1.printStackTrace();
 		}
 
+		if (concurrent)
+			runConcurrent(g);
+		else
+			runSerial();
+
+		dumpTrace();
+	}
+
+	// write the trace for TraceAnalyzer, if one was recorded
+	private static void dumpTrace() {
+		if (TRACE_FILE == null)
+			return;
+		Trace.disable();
+		try {
+			Trace.dump(TRACE_FILE);
+			System.out.println("Trace written to " + TRACE_FILE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// launch one robot after the other, each waits for the previous commit
+	private void runSerial() {
+
 		Robot robot;
 		for (int i = 0; i < numOfRobots; i++) {
 			try {
@@ -66,4 +126,64 @@ public class MultiRobotTest extends Thread {
 			}
 		}
 	}
+
+	// launch all robots at once, they plan against the same ledger snapshot
+	private void runConcurrent(Grapher g) {
+
+		ExecutorService executor = Executors.newFixedThreadPool(numOfRobots);
+		final CountDownLatch allCommitted = new CountDownLatch(numOfRobots);
+		long startTime = System.nanoTime();
+
+		for (int i = 0; i < numOfRobots; i++) {
+			final String name = String.format("robot%02d", i);
+
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						System.out.println(String.format("[%s] -> go", name));
+						Robot robot = new Robot(name);
+						robots.add(robot);
+						// plan on this pool thread rather than a robot thread
+						robot.run();
+						robot.committed.await(CONSENSUS_TIMEOUT_MIN, TimeUnit.MINUTES);
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						allCommitted.countDown();
+					}
+				}
+			});
+		}
+		executor.shutdown();
+
+		try {
+			if (allCommitted.await(CONSENSUS_TIMEOUT_MIN, TimeUnit.MINUTES)) {
+				System.out.println(String.format("Wall-clock Time to All Commits = %d ms for %d robots",
+						(System.nanoTime() - startTime)/1000000, numOfRobots));
+			}
+
+			if (g != null && g.awaitConsensus(CONSENSUS_TIMEOUT_MIN, TimeUnit.MINUTES)) {
+				System.out.println(String.format("Wall-clock Time to Consensus = %d ms for %d robots",
+						(System.nanoTime() - startTime)/1000000, numOfRobots));
+			} else {
+				System.out.println(String.format("No consensus after %d min", CONSENSUS_TIMEOUT_MIN));
+			}
+
+			if (g != null)
+				g.shutdown();
+
+			System.out.print(Metrics.dump());
+
+			// stop re-planning on late commits
+			synchronized (robots) {
+				for (Robot robot : robots) {
+					robot.shutdown();
+				}
+			}
+
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
 }
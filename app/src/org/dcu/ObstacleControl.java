@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu;
+
+import java.util.Arrays;
+
+import org.apache.log4j.xml.DOMConfigurator;
+import org.dcu.prm.Obstacle;
+import org.hyperledger.fabric.sdk.HFClient;
+
+/**
+ * Places, removes or moves an obstacle on the ledger while robots are
+ * planning; every robot picks the change up from the obstacle-changed
+ * event.
+ */
+public class ObstacleControl extends RNode {
+
+	private static final String USAGE = "Usage: ObstacleControl add circle <id> <x> <y> <radius>\n"
+			+ "       ObstacleControl add rectangle <id> <x> <y> <width> <height> [angle]\n"
+			+ "       ObstacleControl add polygon <id> <x1> <y1> <x2> <y2> <x3> <y3> ...\n"
+			+ "       ObstacleControl remove <id>\n"
+			+ "       ObstacleControl move <id> <x> <y>";
+
+	public static void main(String[] args) {
+
+		if (args.length < 2) {
+			System.err.println(USAGE);
+			return;
+		}
+
+		DOMConfigurator.configure("log4j.xml");
+		try {
+			HFClient client = getHfClient();
+			client.setUserContext(getAdmin(getHfCaClient(CA_ORG_URL, null)));
+			getChannel(client);
+
+			if (args[0].equals("add") && args.length > 2) {
+				invk_addObstacle(client, parse(args[1], args[2], Arrays.copyOfRange(args, 3, args.length)));
+			} else if (args[0].equals("remove")) {
+				invk_removeObstacle(client, args[1]);
+			} else if (args[0].equals("move") && args.length == 4) {
+				invk_moveObstacle(client, args[1], Double.parseDouble(args[2]), Double.parseDouble(args[3]));
+			} else {
+				System.err.println(USAGE);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	// obstacle from the shape name and its numbers on the command line
+	private static Obstacle parse(String shape, String id, String[] params) {
+
+		double[] p = new double[params.length];
+		for (int i = 0; i < p.length; i++) {
+			p[i] = Double.parseDouble(params[i]);
+		}
+
+		if (shape.equals("circle") && p.length == 3)
+			return Obstacle.circle(id, p[0], p[1], p[2]);
+		if (shape.equals("rectangle") && (p.length == 4 || p.length == 5))
+			return Obstacle.rectangle(id, p[0], p[1], p[2], p[3], p.length == 5 ? p[4] : 0);
+		if (shape.equals("polygon") && p.length >= 6 && p.length % 2 == 0) {
+			double[] xs = new double[p.length / 2], ys = new double[p.length / 2];
+			for (int i = 0; i < xs.length; i++) {
+				xs[i] = p[2*i];
+				ys[i] = p[2*i + 1];
+			}
+			return Obstacle.polygon(id, xs, ys);
+		}
+		throw new IllegalArgumentException("Bad " + shape + " obstacle: " + Arrays.toString(params) + "\n" + USAGE);
+	}
+}
@@ -14,26 +14,30 @@ package org.dcu;
 
 import static java.lang.String.format;
 
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
-import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
 
-import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.dcu.metrics.Metrics;
+import org.dcu.metrics.Timer;
+import org.dcu.prm.Obstacle;
 import org.dcu.prm.Path;
-import org.dcu.prm.Position;
+import org.dcu.prm.PathCodec;
+import org.dcu.prm.JsonStream;
+import org.dcu.prm.Region;
 import org.dcu.prm.Workspace;
+import org.dcu.trace.Trace;
+import org.dcu.trace.TraceEvent;
 import org.hyperledger.fabric.sdk.ChaincodeID;
 import org.hyperledger.fabric.sdk.Channel;
 import org.hyperledger.fabric.sdk.Enrollment;
@@ -67,11 +71,22 @@ public abstract class RNode {
 
 	protected static String CHAINCODE_NAME = "multi-robot";
 	protected static String PATH_COMMITTED_EVENT = "path-committed";
+	protected static String OBSTACLE_CHANGED_EVENT = "obstacle-changed";
+	protected static int REGION_PAGE_SIZE = 20;
+	// wire encoding of paths, binary unless -Dpath.format=json is given;
+	// JSON requests carry no format argument, as older chaincode expects
+	protected static final String PATH_FORMAT = System.getProperty("path.format", PathCodec.FORMAT_BINARY);
 
 	protected static Logger log = Logger.getLogger(RNode.class);
 
+	// ledger latencies: proposal to endorsements, broadcast to the
+	// orderer, submission to the commit event, first plan to consensus
+	protected static final Timer ENDORSEMENT_TIMER = Metrics.timer("ledger.endorsement");
+	protected static final Timer ORDERING_TIMER = Metrics.timer("ledger.ordering");
+	protected static final Timer COMMIT_TIMER = Metrics.timer("ledger.commit");
+	protected static final Timer CONSENSUS_TIMER = Metrics.timer("ledger.consensus");
+
 	public RNode() {
-		Logger.getRootLogger().setLevel(Level.DEBUG);
 	}
 
 	/**
@@ -192,16 +207,11 @@ public abstract class RNode {
 		// CC function to be called
 		query.setFcn("getWorkspace");
 		// query blockchain
-		Collection<ProposalResponse> response = channel.queryByChaincode(query, channel.getPeers());
+		Collection<ProposalResponse> response = queryPeers(channel, query);
 		// display response
 		for (ProposalResponse pRsp : response) {
-			String stringResponse = new String(pRsp.getChaincodeActionResponsePayload());
-
-			JsonReader jsonReader = Json.createReader(new StringReader(stringResponse));
-			JsonObject ws = jsonReader.readObject();
-			jsonReader.close();
 			// parse workspace configuration
-			Workspace workspace = new Workspace(ws);
+			Workspace workspace = new Workspace(pRsp.getChaincodeActionResponsePayload());
 			return workspace;
 		}
 		return null;
@@ -209,6 +219,25 @@ public abstract class RNode {
 
 	protected static ArrayList<Path> qry_getAllPaths(HFClient client, String robotId)
 			throws InvalidArgumentException, ProposalException {
+		return queryPaths(client, "getAllPaths", robotId);
+	}
+
+	/**
+	 * Query the paths of other robots passing through one zone of a
+	 * sharded workspace
+	 *
+	 * @param client The HFC client
+	 * @param robotId Id of the querying robot, its own path is excluded
+	 * @param zoneId Id of the zone
+	 */
+	protected static ArrayList<Path> qry_getZonePaths(HFClient client, String robotId, String zoneId)
+			throws InvalidArgumentException, ProposalException {
+		return queryPaths(client, "getZonePaths", robotId, zoneId);
+	}
+
+	// query a chaincode function answering a list of paths
+	private static ArrayList<Path> queryPaths(HFClient client, String fcn, String... params)
+			throws InvalidArgumentException, ProposalException {
 
 		ArrayList<Path> paths = new ArrayList<Path>();
 
@@ -220,46 +249,124 @@ public abstract class RNode {
 		ChaincodeID multiRobotCCId = ChaincodeID.newBuilder().setName(CHAINCODE_NAME).build();
 		query.setChaincodeID(multiRobotCCId);
 		// CC function to be called
-		query.setFcn("getAllPaths");
+		query.setFcn(fcn);
 		ArrayList<String> args = new ArrayList<String>();
-		args.add(robotId);
+		for (String param : params) {
+			args.add(param);
+		}
+		if (PATH_FORMAT.equals(PathCodec.FORMAT_BINARY))
+			args.add(PATH_FORMAT);
 		query.setArgs(args);
 
 		// query blockchain
-		Collection<ProposalResponse> response = channel.queryByChaincode(query, channel.getPeers());
+		Collection<ProposalResponse> response = queryPeers(channel, query);
 		// display response
 		for (ProposalResponse pRsp : response) {
 
-			String stringResponse = new String(pRsp.getChaincodeActionResponsePayload());
-			JsonReader jsonReader = Json.createReader(new StringReader(stringResponse));
-			JsonArray jsonPaths = jsonReader.readArray();
-			jsonReader.close();
+			if (PATH_FORMAT.equals(PathCodec.FORMAT_BINARY)) {
+				PathCodec.decodeFramed(pRsp.getChaincodeActionResponsePayload(), 0, paths);
+				if (log.isDebugEnabled())
+					log.debug("Retrieved " + paths.size() + " paths from blockchain");
+				continue;
+			}
 
-			int i, j;
-			for (i = 0; i < jsonPaths.size(); i++) {
+			int first = paths.size();
+			Path.readJSONArray(pRsp.getChaincodeActionResponsePayload(), paths);
 
-				String pathOwnerId = jsonPaths.getJsonObject(i).getString("robotId");
+			// serializing every path back to JSON is only worth it for debugging
+			if (!log.isDebugEnabled())
+				continue;
+			for (int i = first; i < paths.size(); i++) {
+				log.debug("Retrieved path(" + (i - first) + ") from blockchain");
+				log.debug(paths.get(i).toJSONString());
+			}
+		}
+		return paths;
+	}
 
-				double x, y;
-				// Collect points in path
-				JsonArray jsonPoints = jsonPaths.getJsonObject(i).getJsonArray("points");
-				ArrayList<Position> points = new ArrayList<Position>();
+	/**
+	 * Query the paths of other robots passing through a region. Results
+	 * are fetched lazily one page at a time while iterating.
+	 *
+	 * @param client The HFC client
+	 * @param robotId Id of the querying robot, its own path is excluded
+	 * @param region Area of interest
+	 * @return Iterator over the paths, each path is returned only once
+	 */
+	protected static Iterator<Path> qry_getPathsInRegion(HFClient client, String robotId, Region region) {
+		return new RegionPathIterator(client, robotId, region.toJSONString(), REGION_PAGE_SIZE);
+	}
 
-				for (j = 0; j < jsonPoints.size(); j++) {
+	/**
+	 * Fetch one page of the paths passing through a region.
+	 *
+	 * @param client The HFC client
+	 * @param robotId Id of the querying robot
+	 * @param regionJSON Region polygon as JSON array of points
+	 * @param pageSize Max number of index entries to scan for this page
+	 * @param bookmark Bookmark returned by the previous page, empty for the first one
+	 * @param paths List to append the retrieved paths to
+	 * @return Bookmark of the next page, empty if this was the last page
+	 * @throws InvalidArgumentException
+	 * @throws ProposalException
+	 */
+	protected static String qry_getPathsInRegionPage(HFClient client, String robotId, String regionJSON,
+			int pageSize, String bookmark, ArrayList<Path> paths)
+			throws InvalidArgumentException, ProposalException {
 
-					x = jsonPoints.getJsonObject(j).getJsonNumber("x").doubleValue();
-					y = jsonPoints.getJsonObject(j).getJsonNumber("y").doubleValue();
-					points.add(new Position(x, y));
-				}
+		// get channel instance from client
+		Channel channel = client.getChannel(CHANNEL_NAME);
+		// create chaincode request
+		QueryByChaincodeRequest query = client.newQueryProposalRequest();
+		// build cc id providing the chaincode name. Version is omitted here.
+		ChaincodeID multiRobotCCId = ChaincodeID.newBuilder().setName(CHAINCODE_NAME).build();
+		query.setChaincodeID(multiRobotCCId);
+		// CC function to be called
+		query.setFcn("getPathsInRegion");
+		ArrayList<String> args = new ArrayList<String>();
+		args.add(robotId);
+		args.add(regionJSON);
+		args.add(Integer.toString(pageSize));
+		args.add(bookmark);
+		if (PATH_FORMAT.equals(PathCodec.FORMAT_BINARY))
+			args.add(PATH_FORMAT);
+		query.setArgs(args);
+
+		// query blockchain
+		Collection<ProposalResponse> response = queryPeers(channel, query);
+		for (ProposalResponse pRsp : response) {
 
-				Path path = new Path(points, pathOwnerId);
-				log.debug("Retrieved path(" + i + ") from blockchain");
-				log.debug(path.toJSONString());
+			if (PATH_FORMAT.equals(PathCodec.FORMAT_BINARY)) {
+				byte[] payload = pRsp.getChaincodeActionResponsePayload();
+				int[] pos = { 0 };
+				String nextBookmark = PathCodec.readFramedString(payload, pos);
+				PathCodec.decodeFramed(payload, pos[0], paths);
+				return nextBookmark;
+			}
 
-				paths.add(path);
+			JsonParser parser = JsonStream.parser(pRsp.getChaincodeActionResponsePayload());
+			JsonStream.expect(parser, Event.START_OBJECT);
+
+			String nextBookmark = "";
+			int first = paths.size();
+			while (parser.next() == Event.KEY_NAME) {
+				String key = parser.getString();
+				if (key.equals("bookmark")) {
+					nextBookmark = JsonStream.readString(parser);
+				} else if (key.equals("paths")) {
+					JsonStream.expect(parser, Event.START_ARRAY);
+					Path.readJSONArray(parser, paths);
+				} else {
+					JsonStream.skipValue(parser, parser.next());
+				}
 			}
+			parser.close();
+			if (log.isDebugEnabled())
+				log.debug("Retrieved " + (paths.size() - first) + " paths in region from blockchain");
+
+			return nextBookmark;
 		}
-		return paths;
+		return "";
 	}
 
 /*
@@ -297,8 +404,6 @@ public abstract class RNode {
 			throws ProposalException, InvalidArgumentException, UnsupportedEncodingException,
 			InterruptedException, ExecutionException, TimeoutException {
 
-		// List of signed proposal responses from peers
-		Collection<ProposalResponse> successful = new LinkedList<>();
 		// get channel instance from client
 		Channel channel = client.getChannel(CHANNEL_NAME);
 		// create chaincode request
@@ -310,17 +415,81 @@ public abstract class RNode {
 		request.setFcn("setMyPath");
 		ArrayList<String> args = new ArrayList<String>();
 		args.add(robotId);
-		args.add(path.toJSONString());
-		request.setArgs(args);
+		if (PATH_FORMAT.equals(PathCodec.FORMAT_BINARY)) {
+			request.setArgs(args);
+			// byte arguments are appended after the string ones
+			request.setArgBytes(new byte[][] { path.toBytes() });
+		} else {
+			args.add(path.toJSONString());
+			request.setArgs(args);
+		}
 		//request.setProposalWaitTime(1000);
 
+		sendTransaction(channel, request);
+	}
+
+	/**
+	 * Place an obstacle at run time, announced to all robots through the
+	 * obstacle-changed event
+	 */
+	protected static void invk_addObstacle(HFClient client, Obstacle obstacle)
+			throws ProposalException, InvalidArgumentException,
+			InterruptedException, ExecutionException, TimeoutException {
+		invokeObstacle(client, "addObstacle", obstacle.toJSONString());
+	}
+
+	protected static void invk_removeObstacle(HFClient client, String obstacleId)
+			throws ProposalException, InvalidArgumentException,
+			InterruptedException, ExecutionException, TimeoutException {
+		invokeObstacle(client, "removeObstacle", obstacleId);
+	}
+
+	protected static void invk_moveObstacle(HFClient client, String obstacleId, double x, double y)
+			throws ProposalException, InvalidArgumentException,
+			InterruptedException, ExecutionException, TimeoutException {
+		invokeObstacle(client, "moveObstacle", obstacleId, Double.toString(x), Double.toString(y));
+	}
+
+	private static void invokeObstacle(HFClient client, String fcn, String... params)
+			throws ProposalException, InvalidArgumentException,
+			InterruptedException, ExecutionException, TimeoutException {
+
+		Channel channel = client.getChannel(CHANNEL_NAME);
+		TransactionProposalRequest request = client.newTransactionProposalRequest();
+		ChaincodeID multiRobotCCId = ChaincodeID.newBuilder().setName(CHAINCODE_NAME).build();
+		request.setChaincodeID(multiRobotCCId);
+		request.setFcn(fcn);
+		request.setArgs(params);
+
+		sendTransaction(channel, request);
+	}
+
+	/**
+	 * Collect the endorsements of a proposal and send the transaction to
+	 * the orderer
+	 */
+	private static void sendTransaction(Channel channel, TransactionProposalRequest request)
+			throws ProposalException, InvalidArgumentException,
+			InterruptedException, ExecutionException, TimeoutException {
+
+		// List of signed proposal responses from peers
+		Collection<ProposalResponse> successful = new LinkedList<>();
+
 		// send transaction proposal
-		Collection<ProposalResponse> transactionPropResp = channel.sendTransactionProposal(request, channel.getPeers());
-		for (ProposalResponse response : transactionPropResp) {
-			if (response.getStatus() == ProposalResponse.Status.SUCCESS) {
-				log.info(format("Successful transaction proposal response Txid: %s from peer %s", response.getTransactionID(), response.getPeer().getName()));
-				successful.add(response);
+		long start = System.nanoTime();
+		Collection<ProposalResponse> transactionPropResp;
+		Trace.begin(TraceEvent.ENDORSEMENT);
+		try {
+			transactionPropResp = channel.sendTransactionProposal(request, channel.getPeers());
+			ENDORSEMENT_TIMER.recordSince(start);
+			for (ProposalResponse response : transactionPropResp) {
+				if (response.getStatus() == ProposalResponse.Status.SUCCESS) {
+					log.info(format("Successful transaction proposal response Txid: %s from peer %s", response.getTransactionID(), response.getPeer().getName()));
+					successful.add(response);
+				}
 			}
+		} finally {
+			Trace.end(TraceEvent.ENDORSEMENT, successful.size(), 0);
 		}
 
 		// Check that all the proposals are consistent with each other. We should have only one set
@@ -332,7 +501,28 @@ public abstract class RNode {
 		}
 
 		// Send Transaction to orderer
-		channel.sendTransaction(successful);
+		start = System.nanoTime();
+		Trace.begin(TraceEvent.ORDERING);
+		try {
+			channel.sendTransaction(successful);
+			ORDERING_TIMER.recordSince(start);
+		} finally {
+			Trace.end(TraceEvent.ORDERING);
+		}
+	}
+
+	// query the peers, the trace span is closed even if the query fails
+	private static Collection<ProposalResponse> queryPeers(Channel channel, QueryByChaincodeRequest query)
+			throws InvalidArgumentException, ProposalException {
+
+		Collection<ProposalResponse> response = null;
+		Trace.begin(TraceEvent.QUERY);
+		try {
+			response = channel.queryByChaincode(query, channel.getPeers());
+			return response;
+		} finally {
+			Trace.end(TraceEvent.QUERY, response != null ? response.size() : 0, 0);
+		}
 	}
 
 	// user serialization and deserialization utility functions
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.dcu.prm.Path;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+
+/**
+ * Streams the result of a region path query, fetching the next page
+ * from the ledger only when the current one is used up. A path crossing
+ * several grid cells can be returned by more than one page, duplicates
+ * are dropped here.
+ */
+class RegionPathIterator implements Iterator<Path> {
+
+	private final HFClient client;
+	private final String robotId;
+	private final String regionJSON;
+	private final int pageSize;
+
+	private ArrayList<Path> page = new ArrayList<Path>();
+	private int next = 0;
+	private String bookmark = "";
+	private boolean lastPage = false;
+	private Set<String> seen = new HashSet<String>();
+
+	RegionPathIterator(HFClient client, String robotId, String regionJSON, int pageSize) {
+		this.client = client;
+		this.robotId = robotId;
+		this.regionJSON = regionJSON;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		while (true) {
+			// skip paths that were already returned by an earlier page
+			while (next < page.size()) {
+				if (seen.add(page.get(next).id))
+					return true;
+				next++;
+			}
+
+			if (lastPage)
+				return false;
+
+			fetchPage();
+		}
+	}
+
+	@Override
+	public Path next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return page.get(next++);
+	}
+
+	private void fetchPage() {
+
+		page.clear();
+		next = 0;
+
+		try {
+			bookmark = RNode.qry_getPathsInRegionPage(client, robotId, regionJSON,
+					pageSize, bookmark, page);
+		} catch (InvalidArgumentException | ProposalException e) {
+			throw new IllegalStateException("Failed to query paths in region", e);
+		}
+
+		lastPage = bookmark.isEmpty();
+	}
+}
@@ -8,17 +8,40 @@
 package org.dcu;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
 
-import org.apache.log4j.Level;
+import javax.json.JsonException;
+
 import org.apache.log4j.Logger;
+import org.dcu.metrics.Metrics;
+import org.dcu.metrics.Timer;
+import org.dcu.prm.HierarchicalPlanner;
+import org.dcu.prm.Obstacle;
+import org.dcu.prm.ObstacleChange;
 import org.dcu.prm.PRMPlanner;
 import org.dcu.prm.Path;
+import org.dcu.prm.PathSmoother;
+import org.dcu.prm.Region;
+import org.dcu.prm.RoadMapSearch;
+import org.dcu.prm.Samplers;
+import org.dcu.prm.SearchMode;
 import org.dcu.prm.Workspace;
+import org.dcu.prm.Zone;
+import org.dcu.prm.ZoneMap;
+import org.dcu.trace.Trace;
+import org.dcu.trace.TraceEvent;
 import org.hyperledger.fabric.sdk.BlockEvent;
 import org.hyperledger.fabric.sdk.ChaincodeEvent;
 import org.hyperledger.fabric.sdk.ChaincodeEventListener;
@@ -34,27 +57,61 @@ public class Robot extends RNode implements Runnable {
 	private Channel channel;
 	private final Logger log;
 	private Thread thread;
-	private long startTime;
+	// start of the current plan, and submission of the planned path
+	private long planStart;
+	private volatile long submitTime;
+
+	private static final Timer PLAN_TIMER = Metrics.timer("robot.plan");
 
 	// up-to-date workspace
 	private Workspace workspace;
 	// my planned path
 	private Path myPath = null;
 	private String myName;
+	// roadmap kept between plans so that re-plans only invalidate edges
+	private PRMPlanner planner;
+	// per region roadmaps instead, if the workspace is sharded or large
+	private HierarchicalPlanner regionPlanner;
+	// zones whose paths have been queried, if the ledger is sharded
+	private final Set<String> queriedZones = new HashSet<String>();
+	// serializes planning with the handling of peer commits
+	private final Object planLock = new Object();
+	// handles peer commits off the event listener thread
+	private final ExecutorService replanner;
+	private String listenerHandle, obstacleListenerHandle;
+	private int replans = 0;
 
 	public final Object finished = new Object();
+	// released once my path is committed, unlike finished it cannot miss the notification
+	public final CountDownLatch committed = new CountDownLatch(1);
 
 	public int maxAttempts = 10;
 	public int numNodes = 1000;
 	public int numEdges = 40;
 	public double stepSize = 0.1;
+	// if > 0, only peer paths within this distance of the start-goal line are considered
+	public double corridorWidth = 0;
+	// give up re-planning after this many conflicts
+	public int maxReplans = 20;
+	// road map search, ANYTIME improves its first path for up to improveMillis
+	public SearchMode searchMode = SearchMode.ASTAR;
+	public long improveMillis = 50;
+	// shortcut the roadmap path before committing it
+	public boolean smoothPath = true;
+	// if > 0, bias roadmap sampling to narrow passages of about this width
+	public double passageWidth = 0;
+	// if > 0, guide roadmap searches by distances to this many landmark nodes
+	public int landmarks = 0;
+	// if > 0 and the workspace has no zones, plan over square regions of this size
+	public double regionSize = 0;
+	// candidate portals per border between two such regions
+	public int portalsPerBorder = 3;
 
 	public Robot(String name) throws Exception {
 		super();
 		// save robot name
 		myName = name;
 		log = Logger.getLogger(myName);
-		Logger.getRootLogger().setLevel(Level.INFO);
 
 		// create fabric-ca client
 		HFCAClient caClient = getHfCaClient(CA_ORG_URL, null);
@@ -73,7 +130,17 @@ public class Robot extends RNode implements Runnable {
 
 		// get HFC channel using the client
 		channel = getChannel(client);
-		log.debug("Joined channel[" + channel.getName() + "]");
+		if (log.isDebugEnabled())
+			log.debug("Joined channel[" + channel.getName() + "]");
+
+		replanner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, myName + "-replanner");
+				t.setDaemon(true);
+				return t;
+			}
+		});
 
 		ChaincodeEventListener pathCommittedEventListener = new ChaincodeEventListener() {
 
@@ -83,20 +150,26 @@ public class Robot extends RNode implements Runnable {
 				if (chaincodeEvent.getEventName().equals(PATH_COMMITTED_EVENT)) {
 
 					try {
-						Path committedPath = new Path(new String(chaincodeEvent.getPayload(), "UTF-8"));
+						Path committedPath = Path.parse(chaincodeEvent.getPayload());
 						log.info("Robot[" + committedPath.id + "] committed Block# " + blockEvent.getBlockNumber() + " | TxID: " + chaincodeEvent.getTxId());
 
 						if (committedPath.id.equals(myName)) {
 
-							log.info("Blockchain Commit Latency = " +
-									new Long((System.nanoTime() - startTime)/1000000) + " ms");
+							long latency = System.nanoTime() - submitTime;
+							COMMIT_TIMER.record(latency);
+							Trace.mark(TraceEvent.COMMITTED, latency, 0);
+							log.info("Blockchain Commit Latency = " + latency/1000000 + " ms");
 							// this is my path
 							synchronized (finished) {
 								// path is committed - done
 								finished.notify();
 							}
+							committed.countDown();
+						} else {
+							// check against my path on the replanner thread
+							onPeerPathCommitted(committedPath);
 						}
-					} catch (UnsupportedEncodingException e) {
+					} catch (IllegalArgumentException | JsonException e) {
 						e.printStackTrace();
 					}
 				}
@@ -104,9 +177,28 @@ public class Robot extends RNode implements Runnable {
 		};
 
 		// register event listener/handler for path-committed event
-		channel.registerChaincodeEventListener(Pattern.compile(CHAINCODE_NAME),
+		listenerHandle = channel.registerChaincodeEventListener(Pattern.compile(CHAINCODE_NAME),
 				Pattern.compile(PATH_COMMITTED_EVENT), pathCommittedEventListener);
 
+		ChaincodeEventListener obstacleChangedEventListener = new ChaincodeEventListener() {
+
+			@Override
+			public void received(String handle, BlockEvent blockEvent, ChaincodeEvent chaincodeEvent) {
+
+				try {
+					ObstacleChange change = ObstacleChange.parse(chaincodeEvent.getPayload());
+					log.info(change + " Block# " + blockEvent.getBlockNumber());
+					onObstacleChanged(change);
+				} catch (IllegalArgumentException | JsonException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+
+		// and for obstacle-changed
+		obstacleListenerHandle = channel.registerChaincodeEventListener(Pattern.compile(CHAINCODE_NAME),
+				Pattern.compile(OBSTACLE_CHANGED_EVENT), obstacleChangedEventListener);
+
 		this.thread = new Thread(this);
 	}
 
@@ -114,6 +206,123 @@ public class Robot extends RNode implements Runnable {
 		this.thread.start();
 	}
 
+	/**
+	 * Stop reacting to peer commits
+	 */
+	public void shutdown() {
+		try {
+			channel.unregisterChaincodeEventListener(listenerHandle);
+			channel.unregisterChaincodeEventListener(obstacleListenerHandle);
+		} catch (InvalidArgumentException e) {
+			e.printStackTrace();
+		}
+		replanner.shutdownNow();
+	}
+
+	/**
+	 * Deterministic tie-break between two robots with conflicting paths:
+	 * the robot with the greater name gives way and re-plans. Priorities
+	 * are a total order, so the highest priority robot never re-plans and
+	 * conflicts cannot bounce back and forth.
+	 *
+	 * @param peer name of the other robot
+	 * @return true if this robot has to re-plan
+	 */
+	private boolean yieldsTo(String peer) {
+		return myName.compareTo(peer) > 0;
+	}
+
+	private void onPeerPathCommitted(final Path peerPath) {
+
+		replanner.execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (planLock) {
+					// not planned yet, the initial query will see this path
+					if (workspace == null)
+						return;
+
+					// keep the workspace and the roadmap in line with the ledger
+					workspace.addPath(peerPath);
+					if (planner != null || regionPlanner != null) {
+						int removed = regionPlanner != null ? regionPlanner.invalidateEdges(peerPath)
+								: planner.invalidateEdges(peerPath);
+						if (log.isDebugEnabled())
+							log.debug("Invalidated " + removed + " roadmap edges crossing Robot[" + peerPath.id + "]");
+					}
+
+					if (myPath == null || !myPath.collidesWith(peerPath))
+						return;
+
+					if (!yieldsTo(peerPath.id)) {
+						log.info("Conflict with Robot[" + peerPath.id + "], keeping my path");
+						return;
+					}
+
+					if (replans >= maxReplans) {
+						log.info("Conflict with Robot[" + peerPath.id + "], giving up after " + replans + " re-plans");
+						return;
+					}
+
+					replans++;
+					log.info("Conflict with Robot[" + peerPath.id + "], re-planning (" + replans + ")");
+					Trace.mark(TraceEvent.REPLAN, replans, 0);
+					planStart = System.nanoTime();
+
+					try {
+						findPath(workspace);
+					} catch (ProposalException | InvalidArgumentException | IOException | InterruptedException
+							| ExecutionException | TimeoutException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+	}
+
+	private void onObstacleChanged(final ObstacleChange change) {
+
+		replanner.execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (planLock) {
+					// not planned yet, the workspace query will include the change
+					if (workspace == null || !workspace.apply(change))
+						return;
+
+					// only the roadmap around the obstacle is touched
+					if (planner != null || regionPlanner != null) {
+						int changed = regionPlanner != null ? regionPlanner.update(workspace, change)
+								: planner.update(workspace, change);
+						if (log.isDebugEnabled())
+							log.debug("Updated " + changed + " roadmap edges around " + change.obstacle);
+					}
+
+					Obstacle blocked = change.blocked();
+					if (myPath == null || blocked == null || !blocked.intersects(myPath, Workspace.CLEARANCE))
+						return;
+
+					if (replans >= maxReplans) {
+						log.info(change.obstacle + " blocks my path, giving up after " + replans + " re-plans");
+						return;
+					}
+
+					replans++;
+					log.info(change.obstacle + " blocks my path, re-planning (" + replans + ")");
+					Trace.mark(TraceEvent.REPLAN, replans, 0);
+					planStart = System.nanoTime();
+
+					try {
+						findPath(workspace);
+					} catch (ProposalException | InvalidArgumentException | IOException | InterruptedException
+							| ExecutionException | TimeoutException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+	}
+
 	private void updateWorkspace(ArrayList<Path> paths)
 			throws InvalidArgumentException, ProposalException {
 		// workspace is static, delete only stored paths
@@ -125,34 +334,154 @@ public class Robot extends RNode implements Runnable {
 		}
 	}
 
+	// get all paths of other robots, or only the ones of the zones on my
+	// route, or near my corridor
+	private ArrayList<Path> getPeerPaths()
+			throws InvalidArgumentException, ProposalException {
+
+		if (regionPlanner != null && workspace.zones != null)
+			return getZonePaths(regionPlanner.route(workspace));
+
+		if (corridorWidth <= 0)
+			return qry_getAllPaths(client, myName);
+
+		ArrayList<Path> paths = new ArrayList<Path>();
+		Region corridor = Region.corridor(workspace.xStart, workspace.yStart,
+				workspace.xGoal, workspace.yGoal, corridorWidth);
+
+		Iterator<Path> i = qry_getPathsInRegion(client, myName, corridor);
+		while (i.hasNext()) {
+			paths.add(i.next());
+		}
+		return paths;
+	}
+
+	// paths of other robots through the zones not queried yet
+	private ArrayList<Path> getZonePaths(List<Zone> zones)
+			throws InvalidArgumentException, ProposalException {
+
+		ArrayList<Path> paths = new ArrayList<Path>();
+		for (Zone zone : zones) {
+			if (queriedZones.add(zone.id))
+				paths.addAll(qry_getZonePaths(client, myName, zone.id));
+		}
+		return paths;
+	}
+
+	// plan leg by leg through the regions; on a sharded ledger until the
+	// path only crosses zones whose paths are known
+	private Path searchRegionPath(Workspace workspace)
+			throws InvalidArgumentException, ProposalException {
+
+		for (;;) {
+			Path path = regionPlanner.findPath(workspace, maxAttempts);
+			if (path == null) {
+				log.info("No path through the regions, " + regionPlanner.getFailedLegCount() + " legs failed so far");
+				return null;
+			}
+			if (workspace.zones == null)
+				return path;
+
+			ArrayList<Path> unseen = getZonePaths(workspace.zones.zonesOf(path));
+			if (unseen.isEmpty())
+				return path;
+
+			// the route detoured into new zones, plan again knowing their paths
+			for (int i = 0; i < unseen.size(); i++) {
+				workspace.addPath(unseen.get(i));
+				regionPlanner.invalidateEdges(unseen.get(i));
+			}
+		}
+	}
+
+	// query the roadmap, refining an anytime path while the time budget lasts
+	private Path searchPath(Workspace workspace)
+			throws InvalidArgumentException, ProposalException {
+
+		if (regionPlanner != null)
+			return searchRegionPath(workspace);
+
+		RoadMapSearch search = planner.newSearch(workspace, maxAttempts);
+		Path path = search.find(searchMode);
+		if (path == null) {
+			log.info("No path on the roadmap: " + search.getStatus());
+			return null;
+		}
+		long deadline = System.nanoTime() + improveMillis * 1000000;
+
+		while (!search.isOptimal() && System.nanoTime() < deadline) {
+			Path better = search.improve();
+			if (better != null)
+				path = better;
+		}
+		if (searchMode == SearchMode.ANYTIME && log.isDebugEnabled())
+			log.debug("Anytime path within " + search.getSuboptimality() + " of the shortest");
+		return path;
+	}
+
 	// return false if failed finding a path
 	private boolean findPath(Workspace workspace)
 			throws ProposalException, InvalidArgumentException, IOException, InterruptedException,
 			ExecutionException, TimeoutException {
-		// allocate new path planner
-		PRMPlanner planner = new PRMPlanner();
-		// build the road map for planning
-		planner.buildRoadMap(workspace,	numNodes, numEdges, stepSize);
-		// find a path
-		Path path = planner.findPath(workspace, maxAttempts);
-
-		if (path != null) {
-			// save planned path
-			myPath = path;
-			log.info("Found a path with " + myPath.points.size() + " nodes");
-			log.debug("New Path: " + myPath.toJSONString());
-
-			log.info("Path Planning Time = " +
-					new Long((System.nanoTime() - startTime)/1000000) + " ms");
-
-			// reset counter for blockchain latency measurement
-			startTime = System.nanoTime();
-			// invoke chaincode
-			invk_setMyPath(client, myName, myPath);
-			return true;
-		} else {
-			log.info("DID NOT FIND A PATH!!");
-			return false;
+		Trace.begin(TraceEvent.PLAN, replans, 0);
+		Path path = null;
+		try {
+			if (regionPlanner == null && planner == null) {
+				// allocate new path planner
+				planner = new PRMPlanner();
+				if (passageWidth > 0)
+					planner.setSampler(Samplers.narrowPassage(new Random(), passageWidth));
+				planner.setLandmarks(landmarks);
+				// build the road map for planning
+				planner.buildRoadMap(workspace,	numNodes, numEdges, stepSize);
+				if (log.isDebugEnabled())
+					log.debug("Road map: " + planner.getSamplingStats());
+			}
+			// find a path
+			path = searchPath(workspace);
+
+			if (path == null && replans > 0) {
+				// invalidated edges may have cut the roadmap apart, start over
+				log.info("Re-plan failed on the existing roadmap, rebuilding it");
+				if (regionPlanner != null)
+					regionPlanner.reset();
+				else
+					planner.buildRoadMap(workspace,	numNodes, numEdges, stepSize);
+				path = searchPath(workspace);
+			}
+
+			if (path != null && smoothPath) {
+				int raw = path.points.size();
+				PRMPlanner checker = regionPlanner != null
+						? regionPlanner.getPlanner(workspace, regionPlanner.getZones().zonesOf(path).get(0)) : planner;
+				path = new PathSmoother(checker, workspace).smooth(path);
+				if (log.isDebugEnabled())
+					log.debug("Smoothed path from " + raw + " to " + path.points.size() + " waypoints");
+			}
+
+			if (path != null) {
+				// save planned path
+				myPath = path;
+				log.info("Found a path with " + myPath.points.size() + " nodes");
+				if (log.isDebugEnabled())
+					log.debug("New Path: " + myPath.toJSONString());
+
+				long planning = System.nanoTime() - planStart;
+				PLAN_TIMER.record(planning);
+				log.info("Path Planning Time = " + planning/1000000 + " ms");
+
+				// start of the blockchain latency measurement
+				submitTime = System.nanoTime();
+				// invoke chaincode
+				invk_setMyPath(client, myName, myPath);
+				return true;
+			} else {
+				log.info("DID NOT FIND A PATH!!");
+				return false;
+			}
+		} finally {
+			// closed even if the submission fails
+			Trace.end(TraceEvent.PLAN, path != null ? 1 : 0, path != null ? path.points.size() : 0);
 		}
 	}
 
@@ -160,17 +489,28 @@ public class Robot extends RNode implements Runnable {
 	public void run(){
 
 		// start counter for path planning execution time
-		startTime = System.nanoTime();
+		planStart = System.nanoTime();
 
 		try {
-			// retrieve workspace from blockchain
-			workspace = qry_getWorkspace(client);
-			// get all pre-planned paths by other robots
-			ArrayList<Path> peerPaths = qry_getAllPaths(client, myName);
-			// update workspace with all planned paths on blockchain
-			updateWorkspace(peerPaths);
-			// perform path planning
-			findPath(workspace);
+			synchronized (planLock) {
+				// retrieve workspace from blockchain
+				workspace = qry_getWorkspace(client);
+				ZoneMap regions = workspace.zones != null ? workspace.zones
+						: regionSize > 0 ? ZoneMap.grid(workspace, regionSize, portalsPerBorder) : null;
+				if (regions != null && regions.size() > 1) {
+					// region roadmaps are built as my route enters them
+					regionPlanner = new HierarchicalPlanner(regions, numNodes, numEdges, stepSize);
+					if (passageWidth > 0)
+						regionPlanner.setSampler(Samplers.narrowPassage(new Random(), passageWidth));
+					regionPlanner.setLandmarks(landmarks);
+				}
+				// get pre-planned paths by other robots
+				ArrayList<Path> peerPaths = getPeerPaths();
+				// update workspace with all planned paths on blockchain
+				updateWorkspace(peerPaths);
+				// perform path planning
+				findPath(workspace);
+			}
 
 		} catch (InvalidArgumentException | ProposalException | IOException | InterruptedException | ExecutionException
 				| TimeoutException e1) {
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic event count. Increments from many threads do not contend,
+ * so hot loops may count directly, although adding a local count once
+ * per phase is cheaper still.
+ */
+public class Counter implements CounterMXBean {
+
+	private final String name;
+	private final LongAdder count = new LongAdder();
+
+	Counter(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void inc() {
+		count.increment();
+	}
+
+	public void add(long n) {
+		count.add(n);
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public void reset() {
+		count.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-28s count=%d", name, getCount());
+	}
+}
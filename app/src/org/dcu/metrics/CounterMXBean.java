@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.metrics;
+
+/**
+ * JMX view of a Counter
+ */
+public interface CounterMXBean {
+
+	long getCount();
+
+	void reset();
+}
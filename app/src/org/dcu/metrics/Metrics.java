@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Process wide registry of named timers and counters.
+ *
+ * Metrics are created on first use and live for the whole process, so
+ * classes keep them in static fields and record without any lookup.
+ * Once exportMBeans is called every metric, existing or created later,
+ * is published over JMX as org.dcu:type=Timer|Counter,name=...; a
+ * reporter can also log all of them as text at a fixed period.
+ */
+public final class Metrics {
+
+	private static final Logger log = Logger.getLogger(Metrics.class);
+
+	public static final String DOMAIN = "org.dcu";
+
+	private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+	private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+	private static volatile boolean exported = false;
+	private static ScheduledExecutorService reporter;
+
+	private Metrics() {
+	}
+
+	/**
+	 * @return the timer with this name, created if needed
+	 */
+	public static Timer timer(String name) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			Timer created = new Timer(name);
+			timer = timers.putIfAbsent(name, created);
+			if (timer == null) {
+				timer = created;
+				if (exported)
+					export("Timer", name, timer);
+			}
+		}
+		return timer;
+	}
+
+	/**
+	 * @return the counter with this name, created if needed
+	 */
+	public static Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			Counter created = new Counter(name);
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+				if (exported)
+					export("Counter", name, counter);
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Publish all metrics on the platform MBean server
+	 */
+	public static synchronized void exportMBeans() {
+		if (exported)
+			return;
+		exported = true;
+		for (Timer timer : timers.values()) {
+			export("Timer", timer.getName(), timer);
+		}
+		for (Counter counter : counters.values()) {
+			export("Counter", counter.getName(), counter);
+		}
+	}
+
+	private static synchronized void export(String type, String name, Object mbean) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+			if (!server.isRegistered(objectName))
+				server.registerMBean(mbean, objectName);
+		} catch (JMException e) {
+			log.warn("Could not export " + type + " " + name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return one line per metric, sorted by name
+	 */
+	public static String dump() {
+		Map<String, Object> all = new TreeMap<String, Object>();
+		all.putAll(timers);
+		all.putAll(counters);
+
+		StringBuilder sb = new StringBuilder();
+		for (Object metric : all.values()) {
+			sb.append(metric).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Log the dump every period on a daemon thread, until stopReporter
+	 */
+	public static synchronized void startReporter(long period, TimeUnit unit) {
+		if (reporter != null)
+			return;
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics-reporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				log.info("Metrics\n" + dump());
+			}
+		}, period, period, unit);
+	}
+
+	public static synchronized void stopReporter() {
+		if (reporter == null)
+			return;
+		reporter.shutdownNow();
+		reporter = null;
+	}
+
+	/**
+	 * Zero all metrics, e.g. after a warm-up run
+	 */
+	public static void reset() {
+		for (Timer timer : timers.values()) {
+			timer.reset();
+		}
+		for (Counter counter : counters.values()) {
+			counter.reset();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency distribution of one phase, recorded in nanoseconds.
+ *
+ * Writers record into an HdrHistogram Recorder, which neither locks nor
+ * allocates, so timers can sit on the planner hot paths. Readers swap
+ * the recorder's interval histogram out, fold it into the running
+ * total and read it under the timer's lock, only they synchronize.
+ */
+public class Timer implements TimerMXBean {
+
+	private static final int SIGNIFICANT_DIGITS = 2;
+	private static final double MILLIS = 1e6;
+
+	private final String name;
+	private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+	private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+	private Histogram interval;
+
+	Timer(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void record(long nanos) {
+		recorder.recordValue(Math.max(0, nanos));
+	}
+
+	/**
+	 * Record the time elapsed since start, a System.nanoTime() value
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	// fold what was recorded since the last read into the total, callers
+	// hold the lock for as long as they read the returned histogram
+	private synchronized Histogram harvest() {
+		interval = recorder.getIntervalHistogram(interval);
+		total.add(interval);
+		return total;
+	}
+
+	@Override
+	public synchronized long getCount() {
+		return harvest().getTotalCount();
+	}
+
+	@Override
+	public synchronized double getMeanMillis() {
+		return harvest().getMean() / MILLIS;
+	}
+
+	@Override
+	public double getP50Millis() {
+		return percentile(50);
+	}
+
+	@Override
+	public double getP90Millis() {
+		return percentile(90);
+	}
+
+	@Override
+	public double getP99Millis() {
+		return percentile(99);
+	}
+
+	@Override
+	public synchronized double getMaxMillis() {
+		return harvest().getMaxValue() / MILLIS;
+	}
+
+	public synchronized double percentile(double p) {
+		return harvest().getValueAtPercentile(p) / MILLIS;
+	}
+
+	@Override
+	public synchronized void reset() {
+		recorder.reset();
+		total.reset();
+	}
+
+	@Override
+	public synchronized String toString() {
+		Histogram h = harvest();
+		return String.format("%-28s count=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f ms",
+				name, h.getTotalCount(), h.getMean() / MILLIS,
+				h.getValueAtPercentile(50) / MILLIS, h.getValueAtPercentile(90) / MILLIS,
+				h.getValueAtPercentile(99) / MILLIS, h.getMaxValue() / MILLIS);
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.metrics;
+
+/**
+ * JMX view of a Timer, all times in milliseconds since the last reset
+ */
+public interface TimerMXBean {
+
+	long getCount();
+
+	double getMeanMillis();
+
+	double getP50Millis();
+
+	double getP90Millis();
+
+	double getP99Millis();
+
+	double getMaxMillis();
+
+	void reset();
+}
@@ -0,0 +1,567 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Conflict-Based Search over a PRM road map. The high level searches a
+ * tree of constraint sets: each tree node holds one space-time path per
+ * robot, planned with SpaceTimePlanner under the constraints of that
+ * node. The cheapest node with colliding paths is split on one of its
+ * conflicts into children that each forbid one of the robots from doing
+ * what it did at the conflict, until a node without conflicts is found.
+ * The result minimizes the sum of the arrival steps of all robots.
+ *
+ * On top of plain CBS this implements
+ * - conflict prioritization: cardinal conflicts (both children cost
+ *   more) are split first, then semi-cardinal ones,
+ * - bypass: a child with the same cost and fewer conflicts replaces the
+ *   paths of its parent instead of being added to the tree,
+ * - disjoint splitting for robots meeting on the same road map node: one
+ *   child forces a robot to be there, which forbids it for all others.
+ *
+ * Up to the given number of tree nodes with the lowest cost are expanded
+ * in parallel.
+ *
+ * Conflicts are checked at every time step, so the time step of the
+ * reservation table should be short enough for a robot to move less than
+ * its diameter in one step.
+ */
+public class CBSPlanner {
+
+	/** A constraint on one robot, kept in a list shared by the tree nodes */
+	private static final class Constraint {
+		/** robot must not be at node a at step t */
+		static final int VERTEX = 0;
+		/** robot must not move from node a to node b departing at step t */
+		static final int EDGE = 1;
+		/** robot must be at node a at step t */
+		static final int POSITIVE = 2;
+
+		final int agent;
+		final int kind;
+		final int a, b, t;
+		final Constraint next;
+
+		Constraint(int agent, int kind, int a, int b, int t, Constraint next) {
+			this.agent = agent;
+			this.kind = kind;
+			this.a = a;
+			this.b = b;
+			this.t = t;
+			this.next = next;
+		}
+
+		Constraint link(Constraint next) {
+			return new Constraint(agent, kind, a, b, t, next);
+		}
+	}
+
+	/** Constraints of one robot in the form the low level search asks for */
+	private static final class AgentConstraints implements SpaceTimePlanner.Constraints {
+		private final LongIntMap vertex = new LongIntMap(16);
+		private final LongIntMap edge = new LongIntMap(16);
+		private final TreeMap<Integer, Integer> positive = new TreeMap<Integer, Integer>();
+		private int minEnd;
+
+		AgentConstraints(Constraint head, int agent, int goal) {
+			for (Constraint c = head; c != null; c = c.next) {
+				if (c.agent != agent)
+					continue;
+
+				switch (c.kind) {
+				case Constraint.VERTEX:
+					vertex.put(vertexKey(c.a, c.t), 1);
+					// being at the goal at t rules out having stopped there before
+					if (c.a == goal)
+						minEnd = Math.max(minEnd, c.t + 1);
+					break;
+				case Constraint.EDGE:
+					edge.put(edgeKey(c.a, c.b, c.t), 1);
+					break;
+				default:
+					positive.put(c.t, c.a);
+					minEnd = Math.max(minEnd, c.t);
+				}
+			}
+		}
+
+		@Override
+		public boolean allows(int a, int b, int t0, int t1) {
+
+			if (vertex.containsKey(vertexKey(b, t1)) || edge.containsKey(edgeKey(a, b, t0)))
+				return false;
+			if (positive.isEmpty())
+				return true;
+
+			// a move may not skip a step the robot has to be somewhere
+			Map.Entry<Integer, Integer> p = positive.higherEntry(t0);
+			if (p == null || p.getKey() > t1)
+				return true;
+			return p.getKey() == t1 && p.getValue() == b;
+		}
+
+		@Override
+		public int minEndStep() {
+			return minEnd;
+		}
+
+		private static long vertexKey(int node, int t) {
+			return ((long) node << 24) | t;
+		}
+
+		private static long edgeKey(int a, int b, int t) {
+			return ((long) a << 44) | ((long) b << 24) | t;
+		}
+	}
+
+	/** A planned path with its position sampled at every step */
+	private static final class Route {
+		final SpaceTimePlanner.Plan plan;
+		final double[] px, py;
+
+		Route(SpaceTimePlanner.Query q, SpaceTimePlanner.Plan plan) {
+			this.plan = plan;
+			int[] nodes = plan.nodes, steps = plan.steps;
+
+			px = new double[plan.getEndStep() + 1];
+			py = new double[px.length];
+			px[0] = q.xs[nodes[0]];
+			py[0] = q.ys[nodes[0]];
+
+			for (int k = 1; k < nodes.length; k++) {
+				double x0 = q.xs[nodes[k-1]], y0 = q.ys[nodes[k-1]];
+				double x1 = q.xs[nodes[k]], y1 = q.ys[nodes[k]];
+				int d = steps[k] - steps[k-1];
+				for (int i = 1; i <= d; i++) {
+					double f = (double) i / d;
+					px[steps[k-1] + i] = x0 + f * (x1 - x0);
+					py[steps[k-1] + i] = y0 + f * (y1 - y0);
+				}
+			}
+		}
+
+		int cost() {
+			return plan.getEndStep();
+		}
+
+		/**
+		 * @return node the robot is at on step t, or -1 if it is on an edge
+		 */
+		int nodeAt(int t) {
+			if (t >= cost())
+				return plan.nodes[plan.nodes.length-1];
+			int i = Arrays.binarySearch(plan.steps, t);
+			return i >= 0 ? plan.nodes[i] : -1;
+		}
+
+		/**
+		 * @return constraint that keeps the robot off what it does at step t
+		 */
+		Constraint keepOff(int agent, int t) {
+			int node = nodeAt(t);
+			if (node >= 0)
+				return new Constraint(agent, Constraint.VERTEX, node, -1, t, null);
+
+			int i = -Arrays.binarySearch(plan.steps, t) - 1;
+			return new Constraint(agent, Constraint.EDGE, plan.nodes[i-1], plan.nodes[i], plan.steps[i-1], null);
+		}
+	}
+
+	/** First conflict between two robots */
+	private static final class Conflict {
+		final int a, b, t;
+		final Constraint onA, onB;
+
+		// filled in by classification: 2 cardinal, 1 semi-cardinal, 0 none
+		boolean classified;
+		int cardinality;
+		Route routeA, routeB;
+
+		Conflict(int a, int b, int t, Constraint onA, Constraint onB) {
+			this.a = a;
+			this.b = b;
+			this.t = t;
+			this.onA = onA;
+			this.onB = onB;
+		}
+	}
+
+	/** High level tree node */
+	private static final class Node {
+		final Constraint constraints;
+		final Route[] routes;
+		int cost;
+		List<Conflict> conflicts;
+
+		Node(Constraint constraints, Route[] routes) {
+			this.constraints = constraints;
+			this.routes = routes;
+		}
+	}
+
+	private static final Comparator<Node> BEST_FIRST = new Comparator<Node>() {
+		@Override
+		public int compare(Node n1, Node n2) {
+			// cheapest first, then the one closest to a solution
+			if (n1.cost != n2.cost)
+				return n1.cost < n2.cost ? -1 : 1;
+			return n1.conflicts.size() - n2.conflicts.size();
+		}
+	};
+
+	private final PRMPlanner roadmap;
+	private final SpaceTimePlanner planner;
+	private final double minSeparation;
+	private final int parallelism;
+	private final ExecutorService executor;
+
+	/** Give up after expanding this many tree nodes */
+	public int maxNodes = 10000;
+
+	/** Number of conflicts of a node tried when looking for a cardinal one */
+	public int classifyLimit = 8;
+
+	public boolean bypass = true;
+	public boolean disjointSplitting = true;
+	public boolean prioritizeConflicts = true;
+
+	/** Statistics of the last solve */
+	public int expandedNodes, generatedNodes;
+
+	// per-solve state, read-only while nodes are expanded
+	private SpaceTimePlanner.Query[] queries;
+
+	/**
+	 * @param roadmap road map shared by all robots, built without their paths
+	 * @param table paths already committed by other robots, usually empty.
+	 * Its robot radius and time step are used for the planned robots too.
+	 * @param threads number of tree nodes expanded in parallel
+	 */
+	public CBSPlanner(PRMPlanner roadmap, ReservationTable table, int threads) {
+		this.roadmap = roadmap;
+		this.planner = new SpaceTimePlanner(roadmap, table);
+		this.minSeparation = 2 * table.getRobotRadius();
+		this.parallelism = Math.max(1, threads);
+		this.executor = parallelism == 1 ? null : Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "cbs-worker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public CBSPlanner(PRMPlanner roadmap, ReservationTable table) {
+		this(roadmap, table, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @return low level planner, to tune its speed and horizon
+	 */
+	public SpaceTimePlanner getSpaceTimePlanner() {
+		return planner;
+	}
+
+	public void shutdown() {
+		if (executor != null)
+			executor.shutdownNow();
+	}
+
+	/**
+	 * Plan conflict-free paths for all robots at once.
+	 *
+	 * @param workspace workspace the road map was built for
+	 * @param starts start position of each robot
+	 * @param goals goal position of each robot
+	 * @param ids robot ids
+	 * @return one timed path per robot, or null if no solution was found
+	 * within maxNodes expansions
+	 */
+	public List<TimedPath> solve(Workspace workspace, List<Position> starts,
+			List<Position> goals, List<String> ids) throws InterruptedException {
+
+		if (!roadmap.hasRoadMap())
+			throw new IllegalStateException("buildRoadMap must be called first");
+
+		final int m = ids.size();
+		queries = new SpaceTimePlanner.Query[m];
+		for (int i = 0; i < m; i++) {
+			queries[i] = planner.prepare(workspace, starts.get(i).getX(), starts.get(i).getY(),
+					goals.get(i).getX(), goals.get(i).getY());
+		}
+		expandedNodes = 0;
+		generatedNodes = 1;
+
+		// root: every robot on its own
+		List<Callable<Route>> tasks = new ArrayList<Callable<Route>>(m);
+		for (int i = 0; i < m; i++) {
+			final int agent = i;
+			tasks.add(new Callable<Route>() {
+				@Override
+				public Route call() {
+					return replan(agent, null);
+				}
+			});
+		}
+		Route[] routes = invokeAll(tasks).toArray(new Route[m]);
+		for (int i = 0; i < m; i++) {
+			if (routes[i] == null)
+				return null;
+			for (int j = i+1; j < m; j++) {
+				// nothing resolves robots that start on top of each other
+				if (collide(routes[i], routes[j], 0))
+					return null;
+			}
+		}
+
+		PriorityQueue<Node> open = new PriorityQueue<Node>(64, BEST_FIRST);
+		open.add(evaluate(new Node(null, routes)));
+
+		while (!open.isEmpty() && expandedNodes < maxNodes) {
+
+			// a node without conflicts is only the solution once it is the cheapest
+			final List<Node> batch = new ArrayList<Node>(parallelism);
+			while (batch.size() < parallelism && !open.isEmpty()) {
+				if (open.peek().conflicts.isEmpty()) {
+					if (batch.isEmpty())
+						return toPaths(open.peek(), ids);
+					break;
+				}
+				batch.add(open.poll());
+			}
+			expandedNodes += batch.size();
+
+			List<Callable<List<Node>>> expansions = new ArrayList<Callable<List<Node>>>(batch.size());
+			for (final Node node : batch) {
+				expansions.add(new Callable<List<Node>>() {
+					@Override
+					public List<Node> call() {
+						return expand(node);
+					}
+				});
+			}
+			for (List<Node> children : invokeAll(expansions)) {
+				open.addAll(children);
+				generatedNodes += children.size();
+			}
+		}
+		return null;
+	}
+
+	private List<Node> expand(Node node) {
+
+		Conflict c = choose(node);
+		List<Node> children = new ArrayList<Node>(2);
+
+		if (disjointSplitting && sameNode(c)) {
+			// split on the robot not already forced there
+			boolean onA = !isForced(node.constraints, c.onA);
+			int agent = onA ? c.a : c.b;
+			Constraint keepOff = onA ? c.onA : c.onB;
+
+			children.add(forcedChild(node, agent, keepOff));
+			children.add(constrainedChild(node, agent, keepOff, onA ? c.routeA : c.routeB, c.classified));
+		} else {
+			children.add(constrainedChild(node, c.a, c.onA, c.routeA, c.classified));
+			children.add(constrainedChild(node, c.b, c.onB, c.routeB, c.classified));
+		}
+		children.removeAll(Collections.singleton(null));
+
+		if (bypass) {
+			for (Node child : children) {
+				if (child.cost == node.cost && child.conflicts.size() < node.conflicts.size()) {
+					// the child's paths satisfy the parent's constraints as well
+					System.arraycopy(child.routes, 0, node.routes, 0, node.routes.length);
+					return Collections.singletonList(evaluate(node));
+				}
+			}
+		}
+		return children;
+	}
+
+	// pick a cardinal conflict if there is one, else a semi-cardinal one
+	private Conflict choose(Node node) {
+
+		if (!prioritizeConflicts)
+			return node.conflicts.get(0);
+
+		Conflict best = null;
+		for (int i = 0; i < node.conflicts.size() && i < classifyLimit; i++) {
+			Conflict c = node.conflicts.get(i);
+			classify(node, c);
+			if (best == null || c.cardinality > best.cardinality)
+				best = c;
+			if (best.cardinality == 2)
+				break;
+		}
+		return best;
+	}
+
+	// the re-planned paths are kept for the children
+	private void classify(Node node, Conflict c) {
+		c.routeA = replan(c.a, c.onA.link(node.constraints));
+		c.routeB = replan(c.b, c.onB.link(node.constraints));
+		c.cardinality = (costlier(c.routeA, node.routes[c.a]) ? 1 : 0)
+				+ (costlier(c.routeB, node.routes[c.b]) ? 1 : 0);
+		c.classified = true;
+	}
+
+	private static boolean costlier(Route route, Route current) {
+		return route == null || route.cost() > current.cost();
+	}
+
+	private Node constrainedChild(Node node, int agent, Constraint keepOff, Route route, boolean planned) {
+
+		Constraint constraints = keepOff.link(node.constraints);
+		if (!planned)
+			route = replan(agent, constraints);
+		if (route == null)
+			return null;
+
+		Route[] routes = node.routes.clone();
+		routes[agent] = route;
+		return evaluate(new Node(constraints, routes));
+	}
+
+	// agent must be where it was, everybody else must stay away from there
+	private Node forcedChild(Node node, int agent, Constraint keepOff) {
+
+		int v = keepOff.a, t = keepOff.t;
+		Constraint constraints = new Constraint(agent, Constraint.POSITIVE, v, -1, t, node.constraints);
+		for (int i = 0; i < node.routes.length; i++) {
+			if (i != agent)
+				constraints = new Constraint(i, Constraint.VERTEX, v, -1, t, constraints);
+		}
+
+		Route[] routes = node.routes.clone();
+		for (int i = 0; i < routes.length; i++) {
+			if (i != agent && routes[i].nodeAt(t) == v) {
+				routes[i] = replan(i, constraints);
+				if (routes[i] == null)
+					return null;
+			}
+		}
+		return evaluate(new Node(constraints, routes));
+	}
+
+	// both robots on the same road map node, start and goal ids are per robot
+	private boolean sameNode(Conflict c) {
+		return c.onA.kind == Constraint.VERTEX && c.onB.kind == Constraint.VERTEX
+				&& c.onA.a == c.onB.a && c.onA.a < roadmap.m_Nodes.size();
+	}
+
+	private static boolean isForced(Constraint head, Constraint keepOff) {
+		for (Constraint c = head; c != null; c = c.next) {
+			if (c.kind == Constraint.POSITIVE && c.agent == keepOff.agent
+					&& c.a == keepOff.a && c.t == keepOff.t)
+				return true;
+		}
+		return false;
+	}
+
+	private Route replan(int agent, Constraint constraints) {
+		SpaceTimePlanner.Query q = queries[agent];
+		AgentConstraints ac = constraints == null ? null
+				: new AgentConstraints(constraints, agent, q.goal());
+		// robots planned here own nothing in the table
+		SpaceTimePlanner.Plan plan = planner.search(q, -1, ac);
+		return plan == null ? null : new Route(q, plan);
+	}
+
+	private Node evaluate(Node node) {
+
+		int cost = 0;
+		for (Route r : node.routes) {
+			cost += r.cost();
+		}
+		node.cost = cost;
+
+		// first conflict of each pair of robots, earliest first
+		List<Conflict> conflicts = new ArrayList<Conflict>();
+		for (int i = 0; i < node.routes.length; i++) {
+			for (int j = i+1; j < node.routes.length; j++) {
+				Route ri = node.routes[i], rj = node.routes[j];
+				int end = Math.max(ri.cost(), rj.cost());
+				for (int t = 1; t <= end; t++) {
+					if (collide(ri, rj, t)) {
+						conflicts.add(new Conflict(i, j, t, ri.keepOff(i, t), rj.keepOff(j, t)));
+						break;
+					}
+				}
+			}
+		}
+		Collections.sort(conflicts, new Comparator<Conflict>() {
+			@Override
+			public int compare(Conflict c1, Conflict c2) {
+				return c1.t - c2.t;
+			}
+		});
+		node.conflicts = conflicts;
+		return node;
+	}
+
+	private boolean collide(Route r1, Route r2, int t) {
+		int t1 = Math.min(t, r1.px.length-1);
+		int t2 = Math.min(t, r2.px.length-1);
+		double dx = r1.px[t1] - r2.px[t2];
+		double dy = r1.py[t1] - r2.py[t2];
+		return dx*dx + dy*dy < minSeparation * minSeparation;
+	}
+
+	private List<TimedPath> toPaths(Node node, List<String> ids) {
+		List<TimedPath> paths = new ArrayList<TimedPath>(ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			paths.add(SpaceTimePlanner.toPath(queries[i], node.routes[i].plan, ids.get(i)));
+		}
+		return paths;
+	}
+
+	private <T> List<T> invokeAll(List<Callable<T>> tasks) throws InterruptedException {
+
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (executor == null || tasks.size() == 1) {
+			for (Callable<T> task : tasks) {
+				try {
+					results.add(task.call());
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return results;
+		}
+
+		for (Future<T> f : executor.invokeAll(tasks)) {
+			try {
+				results.add(f.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return results;
+	}
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2004 Patric Jensfelt.
+ * All Rights Reserved.
+ */
+
+package org.dcu.prm;
+
+class Circle {
+	double xC, yC, radius;
+	// id of an obstacle added at run time, null for the static ones
+	String id;
+
+	public Circle(double xC, double yC, double radius) {
+		this.xC = xC;
+		this.yC = yC;
+		this.radius = radius;
+	}
+}
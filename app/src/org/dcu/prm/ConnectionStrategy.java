@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+/**
+ * How buildRoadMap connects the sampled nodes
+ */
+public enum ConnectionStrategy {
+	/** each node tries its K nearest nodes */
+	K_NEAREST,
+	/** each node tries all nodes within the PRM* radius gamma*sqrt(log(n)/n) */
+	PRM_STAR,
+	/**
+	 * visibility PRM: only nodes that see no guard (new guards) or that
+	 * link guards of different components (connectors) are kept
+	 */
+	VISIBILITY
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Arrays;
+
+/**
+ * Road map edges as pairs of node indices in two int arrays, instead of
+ * one list cell and one edge object per edge
+ */
+final class EdgeList {
+
+	private int[] a = new int[256];
+	private int[] b = new int[256];
+	private int size;
+
+	void add(int from, int to) {
+		if (size == a.length) {
+			a = Arrays.copyOf(a, size * 2);
+			b = Arrays.copyOf(b, size * 2);
+		}
+		a[size] = from;
+		b[size] = to;
+		size++;
+	}
+
+	int a(int i) {
+		return a[i];
+	}
+
+	int b(int i) {
+		return b[i];
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Remove edge i by moving the last edge into its place, so iterate
+	 * backwards when removing
+	 */
+	void remove(int i) {
+		size--;
+		a[i] = a[size];
+		b[i] = b[size];
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+/**
+ * File formats of Snapshot.write
+ */
+public enum ExportFormat {
+	/** MATLAB script drawing the workspace and road map */
+	MATLAB(".m"),
+	/** SVG image */
+	SVG(".svg"),
+	/** compact binary snapshot, see Snapshot.decode */
+	BINARY(".bin");
+
+	public final String extension;
+
+	ExportFormat(String extension) {
+		this.extension = extension;
+	}
+
+	/**
+	 * @return the format a file name ends with, MATLAB if none matches
+	 */
+	public static ExportFormat of(String file) {
+		for (ExportFormat format : values()) {
+			if (file.endsWith(format.extension))
+				return format;
+		}
+		return MATLAB;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes snapshots to files on a background thread, so visualization
+ * never holds up planning or consensus detection.
+ *
+ * Each file is written at most once per minimum interval. A snapshot
+ * submitted while an earlier one for the same file is still waiting
+ * replaces it, only the latest state is written.
+ */
+public class Exporter {
+
+	private static final Logger log = Logger.getLogger(Exporter.class);
+
+	/** Pending write of one file */
+	private static final class Job {
+		final Snapshot snapshot;
+		final ExportFormat format;
+
+		Job(Snapshot snapshot, ExportFormat format) {
+			this.snapshot = snapshot;
+			this.format = format;
+		}
+	}
+
+	private final long minIntervalNanos;
+	private final ScheduledExecutorService executor;
+	private final ConcurrentMap<String, Job> pending = new ConcurrentHashMap<String, Job>();
+	private final ConcurrentMap<String, Long> lastWrite = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * @param minIntervalMillis minimum time between two writes of a file
+	 */
+	public Exporter(long minIntervalMillis) {
+		this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "exporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Write the snapshot to the file, in the format of its extension
+	 */
+	public void submit(Snapshot snapshot, String file) {
+		submit(snapshot, ExportFormat.of(file), file);
+	}
+
+	public void submit(Snapshot snapshot, ExportFormat format, final String file) {
+
+		// a waiting job takes the newer snapshot and keeps its slot
+		if (pending.put(file, new Job(snapshot, format)) != null)
+			return;
+
+		long delay = 0;
+		Long last = lastWrite.get(file);
+		if (last != null)
+			delay = Math.max(0, last + minIntervalNanos - System.nanoTime());
+
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				write(file);
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+	}
+
+	private void write(String file) {
+		lastWrite.put(file, System.nanoTime());
+		Job job = pending.remove(file);
+		if (job == null)
+			return;
+		try {
+			long start = System.nanoTime();
+			job.snapshot.write(job.format, file);
+			if (log.isDebugEnabled())
+				log.debug("Exported " + file + " in " + (System.nanoTime() - start)/1000000 + " ms");
+		} catch (IOException e) {
+			log.warn("Export of " + file + " failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Write what is still pending, then stop the exporter thread
+	 */
+	public void shutdown() throws InterruptedException {
+		executor.shutdownNow();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		for (String file : pending.keySet()) {
+			write(file);
+		}
+	}
+
+	/**
+	 * Convert a binary snapshot to another format.
+	 *
+	 * Usage: Exporter snapshot.bin out.(m|svg)
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+			System.err.println("Usage: Exporter <snapshot.bin> <out.m|out.svg>");
+			return;
+		}
+		Snapshot snapshot = Snapshot.decode(Files.readAllBytes(Paths.get(args[0])));
+		snapshot.write(ExportFormat.of(args[1]), args[1]);
+		System.out.println(String.format("Wrote %s: %d nodes, %d edges, %d paths", args[1],
+				snapshot.getNodeCount(), snapshot.getEdgeCount(), snapshot.paths.size()));
+	}
+}
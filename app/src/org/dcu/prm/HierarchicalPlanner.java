@@ -0,0 +1,526 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.dcu.metrics.Counter;
+import org.dcu.metrics.Metrics;
+import org.dcu.metrics.Timer;
+
+/**
+ * Two level planner for large workspaces. The workspace is split into
+ * regions, the zones of a ZoneMap, joined by portals. The top level is
+ * an abstract graph whose nodes are the portals, plus the start and the
+ * goal of a query; two nodes are linked if they lie in the same region.
+ * The bottom level is one small road map per region.
+ *
+ * A query runs A* on the abstract graph, then plans the legs of the
+ * chosen portal chain on the road maps of their regions, so fine search
+ * only ever happens inside the corridor of regions picked at the top.
+ * Refinement is lazy: a leg costs its straight line length until it is
+ * planned, then its road map path length. Once every leg of the best
+ * chain is planned the chain is returned, otherwise the top level search
+ * runs again with the refined costs. Straight lines never overestimate,
+ * so the chain is the shortest one through the portals.
+ *
+ * Region road maps are built the first time a leg needs them and kept,
+ * up to maxCachedRegions, as are the legs between portals, so later
+ * queries through the same regions only plan their first and last leg.
+ * With precompute the legs are all planned up front. Query time depends
+ * on the regions along the route, not on the size of the workspace.
+ *
+ * Not thread safe, like the road map it is meant to be used by the
+ * robot owning it.
+ */
+public class HierarchicalPlanner {
+
+	private static final Timer QUERY_TIMER = Metrics.timer("hprm.query");
+	private static final Timer REFINE_TIMER = Metrics.timer("hprm.refine");
+	private static final Counter REGIONS_BUILT = Metrics.counter("hprm.regions.built");
+	private static final Counter ABSTRACT_EXPANSIONS = Metrics.counter("hprm.abstract.expansions");
+
+	/** Road map path between two abstract nodes within one region */
+	private static final class Leg {
+		final int u, v;
+		final Zone zone;
+		// straight line length until planned
+		double cost;
+		// planned from u to v, null until refined
+		Path path;
+		boolean infeasible;
+
+		Leg(int u, int v, Zone zone, double cost) {
+			this.u = u;
+			this.v = v;
+			this.zone = zone;
+			this.cost = cost;
+		}
+
+		boolean isRefined() {
+			return path != null || infeasible;
+		}
+	}
+
+	/** Open list entry of the abstract search */
+	private static final class Entry implements Comparable<Entry> {
+		final int node;
+		final double f;
+
+		Entry(int node, double f) {
+			this.node = node;
+			this.f = f;
+		}
+
+		@Override
+		public int compareTo(Entry that) {
+			return Double.compare(f, that.f);
+		}
+	}
+
+	private final ZoneMap zones;
+	private final List<Portal> portals;
+	private final int nNodes, K;
+	private final double step;
+	private Sampler sampler;
+	private int landmarks;
+
+	/** Region road maps kept, the least recently used is dropped first */
+	public int maxCachedRegions = 256;
+
+	private final LinkedHashMap<Zone, PRMPlanner> planners;
+	// legs between portals, kept across queries
+	private final Map<Long, Leg> legs = new HashMap<Long, Leg>();
+	// legs from the start or to the goal of the current query
+	private final Map<Long, Leg> queryLegs = new HashMap<Long, Leg>();
+	// start and goal zones of the current query
+	private final List<Zone> startZones = new ArrayList<Zone>(4);
+	private final List<Zone> goalZones = new ArrayList<Zone>(4);
+	private double xStart, yStart, xGoal, yGoal;
+
+	/** Legs planned and legs that failed, over all queries */
+	private int refinedLegs, failedLegs;
+	private int builtRegions;
+
+	/**
+	 * @param zones regions of the workspace, see ZoneMap.grid for floors
+	 * without declared zones
+	 * @param nNodes road map nodes for the whole workspace, each region
+	 * gets its share by area
+	 * @param K number of nearest nodes to try to connect a new node to
+	 * @param step step size when checking for collisions along edges
+	 */
+	public HierarchicalPlanner(ZoneMap zones, int nNodes, int K, double step) {
+		this.zones = zones;
+		this.portals = zones.getPortals();
+		this.nNodes = nNodes;
+		this.K = K;
+		this.step = step;
+		this.planners = new LinkedHashMap<Zone, PRMPlanner>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Zone, PRMPlanner> eldest) {
+				return size() > maxCachedRegions;
+			}
+		};
+	}
+
+	public void setSampler(Sampler sampler) {
+		this.sampler = sampler;
+	}
+
+	/**
+	 * @param landmarks landmarks of the region road maps built from now
+	 * on, see PRMPlanner.setLandmarks
+	 */
+	public void setLandmarks(int landmarks) {
+		this.landmarks = landmarks;
+	}
+
+	public ZoneMap getZones() {
+		return zones;
+	}
+
+	/**
+	 * @return road map of the region, built on first use
+	 */
+	public PRMPlanner getPlanner(Workspace workspace, Zone zone) {
+
+		PRMPlanner planner = planners.get(zone);
+		if (planner == null) {
+			planner = new PRMPlanner();
+			if (sampler != null)
+				planner.setSampler(sampler);
+			planner.setLandmarks(landmarks);
+
+			double area = (workspace.xMax - workspace.xMin) * (workspace.yMax - workspace.yMin);
+			double share = (zone.xMax - zone.xMin) * (zone.yMax - zone.yMin) / area;
+			planner.buildRoadMap(restrict(workspace, zone), Math.max(K + 1, (int) (nNodes * share)), K, step);
+			planners.put(zone, planner);
+			builtRegions++;
+			REGIONS_BUILT.inc();
+		}
+		return planner;
+	}
+
+	/**
+	 * @return number of region road maps built, over all queries
+	 */
+	public int getBuiltCount() {
+		return builtRegions;
+	}
+
+	/**
+	 * @return number of region road maps currently cached
+	 */
+	public int getCachedCount() {
+		return planners.size();
+	}
+
+	public int getLegCount() {
+		return refinedLegs;
+	}
+
+	public int getFailedLegCount() {
+		return failedLegs;
+	}
+
+	/**
+	 * Drop the region road maps and the planned legs, they are rebuilt as
+	 * routes need them again
+	 */
+	public void reset() {
+		planners.clear();
+		legs.clear();
+		queryLegs.clear();
+	}
+
+	/**
+	 * Plan every leg between two portals of the same region, building all
+	 * region road maps. Queries then only refine their first and last legs.
+	 */
+	public void precompute(Workspace workspace, int maxAttempts) {
+		for (Zone zone : zones.getZones()) {
+			List<Portal> ps = zones.portalsOf(zone);
+			for (int i = 0; i < ps.size(); i++) {
+				for (int j = i+1; j < ps.size(); j++) {
+					refine(workspace, leg(ps.get(i).index, ps.get(j).index, zone), maxAttempts);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the edges crossing a path from the road maps of the regions
+	 * it passes through; planned legs it crosses go back to their
+	 * straight line estimate
+	 *
+	 * @return number of removed road map edges
+	 */
+	public int invalidateEdges(Path path) {
+
+		int removed = 0;
+		for (Map.Entry<Zone, PRMPlanner> e : planners.entrySet()) {
+			if (e.getKey().overlaps(path))
+				removed += e.getValue().invalidateEdges(path);
+		}
+
+		invalidateLegs(legs, path);
+		invalidateLegs(queryLegs, path);
+		return removed;
+	}
+
+	private static void invalidateLegs(Map<Long, Leg> legs, Path path) {
+		for (Iterator<Leg> i = legs.values().iterator(); i.hasNext();) {
+			Leg leg = i.next();
+			if (leg.path != null && leg.path.collidesWith(path))
+				i.remove();
+		}
+	}
+
+	/**
+	 * Bring the cached region road maps in line with an obstacle change
+	 * already applied to the workspace. Legs passing the blocked space
+	 * are dropped, and so are all legs of the regions where space was
+	 * freed, shorter or formerly infeasible legs may exist there now.
+	 * Regions not cached yet are built with the change in place.
+	 *
+	 * @return number of road map edges removed and added
+	 */
+	public int update(Workspace workspace, ObstacleChange change) {
+
+		Obstacle blocked = change.blocked();
+		Obstacle freed = change.freed();
+		int changed = 0;
+
+		for (Map.Entry<Zone, PRMPlanner> e : planners.entrySet()) {
+			Zone zone = e.getKey();
+			if (blocked != null && zone.overlaps(blocked, Workspace.CLEARANCE))
+				changed += e.getValue().invalidateEdges(blocked);
+			if (freed != null && zone.overlaps(freed, Workspace.CLEARANCE))
+				changed += e.getValue().repair(restrict(workspace, zone), freed);
+		}
+
+		invalidateLegs(legs, blocked, freed);
+		invalidateLegs(queryLegs, blocked, freed);
+		return changed;
+	}
+
+	private static void invalidateLegs(Map<Long, Leg> legs, Obstacle blocked, Obstacle freed) {
+		for (Iterator<Leg> i = legs.values().iterator(); i.hasNext();) {
+			Leg leg = i.next();
+			if ((freed != null && leg.zone.overlaps(freed, Workspace.CLEARANCE))
+					|| (blocked != null && leg.path != null && blocked.intersects(leg.path, Workspace.CLEARANCE)))
+				i.remove();
+		}
+	}
+
+	/**
+	 * @return the regions the best chain known so far from the workspace
+	 * start to its goal passes through, without planning any leg; empty if
+	 * start and goal are not connected through the portals
+	 */
+	public List<Zone> route(Workspace workspace) {
+
+		List<Zone> result = new ArrayList<Zone>();
+		List<Leg> chain = search(workspace);
+		for (int i = 0; chain != null && i < chain.size(); i++) {
+			if (!result.contains(chain.get(i).zone))
+				result.add(chain.get(i).zone);
+		}
+		return result;
+	}
+
+	/**
+	 * Find a path from the workspace start to its goal
+	 *
+	 * @return the legs joined into one path, null if no portal chain
+	 * could be planned
+	 */
+	public Path findPath(Workspace workspace, int maxAttempts) {
+
+		long start = System.nanoTime();
+		try {
+			// every round plans at least one leg, so this ends
+			List<Leg> chain;
+			while ((chain = search(workspace)) != null) {
+				boolean refined = true;
+				for (int i = 0; i < chain.size(); i++) {
+					Leg leg = chain.get(i);
+					if (!leg.isRefined()) {
+						refine(workspace, leg, maxAttempts);
+						refined = false;
+					}
+				}
+				if (refined)
+					return join(chain);
+			}
+			return null;
+		} finally {
+			QUERY_TIMER.recordSince(start);
+		}
+	}
+
+	// plan the leg on the road map of its region
+	private void refine(Workspace workspace, Leg leg, int maxAttempts) {
+
+		long start = System.nanoTime();
+		Workspace ws = restrict(workspace, leg.zone);
+		ws.xStart = x(leg.u);
+		ws.yStart = y(leg.u);
+		ws.xGoal = x(leg.v);
+		ws.yGoal = y(leg.v);
+
+		refinedLegs++;
+		leg.path = getPlanner(workspace, leg.zone).findPath(ws, maxAttempts);
+		if (leg.path == null) {
+			failedLegs++;
+			leg.infeasible = true;
+			leg.cost = Double.POSITIVE_INFINITY;
+		} else {
+			leg.cost = length(leg.path);
+		}
+		REFINE_TIMER.recordSince(start);
+	}
+
+	/**
+	 * A* over portals, start and goal, with the current leg costs
+	 *
+	 * @return legs from start to goal, null if not connected
+	 */
+	private List<Leg> search(Workspace workspace) {
+
+		int n = portals.size() + 2;
+		int startNode = n - 2, goalNode = n - 1;
+
+		// a new query drops the legs of the previous one
+		if (xStart != workspace.xStart || yStart != workspace.yStart
+				|| xGoal != workspace.xGoal || yGoal != workspace.yGoal || startZones.isEmpty()) {
+			xStart = workspace.xStart;
+			yStart = workspace.yStart;
+			xGoal = workspace.xGoal;
+			yGoal = workspace.yGoal;
+			queryLegs.clear();
+			containing(xStart, yStart, startZones);
+			containing(xGoal, yGoal, goalZones);
+		}
+		if (startZones.isEmpty() || goalZones.isEmpty())
+			return null;
+
+		double[] g = new double[n];
+		Leg[] via = new Leg[n];
+		boolean[] closed = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			g[i] = Double.POSITIVE_INFINITY;
+		}
+		g[startNode] = 0;
+
+		PriorityQueue<Entry> open = new PriorityQueue<Entry>();
+		open.add(new Entry(startNode, h(startNode)));
+
+		while (!open.isEmpty()) {
+			int u = open.poll().node;
+			if (closed[u])
+				continue;
+			closed[u] = true;
+			ABSTRACT_EXPANSIONS.inc();
+			if (u == goalNode)
+				break;
+
+			List<Zone> regions = regionsOf(u);
+			for (int r = 0; r < regions.size(); r++) {
+				Zone zone = regions.get(r);
+				List<Portal> ps = zones.portalsOf(zone);
+				for (int k = 0; k <= ps.size(); k++) {
+					// the portals of the region, then the goal if it is in it
+					int v = k < ps.size() ? ps.get(k).index : goalNode;
+					if (v == u || closed[v] || (v == goalNode && !goalZones.contains(zone)))
+						continue;
+
+					Leg leg = leg(u, v, zone);
+					double d = g[u] + leg.cost;
+					if (d < g[v]) {
+						g[v] = d;
+						via[v] = leg;
+						open.add(new Entry(v, d + h(v)));
+					}
+				}
+			}
+		}
+		if (via[goalNode] == null)
+			return null;
+
+		ArrayList<Leg> chain = new ArrayList<Leg>();
+		for (int v = goalNode; v != startNode;) {
+			Leg leg = via[v];
+			chain.add(0, leg);
+			v = leg.u == v ? leg.v : leg.u;
+		}
+		return chain;
+	}
+
+	// legs are stored once per pair of nodes and region, from the lower node
+	private Leg leg(int u, int v, Zone zone) {
+
+		int a = Math.min(u, v), b = Math.max(u, v);
+		int n = portals.size() + 2;
+		boolean query = b >= n - 2;
+		Map<Long, Leg> map = query ? queryLegs : legs;
+
+		// the zone is part of the key, two portals on the same border
+		// are linked through both zones
+		long key = ((long) a * n + b) * zones.size() + zones.indexOf(zone);
+		Leg leg = map.get(key);
+		if (leg == null) {
+			leg = new Leg(a, b, zone, Math.hypot(x(b) - x(a), y(b) - y(a)));
+			map.put(key, leg);
+		}
+		return leg;
+	}
+
+	private List<Zone> regionsOf(int node) {
+		int n = portals.size() + 2;
+		if (node == n - 2)
+			return startZones;
+		if (node == n - 1)
+			return goalZones;
+
+		List<Zone> regions = new ArrayList<Zone>(2);
+		regions.add(portals.get(node).a);
+		regions.add(portals.get(node).b);
+		return regions;
+	}
+
+	private void containing(double x, double y, List<Zone> out) {
+		out.clear();
+		for (Zone zone : zones.getZones()) {
+			if (zone.contains(x, y))
+				out.add(zone);
+		}
+	}
+
+	private double x(int node) {
+		int n = portals.size() + 2;
+		return node == n - 2 ? xStart : node == n - 1 ? xGoal : portals.get(node).x;
+	}
+
+	private double y(int node) {
+		int n = portals.size() + 2;
+		return node == n - 2 ? yStart : node == n - 1 ? yGoal : portals.get(node).y;
+	}
+
+	private double h(int node) {
+		return Math.hypot(xGoal - x(node), yGoal - y(node));
+	}
+
+	// points of the leg starting at node from
+	private List<Position> oriented(Leg leg, int from) {
+		List<Position> points = leg.path.points;
+		if (leg.u == from)
+			return points;
+		ArrayList<Position> reversed = new ArrayList<Position>(points);
+		Collections.reverse(reversed);
+		return reversed;
+	}
+
+	// legs share their end points, keep each only once
+	private Path join(List<Leg> chain) {
+
+		ArrayList<Position> points = new ArrayList<Position>();
+		int from = portals.size();
+		for (int i = 0; i < chain.size(); i++) {
+			Leg leg = chain.get(i);
+			List<Position> part = oriented(leg, from);
+			points.addAll(i == 0 ? part : part.subList(1, part.size()));
+			from = leg.u == from ? leg.v : leg.u;
+		}
+		return new Path(points, null);
+	}
+
+	private static double length(Path path) {
+		double len = 0;
+		for (int i = 0; i+1 < path.points.size(); i++) {
+			Position a = path.points.get(i);
+			Position b = path.points.get(i+1);
+			len += Math.hypot(b.getX() - a.getX(), b.getY() - a.getY());
+		}
+		return len;
+	}
+
+	private static Workspace restrict(Workspace workspace, Zone zone) {
+		return new Workspace(workspace, zone.xMin, zone.xMax, zone.yMin, zone.yMax);
+	}
+}
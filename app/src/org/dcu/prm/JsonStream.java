@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.io.ByteArrayInputStream;
+import java.io.Reader;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+import javax.json.stream.JsonParsingException;
+
+/**
+ * Helpers for pull parsing JSON payloads straight into the planner
+ * objects, without building an intermediate object tree.
+ */
+public final class JsonStream {
+
+	// Json.createParser() looks the provider up on every call, keep one factory
+	private static final JsonParserFactory FACTORY = Json.createParserFactory(null);
+
+	private JsonStream() {
+	}
+
+	public static JsonParser parser(byte[] payload) {
+		return FACTORY.createParser(new ByteArrayInputStream(payload));
+	}
+
+	public static JsonParser parser(Reader reader) {
+		return FACTORY.createParser(reader);
+	}
+
+	/**
+	 * Read the next event and fail if it is not the expected one
+	 */
+	public static void expect(JsonParser parser, Event expected) {
+		Event e = parser.next();
+		if (e != expected)
+			throw new JsonParsingException("Expected " + expected + " but got " + e, parser.getLocation());
+	}
+
+	/**
+	 * Read the next event as a number
+	 */
+	public static double readNumber(JsonParser parser) {
+		expect(parser, Event.VALUE_NUMBER);
+		if (parser.isIntegralNumber())
+			return parser.getLong();
+		return Double.parseDouble(parser.getString());
+	}
+
+	/**
+	 * Read the next event as a string
+	 */
+	public static String readString(JsonParser parser) {
+		expect(parser, Event.VALUE_STRING);
+		return parser.getString();
+	}
+
+	/**
+	 * Skip the value that starts with the given event, including all
+	 * nested objects and arrays
+	 */
+	public static void skipValue(JsonParser parser, Event e) {
+		if (e != Event.START_OBJECT && e != Event.START_ARRAY)
+			return;
+
+		int depth = 1;
+		while (depth > 0) {
+			e = parser.next();
+			if (e == Event.START_OBJECT || e == Event.START_ARRAY)
+				depth++;
+			else if (e == Event.END_OBJECT || e == Event.END_ARRAY)
+				depth--;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Road map distances to a few landmark nodes, for the ALT search
+ * heuristic. For a landmark L the triangle inequality bounds the road
+ * map distance of nodes u and v from below by |d(L,u) - d(L,v)|, which
+ * unlike the straight line distance accounts for the detours obstacles
+ * force, so A* expands far fewer nodes on cluttered floors.
+ *
+ * The landmarks are spread over the largest component of the road map
+ * by farthest point selection, each one the node farthest from those
+ * chosen before. The distances of all landmarks to a node are stored
+ * next to each other as floats; bounds are lowered by the rounding of
+ * the largest distance, so a search can return a path a few millionths
+ * of the table's largest distance longer than the shortest one. A table
+ * is not changed once built; when road map edges change the planner
+ * builds a new one from the same landmarks.
+ */
+final class Landmarks {
+
+	private static final float INF = Float.POSITIVE_INFINITY;
+
+	private final int[] landmarks;
+	private final int count, n;
+	// distance from node v to landmark i at v*count + i, infinite if
+	// they are not connected
+	private final float[] dist;
+	// bound on the rounding error of a difference of two distances
+	private final float slack;
+
+	private Landmarks(int[] landmarks, int n, float[] dist) {
+		this.landmarks = landmarks;
+		this.count = landmarks.length;
+		this.n = n;
+		this.dist = dist;
+
+		float max = 0;
+		for (float d : dist) {
+			if (d != INF)
+				max = Math.max(max, d);
+		}
+		this.slack = Math.ulp(max);
+	}
+
+	/**
+	 * Pick up to count landmarks by farthest point selection within the
+	 * largest component
+	 *
+	 * @param component component label of each node
+	 */
+	static Landmarks select(List<PRMNode> nodes, int[] component, int count) {
+
+		int n = nodes.size();
+		if (n == 0 || count <= 0)
+			return new Landmarks(new int[0], n, new float[0]);
+
+		// a node of the largest component
+		int[] sizes = new int[n];
+		int first = 0;
+		for (int v = 0; v < n; v++) {
+			if (++sizes[component[v]] > sizes[component[first]])
+				first = v;
+		}
+
+		// the first landmark is the node farthest from an arbitrary one
+		double[] d = new double[n];
+		NodeHeap open = new NodeHeap(n);
+		shortestPaths(nodes, first, d, open);
+		int[] chosen = new int[Math.min(count, sizes[component[first]])];
+		chosen[0] = farthest(d);
+
+		// distance of each node to its closest landmark so far
+		double[] closest = new double[n];
+		Arrays.fill(closest, Double.POSITIVE_INFINITY);
+		float[] dist = new float[n * chosen.length];
+		for (int i = 0; i < chosen.length; i++) {
+			if (i > 0)
+				chosen[i] = farthest(closest);
+			shortestPaths(nodes, chosen[i], d, open);
+			for (int v = 0; v < n; v++) {
+				dist[v * chosen.length + i] = (float) d[v];
+				if (d[v] < closest[v])
+					closest[v] = d[v];
+			}
+		}
+		return new Landmarks(chosen, n, dist);
+	}
+
+	/**
+	 * @return table for the same landmarks over the road map as it is
+	 * now, with the edges removed and the nodes and edges added since
+	 */
+	Landmarks refresh(List<PRMNode> nodes) {
+
+		int n = nodes.size();
+		double[] d = new double[n];
+		NodeHeap open = new NodeHeap(n);
+		float[] dist = new float[n * count];
+		for (int i = 0; i < count; i++) {
+			shortestPaths(nodes, landmarks[i], d, open);
+			for (int v = 0; v < n; v++) {
+				dist[v * count + i] = (float) d[v];
+			}
+		}
+		return new Landmarks(landmarks, n, dist);
+	}
+
+	/**
+	 * @return lower bound of the road map distance of u and v, 0 if no
+	 * landmark reaches both
+	 */
+	double bound(int u, int v) {
+
+		// nodes added after the table was built have no distances
+		if (u >= n || v >= n)
+			return 0;
+		float best = 0;
+		int ou = u * count, ov = v * count;
+		for (int i = 0; i < count; i++) {
+			// an infinite or NaN difference means a node is not reached
+			float b = Math.abs(dist[ou + i] - dist[ov + i]);
+			if (b > best && b != INF)
+				best = b;
+		}
+		return Math.max(0, best - slack);
+	}
+
+	/**
+	 * @return number of landmarks
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * @return node index of landmark i
+	 */
+	int getNode(int i) {
+		return landmarks[i];
+	}
+
+	// Dijkstra from node s, unreached nodes get infinity
+	private static void shortestPaths(List<PRMNode> nodes, int s, double[] d, NodeHeap open) {
+
+		Arrays.fill(d, Double.POSITIVE_INFINITY);
+		open.clear();
+		d[s] = 0;
+		open.push(s, 0);
+		while (!open.isEmpty()) {
+			double du = open.peekKey();
+			int u = open.pop();
+			if (du > d[u])
+				continue;
+
+			PRMNode a = nodes.get(u);
+			List<PRMNode> edges = a.m_Edges;
+			for (int k = 0; k < edges.size(); k++) {
+				PRMNode b = edges.get(k);
+				double dx = a.getX() - b.getX();
+				double dy = a.getY() - b.getY();
+				double dv = du + Math.sqrt(dx*dx + dy*dy);
+				if (dv < d[b.m_Index]) {
+					d[b.m_Index] = dv;
+					open.push(b.m_Index, dv);
+				}
+			}
+		}
+	}
+
+	// node with the largest finite value
+	private static int farthest(double[] d) {
+		int far = 0;
+		double max = -1;
+		for (int v = 0; v < d.length; v++) {
+			if (d[v] != Double.POSITIVE_INFINITY && d[v] > max) {
+				max = d[v];
+				far = v;
+			}
+		}
+		return far;
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values, stored in two
+ * flat arrays so that millions of entries do not cost an object each.
+ * Long.MIN_VALUE is reserved as the empty slot marker.
+ */
+final class LongIntMap {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+
+	LongIntMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(4, expected * 2) - 1) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+	/**
+	 * @return value stored for key, or missing if there is none
+	 */
+	int get(long key, int missing) {
+		int i = slot(key);
+		while (keys[i] != EMPTY) {
+			if (keys[i] == key)
+				return values[i];
+			i = (i + 1) & mask;
+		}
+		return missing;
+	}
+
+	boolean containsKey(long key) {
+		int i = slot(key);
+		while (keys[i] != EMPTY) {
+			if (keys[i] == key)
+				return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	void put(long key, int value) {
+		int i = slot(key);
+		while (keys[i] != EMPTY) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+
+		// keep the load factor at or below 1/2
+		if (++size * 2 > keys.length)
+			rehash(keys.length * 2);
+	}
+
+	/**
+	 * Remove the entry of key, if any
+	 */
+	void remove(long key) {
+		int i = slot(key);
+		while (keys[i] != EMPTY) {
+			if (keys[i] == key) {
+				keys[i] = EMPTY;
+				size--;
+				// re-insert the rest of the probe run so lookups still find it
+				i = (i + 1) & mask;
+				while (keys[i] != EMPTY) {
+					long k = keys[i];
+					int v = values[i];
+					keys[i] = EMPTY;
+					size--;
+					put(k, v);
+					i = (i + 1) & mask;
+				}
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Remove all entries holding the given value
+	 *
+	 * @return number of removed entries
+	 */
+	int removeValue(int value) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		int removed = 0;
+
+		keys = new long[oldKeys.length];
+		values = new int[oldValues.length];
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY)
+				continue;
+			if (oldValues[i] == value)
+				removed++;
+			else
+				put(oldKeys[i], oldValues[i]);
+		}
+		return removed;
+	}
+
+	/**
+	 * Visit all entries, in no particular order
+	 */
+	void forEach(Visitor visitor) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY)
+				visitor.visit(keys[i], values[i]);
+		}
+	}
+
+	interface Visitor {
+		void visit(long key, int value);
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+		size = 0;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY)
+				put(oldKeys[i], oldValues[i]);
+		}
+	}
+
+	private int slot(long key) {
+		// murmur3 finalizer to spread packed coordinates
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h & mask;
+	}
+}
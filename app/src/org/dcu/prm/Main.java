@@ -18,7 +18,7 @@ import javax.json.JsonReader;
 
 public class Main {
 
-	private static final String WORKSPACE =
+	static final String WORKSPACE =
 			"{\n" +
 			"   \"start\": {\n" +
 			"      \"x\": 0.5,\n" +
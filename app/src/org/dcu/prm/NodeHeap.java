@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of node ids keyed by a double, in two parallel
+ * arrays. Unlike a PriorityQueue of entry objects it does not allocate
+ * once it has grown to the working size, which matters in the search
+ * and nearest neighbour loops. Ids may be pushed more than once; callers
+ * skip stale entries on pop.
+ */
+final class NodeHeap {
+
+	private double[] keys;
+	private int[] ids;
+	private int size;
+
+	NodeHeap() {
+		this(64);
+	}
+
+	NodeHeap(int capacity) {
+		keys = new double[Math.max(1, capacity)];
+		ids = new int[Math.max(1, capacity)];
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void push(int id, double key) {
+		append(id, key);
+		siftUp(size-1);
+	}
+
+	/**
+	 * Add without restoring the heap order, call heapify() afterwards.
+	 * Filling and heapifying n entries is O(n), pushing them O(n log n).
+	 */
+	void append(int id, double key) {
+		if (size == ids.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			ids = Arrays.copyOf(ids, size * 2);
+		}
+		keys[size] = key;
+		ids[size] = id;
+		size++;
+	}
+
+	void heapify() {
+		for (int i = size/2 - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	int peekId() {
+		return ids[0];
+	}
+
+	double peekKey() {
+		return keys[0];
+	}
+
+	/**
+	 * @return id with the smallest key
+	 */
+	int pop() {
+		int top = ids[0];
+		size--;
+		if (size > 0) {
+			keys[0] = keys[size];
+			ids[0] = ids[size];
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/** Id of the i-th entry, in no particular order */
+	int id(int i) {
+		return ids[i];
+	}
+
+	private void siftUp(int i) {
+		double key = keys[i];
+		int id = ids[i];
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (keys[parent] <= key)
+				break;
+			keys[i] = keys[parent];
+			ids[i] = ids[parent];
+			i = parent;
+		}
+		keys[i] = key;
+		ids[i] = id;
+	}
+
+	private void siftDown(int i) {
+		double key = keys[i];
+		int id = ids[i];
+		while (true) {
+			int child = 2*i + 1;
+			if (child >= size)
+				break;
+			if (child+1 < size && keys[child+1] < keys[child])
+				child++;
+			if (key <= keys[child])
+				break;
+			keys[i] = keys[child];
+			ids[i] = ids[child];
+			i = child;
+		}
+		keys[i] = key;
+		ids[i] = id;
+	}
+}
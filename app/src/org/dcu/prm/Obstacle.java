@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Arrays;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+/**
+ * Obstacle added to the workspace at run time, a pallet or a temporary
+ * blockage, as the chaincode stores it:
+ *
+ *   {"id": "p1", "type": "circle", "xCenter": 3, "yCenter": 2, "radius": 0.5}
+ *   {"id": "p2", "type": "rectangle", "xCenter": 3, "yCenter": 2, "width": 1.2, "height": 0.8, "angle": 0.5}
+ *   {"id": "p3", "type": "polygon", "points": [{"x": 1, "y": 1}, {"x": 2, "y": 1}, {"x": 1, "y": 2}]}
+ *
+ * Rectangle angles are in radians, counterclockwise. Polygons may be
+ * concave, their center is the middle of their bounding box.
+ */
+public final class Obstacle {
+
+	public enum Type {
+		CIRCLE, RECTANGLE, POLYGON
+	}
+
+	public final String id;
+	public final Type type;
+	public final double xC, yC;
+	/** circles only */
+	public final double radius;
+	/** rectangles only */
+	public final double width, height, angle;
+	/** polygons only, the vertices in order */
+	final double[] xs, ys;
+
+	private Obstacle(String id, Type type, double xC, double yC, double radius,
+			double width, double height, double angle, double[] xs, double[] ys) {
+		this.id = id;
+		this.type = type;
+		this.xC = xC;
+		this.yC = yC;
+		this.radius = radius;
+		this.width = width;
+		this.height = height;
+		this.angle = angle;
+		this.xs = xs;
+		this.ys = ys;
+	}
+
+	public static Obstacle circle(String id, double xC, double yC, double radius) {
+		return new Obstacle(id, Type.CIRCLE, xC, yC, radius, 0, 0, 0, null, null);
+	}
+
+	public static Obstacle rectangle(String id, double xC, double yC, double width, double height) {
+		return rectangle(id, xC, yC, width, height, 0);
+	}
+
+	public static Obstacle rectangle(String id, double xC, double yC, double width, double height, double angle) {
+		return new Obstacle(id, Type.RECTANGLE, xC, yC, 0, width, height, angle, null, null);
+	}
+
+	public static Obstacle polygon(String id, double[] xs, double[] ys) {
+		if (xs.length != ys.length || xs.length < 3)
+			throw new IllegalArgumentException("Polygon needs 3 or more vertices");
+		double xMin = xs[0], xMax = xs[0], yMin = ys[0], yMax = ys[0];
+		for (int i = 1; i < xs.length; i++) {
+			xMin = Math.min(xMin, xs[i]);
+			xMax = Math.max(xMax, xs[i]);
+			yMin = Math.min(yMin, ys[i]);
+			yMax = Math.max(yMax, ys[i]);
+		}
+		return new Obstacle(id, Type.POLYGON, (xMin + xMax) / 2, (yMin + yMax) / 2, 0, 0, 0, 0,
+				xs.clone(), ys.clone());
+	}
+
+	/**
+	 * @return the same obstacle centered at (xC,yC)
+	 */
+	public Obstacle moveTo(double xC, double yC) {
+		if (type != Type.POLYGON)
+			return new Obstacle(id, type, xC, yC, radius, width, height, angle, null, null);
+
+		double[] mx = new double[xs.length], my = new double[ys.length];
+		for (int i = 0; i < xs.length; i++) {
+			mx[i] = xs[i] + xC - this.xC;
+			my[i] = ys[i] + yC - this.yC;
+		}
+		return new Obstacle(id, type, xC, yC, 0, 0, 0, 0, mx, my);
+	}
+
+	/** Number of polygon vertices, 0 for other shapes */
+	public int getVertexCount() {
+		return xs == null ? 0 : xs.length;
+	}
+
+	public double getVertexX(int i) {
+		return xs[i];
+	}
+
+	public double getVertexY(int i) {
+		return ys[i];
+	}
+
+	/** Half extent of the bounding box along x */
+	public double halfWidth() {
+		switch (type) {
+		case CIRCLE:
+			return radius;
+		case RECTANGLE:
+			return Math.abs(Math.cos(angle)) * width/2 + Math.abs(Math.sin(angle)) * height/2;
+		default:
+			double xMax = xs[0];
+			for (int i = 1; i < xs.length; i++)
+				xMax = Math.max(xMax, xs[i]);
+			return xMax - xC;
+		}
+	}
+
+	/** Half extent of the bounding box along y */
+	public double halfHeight() {
+		switch (type) {
+		case CIRCLE:
+			return radius;
+		case RECTANGLE:
+			return Math.abs(Math.sin(angle)) * width/2 + Math.abs(Math.cos(angle)) * height/2;
+		default:
+			double yMax = ys[0];
+			for (int i = 1; i < ys.length; i++)
+				yMax = Math.max(yMax, ys[i]);
+			return yMax - yC;
+		}
+	}
+
+	/**
+	 * @return true if the point is within margin of the obstacle, the
+	 * test of Workspace.collidesWith with margin the clearance
+	 */
+	public boolean contains(double x, double y, double margin) {
+		switch (type) {
+		case CIRCLE:
+			double dx = x - xC;
+			double dy = y - yC;
+			double r = radius + margin;
+			return dx*dx + dy*dy <= r*r;
+		case RECTANGLE:
+			// in the frame of the rectangle
+			double c = Math.cos(angle), s = Math.sin(angle);
+			double u = (x - xC)*c + (y - yC)*s;
+			double v = (y - yC)*c - (x - xC)*s;
+			return Math.abs(u) <= width/2 + margin && Math.abs(v) <= height/2 + margin;
+		default:
+			return Shapes.polygonHit(xs, ys, x, y, margin);
+		}
+	}
+
+	/**
+	 * @return true if the segment (x1,y1)->(x2,y2) comes within margin of
+	 * the obstacle
+	 */
+	public boolean intersects(double x1, double y1, double x2, double y2, double margin) {
+
+		switch (type) {
+		case CIRCLE:
+			double r = radius + margin;
+			return Shapes.segmentDistance2(xC, yC, x1, y1, x2, y2) <= r*r;
+		case RECTANGLE:
+			// clip in the frame of the rectangle against the grown box
+			double c = Math.cos(angle), s = Math.sin(angle);
+			return Shapes.boxHit(
+					(x1 - xC)*c + (y1 - yC)*s, (y1 - yC)*c - (x1 - xC)*s,
+					(x2 - xC)*c + (y2 - yC)*s, (y2 - yC)*c - (x2 - xC)*s,
+					width/2 + margin, height/2 + margin);
+		default:
+			return Shapes.polygonHit(xs, ys, x1, y1, x2, y2, margin);
+		}
+	}
+
+	/**
+	 * @return true if any segment of the path comes within margin of the
+	 * obstacle
+	 */
+	public boolean intersects(Path path, double margin) {
+		for (int i = 0; i+1 < path.points.size(); i++) {
+			Position a = path.points.get(i);
+			Position b = path.points.get(i+1);
+			if (intersects(a.getX(), a.getY(), b.getX(), b.getY(), margin))
+				return true;
+		}
+		return path.points.size() == 1
+				&& contains(path.points.get(0).getX(), path.points.get(0).getY(), margin);
+	}
+
+	/**
+	 * Read one obstacle object, the parser must be positioned right after
+	 * its START_OBJECT
+	 */
+	public static Obstacle readJSON(JsonParser parser) {
+
+		String id = null;
+		Type type = Type.CIRCLE;
+		double xC = 0, yC = 0, radius = 0, width = 0, height = 0, angle = 0;
+		double[][] points = null;
+
+		while (parser.next() == Event.KEY_NAME) {
+			String key = parser.getString();
+			if (key.equals("id"))
+				id = JsonStream.readString(parser);
+			else if (key.equals("type"))
+				type = Type.valueOf(JsonStream.readString(parser).toUpperCase());
+			else if (key.equals("xCenter"))
+				xC = JsonStream.readNumber(parser);
+			else if (key.equals("yCenter"))
+				yC = JsonStream.readNumber(parser);
+			else if (key.equals("radius"))
+				radius = JsonStream.readNumber(parser);
+			else if (key.equals("width"))
+				width = JsonStream.readNumber(parser);
+			else if (key.equals("height"))
+				height = JsonStream.readNumber(parser);
+			else if (key.equals("angle"))
+				angle = JsonStream.readNumber(parser);
+			else if (key.equals("points"))
+				points = readPoints(parser);
+			else
+				JsonStream.skipValue(parser, parser.next());
+		}
+		if (id == null)
+			throw new IllegalArgumentException("Obstacle without id");
+		if (type == Type.POLYGON) {
+			if (points == null)
+				throw new IllegalArgumentException("Polygon " + id + " without points");
+			return polygon(id, points[0], points[1]);
+		}
+		return new Obstacle(id, type, xC, yC, radius, width, height, angle, null, null);
+	}
+
+	/**
+	 * Read an array of {"x": .., "y": ..} objects
+	 *
+	 * @return the x and the y coordinates
+	 */
+	static double[][] readPoints(JsonParser parser) {
+
+		JsonStream.expect(parser, Event.START_ARRAY);
+		double[] xs = new double[8], ys = new double[8];
+		int n = 0;
+		while (parser.next() == Event.START_OBJECT) {
+			if (n == xs.length) {
+				xs = Arrays.copyOf(xs, 2*n);
+				ys = Arrays.copyOf(ys, 2*n);
+			}
+			while (parser.next() == Event.KEY_NAME) {
+				String key = parser.getString();
+				if (key.equals("x"))
+					xs[n] = JsonStream.readNumber(parser);
+				else if (key.equals("y"))
+					ys[n] = JsonStream.readNumber(parser);
+				else
+					JsonStream.skipValue(parser, parser.next());
+			}
+			n++;
+		}
+		return new double[][] { Arrays.copyOf(xs, n), Arrays.copyOf(ys, n) };
+	}
+
+	public String toJSONString() {
+
+		JsonObjectBuilder builder = Json.createObjectBuilder()
+				.add("id", id)
+				.add("type", type.name().toLowerCase())
+				.add("xCenter", xC)
+				.add("yCenter", yC);
+		if (type == Type.CIRCLE) {
+			builder.add("radius", radius);
+		} else if (type == Type.RECTANGLE) {
+			builder.add("width", width).add("height", height);
+			if (angle != 0)
+				builder.add("angle", angle);
+		} else {
+			JsonArrayBuilder points = Json.createArrayBuilder();
+			for (int i = 0; i < xs.length; i++) {
+				points.add(Json.createObjectBuilder().add("x", xs[i]).add("y", ys[i]));
+			}
+			builder.add("points", points);
+		}
+		return builder.build().toString();
+	}
+
+	@Override
+	public String toString() {
+		return "Obstacle[" + id + "]";
+	}
+}
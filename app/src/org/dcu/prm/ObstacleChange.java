@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+/**
+ * One change of the dynamic obstacles, the payload of the chaincode
+ * obstacle-changed event:
+ *
+ *   {"version": 7, "op": "move", "obstacle": {...}, "previous": {...}}
+ *
+ * Versions count the changes of the ledger, a workspace applies each
+ * change at most once and in version order.
+ */
+public final class ObstacleChange {
+
+	public enum Op {
+		ADD, REMOVE, MOVE
+	}
+
+	public final long version;
+	public final Op op;
+	/** the obstacle added, removed, or moved to its new place */
+	public final Obstacle obstacle;
+	/** the obstacle before a move, null otherwise */
+	public final Obstacle previous;
+
+	public ObstacleChange(long version, Op op, Obstacle obstacle, Obstacle previous) {
+		this.version = version;
+		this.op = op;
+		this.obstacle = obstacle;
+		this.previous = previous;
+	}
+
+	/**
+	 * @return the obstacle now taking up space, null for a removal
+	 */
+	public Obstacle blocked() {
+		return op == Op.REMOVE ? null : obstacle;
+	}
+
+	/**
+	 * @return the obstacle whose space is given back, null for an addition
+	 */
+	public Obstacle freed() {
+		return op == Op.REMOVE ? obstacle : previous;
+	}
+
+	public static ObstacleChange parse(byte[] payload) {
+
+		long version = 0;
+		Op op = null;
+		Obstacle obstacle = null, previous = null;
+
+		JsonParser parser = JsonStream.parser(payload);
+		JsonStream.expect(parser, Event.START_OBJECT);
+		while (parser.next() == Event.KEY_NAME) {
+			String key = parser.getString();
+			if (key.equals("version")) {
+				version = (long) JsonStream.readNumber(parser);
+			} else if (key.equals("op")) {
+				op = Op.valueOf(JsonStream.readString(parser).toUpperCase());
+			} else if (key.equals("obstacle")) {
+				JsonStream.expect(parser, Event.START_OBJECT);
+				obstacle = Obstacle.readJSON(parser);
+			} else if (key.equals("previous")) {
+				JsonStream.expect(parser, Event.START_OBJECT);
+				previous = Obstacle.readJSON(parser);
+			} else {
+				JsonStream.skipValue(parser, parser.next());
+			}
+		}
+		parser.close();
+
+		if (op == null || obstacle == null || (op == Op.MOVE && previous == null))
+			throw new IllegalArgumentException("Incomplete obstacle change");
+		return new ObstacleChange(version, op, obstacle, previous);
+	}
+
+	@Override
+	public String toString() {
+		return "ObstacleChange[" + version + " " + op + " " + obstacle.id + "]";
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Uniform grid over the obstacles of a workspace. Every obstacle is
+ * listed in each cell its bounding box, grown by the clearance, touches,
+ * so a point only has to be tested against the obstacles of its own
+ * cell. Obstacles are added and removed one at a time, a change never
+ * rebuilds the grid. Points and obstacles outside the bounds fall into
+ * the border cells.
+ *
+ * Each cell keeps its shapes as structure of arrays, one primitive array
+ * per parameter with the clearance already folded in, so the kernels scan
+ * contiguous memory and never touch the shape objects. Shapes are
+ * numbered by slot, which ties the copies in the cells to the shape for
+ * removal.
+ */
+final class ObstacleIndex {
+
+	/** Side length of a cell, the same grid as the chaincode path index */
+	static final double CELL_SIZE = 1.0;
+	/** Cells per axis at most, larger workspaces get larger cells */
+	static final int MAX_CELLS = 1024;
+
+	// shapes of one kind in one cell; circles use a, b, c for the center
+	// and the squared grown radius; boxes a, b for the center, c, d for
+	// the axis direction and e, f for the grown half sizes; polygons only
+	// their slot
+	private static final class Bucket {
+		int n;
+		int[] slot;
+		double[] a, b, c, d, e, f;
+
+		Bucket(int params) {
+			slot = new int[2];
+			a = params > 0 ? new double[2] : null;
+			b = params > 0 ? new double[2] : null;
+			c = params > 0 ? new double[2] : null;
+			d = params > 3 ? new double[2] : null;
+			e = params > 3 ? new double[2] : null;
+			f = params > 3 ? new double[2] : null;
+		}
+
+		int append(int s) {
+			if (n == slot.length) {
+				slot = Arrays.copyOf(slot, 2 * n);
+				a = a != null ? Arrays.copyOf(a, 2 * n) : null;
+				b = b != null ? Arrays.copyOf(b, 2 * n) : null;
+				c = c != null ? Arrays.copyOf(c, 2 * n) : null;
+				d = d != null ? Arrays.copyOf(d, 2 * n) : null;
+				e = e != null ? Arrays.copyOf(e, 2 * n) : null;
+				f = f != null ? Arrays.copyOf(f, 2 * n) : null;
+			}
+			slot[n] = s;
+			return n++;
+		}
+
+		// the last entry takes the place of slot s
+		void remove(int s) {
+			for (int i = 0; i < n; i++) {
+				if (slot[i] == s) {
+					int last = --n;
+					slot[i] = slot[last];
+					if (a != null) {
+						a[i] = a[last];
+						b[i] = b[last];
+						c[i] = c[last];
+					}
+					if (d != null) {
+						d[i] = d[last];
+						e[i] = e[last];
+						f[i] = f[last];
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	private final double xMin, yMin, cell;
+	private final int cols, rows;
+	private final double margin;
+
+	// per cell, null while empty
+	private final Bucket[] circles, boxes, polygons;
+
+	// per slot: grown bounding box, and the vertices of polygons
+	private double[] x0 = new double[16], x1 = new double[16];
+	private double[] y0 = new double[16], y1 = new double[16];
+	private double[][] px = new double[16][], py = new double[16][];
+
+	private final Map<Object, Integer> slots = new IdentityHashMap<Object, Integer>();
+	private int[] free = new int[16];
+	private int nFree, nSlots;
+
+	/**
+	 * @param margin clearance kept around every obstacle
+	 */
+	ObstacleIndex(double xMin, double xMax, double yMin, double yMax, double margin) {
+
+		double extent = Math.max(xMax - xMin, yMax - yMin);
+		this.cell = Math.max(CELL_SIZE, extent / MAX_CELLS);
+		this.xMin = xMin;
+		this.yMin = yMin;
+		this.cols = Math.max(1, (int) Math.ceil((xMax - xMin) / cell));
+		this.rows = Math.max(1, (int) Math.ceil((yMax - yMin) / cell));
+		this.margin = margin;
+
+		circles = new Bucket[cols * rows];
+		boxes = new Bucket[cols * rows];
+		polygons = new Bucket[cols * rows];
+	}
+
+	private int col(double x) {
+		return Math.max(0, Math.min(cols - 1, (int) Math.floor((x - xMin) / cell)));
+	}
+
+	private int row(double y) {
+		return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - yMin) / cell)));
+	}
+
+	void add(Circle c) {
+		int s = allocate(c);
+		double r = c.radius + margin;
+		bound(s, c.xC - r, c.xC + r, c.yC - r, c.yC + r);
+		for (int y = row(y0[s]); y <= row(y1[s]); y++) {
+			for (int x = col(x0[s]); x <= col(x1[s]); x++) {
+				Bucket b = bucket(circles, y * cols + x, 3);
+				int i = b.append(s);
+				b.a[i] = c.xC;
+				b.b[i] = c.yC;
+				b.c[i] = r*r;
+			}
+		}
+	}
+
+	void add(Rectangle rec) {
+		int s = allocate(rec);
+		double cos = Math.cos(rec.angle), sin = Math.sin(rec.angle);
+		double hw = rec.width/2 + margin, hh = rec.height/2 + margin;
+		// bounding box of the turned box
+		double ex = Math.abs(cos) * hw + Math.abs(sin) * hh;
+		double ey = Math.abs(sin) * hw + Math.abs(cos) * hh;
+		bound(s, rec.xC - ex, rec.xC + ex, rec.yC - ey, rec.yC + ey);
+		for (int y = row(y0[s]); y <= row(y1[s]); y++) {
+			for (int x = col(x0[s]); x <= col(x1[s]); x++) {
+				Bucket b = bucket(boxes, y * cols + x, 6);
+				int i = b.append(s);
+				b.a[i] = rec.xC;
+				b.b[i] = rec.yC;
+				b.c[i] = cos;
+				b.d[i] = sin;
+				b.e[i] = hw;
+				b.f[i] = hh;
+			}
+		}
+	}
+
+	void add(Polygon poly) {
+		int s = allocate(poly);
+		px[s] = poly.xs;
+		py[s] = poly.ys;
+		double xLo = poly.xs[0], xHi = poly.xs[0], yLo = poly.ys[0], yHi = poly.ys[0];
+		for (int i = 1; i < poly.xs.length; i++) {
+			xLo = Math.min(xLo, poly.xs[i]);
+			xHi = Math.max(xHi, poly.xs[i]);
+			yLo = Math.min(yLo, poly.ys[i]);
+			yHi = Math.max(yHi, poly.ys[i]);
+		}
+		bound(s, xLo - margin, xHi + margin, yLo - margin, yHi + margin);
+		for (int y = row(y0[s]); y <= row(y1[s]); y++) {
+			for (int x = col(x0[s]); x <= col(x1[s]); x++) {
+				bucket(polygons, y * cols + x, 0).append(s);
+			}
+		}
+	}
+
+	void remove(Circle c) {
+		remove(circles, c);
+	}
+
+	void remove(Rectangle rec) {
+		remove(boxes, rec);
+	}
+
+	void remove(Polygon poly) {
+		remove(polygons, poly);
+	}
+
+	private void remove(Bucket[] kind, Object shape) {
+		Integer s = slots.remove(shape);
+		if (s == null)
+			return;
+		for (int y = row(y0[s]); y <= row(y1[s]); y++) {
+			for (int x = col(x0[s]); x <= col(x1[s]); x++) {
+				Bucket b = kind[y * cols + x];
+				if (b != null)
+					b.remove(s);
+			}
+		}
+		px[s] = null;
+		py[s] = null;
+		if (nFree == free.length)
+			free = Arrays.copyOf(free, 2 * nFree);
+		free[nFree++] = s;
+	}
+
+	/**
+	 * @return true if the point is within the margin of an obstacle
+	 */
+	boolean collidesWith(double x, double y) {
+		return hits(row(y) * cols + col(x), x, y);
+	}
+
+	/**
+	 * Batch form of collidesWith
+	 *
+	 * @return index of the first of the n points that collides, -1 if
+	 * none does
+	 */
+	int firstCollision(double[] xs, double[] ys, int n) {
+		for (int i = 0; i < n; i++) {
+			if (hits(row(ys[i]) * cols + col(xs[i]), xs[i], ys[i]))
+				return i;
+		}
+		return -1;
+	}
+
+	// all shapes listed in cell k against one point
+	private boolean hits(int k, double x, double y) {
+
+		// indexed loops over primitive arrays, this runs for every sample
+		// along every edge and must not allocate
+		Bucket b = circles[k];
+		if (b != null) {
+			double[] cx = b.a, cy = b.b, r2 = b.c;
+			for (int i = 0, n = b.n; i < n; i++) {
+				double dx = x - cx[i];
+				double dy = y - cy[i];
+				if (dx*dx + dy*dy <= r2[i])
+					return true;
+			}
+		}
+
+		b = boxes[k];
+		if (b != null) {
+			double[] bx = b.a, by = b.b, cos = b.c, sin = b.d, hw = b.e, hh = b.f;
+			for (int i = 0, n = b.n; i < n; i++) {
+				// projections of the center-to-point vector on the box
+				// axes against the half sizes
+				double dx = x - bx[i];
+				double dy = y - by[i];
+				if (Math.abs(dx*cos[i] + dy*sin[i]) <= hw[i] && Math.abs(dy*cos[i] - dx*sin[i]) <= hh[i])
+					return true;
+			}
+		}
+
+		b = polygons[k];
+		if (b != null) {
+			for (int i = 0, n = b.n; i < n; i++) {
+				int s = b.slot[i];
+				if (x >= x0[s] && x <= x1[s] && y >= y0[s] && y <= y1[s]
+						&& Shapes.polygonHit(px[s], py[s], x, y, margin))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static Bucket bucket(Bucket[] kind, int k, int params) {
+		if (kind[k] == null)
+			kind[k] = new Bucket(params);
+		return kind[k];
+	}
+
+	private int allocate(Object shape) {
+		int s = nFree > 0 ? free[--nFree] : nSlots++;
+		if (s == x0.length) {
+			x0 = Arrays.copyOf(x0, 2 * s);
+			x1 = Arrays.copyOf(x1, 2 * s);
+			y0 = Arrays.copyOf(y0, 2 * s);
+			y1 = Arrays.copyOf(y1, 2 * s);
+			px = Arrays.copyOf(px, 2 * s);
+			py = Arrays.copyOf(py, 2 * s);
+		}
+		slots.put(shape, s);
+		return s;
+	}
+
+	// keep the grown bounding box of slot s, removal walks the same cells
+	private void bound(int s, double xLo, double xHi, double yLo, double yHi) {
+		x0[s] = xLo;
+		x1[s] = xHi;
+		y0[s] = yLo;
+		y1[s] = yHi;
+	}
+}
@@ -5,16 +5,20 @@
 
 package org.dcu.prm;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.ListIterator;
 
 public class PRMNode extends AStarNode {
 
-	/// List of edges
-	protected LinkedList<PRMNode> m_Edges;
+	/// List of edges, an array list so searches can walk it by index
+	protected ArrayList<PRMNode> m_Edges;
+
+	/// Position of this node in the road map node list
+	protected int m_Index;
 
 	public PRMNode() {
-		m_Edges = new LinkedList<PRMNode>();
+		m_Edges = new ArrayList<PRMNode>();
 	}
 
 	/**
@@ -23,7 +27,7 @@ public class PRMNode extends AStarNode {
 	 * @param node pointer to node to add edge to
 	 */
 	public void addNewEdge(PRMNode node) {
-		m_Edges.offerLast(node);
+		m_Edges.add(node);
 	}
 
 	/**
@@ -38,8 +42,8 @@ public class PRMNode extends AStarNode {
 		while(i.hasNext()) {
 			PRMNode e = i.next();
 			if (node.equals(e)) {
-				// Remove current node => previousIndex
-				m_Edges.remove(i.previousIndex());
+				// Remove current node
+				i.remove();
 			}
 		}
 	}
@@ -5,23 +5,21 @@
 
 package org.dcu.prm;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Random;
 
-class Edge {
-	int a;
-	int b;
-
-	public Edge(int a, int b) {
-		this.a = a;
-		this.b = b;
-	}
-}
+import org.dcu.metrics.Counter;
+import org.dcu.metrics.Metrics;
+import org.dcu.metrics.Timer;
+import org.dcu.trace.Trace;
+import org.dcu.trace.TraceEvent;
 
 class Distance {
 	double d;
@@ -36,20 +34,32 @@ class Distance {
 /**
  * This class implements a basic version of the probabilistic road map
  * (PRM) method for path planning.
+ *
+ * Not thread safe, a planner is used by the one robot owning it.
  */
 public class PRMPlanner {
 
 	private static final int RAND_MAX = 0x7FFF;
+
+	// build phases, recorded once per buildRoadMap
+	private static final Timer BUILD_TIMER = Metrics.timer("prm.build");
+	private static final Timer SAMPLING_TIMER = Metrics.timer("prm.build.sampling");
+	private static final Timer KNN_TIMER = Metrics.timer("prm.build.knn");
+	private static final Timer EDGES_TIMER = Metrics.timer("prm.build.edges");
+	private static final Timer LANDMARKS_TIMER = Metrics.timer("prm.landmarks");
+	private static final Counter SAMPLES = Metrics.counter("prm.samples");
+	private static final Counter POINT_CHECKS = Metrics.counter("prm.collision.points");
+	private static final Counter EDGE_CHECKS = Metrics.counter("prm.collision.edges");
 	/**
 	 * Vector with all randomly generated nodes generated that do not
 	 * collide with any obstacles
 	 */
-	protected LinkedList<PRMNode> m_Nodes;
+	protected ArrayList<PRMNode> m_Nodes;
 
 	/**
-	 * Vector with pairs of indices coding the edges (only for debugging)
+	 * Pairs of indices coding the edges (only for debugging)
 	 */
-	protected LinkedList<Edge> m_Edges;
+	protected EdgeList m_Edges;
 
 	/**
 	 * Store the step size used when building the road map to use when
@@ -57,53 +67,94 @@ public class PRMPlanner {
 	 */
 	protected double m_Step;
 
+	/** How nodes are connected by buildRoadMap */
+	protected ConnectionStrategy m_Strategy = ConnectionStrategy.K_NEAREST;
+
+	/** Do not link nodes that are already connected through the road map */
+	protected boolean m_SkipConnected = false;
+
+	/** Scale of the PRM* radius, 1 is the theoretical minimum */
+	protected double m_RadiusFactor = 1.0;
+
+	/** Visibility PRM gives up after this many useless samples in a row */
+	protected int m_VisibilityFailures = 500;
+
+	/** Where buildRoadMap draws node positions, uniform if null */
+	protected Sampler m_Sampler = null;
+
+	/**
+	 * buildRoadMap stops after this many samples per requested node,
+	 * biased samplers can reject nearly all draws in an open workspace
+	 */
+	protected int m_MaxSamplesPerNode = 100;
+
+	/** Neighbours tried per node by the last build, used by repair */
+	protected int m_K = 10;
+
+	/** Nodes per unit of area after the last build, kept by repair */
+	protected double m_Density;
+
+	/** Source of uniform node positions, Math.random() if null */
+	protected Random m_Random = null;
+
+	/** Landmarks of the ALT search heuristic, 0 for straight line distances only */
+	protected int m_LandmarkCount = 0;
+
+	/** Samples drawn by the last buildRoadMap, and how many were rejected */
+	private int m_Samples, m_SamplerRejects, m_CollisionRejects;
+
+	/** Edges collision checked by the last buildRoadMap */
+	private int m_EdgeChecks;
+
+	/**
+	 * Connected component label of each node. Edge invalidation only
+	 * marks the labels stale, they are recomputed on the next query.
+	 */
+	private int[] m_Component = new int[0];
+	private int m_ComponentCount;
+	private boolean m_ComponentsStale;
+
+	/**
+	 * Landmark distances of the road map. Like the component labels they
+	 * are only marked stale when edges change, and computed again from
+	 * the same landmarks on the next query.
+	 */
+	private Landmarks m_Landmarks;
+	private boolean m_LandmarksStale;
+
+	/** Search state of findPath, reused from one query to the next */
+	private RoadMapSearch m_Search;
+
 	public PRMPlanner() {
 		// Make sure that the random generator has been initialize
 		//int time = (int) (new Date().getTime()/1000);
 		//srand(time);
-		m_Nodes = new LinkedList<PRMNode>();
-		m_Edges = new LinkedList<Edge>();
+		m_Nodes = new ArrayList<PRMNode>();
+		m_Edges = new EdgeList();
 	}
 
 	/**
-	 * This function builds a structure with the distances to all the
-	 * other nodes. It can be used to try to connect nodes with edges.
+	 * This function fills a heap with the distances to all the other
+	 * nodes. It can be used to try to connect nodes with edges, popping
+	 * the closest node first. Only as many nodes as are popped get
+	 * ordered, and the heap is reused, so nothing is allocated.
 	 *
-	 * The list will contain pairs of node index in m_Nodes and the
-	 * corresponding distances. Notice that the distance to the noe
-	 * given in the argument will also be in there.
+	 * The heap holds node indices in m_Nodes keyed by squared distance.
+	 * Notice that the node given in the argument will also be in there.
 	 *
 	 * @param n node to calculate distances to
-	 * @param distances the list with
+	 * @param nearest heap to fill
 	 */
-	private List<Distance> getNodeDistances(PRMNode n) {
-
-		List<Distance> distances = new ArrayList<Distance>();
+	private void fillNodeDistances(PRMNode n, NodeHeap nearest) {
 
+		nearest.clear();
 		for (int i = 0; i < m_Nodes.size(); i++) {
 
-			double d = Math.sqrt(
-					(m_Nodes.get(i).getX() - n.getX()) *
-					(m_Nodes.get(i).getX() - n.getX()) +
-					(m_Nodes.get(i).getY() - n.getY()) *
-					(m_Nodes.get(i).getY() - n.getY()) );
-
-			distances.add(new Distance(d, i) );
+			double dx = m_Nodes.get(i).getX() - n.getX();
+			double dy = m_Nodes.get(i).getY() - n.getY();
+			nearest.append(i, dx*dx + dy*dy);
 		}
-
-		// Sort the list with distances so that the closest one comes first
-		distances.sort(new Comparator<Distance>() {
-			public int compare(Distance D1, Distance D2) {
-				return (D1.d > D2.d) ? 1 : -1;
-			}
-		});
-
-		//System.out.print("Distances: [");
-		//for (int i = 0; i < distances.size(); i++) {
-		//	System.out.printf("%.2f, ", distances.get(i).d);
-		//}
-		//System.out.println("]");
-		return distances;
+		nearest.heapify();
 	}
 
 	/**
@@ -126,37 +177,37 @@ public class PRMPlanner {
 		double dx = xE - xS;
 		double dy = yE - yS;
 
-		// The angle of the line
-		double ang = Math.atan2(dy, dx);
-
 		// The length of the line
 		double len = Math.sqrt(dx*dx + dy*dy);
 
 		// The direction cosines
-		double kx = Math.cos(ang);
-		double ky = Math.sin(ang);
-
-		boolean last = false;
-		boolean done = false;
-		double pos = 0; // where on the line are we
+		double kx = len > 0 ? dx / len : 0;
+		double ky = len > 0 ? dy / len : 0;
 
-		while (!done) {
-
-			double x = xS + pos * kx;
-			double y = yS + pos * ky;
-
-			if (workspace.collidesWith(x,y))
-				return false;
-
-			if (!last && pos > len) {
-				last = true;
-				pos = len;
-			} else if (last) {
-				done = true;
-			}
+		// Sample points at pos = 0, step, 2*step... up to the first one past
+		// the end, and one more at len + step, then check them in one batch
+		Scratch scratch = Scratch.get();
+		scratch.reserve((int) Math.ceil(len / step) + 3);
+		double[] xs = scratch.xs;
+		double[] ys = scratch.ys;
 
+		int n = 0;
+		double pos = 0; // where on the line are we
+		while (true) {
+			xs[n] = xS + pos * kx;
+			ys[n] = yS + pos * ky;
+			n++;
+			if (pos > len)
+				break;
 			pos += step;
 		}
+		pos = len + step;
+		xs[n] = xS + pos * kx;
+		ys[n] = yS + pos * ky;
+		n++;
+
+		if (workspace.firstCollision(xs, ys, n) >= 0)
+			return false;
 
 		// check if collides with another robot's path in the workspace
 		return !(workspace.collidesWithPath(xS, yS, xE, yE));
@@ -171,7 +222,7 @@ public class PRMPlanner {
 	 * @param y y-coordinate of the point to connect to graph
 	 * @return index of closest node if found, -1 if not
 	 */
-	private List<Distance> findClosestNodesOnGraph(Workspace workspace, double x, double y)
+	List<Distance> findClosestNodesOnGraph(Workspace workspace, double x, double y)
 	{
 		List<Distance> distances = new ArrayList<Distance>();
 
@@ -198,6 +249,39 @@ public class PRMPlanner {
 		return distances;
 	}
 
+	/**
+	 * Find the closest nodes that can be reached from (x,y) in a straight
+	 * line. Unlike findClosestNodesOnGraph, only the nodes up to the
+	 * max-th reachable one are checked for collisions, and nothing is
+	 * allocated.
+	 *
+	 * @param max number of nodes to find
+	 * @param out receives the node indices, closest first
+	 * @return number of nodes found
+	 */
+	int findClosestNodesOnGraph(Workspace workspace, double x, double y, int max, int[] out) {
+
+		NodeHeap nearest = Scratch.get().nearest;
+		nearest.clear();
+		for (int i = 0; i < m_Nodes.size(); i++) {
+			double dx = x - m_Nodes.get(i).getX();
+			double dy = y - m_Nodes.get(i).getY();
+			nearest.append(i, dx*dx + dy*dy);
+		}
+		nearest.heapify();
+
+		int found = 0;
+		while (found < max && !nearest.isEmpty()) {
+			int i = nearest.pop();
+			if (isCollisionFreePath(workspace,
+					m_Nodes.get(i).getX(), m_Nodes.get(i).getY(),
+					x, y, m_Step)) {
+				out[found++] = i;
+			}
+		}
+		return found;
+	}
+
 	/**
 	 * This function creates a new node with random position
 	 *
@@ -212,12 +296,17 @@ public class PRMPlanner {
 	{
 		PRMNode n = new PRMNode();
 
-		n.setX(xMin + ((xMax - xMin) * ((int)(Math.random() * RAND_MAX) / (RAND_MAX + 1.0))));
-		n.setY(yMin + ((yMax - yMin) * ((int)(Math.random() * RAND_MAX) / (RAND_MAX + 1.0))));
+		n.setX(randomCoordinate(xMin, xMax));
+		n.setY(randomCoordinate(yMin, yMax));
 
 		return n;
 	}
 
+	private double randomCoordinate(double min, double max) {
+		double r = m_Random != null ? m_Random.nextDouble() : Math.random();
+		return min + ((max - min) * ((int)(r * RAND_MAX) / (RAND_MAX + 1.0)));
+	}
+
 	/**
 	 * Calculates the path from a start to an end position. It is assume
 	 * that you have already called buildRoadMap. The workspace passed as an
@@ -236,52 +325,34 @@ public class PRMPlanner {
 	 * @see buildRoadMap
 	 */
 	public Path findPath(Workspace workspace, int maxAttempts) {
+		return findPath(workspace, maxAttempts, SearchMode.ASTAR);
+	}
 
-		double xStart = workspace.xStart;
-		double yStart = workspace.yStart;
-		double xGoal = workspace.xGoal;
-		double yGoal = workspace.yGoal;
-
-		Path path = new Path();
-		// clear path buffer
-		path.points.clear();
-
-		// Find list of nodes in the graph that are closest to the start and goal
-		// point and offer a collision free path from these points to the
-		// road map.
-		List<Distance> startClosestNodeDistances = findClosestNodesOnGraph(workspace, xStart, yStart);
-		List<Distance> goalClosestNodeDistances = findClosestNodesOnGraph(workspace, xGoal, yGoal);
-
-		int attempt = 0;
-		while ((attempt < maxAttempts) &&
-				(attempt < startClosestNodeDistances.size()) &&
-				(attempt < goalClosestNodeDistances.size())) {
-
-			int start = startClosestNodeDistances.get(attempt).i;
-			int goal = goalClosestNodeDistances.get(attempt).i;
-
-			if (m_Nodes.get(goal).findPath(m_Nodes.get(start))) {
-
-				// add start point to path
-				path.points.add(new Position(xStart, yStart));
-
-				PRMNode n = m_Nodes.get(start);
-				while (n != null) {
-					// add successful point to path
-					path.points.add(new Position( n.getX(), n.getY() ) );
-					n = (PRMNode)n.parent;
-				}
-				// add goal point to path
-				path.points.add(new Position(xGoal, yGoal));
-				return path;
-			}
-
-			// get another starting point from constructed conflict-free roadmap and retry
-			System.out.printf("[Attempt# %d] Failed to find path.. retrying..!\n", attempt);
-			attempt++;
+	/**
+	 * Same as findPath(workspace, maxAttempts) with a choice of graph
+	 * search. In ANYTIME mode the first, possibly longer, path is
+	 * returned; use newSearch to improve on it.
+	 *
+	 * @see RoadMapSearch
+	 */
+	public Path findPath(Workspace workspace, int maxAttempts, SearchMode mode) {
+
+		// the search state is only needed until the path is returned, so
+		// it is kept for the next query instead of allocated anew
+		if (m_Search == null) {
+			m_Search = newSearch(workspace, maxAttempts);
+		} else {
+			m_Search.reset(workspace, maxAttempts);
 		}
+		return m_Search.find(mode);
+	}
 
-		return null;
+	/**
+	 * Prepare a query from the workspace start to its goal, to run and
+	 * refine step by step.
+	 */
+	public RoadMapSearch newSearch(Workspace workspace, int maxAttempts) {
+		return new RoadMapSearch(this, workspace, maxAttempts);
 	}
 
 	/**
@@ -308,13 +379,28 @@ public class PRMPlanner {
 	public void buildRoadMap(Workspace workspace,
 			int nNodes, int K, double step) {
 
-		double xMin = workspace.xMin;
-		double xMax = workspace.xMax;
-		double yMin = workspace.yMin;
-		double yMax = workspace.yMax;
+		long start = System.nanoTime();
+		Trace.begin(TraceEvent.BUILD, nNodes, K);
+		build(workspace, nNodes, K, step);
+		m_Density = m_Nodes.size() / ((workspace.xMax - workspace.xMin) * (workspace.yMax - workspace.yMin));
+		synchronized (this) {
+			m_Landmarks = null;
+		}
+		getLandmarks();
+		BUILD_TIMER.recordSince(start);
+		Trace.end(TraceEvent.BUILD, m_Nodes.size(), m_Edges.size());
+
+		// counted locally, published once per build
+		SAMPLES.add(m_Samples);
+		POINT_CHECKS.add(m_Samples - m_SamplerRejects);
+		EDGE_CHECKS.add(m_EdgeChecks);
+	}
+
+	private void build(Workspace workspace, int nNodes, int K, double step) {
 
 		// Store step size so that the same value can be used in findPath
 		m_Step = step;
+		m_K = K;
 
 		// Clear the list of nodes and delete the node objects
 		m_Nodes.clear();
@@ -322,22 +408,54 @@ public class PRMPlanner {
 		// Clear the vector with edges (used for debug display stuff)
 		m_Edges.clear();
 
+		m_Samples = 0;
+		m_SamplerRejects = 0;
+		m_CollisionRejects = 0;
+		m_EdgeChecks = 0;
+
+		if (m_Strategy == ConnectionStrategy.VISIBILITY) {
+			setComponents(buildVisibilityRoadMap(workspace, nNodes, step));
+			return;
+		}
+
 		// Create new set of n nodes with random positions. Each new node is
 		// first checked for collisions before being added
 		int n = 0;
-		while (m_Nodes.size() < nNodes) {
+		int maxSamples = nNodes * m_MaxSamplesPerNode;
+		long phase = System.nanoTime();
+		Trace.begin(TraceEvent.SAMPLING);
+		while (m_Nodes.size() < nNodes && m_Samples < maxSamples) {
 
-			PRMNode node = generateNodeWithRandomPosition(xMin, xMax, yMin, yMax);
+			PRMNode node = sampleNode(workspace);
 
 			// Check if we can add it, is it does not collide with obstacles
-			if (workspace.collidesWith(node.getX(), node.getY())) {
+			if (node == null) {
 				// Go back up and create a new one
 				continue;
 			}
 
-			m_Nodes.offerLast(node);
+			node.m_Index = m_Nodes.size();
+			m_Nodes.add(node);
 			n++;
 		}
+		SAMPLING_TIMER.recordSince(phase);
+		Trace.end(TraceEvent.SAMPLING, m_Samples, m_SamplerRejects + m_CollisionRejects);
+
+		UnionFind components = new UnionFind(m_Nodes.size());
+
+		phase = System.nanoTime();
+		Trace.begin(TraceEvent.CONNECT);
+		if (m_Strategy == ConnectionStrategy.PRM_STAR) {
+			connectWithinRadius(workspace, components, getConnectionRadius(workspace), step);
+			EDGES_TIMER.recordSince(phase);
+			Trace.end(TraceEvent.CONNECT, m_EdgeChecks, m_Edges.size());
+			setComponents(components);
+			return;
+		}
+
+		// nearest neighbour ordering and edge checks interleave, only the
+		// former is timed per node
+		long knn = 0;
 
 		for (n = 0; n < m_Nodes.size(); n++) {
 			// get node
@@ -346,74 +464,549 @@ public class PRMPlanner {
 			// Try to connect this node to existing nodes in the neighborhod
 			// of this node
 
-			// Get list of distances to other nodes
-			List<Distance> distances = getNodeDistances(node);
+			// Get heap of distances to other nodes
+			NodeHeap nearest = Scratch.get().nearest;
+			long t = System.nanoTime();
+			fillNodeDistances(node, nearest);
+			knn += System.nanoTime() - t;
 
 			int k = 0;
-			ListIterator<Distance> i = distances.listIterator();
 
-			while(i.hasNext()) {
-				Distance dist = i.next();
+			while(!nearest.isEmpty()) {
+				int i = nearest.pop();
 
 				// Skip the nodes if it is the same as we try to connect to
-				if (dist.i == n) {
+				if (i == n) {
 					continue;
 				}
 
-				// Check if the path between the nodes is free from collisions
-				if (isCollisionFreePath(workspace, node.getX(), node.getY(),
-						m_Nodes.get(dist.i).getX(), m_Nodes.get(dist.i).getY(), step)) {
-					// link nodes together
-					m_Nodes.get(dist.i).addNewEdge(node);
-					node.addNewEdge(m_Nodes.get(dist.i));
-					m_Edges.offerLast(new Edge(n, dist.i));
+				// Already reachable, does not use up one of the K tries
+				if (m_SkipConnected && components.find(n) == components.find(i)) {
+					continue;
 				}
+				connect(workspace, components, n, i, step);
+
 				// If we have tested enough of the neighbors we break here
 				k++;
 				if (k >= K) break;
 			}
 		}
+		KNN_TIMER.record(knn);
+		EDGES_TIMER.record(System.nanoTime() - phase - knn);
+		Trace.end(TraceEvent.CONNECT, m_EdgeChecks, m_Edges.size());
+		setComponents(components);
 	}
 
 	/**
-	 * Use this function to generate matlab code to display the nodes and edges.
+	 * Draw one node from the sampler and count the attempt
 	 *
-	 * @param s reference to stream to output matlab code to
-	 * @param dispEdges flag telling if we should generate display code for edges
-	 * @param dispNodes flag telling if we should generate display code for nodes
-	 * @return N/A
+	 * @return free node, or null if the sample was rejected
 	 */
-	public void writeMatlabDisplayCode(String mfile, boolean dispEdges, boolean dispNodes)
-			throws IOException {
+	private PRMNode sampleNode(Workspace workspace) {
+
+		m_Samples++;
+
+		double x, y;
+		if (m_Sampler == null) {
+			x = randomCoordinate(workspace.xMin, workspace.xMax);
+			y = randomCoordinate(workspace.yMin, workspace.yMax);
+		} else {
+			double[] xy = Scratch.get().xy;
+			if (!m_Sampler.sample(workspace, xy)) {
+				m_SamplerRejects++;
+				return null;
+			}
+			x = xy[0];
+			y = xy[1];
+		}
 
-		FileWriter fw = new FileWriter(mfile, true);
+		// only nodes that are kept are allocated
+		if (workspace.collidesWith(x, y)) {
+			m_CollisionRejects++;
+			return null;
+		}
+		PRMNode node = new PRMNode();
+		node.setX(x);
+		node.setY(y);
+		return node;
+	}
 
-		fw.write("hold on\n");
+	/**
+	 * Link nodes a and b if they are not linked yet and the edge between
+	 * them is free
+	 *
+	 * @return true if a new edge was added
+	 */
+	private boolean connect(Workspace workspace, UnionFind components, int a, int b, double step) {
+
+		PRMNode na = m_Nodes.get(a);
+		PRMNode nb = m_Nodes.get(b);
+		if (na.m_Edges.contains(nb))
+			return false;
+		m_EdgeChecks++;
+
+		// Check if the path between the nodes is free from collisions
+		if (!isCollisionFreePath(workspace, na.getX(), na.getY(), nb.getX(), nb.getY(), step)) {
+			Trace.mark(TraceEvent.EDGE_REJECTED, a, b);
+			return false;
+		}
+
+		// link nodes together
+		nb.addNewEdge(na);
+		na.addNewEdge(nb);
+		m_Edges.add(a, b);
+		components.union(a, b);
+		return true;
+	}
+
+	/**
+	 * PRM*: link every pair of nodes closer than the radius. Nodes are
+	 * swept in x order so only pairs within the radius in x are looked at.
+	 */
+	private void connectWithinRadius(Workspace workspace, UnionFind components,
+			double radius, double step) {
+
+		Integer[] order = new Integer[m_Nodes.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(m_Nodes.get(a).getX(), m_Nodes.get(b).getX());
+			}
+		});
+
+		for (int i = 0; i < order.length; i++) {
+			PRMNode a = m_Nodes.get(order[i]);
+
+			for (int j = i+1; j < order.length; j++) {
+				PRMNode b = m_Nodes.get(order[j]);
+
+				double dx = b.getX() - a.getX();
+				if (dx > radius)
+					break;
+				double dy = b.getY() - a.getY();
+				if (dx*dx + dy*dy > radius*radius)
+					continue;
 
-		if (dispNodes) {
-			for (int i = 0; i < m_Nodes.size(); i++) {
-				fw.write("plot(" + m_Nodes.get(i).getX() + "," + m_Nodes.get(i).getY() + ",\'.m\')\n");
+				if (m_SkipConnected && components.find(order[i]) == components.find(order[j]))
+					continue;
+				connect(workspace, components, order[i], order[j], step);
 			}
 		}
+	}
+
+	/**
+	 * Visibility PRM. A sample that sees no guard becomes a new guard. A
+	 * sample that sees guards of several components becomes a connector
+	 * linked to one guard of each. Every other sample adds nothing to the
+	 * coverage or connectivity and is dropped. Sampling stops at nNodes
+	 * nodes, or when m_VisibilityFailures samples in a row were dropped.
+	 */
+	private UnionFind buildVisibilityRoadMap(Workspace workspace, int nNodes, double step) {
 
-		// We always write the code for displaying the edges but in case we
-		// are ordered not to displayit we add a "if 0 ... end" around it
-		// that can be removed manually
-		fw.write("if " + (dispEdges? 1 : 0) + "\n");
+		UnionFind components = new UnionFind(nNodes);
+		ArrayList<Integer> guards = new ArrayList<Integer>();
+		int failures = 0;
 
-		ListIterator<Edge> i = m_Edges.listIterator();
+		int maxSamples = nNodes * m_MaxSamplesPerNode;
+		while (m_Nodes.size() < nNodes && failures < m_VisibilityFailures
+				&& m_Samples < maxSamples) {
 
-		while(i.hasNext()) {
-			Edge e = i.next();
+			PRMNode node = sampleNode(workspace);
+			if (node == null)
+				continue;
+
+			// first visible guard of each component
+			ArrayList<Integer> seen = new ArrayList<Integer>();
+			for (int g : guards) {
+				boolean known = false;
+				for (int v : seen) {
+					if (components.find(v) == components.find(g)) {
+						known = true;
+						break;
+					}
+				}
+				if (known)
+					continue;
+				m_EdgeChecks++;
+				if (isCollisionFreePath(workspace, node.getX(), node.getY(),
+						m_Nodes.get(g).getX(), m_Nodes.get(g).getY(), step))
+					seen.add(g);
+			}
+
+			if (seen.size() == 1) {
+				failures++;
+				continue;
+			}
+			failures = 0;
+
+			node.m_Index = m_Nodes.size();
+			m_Nodes.add(node);
+			if (seen.isEmpty()) {
+				guards.add(node.m_Index);
+			} else {
+				for (int g : seen) {
+					connect(workspace, components, node.m_Index, g, step);
+				}
+			}
+		}
+
+		// labels only for the nodes kept
+		UnionFind kept = new UnionFind(m_Nodes.size());
+		for (int i = 0; i < m_Edges.size(); i++) {
+			kept.union(m_Edges.a(i), m_Edges.b(i));
+		}
+		return kept;
+	}
+
+	/**
+	 * @return PRM* connection radius for the current number of nodes,
+	 * gamma*sqrt(log(n)/n) with gamma above the bound for asymptotic
+	 * optimality in the plane, scaled by m_RadiusFactor
+	 */
+	public double getConnectionRadius(Workspace workspace) {
+		int n = Math.max(2, m_Nodes.size());
+		double area = (workspace.xMax - workspace.xMin) * (workspace.yMax - workspace.yMin);
+		double gamma = 2 * Math.sqrt(1.5) * Math.sqrt(area / Math.PI);
+		return m_RadiusFactor * gamma * Math.sqrt(Math.log(n) / n);
+	}
+
+	public void setConnectionStrategy(ConnectionStrategy strategy) {
+		m_Strategy = strategy;
+	}
+
+	public ConnectionStrategy getConnectionStrategy() {
+		return m_Strategy;
+	}
+
+	/**
+	 * @param skip if true, nodes already connected through the road map
+	 * are not linked again, which leaves a forest of shortest edges
+	 */
+	public void setSkipConnected(boolean skip) {
+		m_SkipConnected = skip;
+	}
+
+	/**
+	 * @param sampler where buildRoadMap draws node positions, null for
+	 * uniform sampling
+	 * @see Samplers
+	 */
+	public void setSampler(Sampler sampler) {
+		m_Sampler = sampler;
+	}
+
+	public Sampler getSampler() {
+		return m_Sampler;
+	}
+
+	/**
+	 * @param random source of uniform node positions; a seeded one makes
+	 * buildRoadMap reproducible, null to use Math.random()
+	 */
+	public void setRandom(Random random) {
+		m_Random = random;
+	}
+
+	/**
+	 * @return number of samples drawn by the last buildRoadMap
+	 */
+	public int getSampleCount() {
+		return m_Samples;
+	}
+
+	/**
+	 * @return samples of the last buildRoadMap that the sampler itself
+	 * rejected, e.g. failed bridge tests
+	 */
+	public int getSamplerRejectCount() {
+		return m_SamplerRejects;
+	}
+
+	/**
+	 * @return samples of the last buildRoadMap that were in collision
+	 */
+	public int getCollisionRejectCount() {
+		return m_CollisionRejects;
+	}
+
+	/**
+	 * @return edges collision checked by the last buildRoadMap
+	 */
+	public int getEdgeCheckCount() {
+		return m_EdgeChecks;
+	}
+
+	/**
+	 * @return one line summary of the sampling of the last buildRoadMap
+	 */
+	public String getSamplingStats() {
+		double total = Math.max(1, m_Samples);
+		return String.format("%d nodes from %d samples, %d (%.1f%%) rejected by the sampler, "
+				+ "%d (%.1f%%) in collision", m_Nodes.size(), m_Samples,
+				m_SamplerRejects, 100 * m_SamplerRejects / total,
+				m_CollisionRejects, 100 * m_CollisionRejects / total);
+	}
+
+	/**
+	 * @return number of edges of the road map
+	 */
+	public int getEdgeCount() {
+		return m_Edges.size();
+	}
+
+	/**
+	 * Remove the road map edges that cross a path, so that the road map
+	 * can be reused when another robot commits a new path instead of
+	 * being rebuilt from scratch.
+	 *
+	 * @param path path that edges must not cross
+	 * @return number of removed edges
+	 */
+	public int invalidateEdges(Path path) {
+
+		int removed = 0;
+
+		// backwards, removal moves the last edge into the freed slot
+		for (int i = m_Edges.size()-1; i >= 0; i--) {
+			PRMNode a = m_Nodes.get(m_Edges.a(i));
+			PRMNode b = m_Nodes.get(m_Edges.b(i));
+
+			if (path.intersectWith(a.getX(), a.getY(), b.getX(), b.getY())) {
+				removeEdge(i);
+				removed++;
+			}
+		}
+		if (removed > 0)
+			edgesChanged();
+		return removed;
+	}
+
+	/**
+	 * Remove the road map edges that come within the clearance of an
+	 * obstacle placed at run time. Only edges near the obstacle are
+	 * affected, the rest of the road map stays valid.
+	 *
+	 * @param obstacle obstacle that edges must keep clear of
+	 * @return number of removed edges
+	 */
+	public int invalidateEdges(Obstacle obstacle) {
+
+		int removed = 0;
+		double xMin = obstacle.xC - obstacle.halfWidth() - Workspace.CLEARANCE;
+		double xMax = obstacle.xC + obstacle.halfWidth() + Workspace.CLEARANCE;
+		double yMin = obstacle.yC - obstacle.halfHeight() - Workspace.CLEARANCE;
+		double yMax = obstacle.yC + obstacle.halfHeight() + Workspace.CLEARANCE;
+
+		for (int i = m_Edges.size()-1; i >= 0; i--) {
+			PRMNode a = m_Nodes.get(m_Edges.a(i));
+			PRMNode b = m_Nodes.get(m_Edges.b(i));
+
+			// most edges are far away, reject them by their bounding box
+			if (Math.max(a.getX(), b.getX()) < xMin || Math.min(a.getX(), b.getX()) > xMax
+					|| Math.max(a.getY(), b.getY()) < yMin || Math.min(a.getY(), b.getY()) > yMax)
+				continue;
+
+			if (obstacle.intersects(a.getX(), a.getY(), b.getX(), b.getY(), Workspace.CLEARANCE)) {
+				removeEdge(i);
+				removed++;
+			}
+		}
+		if (removed > 0)
+			edgesChanged();
+		return removed;
+	}
+
+	private synchronized void edgesChanged() {
+		m_ComponentsStale = true;
+		m_LandmarksStale = true;
+	}
+
+	private void removeEdge(int i) {
+		PRMNode a = m_Nodes.get(m_Edges.a(i));
+		PRMNode b = m_Nodes.get(m_Edges.b(i));
+		a.deleteEdge(b);
+		b.deleteEdge(a);
+		m_Edges.remove(i);
+	}
+
+	/**
+	 * Reconnect the road map over the space an obstacle gave back. The
+	 * freed box is sampled at the node density of the road map, and the
+	 * new nodes as well as the old ones within a neighbour distance of
+	 * the box are linked to their K nearest nodes again. Edges elsewhere
+	 * are left as they are.
+	 *
+	 * @param workspace workspace without the obstacle
+	 * @param freed obstacle removed or moved away
+	 * @return number of edges added
+	 */
+	public int repair(Workspace workspace, Obstacle freed) {
+
+		if (m_Nodes.isEmpty())
+			return 0;
+
+		double margin = Workspace.CLEARANCE;
+		double xMin = Math.max(workspace.xMin, freed.xC - freed.halfWidth() - margin);
+		double xMax = Math.min(workspace.xMax, freed.xC + freed.halfWidth() + margin);
+		double yMin = Math.max(workspace.yMin, freed.yC - freed.halfHeight() - margin);
+		double yMax = Math.min(workspace.yMax, freed.yC + freed.halfHeight() + margin);
+		if (xMin >= xMax || yMin >= yMax)
+			return 0;
+
+		// nodes cut off by the obstacle are still there and free again, the
+		// box is only topped up to the node density of the road map. Draws
+		// landing on other obstacles are not retried, as in the box the
+		// density counts the whole area.
+		int nNew = (int) Math.round(m_Density * (xMax - xMin) * (yMax - yMin));
+		for (int n = 0; n < m_Nodes.size(); n++) {
+			PRMNode node = m_Nodes.get(n);
+			if (node.getX() >= xMin && node.getX() <= xMax && node.getY() >= yMin && node.getY() <= yMax
+					&& !workspace.collidesWith(node.getX(), node.getY()))
+				nNew--;
+		}
+		int first = m_Nodes.size();
+		for (int i = 0; i < nNew; i++) {
+			double x = randomCoordinate(xMin, xMax);
+			double y = randomCoordinate(yMin, yMax);
+			if (workspace.collidesWith(x, y))
+				continue;
+
+			PRMNode node = new PRMNode();
+			node.setX(x);
+			node.setY(y);
+			node.m_Index = m_Nodes.size();
+			m_Nodes.add(node);
+		}
+
+		// old nodes whose K nearest may lie across the freed space, about
+		// the radius holding K nodes at the road map density
+		double reach = Math.sqrt(Math.max(1, m_K) / (Math.PI * m_Density));
+		UnionFind components = new UnionFind(m_Nodes.size());
+		NodeHeap nearest = Scratch.get().nearest;
+		int edges = m_Edges.size();
+
+		for (int n = 0; n < m_Nodes.size(); n++) {
+			PRMNode node = m_Nodes.get(n);
+			if (n < first && (node.getX() < xMin - reach || node.getX() > xMax + reach
+					|| node.getY() < yMin - reach || node.getY() > yMax + reach))
+				continue;
+
+			fillNodeDistances(node, nearest);
+			int k = 0;
+			while (!nearest.isEmpty() && k < m_K) {
+				int i = nearest.pop();
+				if (i == n)
+					continue;
+				connect(workspace, components, n, i, m_Step);
+				k++;
+			}
+		}
+
+		// the throwaway sets only saw the new edges
+		edgesChanged();
+		return m_Edges.size() - edges;
+	}
+
+	/**
+	 * Bring the road map in line with an obstacle change already applied
+	 * to the workspace: edges into the blocked space are removed and the
+	 * freed space is reconnected.
+	 *
+	 * @return number of edges removed and added
+	 */
+	public int update(Workspace workspace, ObstacleChange change) {
+
+		int changed = 0;
+		if (change.blocked() != null)
+			changed += invalidateEdges(change.blocked());
+		if (change.freed() != null)
+			changed += repair(workspace, change.freed());
+		return changed;
+	}
+
+	/**
+	 * @return connected component label of every road map node, nodes
+	 * share a label if and only if a path connects them
+	 */
+	synchronized int[] getComponents() {
+
+		if (m_ComponentsStale) {
+			UnionFind components = new UnionFind(m_Nodes.size());
+			for (int i = 0; i < m_Edges.size(); i++) {
+				components.union(m_Edges.a(i), m_Edges.b(i));
+			}
+			setComponents(components);
+		}
+		return m_Component;
+	}
+
+	/**
+	 * @return number of connected components of the road map
+	 */
+	public int getComponentCount() {
+		getComponents();
+		return m_ComponentCount;
+	}
+
+	private synchronized void setComponents(UnionFind components) {
+		m_Component = components.labels();
+		m_ComponentCount = components.sets();
+		m_ComponentsStale = false;
+	}
+
+	/**
+	 * @param count landmarks whose road map distances guide searches
+	 * (ALT heuristic); 16 of them expand two to four times fewer nodes
+	 * on cluttered floors and in mazes. 0, the default, uses straight
+	 * line distances only.
+	 */
+	public synchronized void setLandmarks(int count) {
+		if (count != m_LandmarkCount)
+			m_Landmarks = null;
+		m_LandmarkCount = count;
+	}
+
+	/**
+	 * @return landmark distances of the road map, null if searches use
+	 * straight line distances only
+	 */
+	synchronized Landmarks getLandmarks() {
+
+		if (m_LandmarkCount <= 0 || m_Nodes.isEmpty())
+			return null;
+		if (m_Landmarks == null || m_LandmarksStale) {
+			long start = System.nanoTime();
+			m_Landmarks = m_Landmarks == null
+					? Landmarks.select(m_Nodes, getComponents(), m_LandmarkCount)
+					: m_Landmarks.refresh(m_Nodes);
+			m_LandmarksStale = false;
+			LANDMARKS_TIMER.recordSince(start);
+		}
+		return m_Landmarks;
+	}
+
+	/**
+	 * @return true if buildRoadMap has been called
+	 */
+	public boolean hasRoadMap() {
+		return !m_Nodes.isEmpty();
+	}
+
+	/**
+	 * Use this function to generate matlab code to display the nodes and edges.
+	 *
+	 * @param s reference to stream to output matlab code to
+	 * @param dispEdges flag telling if we should generate display code for edges
+	 * @param dispNodes flag telling if we should generate display code for nodes
+	 * @return N/A
+	 */
+	public void writeMatlabDisplayCode(String mfile, boolean dispEdges, boolean dispNodes)
+			throws IOException {
 
-			fw.write("  plot([" +
-					m_Nodes.get(e.a).getX() + "," +
-					m_Nodes.get(e.b).getX() + "] ,[" +
-					m_Nodes.get(e.a).getY() + ", " +
-					m_Nodes.get(e.b).getY() + "], \'g\')\n");
+		try (Writer w = new BufferedWriter(new FileWriter(mfile, true))) {
+			Snapshot.of(this).writeMatlabRoadMap(w, dispEdges, dispNodes);
 		}
-		fw.write("end\n");
-		fw.write("hold off\n");
-		fw.close();
 	}
 }
@@ -15,8 +15,8 @@ import java.util.List;
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
 
 public class Path {
 	public String id;
@@ -33,22 +33,113 @@ public class Path {
 
 	public Path(String pathJSON) {
 
-		JsonReader jsonReader = Json.createReader(new StringReader(pathJSON));
-		JsonObject jsonPath = jsonReader.readObject();
-		jsonReader.close();
+		JsonParser parser = JsonStream.parser(new StringReader(pathJSON));
+		JsonStream.expect(parser, Event.START_OBJECT);
+		readJSON(parser, this);
+		parser.close();
+	}
 
-		this.id = jsonPath.getString("robotId");
-		this.points = new ArrayList<Position>();
+	/**
+	 * Parse a path object {"robotId": .., "points": [..]}. The parser must
+	 * be positioned right after the START_OBJECT event.
+	 */
+	public static Path readJSON(JsonParser parser) {
+		return readJSON(parser, new Path());
+	}
+
+	private static Path readJSON(JsonParser parser, Path path) {
+
+		Event e;
+		while ((e = parser.next()) != Event.END_OBJECT) {
+
+			String key = parser.getString();
+			if (key.equals("robotId")) {
+				path.id = JsonStream.readString(parser);
+			} else if (key.equals("points")) {
+				JsonStream.expect(parser, Event.START_ARRAY);
+				path.points = readPoints(parser);
+			} else {
+				JsonStream.skipValue(parser, parser.next());
+			}
+		}
+		if (path.points == null)
+			path.points = new ArrayList<Position>();
+		return path;
+	}
+
+	/**
+	 * Parse an array of point objects {"x": .., "y": ..}. The parser must
+	 * be positioned right after the START_ARRAY event.
+	 */
+	public static ArrayList<Position> readPoints(JsonParser parser) {
+
+		ArrayList<Position> points = new ArrayList<Position>();
+
+		while (parser.next() == Event.START_OBJECT) {
+			double x = 0, y = 0;
+			while (parser.next() == Event.KEY_NAME) {
+				String key = parser.getString();
+				if (key.equals("x")) {
+					x = JsonStream.readNumber(parser);
+				} else if (key.equals("y")) {
+					y = JsonStream.readNumber(parser);
+				} else {
+					JsonStream.skipValue(parser, parser.next());
+				}
+			}
+			points.add(new Position(x, y));
+		}
+		return points;
+	}
+
+	/**
+	 * Parse a JSON array of path objects.
+	 *
+	 * @param payload raw JSON bytes
+	 * @param paths list to append the parsed paths to
+	 */
+	public static void readJSONArray(byte[] payload, List<Path> paths) {
+
+		JsonParser parser = JsonStream.parser(payload);
+		JsonStream.expect(parser, Event.START_ARRAY);
+		readJSONArray(parser, paths);
+		parser.close();
+	}
 
-		double x, y;
-		JsonArray jsonPoints = jsonPath.getJsonArray("points");
-		for (int i = 0; i < jsonPoints.size(); i++) {
-			x = jsonPoints.getJsonObject(i).getJsonNumber("x").doubleValue();
-			y = jsonPoints.getJsonObject(i).getJsonNumber("y").doubleValue();
-			this.points.add(new Position(x, y));
+	/**
+	 * Parse an array of path objects. The parser must be positioned right
+	 * after the START_ARRAY event.
+	 */
+	public static void readJSONArray(JsonParser parser, List<Path> paths) {
+		while (parser.next() == Event.START_OBJECT) {
+			paths.add(readJSON(parser));
 		}
 	}
 
+	/**
+	 * Parse a path payload in either the binary or the JSON encoding
+	 *
+	 * @param payload path as stored on the ledger or carried by an event
+	 * @return decoded path
+	 */
+	public static Path parse(byte[] payload) {
+		if (PathCodec.isBinary(payload))
+			return PathCodec.decode(payload);
+
+		JsonParser parser = JsonStream.parser(payload);
+		JsonStream.expect(parser, Event.START_OBJECT);
+		Path path = readJSON(parser);
+		parser.close();
+		return path;
+	}
+
+	/**
+	 * @return compact binary encoding of this path, see PathCodec
+	 */
+	public byte[] toBytes() {
+		return PathCodec.encode(this);
+	}
+
 	// return true if intersects
 	public boolean intersectWith(double x1, double y1, double x2, double y2) {
 
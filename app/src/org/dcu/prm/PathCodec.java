@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of paths, mirrored by the chaincode
+ * (pathcodec.go). Layout:
+ *
+ * <pre>
+ *   magic (1 byte) | version (1 byte) |
+ *   uvarint id length | id bytes (UTF-8) |
+ *   uvarint point count |
+ *   zig-zag varint x, y of every point as fixed-point delta to the previous one
+ * </pre>
+ *
+ * Responses holding several paths frame each of them with a uvarint
+ * length prefix.
+ */
+public final class PathCodec {
+
+	public static final int MAGIC = 0xB7;
+	public static final int VERSION = 1;
+
+	/** Fixed-point resolution of 1e-4 workspace units */
+	public static final double COORD_SCALE = 10000.0;
+
+	/** Format names understood by the chaincode queries */
+	public static final String FORMAT_JSON = "json";
+	public static final String FORMAT_BINARY = "bin";
+
+	private PathCodec() {
+	}
+
+	/**
+	 * @return true if the payload holds a binary encoded path
+	 */
+	public static boolean isBinary(byte[] payload) {
+		return payload.length >= 2 && (payload[0] & 0xFF) == MAGIC;
+	}
+
+	public static byte[] encode(Path path) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8 + 6 * path.points.size());
+
+		out.write(MAGIC);
+		out.write(VERSION);
+
+		byte[] id = (path.id == null ? "" : path.id).getBytes(StandardCharsets.UTF_8);
+		writeUVarint(out, id.length);
+		out.write(id, 0, id.length);
+
+		writeUVarint(out, path.points.size());
+
+		long xPrev = 0, yPrev = 0;
+		for (Position point : path.points) {
+			long x = Math.round(point.getX() * COORD_SCALE);
+			long y = Math.round(point.getY() * COORD_SCALE);
+			writeVarint(out, x - xPrev);
+			writeVarint(out, y - yPrev);
+			xPrev = x;
+			yPrev = y;
+		}
+		return out.toByteArray();
+	}
+
+	public static Path decode(byte[] payload) {
+		return decode(payload, new int[] { 0 });
+	}
+
+	/**
+	 * Decode one path starting at pos[0] and advance pos[0] past it.
+	 */
+	static Path decode(byte[] payload, int[] pos) {
+
+		if (payload.length - pos[0] < 2 || (payload[pos[0]] & 0xFF) != MAGIC)
+			throw new IllegalArgumentException("Not a binary path");
+		if ((payload[pos[0]+1] & 0xFF) != VERSION)
+			throw new IllegalArgumentException("Unsupported binary path version " + (payload[pos[0]+1] & 0xFF));
+		pos[0] += 2;
+
+		int idLen = (int) readUVarint(payload, pos);
+		if (idLen < 0 || pos[0] + idLen > payload.length)
+			throw new IllegalArgumentException("Malformed binary path");
+		String id = new String(payload, pos[0], idLen, StandardCharsets.UTF_8);
+		pos[0] += idLen;
+
+		int count = (int) readUVarint(payload, pos);
+		if (count < 0 || count > payload.length)
+			throw new IllegalArgumentException("Malformed binary path");
+
+		ArrayList<Position> points = new ArrayList<Position>(count);
+		long x = 0, y = 0;
+		for (int i = 0; i < count; i++) {
+			x += readVarint(payload, pos);
+			y += readVarint(payload, pos);
+			points.add(new Position(x / COORD_SCALE, y / COORD_SCALE));
+		}
+		return new Path(points, id);
+	}
+
+	/**
+	 * Decode a sequence of length-prefixed binary paths.
+	 *
+	 * @param payload response payload
+	 * @param offset where the first record starts
+	 * @param paths list to append the decoded paths to
+	 */
+	public static void decodeFramed(byte[] payload, int offset, List<Path> paths) {
+
+		int[] pos = { offset };
+		while (pos[0] < payload.length) {
+			int len = (int) readUVarint(payload, pos);
+			int end = pos[0] + len;
+			if (len < 0 || end > payload.length)
+				throw new IllegalArgumentException("Malformed path record");
+			paths.add(decode(payload, pos));
+			pos[0] = end;
+		}
+	}
+
+	/**
+	 * Read a length-prefixed UTF-8 string starting at pos[0] and advance
+	 * pos[0] past it.
+	 */
+	public static String readFramedString(byte[] payload, int[] pos) {
+
+		int len = (int) readUVarint(payload, pos);
+		if (len < 0 || pos[0] + len > payload.length)
+			throw new IllegalArgumentException("Malformed string record");
+		String s = new String(payload, pos[0], len, StandardCharsets.UTF_8);
+		pos[0] += len;
+		return s;
+	}
+
+	static void writeUVarint(ByteArrayOutputStream out, long v) {
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	// zig-zag encoding, same as Go's binary.PutVarint
+	static void writeVarint(ByteArrayOutputStream out, long v) {
+		writeUVarint(out, (v << 1) ^ (v >> 63));
+	}
+
+	static long readUVarint(byte[] in, int[] pos) {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (pos[0] >= in.length)
+				throw new IllegalArgumentException("Truncated varint");
+			int b = in[pos[0]++] & 0xFF;
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+		throw new IllegalArgumentException("Varint too long");
+	}
+
+	static long readVarint(byte[] in, int[] pos) {
+		long u = readUVarint(in, pos);
+		return (u >>> 1) ^ -(u & 1);
+	}
+}
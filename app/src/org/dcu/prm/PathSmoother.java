@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.dcu.trace.Trace;
+import org.dcu.trace.TraceEvent;
+
+/**
+ * Post-processing of road map paths. Raw paths zig-zag from node to
+ * node; shortcutting replaces runs of waypoints by straight segments
+ * wherever these are free of obstacles and of the paths committed in
+ * the workspace. This shortens the path and, more importantly, leaves
+ * fewer waypoints for the ledger and for every other robot's collision
+ * checks.
+ *
+ * Segment checks are memoized, so the same segment is never sampled
+ * twice while smoothing a path.
+ */
+public class PathSmoother {
+
+	/** Segment end points, as a cache key */
+	private static final class Segment {
+		final double x1, y1, x2, y2;
+
+		Segment(Position a, Position b) {
+			this.x1 = a.getX();
+			this.y1 = a.getY();
+			this.x2 = b.getX();
+			this.y2 = b.getY();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Segment))
+				return false;
+			Segment s = (Segment) o;
+			return x1 == s.x1 && y1 == s.y1 && x2 == s.x2 && y2 == s.y2;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = Double.doubleToLongBits(x1);
+			h = 31 * h + Double.doubleToLongBits(y1);
+			h = 31 * h + Double.doubleToLongBits(x2);
+			h = 31 * h + Double.doubleToLongBits(y2);
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	private final PRMPlanner planner;
+	private final Workspace workspace;
+	private final HashMap<Segment, Boolean> checked = new HashMap<Segment, Boolean>();
+
+	/** Number of random shortcut attempts after the greedy pass */
+	public int randomShortcuts = 50;
+
+	/** Intermediate points per segment of the spline, 0 to keep straight segments */
+	public int splineSamples = 0;
+
+	/**
+	 * Collision sampling step of shortcuts. Shortcuts run along obstacle
+	 * corners far more often than road map edges do, so they are sampled
+	 * finer than the road map by default.
+	 */
+	public double checkStep;
+
+	/** Segment checks answered from the cache, and sampled */
+	public int cacheHits, cacheMisses;
+
+	private final Random random;
+
+	/**
+	 * @param planner planner whose segment collision check is used
+	 * @param workspace obstacles and committed paths to stay clear of
+	 */
+	public PathSmoother(PRMPlanner planner, Workspace workspace) {
+		this(planner, workspace, new Random());
+	}
+
+	public PathSmoother(PRMPlanner planner, Workspace workspace, Random random) {
+		this.planner = planner;
+		this.workspace = workspace;
+		this.random = random;
+		this.checkStep = planner.m_Step / 4;
+	}
+
+	/**
+	 * @return smoothed copy of the path, with the same id and end points
+	 */
+	public Path smooth(Path path) {
+
+		Trace.begin(TraceEvent.SMOOTH, path.points.size(), 0);
+		ArrayList<Position> points = shortcutGreedy(path.points);
+		points = shortcutRandom(points);
+		if (splineSamples > 0)
+			points = spline(points);
+		Trace.end(TraceEvent.SMOOTH, points.size(), 0);
+		return new Path(points, path.id);
+	}
+
+	/**
+	 * From each kept waypoint jump to the farthest one it can see
+	 */
+	ArrayList<Position> shortcutGreedy(ArrayList<Position> points) {
+
+		ArrayList<Position> result = new ArrayList<Position>();
+		if (points.isEmpty())
+			return result;
+
+		int i = 0;
+		result.add(points.get(0));
+		while (i < points.size()-1) {
+			int j = points.size()-1;
+			while (j > i+1 && !isFree(points.get(i), points.get(j))) {
+				j--;
+			}
+			result.add(points.get(j));
+			i = j;
+		}
+		return result;
+	}
+
+	/**
+	 * Try straight shortcuts between random points along the path, which
+	 * also cuts corners that no pair of waypoints can
+	 */
+	ArrayList<Position> shortcutRandom(ArrayList<Position> points) {
+
+		for (int k = 0; k < randomShortcuts && points.size() > 2; k++) {
+
+			// two points on different segments
+			int a = random.nextInt(points.size()-1);
+			int b = random.nextInt(points.size()-1);
+			if (a == b)
+				continue;
+			if (a > b) {
+				int t = a;
+				a = b;
+				b = t;
+			}
+			Position p = interpolate(points.get(a), points.get(a+1), random.nextDouble());
+			Position q = interpolate(points.get(b), points.get(b+1), random.nextDouble());
+
+			if (distance(p, q) >= length(points, a, b, p, q) || !isFree(p, q))
+				continue;
+
+			// a..p, q..b+1 replaces a..b+1
+			ArrayList<Position> next = new ArrayList<Position>(points.size());
+			next.addAll(points.subList(0, a+1));
+			next.add(p);
+			next.add(q);
+			next.addAll(points.subList(b+1, points.size()));
+			points = shortcutGreedy(next);
+		}
+		return points;
+	}
+
+	/**
+	 * Replace each segment by a Catmull-Rom curve through its end points,
+	 * where the curve is clear; otherwise the straight segment stays
+	 */
+	ArrayList<Position> spline(ArrayList<Position> points) {
+
+		if (points.size() < 3)
+			return points;
+
+		ArrayList<Position> result = new ArrayList<Position>();
+		result.add(points.get(0));
+
+		for (int i = 0; i < points.size()-1; i++) {
+			Position p0 = points.get(Math.max(0, i-1));
+			Position p1 = points.get(i);
+			Position p2 = points.get(i+1);
+			Position p3 = points.get(Math.min(points.size()-1, i+2));
+
+			ArrayList<Position> curve = new ArrayList<Position>(splineSamples);
+			Position last = p1;
+			boolean free = true;
+			for (int k = 1; k <= splineSamples && free; k++) {
+				Position c = catmullRom(p0, p1, p2, p3, (double) k / (splineSamples + 1));
+				free = isFree(last, c);
+				curve.add(c);
+				last = c;
+			}
+			if (free && isFree(last, p2))
+				result.addAll(curve);
+			result.add(p2);
+		}
+		return result;
+	}
+
+	private boolean isFree(Position a, Position b) {
+		Segment s = new Segment(a, b);
+		Boolean free = checked.get(s);
+		if (free != null) {
+			cacheHits++;
+			return free;
+		}
+		cacheMisses++;
+		free = planner.isCollisionFreePath(workspace, a.getX(), a.getY(), b.getX(), b.getY(), checkStep);
+		checked.put(s, free);
+		return free;
+	}
+
+	// length of the path from p on segment a to q on segment b
+	private static double length(ArrayList<Position> points, int a, int b, Position p, Position q) {
+		double len = distance(p, points.get(a+1));
+		for (int i = a+1; i < b; i++) {
+			len += distance(points.get(i), points.get(i+1));
+		}
+		return len + distance(points.get(b), q);
+	}
+
+	private static double distance(Position a, Position b) {
+		double dx = b.getX() - a.getX();
+		double dy = b.getY() - a.getY();
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+
+	private static Position interpolate(Position a, Position b, double f) {
+		return new Position(a.getX() + f * (b.getX() - a.getX()),
+				a.getY() + f * (b.getY() - a.getY()));
+	}
+
+	private static Position catmullRom(Position p0, Position p1, Position p2, Position p3, double t) {
+		double t2 = t * t, t3 = t2 * t;
+		double x = 0.5 * (2 * p1.getX() + (-p0.getX() + p2.getX()) * t
+				+ (2 * p0.getX() - 5 * p1.getX() + 4 * p2.getX() - p3.getX()) * t2
+				+ (-p0.getX() + 3 * p1.getX() - 3 * p2.getX() + p3.getX()) * t3);
+		double y = 0.5 * (2 * p1.getY() + (-p0.getY() + p2.getY()) * t
+				+ (2 * p0.getY() - 5 * p1.getY() + 4 * p2.getY() - p3.getY()) * t2
+				+ (-p0.getY() + 3 * p1.getY() - 3 * p2.getY() + p3.getY()) * t3);
+		return new Position(x, y);
+	}
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+class Polygon {
+	// vertices in order, the outline may be concave
+	double[] xs, ys;
+	// id of an obstacle added at run time, null for the static ones
+	String id;
+
+	public Polygon(double[] xs, double[] ys) {
+		this.xs = xs;
+		this.ys = ys;
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+/**
+ * Free point on the border of two zones. Paths leaving a zone do so
+ * through one of its portals.
+ */
+public class Portal {
+
+	/** Position in ZoneMap.getPortals() */
+	public final int index;
+	public final double x, y;
+	/** the two zones joined */
+	public final Zone a, b;
+
+	Portal(int index, double x, double y, Zone a, Zone b) {
+		this.index = index;
+		this.x = x;
+		this.y = y;
+		this.a = a;
+		this.b = b;
+	}
+
+	/**
+	 * @return the zone on the other side of the portal
+	 */
+	public Zone other(Zone zone) {
+		return zone == a ? b : a;
+	}
+
+	@Override
+	public String toString() {
+		return "Portal[" + a.id + "|" + b.id + " " + x + "," + y + "]";
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prioritized multi-robot planning: robots are planned one after the
+ * other in priority order with SpaceTimePlanner, each one avoiding the
+ * trajectories reserved by the robots planned before it. All robots share
+ * one road map.
+ */
+public class PrioritizedPlanner {
+
+	private final PRMPlanner roadmap;
+	private final ReservationTable table;
+	private final SpaceTimePlanner planner;
+
+	public PrioritizedPlanner(PRMPlanner roadmap, ReservationTable table) {
+		this.roadmap = roadmap;
+		this.table = table;
+		this.planner = new SpaceTimePlanner(roadmap, table);
+	}
+
+	public SpaceTimePlanner getSpaceTimePlanner() {
+		return planner;
+	}
+
+	public ReservationTable getReservationTable() {
+		return table;
+	}
+
+	/**
+	 * Plan all robots, highest priority first. The reservation table
+	 * keeps the reservations of the planned robots afterwards, so robots
+	 * joining later can be planned against them with planOne.
+	 *
+	 * @param workspace workspace the road map was built for
+	 * @param starts start position of each robot, in priority order
+	 * @param goals goal position of each robot
+	 * @param ids robot ids, the position in the list is the owner id in the table
+	 * @return one timed path per robot, null for robots without a solution
+	 */
+	public List<TimedPath> planAll(Workspace workspace, List<Position> starts,
+			List<Position> goals, List<String> ids) {
+
+		if (!roadmap.hasRoadMap())
+			throw new IllegalStateException("buildRoadMap must be called first");
+
+		List<TimedPath> paths = new ArrayList<TimedPath>(ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			paths.add(planOne(workspace, starts.get(i), goals.get(i), i, ids.get(i)));
+		}
+		return paths;
+	}
+
+	/**
+	 * Plan (or re-plan) one robot against the current reservations and
+	 * reserve its new path.
+	 *
+	 * @return timed path, or null if no path was found
+	 */
+	public TimedPath planOne(Workspace workspace, Position start, Position goal,
+			int owner, String id) {
+
+		// a re-plan must not be blocked by its own previous path
+		table.release(owner);
+
+		TimedPath path = planner.findPath(workspace, start.getX(), start.getY(),
+				goal.getX(), goal.getY(), owner, id);
+		if (path != null)
+			table.reserve(path, owner);
+		return path;
+	}
+}
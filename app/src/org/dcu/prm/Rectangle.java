@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2004 Patric Jensfelt.
+ * All Rights Reserved.
+ */
+
+package org.dcu.prm;
+
+class Rectangle {
+	// angle in radians, counterclockwise
+	double xC, yC, width, height, angle;
+	// id of an obstacle added at run time, null for the static ones
+	String id;
+
+	public Rectangle(double xC, double yC, double width, double height) {
+		this.xC = xC;
+		this.yC = yC;
+		this.width = width;
+		this.height = height;
+	}
+
+	public Rectangle(double xC, double yC, double width, double height, double angle) {
+		this(xC, yC, width, height);
+		this.angle = angle;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.ArrayList;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+
+/**
+ * A polygonal area of the workspace, used to restrict path queries to
+ * the neighborhood a robot actually cares about.
+ */
+public class Region {
+	public ArrayList<Position> points;
+
+	public Region(ArrayList<Position> points) {
+		this.points = points;
+	}
+
+	/**
+	 * Axis aligned box (xMin,yMin)->(xMax,yMax)
+	 */
+	public static Region box(double xMin, double yMin, double xMax, double yMax) {
+
+		ArrayList<Position> points = new ArrayList<Position>();
+		points.add(new Position(xMin, yMin));
+		points.add(new Position(xMax, yMin));
+		points.add(new Position(xMax, yMax));
+		points.add(new Position(xMin, yMax));
+		return new Region(points);
+	}
+
+	/**
+	 * Rectangle enclosing the straight line (xS,yS)->(xG,yG) with a
+	 * margin of halfWidth on every side.
+	 *
+	 * @param xS x-coordinate of the start point of the corridor
+	 * @param yS y-coordinate of the start point of the corridor
+	 * @param xG x-coordinate of the end point of the corridor
+	 * @param yG y-coordinate of the end point of the corridor
+	 * @param halfWidth distance from the center line to the corridor border
+	 */
+	public static Region corridor(double xS, double yS, double xG, double yG,
+			double halfWidth) {
+
+		double dx = xG - xS;
+		double dy = yG - yS;
+		double len = Math.sqrt(dx*dx + dy*dy);
+
+		// Degenerate corridor, start and goal are the same
+		if (len == 0) {
+			return box(xS - halfWidth, yS - halfWidth, xS + halfWidth, yS + halfWidth);
+		}
+
+		// offsets along and across the center line, halfWidth long
+		double ux = dx / len * halfWidth;
+		double uy = dy / len * halfWidth;
+		double nx = -uy;
+		double ny = ux;
+
+		ArrayList<Position> points = new ArrayList<Position>();
+		points.add(new Position(xS - ux + nx, yS - uy + ny));
+		points.add(new Position(xS - ux - nx, yS - uy - ny));
+		points.add(new Position(xG + ux - nx, yG + uy - ny));
+		points.add(new Position(xG + ux + nx, yG + uy + ny));
+		return new Region(points);
+	}
+
+	public String toJSONString() {
+
+		JsonArrayBuilder builder = Json.createArrayBuilder();
+		for (Position point : points) {
+			builder.add(Json.createObjectBuilder()
+					.add("x", point.getX())
+					.add("y", point.getY()));
+		}
+		return builder.build().toString();
+	}
+}
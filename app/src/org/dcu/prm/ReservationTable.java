@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+/**
+ * Space-time reservation table of committed trajectories. Space is
+ * discretized in square cells and time in fixed steps. Each reserved
+ * (cell, step) pair is packed into a single long key and stored with the
+ * id of the robot holding it, so that a large fleet costs only two
+ * primitive array slots per reservation.
+ *
+ * A robot that reached its goal keeps its goal cells from then on; this
+ * is tracked separately, per cell, as the step from which it is parked.
+ */
+public class ReservationTable {
+
+	// bits of the packed key: 20 for each cell coordinate, 23 for time
+	// below the sign bit, so no key is LongIntMap's empty marker
+	private static final int CELL_BITS = 20;
+	private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+	private static final int MAX_STEP = (1 << 23) - 1;
+
+	private final double cellSize;
+	private final double timeStep;
+	private final double robotRadius;
+
+	/** (step, cell) -> robot id */
+	private final LongIntMap reserved = new LongIntMap(1024);
+	/** cell -> robot id parked there for good */
+	private final LongIntMap parkedBy = new LongIntMap(64);
+	/** cell -> step from which the cell is parked */
+	private final LongIntMap parkedFrom = new LongIntMap(64);
+	/** upper bound of the reserved steps, not lowered on release */
+	private int lastStep = -1;
+
+	/**
+	 * @param cellSize side length of the spatial cells
+	 * @param timeStep duration of one time step in seconds
+	 * @param robotRadius cells within this distance of a robot are reserved
+	 */
+	public ReservationTable(double cellSize, double timeStep, double robotRadius) {
+		this.cellSize = cellSize;
+		this.timeStep = timeStep;
+		this.robotRadius = robotRadius;
+	}
+
+	public double getTimeStep() {
+		return timeStep;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	public double getRobotRadius() {
+		return robotRadius;
+	}
+
+	/**
+	 * @return number of (cell, step) reservations held
+	 */
+	public int size() {
+		return reserved.size();
+	}
+
+	public void clear() {
+		reserved.clear();
+		parkedBy.clear();
+		parkedFrom.clear();
+		lastStep = -1;
+	}
+
+	/**
+	 * Reserve the cells swept by a timed path, and its goal cells from
+	 * the arrival step on.
+	 *
+	 * @param path trajectory to reserve
+	 * @param owner id of the robot following the path
+	 */
+	public void reserve(TimedPath path, int owner) {
+
+		int end = path.getEndStep();
+		lastStep = Math.max(lastStep, end);
+		for (int t = 0; t <= end; t++) {
+			Position p = path.positionAt(t);
+			reserveAround(p.getX(), p.getY(), t, owner);
+		}
+
+		Position goal = path.points.get(path.points.size()-1);
+		int cx0 = cell(goal.getX() - robotRadius), cx1 = cell(goal.getX() + robotRadius);
+		int cy0 = cell(goal.getY() - robotRadius), cy1 = cell(goal.getY() + robotRadius);
+		for (int cx = cx0; cx <= cx1; cx++) {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				long key = cellKey(cx, cy);
+				parkedBy.put(key, owner);
+				parkedFrom.put(key, end);
+			}
+		}
+	}
+
+	/**
+	 * Drop all reservations of a robot, e.g. before it re-plans
+	 */
+	public void release(final int owner) {
+		reserved.removeValue(owner);
+		parkedBy.forEach(new LongIntMap.Visitor() {
+			@Override
+			public void visit(long key, int value) {
+				if (value == owner)
+					parkedFrom.remove(key);
+			}
+		});
+		parkedBy.removeValue(owner);
+	}
+
+	/**
+	 * @return true if a robot other than owner occupies any cell within
+	 * the robot radius of (x,y) at step t
+	 */
+	public boolean isReserved(double x, double y, int t, int owner) {
+
+		if (reserved.size() == 0 && parkedBy.size() == 0)
+			return false;
+
+		int cx0 = cell(x - robotRadius), cx1 = cell(x + robotRadius);
+		int cy0 = cell(y - robotRadius), cy1 = cell(y + robotRadius);
+
+		for (int cx = cx0; cx <= cx1; cx++) {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				int holder = reserved.get(key(cx, cy, t), owner);
+				if (holder != owner)
+					return true;
+
+				long ck = cellKey(cx, cy);
+				holder = parkedBy.get(ck, owner);
+				if (holder != owner && parkedFrom.get(ck, Integer.MAX_VALUE) <= t)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return last step at which a robot other than owner will pass near
+	 * (x,y), or -1 if there is none. Infinite if another robot parks there.
+	 */
+	public int lastReservedStep(double x, double y, int owner, int horizon) {
+
+		int cx0 = cell(x - robotRadius), cx1 = cell(x + robotRadius);
+		int cy0 = cell(y - robotRadius), cy1 = cell(y + robotRadius);
+
+		for (int cx = cx0; cx <= cx1; cx++) {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				int holder = parkedBy.get(cellKey(cx, cy), owner);
+				if (holder != owner)
+					return Integer.MAX_VALUE;
+			}
+		}
+
+		for (int t = Math.min(horizon, lastStep); t >= 0; t--) {
+			if (isReserved(x, y, t, owner))
+				return t;
+		}
+		return -1;
+	}
+
+	private void reserveAround(double x, double y, int t, int owner) {
+
+		int cx0 = cell(x - robotRadius), cx1 = cell(x + robotRadius);
+		int cy0 = cell(y - robotRadius), cy1 = cell(y + robotRadius);
+
+		for (int cx = cx0; cx <= cx1; cx++) {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				reserved.put(key(cx, cy, t), owner);
+			}
+		}
+	}
+
+	private int cell(double v) {
+		return (int) Math.floor(v / cellSize);
+	}
+
+	private static long cellKey(int cx, int cy) {
+		return ((cx & CELL_MASK) << CELL_BITS) | (cy & CELL_MASK);
+	}
+
+	private static long key(int cx, int cy, int t) {
+		if (t > MAX_STEP)
+			throw new IllegalArgumentException("Time step " + t + " beyond the table horizon");
+		return ((long) t << (2 * CELL_BITS)) | cellKey(cx, cy);
+	}
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.dcu.metrics.Counter;
+import org.dcu.metrics.Metrics;
+import org.dcu.metrics.Timer;
+import org.dcu.trace.Trace;
+import org.dcu.trace.TraceEvent;
+
+/**
+ * One start/goal query on a PRM road map. Among the maxAttempts closest
+ * attachment nodes of the start and of the goal, the closest pair in the
+ * same connected component of the road map is searched, so a search
+ * never runs only to find out the two are disconnected. The search state
+ * lives in flat arrays indexed by road map node; in ANYTIME mode it is
+ * kept after the first path, and improve() continues it with a smaller
+ * heuristic inflation instead of starting over (ARA*).
+ *
+ * The heuristic is the straight line distance, or, if the road map has
+ * landmarks, the larger of that and the landmark bound (ALT), which
+ * follows the detours around obstacles much more closely.
+ *
+ * Unlike AStarNode.findPath it leaves the road map nodes untouched, so
+ * several queries can run on the same road map concurrently. The open
+ * lists are primitive heaps, so a search that is reset for the next
+ * query expands nodes without allocating.
+ */
+public class RoadMapSearch {
+
+	private static final double INF = Double.POSITIVE_INFINITY;
+
+	private static final Timer SEARCH_TIMER = Metrics.timer("prm.search");
+	private static final Timer IMPROVE_TIMER = Metrics.timer("prm.search.improve");
+	private static final Counter EXPANSIONS = Metrics.counter("prm.search.expansions");
+
+	// per node flags, only valid if the node was touched by the current search
+	private static final byte CLOSED_F = 1;
+	private static final byte CLOSED_B = 2;
+	private static final byte OPEN = 4;
+	private static final byte INCONS = 8;
+
+	/** Outcome of find() */
+	public enum Status {
+		FOUND,
+		/** no road map node is visible from the start */
+		NO_START_ATTACHMENT,
+		/** no road map node is visible from the goal */
+		NO_GOAL_ATTACHMENT,
+		/** start and goal attach to different components of the road map */
+		DISCONNECTED,
+		/** not searched yet */
+		NOT_FOUND
+	}
+
+	/** Heuristic inflation of the first ANYTIME path */
+	public double initialEpsilon = 3.0;
+
+	/** Inflation decrease of each improve() call */
+	public double epsilonStep = 0.5;
+
+	/** Number of nodes expanded by this query so far */
+	public int expansions;
+
+	private final PRMPlanner roadmap;
+	private final List<PRMNode> nodes;
+	private double xStart, yStart, xGoal, yGoal;
+	private int[] startNodes = new int[0], goalNodes = new int[0];
+	private int nStart, nGoal;
+
+	// component label of each road map node
+	private int[] component;
+	// landmark distances, null for straight line distances only
+	private Landmarks landmarks;
+	private Status status = Status.NOT_FOUND;
+
+	// search state, reset lazily by bumping the search stamp
+	private double[] gF, gB;
+	private int[] parentF, parentB;
+	private byte[] flags;
+	private int[] stamp;
+	private int search;
+
+	// open lists, the backward one only used by BIDIRECTIONAL
+	private final NodeHeap openF = new NodeHeap();
+	private final NodeHeap openB = new NodeHeap();
+
+	// ANYTIME state of the successful attachment pair
+	private int anyStart = -1, anyGoal = -1;
+	private double epsilon;
+	private int[] incons = new int[16];
+	private int nIncons;
+
+	private boolean optimal;
+
+	RoadMapSearch(PRMPlanner roadmap, Workspace workspace, int maxAttempts) {
+
+		this.roadmap = roadmap;
+		this.nodes = roadmap.m_Nodes;
+		reset(workspace, maxAttempts);
+	}
+
+	/**
+	 * Turn this search into a new query from the workspace start to its
+	 * goal, reusing the search state arrays. Those are only reallocated
+	 * if the road map has grown.
+	 */
+	void reset(Workspace workspace, int maxAttempts) {
+
+		this.xStart = workspace.xStart;
+		this.yStart = workspace.yStart;
+		this.xGoal = workspace.xGoal;
+		this.yGoal = workspace.yGoal;
+
+		if (startNodes.length < maxAttempts) {
+			startNodes = new int[maxAttempts];
+			goalNodes = new int[maxAttempts];
+		}
+
+		// Find the nodes in the graph that are closest to the start and goal
+		// point and offer a collision free path from these points to the
+		// road map.
+		nStart = roadmap.findClosestNodesOnGraph(workspace, xStart, yStart, maxAttempts, startNodes);
+		nGoal = roadmap.findClosestNodesOnGraph(workspace, xGoal, yGoal, maxAttempts, goalNodes);
+
+		int n = nodes.size();
+		component = roadmap.getComponents();
+		landmarks = roadmap.getLandmarks();
+		if (gF == null || gF.length < n) {
+			gF = new double[n];
+			gB = new double[n];
+			parentF = new int[n];
+			parentB = new int[n];
+			flags = new byte[n];
+			stamp = new int[n];
+			search = 0;
+		}
+
+		status = Status.NOT_FOUND;
+		anyStart = anyGoal = -1;
+		optimal = false;
+		expansions = 0;
+	}
+
+	/**
+	 * Find a path between the closest connected pair of attachment nodes.
+	 *
+	 * @return path from start to goal, null if there is none, see getStatus
+	 */
+	public Path find(SearchMode mode) {
+
+		long start = System.nanoTime();
+		int before = expansions;
+		Trace.begin(TraceEvent.SEARCH, mode.ordinal(), 0);
+		Trace.mark(TraceEvent.ATTACHMENT, nStart, nGoal);
+		Path path = query(mode);
+		SEARCH_TIMER.recordSince(start);
+		EXPANSIONS.add(expansions - before);
+		Trace.mark(TraceEvent.OPEN_LIST, openF.size(), openB.size());
+		Trace.end(TraceEvent.SEARCH, status.ordinal(), expansions - before);
+		return path;
+	}
+
+	private Path query(SearchMode mode) {
+
+		if (nStart == 0 || nGoal == 0) {
+			status = nStart == 0 ? Status.NO_START_ATTACHMENT : Status.NO_GOAL_ATTACHMENT;
+			return null;
+		}
+
+		int s = -1, t = -1;
+		for (int i = 0; i < nStart && s < 0; i++) {
+			for (int j = 0; j < nGoal; j++) {
+				if (component[startNodes[i]] == component[goalNodes[j]]) {
+					s = startNodes[i];
+					t = goalNodes[j];
+					break;
+				}
+			}
+		}
+		if (s < 0) {
+			status = Status.DISCONNECTED;
+			return null;
+		}
+
+		int[] route;
+		switch (mode) {
+		case BIDIRECTIONAL:
+			route = bidirectional(s, t);
+			break;
+		case ANYTIME:
+			route = anytime(s, t);
+			break;
+		default:
+			route = astar(s, t);
+		}
+
+		// only fails if the road map changed under the search
+		if (route == null) {
+			status = Status.NOT_FOUND;
+			return null;
+		}
+		status = Status.FOUND;
+		optimal = mode != SearchMode.ANYTIME || epsilon <= 1;
+		return toPath(route);
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Continue the ANYTIME search with a smaller heuristic inflation.
+	 *
+	 * @return the improved path, or null if it did not get shorter or
+	 * the current one is already optimal
+	 */
+	public Path improve() {
+
+		if (anyStart < 0 || optimal)
+			return null;
+
+		long start = System.nanoTime();
+		int expanded = expansions;
+		Trace.begin(TraceEvent.IMPROVE);
+		double before = gF[anyGoal];
+		epsilon = Math.max(1.0, epsilon - epsilonStep);
+		reopen();
+		improvePath(anyGoal);
+		optimal = epsilon <= 1;
+		IMPROVE_TIMER.recordSince(start);
+		EXPANSIONS.add(expansions - expanded);
+		Trace.end(TraceEvent.IMPROVE, expansions - expanded, 0);
+
+		return gF[anyGoal] < before ? toPath(trace(anyGoal)) : null;
+	}
+
+	/**
+	 * @return true if the last path found is a shortest path on the road map
+	 */
+	public boolean isOptimal() {
+		return optimal;
+	}
+
+	/**
+	 * @return bound on the ratio between the length of the last path and
+	 * the shortest one
+	 */
+	public double getSuboptimality() {
+
+		if (optimal || anyStart < 0)
+			return 1.0;
+
+		// the cheapest unfinished node bounds the optimal cost from below
+		double lower = INF;
+		for (int i = 0; i < openF.size(); i++) {
+			int v = openF.id(i);
+			if ((flags[v] & OPEN) != 0)
+				lower = Math.min(lower, gF[v] + h(v, anyGoal));
+		}
+		for (int i = 0; i < nIncons; i++) {
+			lower = Math.min(lower, gF[incons[i]] + h(incons[i], anyGoal));
+		}
+		return Math.max(1.0, Math.min(epsilon, gF[anyGoal] / lower));
+	}
+
+	private int[] astar(int s, int t) {
+
+		begin();
+		touch(s);
+		NodeHeap open = openF;
+		open.clear();
+		gF[s] = 0;
+		open.push(s, h(s, t));
+
+		while (!open.isEmpty()) {
+			int u = open.pop();
+			if ((flags[u] & CLOSED_F) != 0)
+				continue;
+			flags[u] |= CLOSED_F;
+			expansions++;
+
+			if (u == t)
+				return trace(t);
+
+			List<PRMNode> edges = nodes.get(u).m_Edges;
+			for (int k = 0; k < edges.size(); k++) {
+				int v = edges.get(k).m_Index;
+				touch(v);
+				double g = gF[u] + cost(u, v);
+				if ((flags[v] & CLOSED_F) == 0 && g < gF[v]) {
+					gF[v] = g;
+					parentF[v] = u;
+					open.push(v, g + h(v, t));
+				}
+			}
+		}
+		return null;
+	}
+
+	private int[] bidirectional(int s, int t) {
+
+		begin();
+		touch(s);
+		touch(t);
+		openF.clear();
+		openB.clear();
+		gF[s] = 0;
+		gB[t] = 0;
+		openF.push(s, h(s, t));
+		openB.push(t, h(t, s));
+
+		double best = s == t ? 0 : INF;
+		int meet = s == t ? s : -1;
+
+		while (true) {
+			if (!top(openF, CLOSED_F) || !top(openB, CLOSED_B))
+				break;
+			// neither side can improve on the best meeting anymore
+			if (Math.max(openF.peekKey(), openB.peekKey()) >= best)
+				break;
+
+			// expand the smaller frontier
+			boolean forward = openF.size() <= openB.size();
+			NodeHeap open = forward ? openF : openB;
+			double[] g = forward ? gF : gB;
+			double[] other = forward ? gB : gF;
+			int[] parent = forward ? parentF : parentB;
+			byte closed = forward ? CLOSED_F : CLOSED_B;
+			int target = forward ? t : s;
+
+			int u = open.pop();
+			flags[u] |= closed;
+			expansions++;
+
+			List<PRMNode> edges = nodes.get(u).m_Edges;
+			for (int k = 0; k < edges.size(); k++) {
+				int v = edges.get(k).m_Index;
+				touch(v);
+				double gv = g[u] + cost(u, v);
+				if ((flags[v] & closed) == 0 && gv < g[v]) {
+					g[v] = gv;
+					parent[v] = u;
+					open.push(v, gv + h(v, target));
+				}
+				if (g[v] + other[v] < best) {
+					best = g[v] + other[v];
+					meet = v;
+				}
+			}
+		}
+
+		return meet >= 0 ? join(meet) : null;
+	}
+
+	private int[] anytime(int s, int t) {
+
+		begin();
+		touch(s);
+		touch(t);
+		epsilon = Math.max(1.0, initialEpsilon);
+		openF.clear();
+		nIncons = 0;
+		gF[s] = 0;
+		flags[s] |= OPEN;
+		openF.push(s, key(s, t));
+
+		improvePath(t);
+		if (gF[t] == INF)
+			return null;
+
+		anyStart = s;
+		anyGoal = t;
+		return trace(t);
+	}
+
+	// ARA* ImprovePath: expand until the goal is within epsilon of optimal
+	private void improvePath(int t) {
+
+		NodeHeap open = openF;
+		while (!open.isEmpty()) {
+			int top = open.peekId();
+			double f = open.peekKey();
+			if ((flags[top] & OPEN) == 0 || f != key(top, t)) {
+				// stale entry
+				open.pop();
+				continue;
+			}
+			if (gF[t] <= f)
+				return;
+
+			int u = open.pop();
+			flags[u] = (byte) ((flags[u] & ~OPEN) | CLOSED_F);
+			expansions++;
+
+			List<PRMNode> edges = nodes.get(u).m_Edges;
+			for (int k = 0; k < edges.size(); k++) {
+				int v = edges.get(k).m_Index;
+				touch(v);
+				double g = gF[u] + cost(u, v);
+				if (g < gF[v]) {
+					gF[v] = g;
+					parentF[v] = u;
+					if ((flags[v] & CLOSED_F) == 0) {
+						flags[v] |= OPEN;
+						open.push(v, key(v, t));
+					} else if ((flags[v] & INCONS) == 0) {
+						// improved after being expanded, revisit next iteration
+						flags[v] |= INCONS;
+						if (nIncons == incons.length)
+							incons = Arrays.copyOf(incons, nIncons * 2);
+						incons[nIncons++] = v;
+					}
+				}
+			}
+		}
+	}
+
+	// start the next ARA* iteration: OPEN = OPEN + INCONS, CLOSED = {}
+	private void reopen() {
+
+		for (int k = 0; k < nIncons; k++) {
+			int i = incons[k];
+			flags[i] = (byte) ((flags[i] & ~INCONS) | OPEN);
+		}
+		nIncons = 0;
+
+		openF.clear();
+		for (int i = 0; i < nodes.size(); i++) {
+			if (stamp[i] != search)
+				continue;
+			flags[i] &= ~CLOSED_F;
+			if ((flags[i] & OPEN) != 0)
+				openF.append(i, key(i, anyGoal));
+		}
+		openF.heapify();
+	}
+
+	private double key(int v, int t) {
+		return gF[v] + epsilon * h(v, t);
+	}
+
+	// drop expanded entries from the top of an open list, false if it runs empty
+	private boolean top(NodeHeap open, byte closed) {
+		while (!open.isEmpty() && (flags[open.peekId()] & closed) != 0) {
+			open.pop();
+		}
+		return !open.isEmpty();
+	}
+
+	private void begin() {
+		search++;
+		anyStart = anyGoal = -1;
+		optimal = false;
+	}
+
+	private void touch(int v) {
+		if (stamp[v] != search) {
+			stamp[v] = search;
+			gF[v] = gB[v] = INF;
+			parentF[v] = parentB[v] = -1;
+			flags[v] = 0;
+		}
+	}
+
+	private double cost(int u, int v) {
+		double dx = nodes.get(u).getX() - nodes.get(v).getX();
+		double dy = nodes.get(u).getY() - nodes.get(v).getY();
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+
+	private double h(int u, int v) {
+		double h = cost(u, v);
+		return landmarks != null ? Math.max(h, landmarks.bound(u, v)) : h;
+	}
+
+	private int[] trace(int t) {
+		int m = 0;
+		for (int v = t; v >= 0; v = parentF[v]) {
+			m++;
+		}
+		int[] route = new int[m];
+		for (int v = t; v >= 0; v = parentF[v]) {
+			route[--m] = v;
+		}
+		return route;
+	}
+
+	private int[] join(int meet) {
+		int[] head = trace(meet);
+		int m = 0;
+		for (int v = parentB[meet]; v >= 0; v = parentB[v]) {
+			m++;
+		}
+		int[] route = new int[head.length + m];
+		System.arraycopy(head, 0, route, 0, head.length);
+		int k = head.length;
+		for (int v = parentB[meet]; v >= 0; v = parentB[v]) {
+			route[k++] = v;
+		}
+		return route;
+	}
+
+	private Path toPath(int[] route) {
+
+		Path path = new Path();
+		path.points.clear();
+
+		// add start point to path
+		path.points.add(new Position(xStart, yStart));
+		for (int v : route) {
+			path.points.add(new Position(nodes.get(v).getX(), nodes.get(v).getY()));
+		}
+		// add goal point to path
+		path.points.add(new Position(xGoal, yGoal));
+		return path;
+	}
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+/**
+ * Source of road map node positions for PRMPlanner.buildRoadMap
+ *
+ * @see Samplers
+ */
+public interface Sampler {
+
+	/**
+	 * Draw one candidate position. Biased samplers may reject their own
+	 * draw, e.g. a bridge test that finds open space, in which case the
+	 * planner counts the attempt as rejected. The planner still checks
+	 * the position for collisions. Samplers run once per road map sample
+	 * and should not allocate.
+	 *
+	 * @param workspace workspace the road map is built for
+	 * @param xy receives the x and y coordinate of the candidate
+	 * @return false if this attempt is rejected
+	 */
+	boolean sample(Workspace workspace, double[] xy);
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Random;
+
+/**
+ * Road map samplers. Uniform sampling spends most nodes in open space,
+ * where a handful would do, and rarely hits the narrow aisles where
+ * queries fail. The biased samplers here put nodes near obstacles,
+ * along the middle of free space, or along committed paths. They are
+ * meant to be mixed with uniform sampling, which still provides the
+ * coverage of open space.
+ */
+public final class Samplers {
+
+	private Samplers() {
+	}
+
+	/**
+	 * @return sampler drawing uniformly over the workspace bounds
+	 */
+	public static Sampler uniform(Random random) {
+		return new Uniform(random);
+	}
+
+	/**
+	 * Gaussian sampling: draw a pair of positions sigma apart and keep
+	 * the free one when exactly one of them is free, which places nodes
+	 * along obstacle boundaries
+	 */
+	public static Sampler gaussian(Random random, double sigma) {
+		return new Gaussian(random, sigma);
+	}
+
+	/**
+	 * Bridge test: draw a pair of colliding positions sigma apart and
+	 * keep their mid point when it is free, which places nodes in gaps
+	 * narrower than about 2*sigma
+	 */
+	public static Sampler bridge(Random random, double sigma) {
+		return new Bridge(random, sigma);
+	}
+
+	/**
+	 * Medial axis sampling: move a uniform sample uphill on the obstacle
+	 * clearance until it lies about as far from the obstacles on either
+	 * side, which centres nodes in aisles
+	 */
+	public static Sampler medialAxis(Random random, double step) {
+		return new MedialAxis(random, step);
+	}
+
+	/**
+	 * Corridor sampling: draw around the paths committed in the workspace,
+	 * where robots have to pass each other. Falls back to uniform
+	 * sampling while no path is committed.
+	 */
+	public static Sampler corridor(Random random, double sigma) {
+		return new Corridor(random, sigma);
+	}
+
+	/**
+	 * @param samplers samplers to draw from
+	 * @param weights relative weight of each sampler
+	 * @return sampler picking one of the samplers per draw
+	 */
+	public static Sampler mix(Random random, Sampler[] samplers, double[] weights) {
+		return new Mix(random, samplers, weights);
+	}
+
+	/**
+	 * Uniform sampling mixed with the bridge test and medial axis sampling
+	 * for narrow passages, and corridor sampling along committed paths
+	 *
+	 * @param scale typical passage width, in workspace units
+	 */
+	public static Sampler narrowPassage(Random random, double scale) {
+		return mix(random,
+				new Sampler[] {
+					uniform(random),
+					bridge(random, scale),
+					medialAxis(random, scale / 4),
+					corridor(random, scale) },
+				new double[] { 0.3, 0.5, 0.1, 0.1 });
+	}
+
+	static double uniformX(Workspace ws, Random random) {
+		return ws.xMin + random.nextDouble() * (ws.xMax - ws.xMin);
+	}
+
+	static double uniformY(Workspace ws, Random random) {
+		return ws.yMin + random.nextDouble() * (ws.yMax - ws.yMin);
+	}
+
+	static boolean inBounds(Workspace ws, double x, double y) {
+		return x >= ws.xMin && x <= ws.xMax && y >= ws.yMin && y <= ws.yMax;
+	}
+
+	static final class Uniform implements Sampler {
+		private final Random random;
+
+		Uniform(Random random) {
+			this.random = random;
+		}
+
+		public boolean sample(Workspace ws, double[] xy) {
+			xy[0] = uniformX(ws, random);
+			xy[1] = uniformY(ws, random);
+			return true;
+		}
+	}
+
+	static final class Gaussian implements Sampler {
+		private final Random random;
+		private final double sigma;
+
+		Gaussian(Random random, double sigma) {
+			this.random = random;
+			this.sigma = sigma;
+		}
+
+		public boolean sample(Workspace ws, double[] xy) {
+			double x1 = uniformX(ws, random);
+			double y1 = uniformY(ws, random);
+			double x2 = x1 + sigma * random.nextGaussian();
+			double y2 = y1 + sigma * random.nextGaussian();
+			if (!inBounds(ws, x2, y2))
+				return false;
+
+			boolean c1 = ws.collidesWith(x1, y1);
+			boolean c2 = ws.collidesWith(x2, y2);
+			if (c1 == c2)
+				return false;
+			xy[0] = c1 ? x2 : x1;
+			xy[1] = c1 ? y2 : y1;
+			return true;
+		}
+	}
+
+	static final class Bridge implements Sampler {
+		private final Random random;
+		private final double sigma;
+
+		/**
+		 * Bridge tests per draw. Few tests succeed, but each costs only a
+		 * few point checks, far less than connecting a node.
+		 */
+		int tries = 20;
+
+		Bridge(Random random, double sigma) {
+			this.random = random;
+			this.sigma = sigma;
+		}
+
+		public boolean sample(Workspace ws, double[] xy) {
+			for (int i = 0; i < tries; i++) {
+				double x1 = uniformX(ws, random);
+				double y1 = uniformY(ws, random);
+				if (!ws.collidesWith(x1, y1))
+					continue;
+
+				double x2 = x1 + sigma * random.nextGaussian();
+				double y2 = y1 + sigma * random.nextGaussian();
+				// the workspace boundary counts as an obstacle for the bridge
+				if (inBounds(ws, x2, y2) && !ws.collidesWith(x2, y2))
+					continue;
+
+				double x = (x1 + x2) / 2;
+				double y = (y1 + y2) / 2;
+				if (inBounds(ws, x, y) && !ws.collidesWith(x, y)) {
+					xy[0] = x;
+					xy[1] = y;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	static final class MedialAxis implements Sampler {
+		private final Random random;
+		private final double step;
+
+		/** Maximum number of uphill moves per sample */
+		int maxMoves = 50;
+
+		MedialAxis(Random random, double step) {
+			this.random = random;
+			this.step = step;
+		}
+
+		public boolean sample(Workspace ws, double[] xy) {
+			double x = uniformX(ws, random);
+			double y = uniformY(ws, random);
+			double c = clearance(ws, x, y);
+
+			for (int i = 0; i < maxMoves; i++) {
+				// numerical gradient of the clearance
+				double gx = clearance(ws, x + step, y) - clearance(ws, x - step, y);
+				double gy = clearance(ws, x, y + step) - clearance(ws, x, y - step);
+				double g = Math.sqrt(gx*gx + gy*gy);
+				if (g == 0)
+					break;
+
+				double nx = x + step * gx / g;
+				double ny = y + step * gy / g;
+				double nc = clearance(ws, nx, ny);
+				// clearance stops growing on the medial axis
+				if (nc <= c)
+					break;
+				x = nx;
+				y = ny;
+				c = nc;
+			}
+			xy[0] = x;
+			xy[1] = y;
+			return true;
+		}
+
+		// distance to the closest obstacle or workspace boundary
+		private static double clearance(Workspace ws, double x, double y) {
+			double walls = Math.min(Math.min(x - ws.xMin, ws.xMax - x),
+					Math.min(y - ws.yMin, ws.yMax - y));
+			return Math.min(walls, ws.clearance(x, y));
+		}
+	}
+
+	static final class Corridor implements Sampler {
+		private final Random random;
+		private final double sigma;
+
+		Corridor(Random random, double sigma) {
+			this.random = random;
+			this.sigma = sigma;
+		}
+
+		public boolean sample(Workspace ws, double[] xy) {
+			Path path;
+			synchronized (ws.paths) {
+				if (ws.paths.isEmpty()) {
+					xy[0] = uniformX(ws, random);
+					xy[1] = uniformY(ws, random);
+					return true;
+				}
+				path = ws.paths.get(random.nextInt(ws.paths.size()));
+			}
+			if (path.points.size() < 2)
+				return false;
+
+			int i = random.nextInt(path.points.size() - 1);
+			Position a = path.points.get(i);
+			Position b = path.points.get(i+1);
+			double f = random.nextDouble();
+			double x = a.getX() + f * (b.getX() - a.getX()) + sigma * random.nextGaussian();
+			double y = a.getY() + f * (b.getY() - a.getY()) + sigma * random.nextGaussian();
+			if (!inBounds(ws, x, y))
+				return false;
+			xy[0] = x;
+			xy[1] = y;
+			return true;
+		}
+	}
+
+	static final class Mix implements Sampler {
+		private final Random random;
+		private final Sampler[] samplers;
+		private final double[] cumulative;
+
+		Mix(Random random, Sampler[] samplers, double[] weights) {
+			if (samplers.length == 0 || samplers.length != weights.length)
+				throw new IllegalArgumentException("Need one weight per sampler");
+			this.random = random;
+			this.samplers = samplers.clone();
+			this.cumulative = new double[weights.length];
+			double sum = 0;
+			for (int i = 0; i < weights.length; i++) {
+				sum += weights[i];
+				cumulative[i] = sum;
+			}
+		}
+
+		public boolean sample(Workspace ws, double[] xy) {
+			double r = random.nextDouble() * cumulative[cumulative.length-1];
+			int i = 0;
+			while (i < cumulative.length-1 && r >= cumulative[i]) {
+				i++;
+			}
+			return samplers[i].sample(ws, xy);
+		}
+	}
+}
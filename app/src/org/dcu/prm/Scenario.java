@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * A generated workspace together with the start and goal of every robot
+ * of a fleet. It converts to the workspace JSON the chaincode serves,
+ * with the robots in an extra "robots" member that the workspace parsers
+ * skip, and to a compact binary file format:
+ *
+ * <pre>
+ *   magic (1 byte) | version (1 byte) |
+ *   uvarint layout name length | layout name (UTF-8) | zig-zag varint seed |
+ *   zig-zag varint xMin, xMax, yMin, yMax |
+ *   uvarint circle count | xC, yC, radius of every circle |
+ *   uvarint rectangle count | xC, yC, width, height of every rectangle |
+ *   uvarint robot count | start x, y, goal x, y of every robot
+ * </pre>
+ *
+ * Coordinates are zig-zag varints in the fixed point of PathCodec, as a
+ * delta to the previous center, start or goal. Sizes are absolute.
+ *
+ * @see ScenarioGenerator
+ */
+public class Scenario {
+
+	public static final int MAGIC = 0xB9;
+	public static final int VERSION = 1;
+
+	final String layout;
+	final long seed;
+	final double xMin, xMax, yMin, yMax;
+	final List<Circle> circles = new ArrayList<Circle>();
+	final List<Rectangle> rectangles = new ArrayList<Rectangle>();
+
+	// x and y pairs, one per robot
+	double[] starts = new double[0];
+	double[] goals = new double[0];
+
+	Scenario(String layout, long seed, double xMin, double xMax, double yMin, double yMax) {
+		this.layout = layout;
+		this.seed = seed;
+		this.xMin = xMin;
+		this.xMax = xMax;
+		this.yMin = yMin;
+		this.yMax = yMax;
+	}
+
+	public String getLayout() {
+		return layout;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public int getObstacleCount() {
+		return circles.size() + rectangles.size();
+	}
+
+	public int getRobotCount() {
+		return starts.length / 2;
+	}
+
+	public Position getStart(int robot) {
+		return new Position(starts[2*robot], starts[2*robot+1]);
+	}
+
+	public Position getGoal(int robot) {
+		return new Position(goals[2*robot], goals[2*robot+1]);
+	}
+
+	/**
+	 * @return workspace with the start and goal of the first robot
+	 */
+	public Workspace toWorkspace() {
+		return toWorkspace(0);
+	}
+
+	/**
+	 * @return workspace with the start and goal of the given robot
+	 */
+	public Workspace toWorkspace(int robot) {
+		Workspace workspace = new Workspace(toJson(false));
+		if (robot < getRobotCount()) {
+			workspace.xStart = starts[2*robot];
+			workspace.yStart = starts[2*robot+1];
+			workspace.xGoal = goals[2*robot];
+			workspace.yGoal = goals[2*robot+1];
+		}
+		return workspace;
+	}
+
+	/**
+	 * @param withRobots include the "robots" member
+	 * @return workspace JSON as stored by the chaincode; start and goal
+	 * are those of the first robot
+	 */
+	public byte[] toJson(boolean withRobots) {
+
+		JsonArrayBuilder jc = Json.createArrayBuilder();
+		for (Circle c : circles) {
+			jc.add(Json.createObjectBuilder()
+					.add("xCenter", c.xC)
+					.add("yCenter", c.yC)
+					.add("radius", c.radius));
+		}
+		JsonArrayBuilder jr = Json.createArrayBuilder();
+		for (Rectangle r : rectangles) {
+			jr.add(Json.createObjectBuilder()
+					.add("xCenter", r.xC)
+					.add("yCenter", r.yC)
+					.add("width", r.width)
+					.add("height", r.height));
+		}
+
+		boolean any = getRobotCount() > 0;
+		JsonObjectBuilder ws = Json.createObjectBuilder()
+				.add("start", point(any ? starts[0] : xMin, any ? starts[1] : yMin))
+				.add("goal", point(any ? goals[0] : xMax, any ? goals[1] : yMax))
+				.add("bounds", Json.createObjectBuilder()
+						.add("xMin", xMin).add("xMax", xMax)
+						.add("yMin", yMin).add("yMax", yMax))
+				.add("circles", jc)
+				.add("rectangles", jr);
+
+		if (withRobots) {
+			JsonArrayBuilder robots = Json.createArrayBuilder();
+			for (int i = 0; i < getRobotCount(); i++) {
+				robots.add(Json.createObjectBuilder()
+						.add("start", point(starts[2*i], starts[2*i+1]))
+						.add("goal", point(goals[2*i], goals[2*i+1])));
+			}
+			ws.add("robots", robots);
+		}
+		return ws.build().toString().getBytes();
+	}
+
+	/**
+	 * @return the scenario in the compact binary format
+	 */
+	public byte[] encode() {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				64 + 8 * (circles.size() + 2 * rectangles.size() + 2 * starts.length));
+
+		out.write(MAGIC);
+		out.write(VERSION);
+		byte[] name = layout.getBytes(StandardCharsets.UTF_8);
+		PathCodec.writeUVarint(out, name.length);
+		out.write(name, 0, name.length);
+		PathCodec.writeVarint(out, seed);
+
+		PathCodec.writeVarint(out, fixed(xMin));
+		PathCodec.writeVarint(out, fixed(xMax));
+		PathCodec.writeVarint(out, fixed(yMin));
+		PathCodec.writeVarint(out, fixed(yMax));
+
+		long x = 0, y = 0;
+		PathCodec.writeUVarint(out, circles.size());
+		for (Circle c : circles) {
+			PathCodec.writeVarint(out, fixed(c.xC) - x);
+			PathCodec.writeVarint(out, fixed(c.yC) - y);
+			PathCodec.writeVarint(out, fixed(c.radius));
+			x = fixed(c.xC);
+			y = fixed(c.yC);
+		}
+
+		x = y = 0;
+		PathCodec.writeUVarint(out, rectangles.size());
+		for (Rectangle r : rectangles) {
+			PathCodec.writeVarint(out, fixed(r.xC) - x);
+			PathCodec.writeVarint(out, fixed(r.yC) - y);
+			PathCodec.writeVarint(out, fixed(r.width));
+			PathCodec.writeVarint(out, fixed(r.height));
+			x = fixed(r.xC);
+			y = fixed(r.yC);
+		}
+
+		PathCodec.writeUVarint(out, getRobotCount());
+		long[] prev = new long[4];
+		for (int i = 0; i < getRobotCount(); i++) {
+			long[] cur = { fixed(starts[2*i]), fixed(starts[2*i+1]),
+					fixed(goals[2*i]), fixed(goals[2*i+1]) };
+			for (int k = 0; k < 4; k++) {
+				PathCodec.writeVarint(out, cur[k] - prev[k]);
+			}
+			prev = cur;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param payload scenario in the compact binary format
+	 * @return decoded scenario
+	 */
+	public static Scenario decode(byte[] payload) {
+
+		if (payload.length < 2 || (payload[0] & 0xFF) != MAGIC)
+			throw new IllegalArgumentException("Not a scenario");
+		if ((payload[1] & 0xFF) != VERSION)
+			throw new IllegalArgumentException("Unsupported scenario version " + (payload[1] & 0xFF));
+		int[] pos = { 2 };
+
+		String layout = PathCodec.readFramedString(payload, pos);
+		long seed = PathCodec.readVarint(payload, pos);
+		Scenario s = new Scenario(layout, seed,
+				unfixed(PathCodec.readVarint(payload, pos)),
+				unfixed(PathCodec.readVarint(payload, pos)),
+				unfixed(PathCodec.readVarint(payload, pos)),
+				unfixed(PathCodec.readVarint(payload, pos)));
+
+		long x = 0, y = 0;
+		int n = count(payload, pos);
+		for (int i = 0; i < n; i++) {
+			x += PathCodec.readVarint(payload, pos);
+			y += PathCodec.readVarint(payload, pos);
+			s.circles.add(new Circle(unfixed(x), unfixed(y),
+					unfixed(PathCodec.readVarint(payload, pos))));
+		}
+
+		x = y = 0;
+		n = count(payload, pos);
+		for (int i = 0; i < n; i++) {
+			x += PathCodec.readVarint(payload, pos);
+			y += PathCodec.readVarint(payload, pos);
+			double w = unfixed(PathCodec.readVarint(payload, pos));
+			double h = unfixed(PathCodec.readVarint(payload, pos));
+			s.rectangles.add(new Rectangle(unfixed(x), unfixed(y), w, h));
+		}
+
+		n = count(payload, pos);
+		s.starts = new double[2*n];
+		s.goals = new double[2*n];
+		long[] cur = new long[4];
+		for (int i = 0; i < n; i++) {
+			for (int k = 0; k < 4; k++) {
+				cur[k] += PathCodec.readVarint(payload, pos);
+			}
+			s.starts[2*i] = unfixed(cur[0]);
+			s.starts[2*i+1] = unfixed(cur[1]);
+			s.goals[2*i] = unfixed(cur[2]);
+			s.goals[2*i+1] = unfixed(cur[3]);
+		}
+		return s;
+	}
+
+	public void write(OutputStream out) throws IOException {
+		out.write(encode());
+	}
+
+	public static Scenario read(InputStream in) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		byte[] chunk = new byte[8192];
+		int n;
+		while ((n = in.read(chunk)) > 0) {
+			buf.write(chunk, 0, n);
+		}
+		return decode(buf.toByteArray());
+	}
+
+	public static Scenario read(java.nio.file.Path file) throws IOException {
+		return decode(Files.readAllBytes(file));
+	}
+
+	@Override
+	public String toString() {
+		return layout + " seed=" + seed + " bounds=[" + xMin + "," + xMax + "]x[" + yMin + "," + yMax
+				+ "] obstacles=" + getObstacleCount() + " robots=" + getRobotCount();
+	}
+
+	// count of the next section, bounded by the bytes left
+	private static int count(byte[] payload, int[] pos) {
+		long n = PathCodec.readUVarint(payload, pos);
+		if (n < 0 || n > payload.length - pos[0])
+			throw new IllegalArgumentException("Malformed scenario");
+		return (int) n;
+	}
+
+	private static long fixed(double v) {
+		return Math.round(v * PathCodec.COORD_SCALE);
+	}
+
+	private static double unfixed(long v) {
+		return v / PathCodec.COORD_SCALE;
+	}
+
+	private static JsonObjectBuilder point(double x, double y) {
+		return Json.createObjectBuilder().add("x", x).add("y", y);
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Generates workspaces and fleets at scale, for load tests and
+ * benchmarks. The same layout, seed and settings always give the same
+ * scenario.
+ *
+ * Usage: ScenarioGenerator layout robots seed file [size]
+ * writes the scenario in the binary format of Scenario, or as JSON if
+ * the file name ends with .json.
+ */
+public class ScenarioGenerator {
+
+	public enum Layout {
+		/** rows of shelving racks with aisles and cross aisles */
+		WAREHOUSE,
+		/** random circles and rectangles */
+		CLUTTER,
+		/** a perfect maze of narrow corridors */
+		MAZE
+	}
+
+	/** Workspace size */
+	public double width = 50, height = 50;
+
+	/** Minimum distance between two starts, or two goals */
+	public double robotSpacing = 0.5;
+
+	/** Warehouse: length and depth of a rack, and aisle widths */
+	public double rackLength = 4, rackDepth = 1, aisleWidth = 1.5, crossAisleWidth = 2.5;
+
+	/** Warehouse: probability of a rack being left out */
+	public double missingRack = 0.1;
+
+	/** Clutter: number of obstacles, 0 to derive it from the density */
+	public int obstacles = 0;
+
+	/** Clutter: fraction of the area covered by obstacles */
+	public double density = 0.1;
+
+	/** Clutter: obstacle size range */
+	public double minObstacle = 0.2, maxObstacle = 1.2;
+
+	/** Maze: corridor width and wall thickness */
+	public double corridorWidth = 1.0, wallThickness = 0.2;
+
+	/** Robot placement gives up after this many draws per robot */
+	public int maxDrawsPerRobot = 1000;
+
+	public Scenario generate(Layout layout, long seed, int robots) {
+
+		Random random = new Random(seed);
+		Scenario s = new Scenario(layout.name(), seed, 0, width, 0, height);
+		switch (layout) {
+		case WAREHOUSE:
+			warehouse(s, random);
+			break;
+		case MAZE:
+			maze(s, random);
+			break;
+		default:
+			clutter(s, random);
+		}
+		placeRobots(s, random, robots);
+		return s;
+	}
+
+	private void warehouse(Scenario s, Random random) {
+
+		// blocks of racks between cross aisles; in a block, double racks
+		// (two rack depths back to back) alternate with aisles
+		double rowPitch = 2 * rackDepth + aisleWidth;
+		for (double y0 = crossAisleWidth; y0 + rowPitch <= height - crossAisleWidth; y0 += rowPitch) {
+			double y = y0 + rackDepth;
+			for (double x0 = crossAisleWidth; x0 + rackLength <= width - crossAisleWidth;
+					x0 += rackLength + crossAisleWidth) {
+				if (random.nextDouble() < missingRack)
+					continue;
+				s.rectangles.add(new Rectangle(x0 + rackLength / 2, y, rackLength, 2 * rackDepth));
+			}
+		}
+	}
+
+	private void clutter(Scenario s, Random random) {
+
+		double mean = (minObstacle + maxObstacle) / 2;
+		int n = obstacles > 0 ? obstacles
+				: (int) (density * width * height / (mean * mean));
+
+		for (int i = 0; i < n; i++) {
+			double x = random.nextDouble() * width;
+			double y = random.nextDouble() * height;
+			double size = minObstacle + random.nextDouble() * (maxObstacle - minObstacle);
+			if (i % 2 == 0) {
+				s.circles.add(new Circle(x, y, size / 2));
+			} else {
+				double aspect = 0.5 + random.nextDouble();
+				s.rectangles.add(new Rectangle(x, y, size * aspect, size / aspect));
+			}
+		}
+	}
+
+	private void maze(Scenario s, Random random) {
+
+		double pitch = corridorWidth + wallThickness;
+		int nx = Math.max(1, (int) ((width - wallThickness) / pitch));
+		int ny = Math.max(1, (int) ((height - wallThickness) / pitch));
+
+		// randomized depth first search; open[c] bit 0 opens the wall to
+		// the east neighbour, bit 1 the one to the north neighbour
+		byte[] open = new byte[nx * ny];
+		boolean[] visited = new boolean[nx * ny];
+		int[] stack = new int[nx * ny];
+		int[] next = new int[4];
+		int top = 0;
+		stack[top++] = 0;
+		visited[0] = true;
+
+		while (top > 0) {
+			int c = stack[top-1];
+			int cx = c % nx, cy = c / nx;
+			int k = 0;
+			if (cx+1 < nx && !visited[c+1]) next[k++] = c+1;
+			if (cx > 0 && !visited[c-1]) next[k++] = c-1;
+			if (cy+1 < ny && !visited[c+nx]) next[k++] = c+nx;
+			if (cy > 0 && !visited[c-nx]) next[k++] = c-nx;
+			if (k == 0) {
+				top--;
+				continue;
+			}
+			int d = next[random.nextInt(k)];
+			if (d == c+1) open[c] |= 1;
+			else if (d == c-1) open[d] |= 1;
+			else if (d == c+nx) open[c] |= 2;
+			else open[d] |= 2;
+			visited[d] = true;
+			stack[top++] = d;
+		}
+
+		// one wall segment per closed cell side, the outer walls included
+		double w = wallThickness;
+		for (int cy = 0; cy < ny; cy++) {
+			for (int cx = 0; cx < nx; cx++) {
+				int c = cy * nx + cx;
+				double x0 = cx * pitch, y0 = cy * pitch;
+				if (cx+1 == nx || (open[c] & 1) == 0)
+					s.rectangles.add(new Rectangle(x0 + pitch + w/2, y0 + pitch/2 + w/2, w, pitch + w));
+				if (cy+1 == ny || (open[c] & 2) == 0)
+					s.rectangles.add(new Rectangle(x0 + pitch/2 + w/2, y0 + pitch + w/2, pitch + w, w));
+				if (cx == 0)
+					s.rectangles.add(new Rectangle(w/2, y0 + pitch/2 + w/2, w, pitch + w));
+				if (cy == 0)
+					s.rectangles.add(new Rectangle(x0 + pitch/2 + w/2, w/2, pitch + w, w));
+			}
+		}
+	}
+
+	/**
+	 * Draw free, mutually spaced starts and goals. A grid with cells
+	 * smaller than the spacing holds at most one position per cell, so
+	 * each draw only looks at the cells around it.
+	 */
+	private void placeRobots(Scenario s, Random random, int robots) {
+
+		Workspace workspace = new Workspace(s.toJson(false));
+		s.starts = place(workspace, random, robots);
+		s.goals = place(workspace, random, robots);
+	}
+
+	private double[] place(Workspace workspace, Random random, int robots) {
+
+		double cell = robotSpacing / Math.sqrt(2);
+		int gx = (int) Math.ceil(width / cell) + 1;
+		int gy = (int) Math.ceil(height / cell) + 1;
+		int[] grid = new int[gx * gy];
+		double[] xy = new double[2 * robots];
+
+		int placed = 0;
+		for (int draws = 0; placed < robots && draws < robots * maxDrawsPerRobot; draws++) {
+			double x = random.nextDouble() * width;
+			double y = random.nextDouble() * height;
+			if (workspace.collidesWith(x, y))
+				continue;
+
+			int cx = (int) (x / cell), cy = (int) (y / cell);
+			boolean clear = true;
+			for (int j = Math.max(0, cy-2); j <= Math.min(gy-1, cy+2) && clear; j++) {
+				for (int i = Math.max(0, cx-2); i <= Math.min(gx-1, cx+2) && clear; i++) {
+					int other = grid[j * gx + i] - 1;
+					if (other >= 0) {
+						double dx = xy[2*other] - x, dy = xy[2*other+1] - y;
+						clear = dx*dx + dy*dy >= robotSpacing * robotSpacing;
+					}
+				}
+			}
+			if (!clear)
+				continue;
+
+			grid[cy * gx + cx] = placed + 1;
+			xy[2*placed] = x;
+			xy[2*placed+1] = y;
+			placed++;
+		}
+
+		if (placed < robots)
+			throw new IllegalStateException("Only " + placed + " of " + robots + " robots fit the workspace");
+		return xy;
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 4) {
+			System.err.println("Usage: ScenarioGenerator WAREHOUSE|CLUTTER|MAZE robots seed file [size]");
+			System.exit(1);
+		}
+
+		ScenarioGenerator generator = new ScenarioGenerator();
+		if (args.length > 4)
+			generator.width = generator.height = Double.parseDouble(args[4]);
+
+		Scenario scenario = generator.generate(Layout.valueOf(args[0].toUpperCase()),
+				Long.parseLong(args[2]), Integer.parseInt(args[1]));
+
+		OutputStream out = new FileOutputStream(args[3]);
+		try {
+			if (args[3].endsWith(".json"))
+				out.write(scenario.toJson(true));
+			else
+				scenario.write(out);
+		} finally {
+			out.close();
+		}
+		System.out.println(scenario);
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+/**
+ * Per-thread scratch buffers of the road map hot loops. Several robots
+ * plan concurrently in one JVM, so the buffers cannot live in a shared
+ * planner; keeping one set per thread lets sampling and neighbour
+ * queries run without allocating once the buffers have grown.
+ */
+final class Scratch {
+
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	/** Sampler output */
+	final double[] xy = new double[2];
+
+	/** Nodes by distance, for nearest neighbour queries */
+	final NodeHeap nearest = new NodeHeap(1024);
+
+	/** Sample points along an edge, for the batch collision check */
+	double[] xs = new double[64], ys = new double[64];
+
+	/** Make room for n sample points, the old contents are dropped */
+	void reserve(int n) {
+		if (n > xs.length) {
+			int size = Math.max(n, 2 * xs.length);
+			xs = new double[size];
+			ys = new double[size];
+		}
+	}
+
+	static Scratch get() {
+		return SCRATCH.get();
+	}
+
+	private Scratch() {
+	}
+}
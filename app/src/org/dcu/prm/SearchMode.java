@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+/**
+ * Graph search used to answer a road map query
+ */
+public enum SearchMode {
+	/** A* from the start node to the goal node */
+	ASTAR,
+	/** A* from both ends at once, meeting in the middle */
+	BIDIRECTIONAL,
+	/** ARA*: a quick inflated-heuristic path first, improved on demand */
+	ANYTIME
+}
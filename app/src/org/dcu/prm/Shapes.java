@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+/**
+ * Plane geometry shared by the obstacle shapes. Polygons are given as
+ * vertex arrays, closed implicitly from the last vertex to the first,
+ * and may be concave. Nothing here allocates.
+ */
+final class Shapes {
+
+	private Shapes() {
+	}
+
+	/**
+	 * @return squared distance from (x,y) to the segment (ax,ay)->(bx,by)
+	 */
+	static double segmentDistance2(double x, double y, double ax, double ay, double bx, double by) {
+		double dx = bx - ax, dy = by - ay;
+		double len2 = dx*dx + dy*dy;
+		double t = len2 > 0 ? ((x - ax)*dx + (y - ay)*dy) / len2 : 0;
+		t = Math.max(0, Math.min(1, t));
+		double ex = ax + t*dx - x, ey = ay + t*dy - y;
+		return ex*ex + ey*ey;
+	}
+
+	/**
+	 * @return true if the segments (ax,ay)->(bx,by) and (cx,cy)->(dx,dy)
+	 * cross or touch
+	 */
+	static boolean segmentsCross(double ax, double ay, double bx, double by,
+			double cx, double cy, double dx, double dy) {
+		double d1 = cross(cx, cy, dx, dy, ax, ay);
+		double d2 = cross(cx, cy, dx, dy, bx, by);
+		double d3 = cross(ax, ay, bx, by, cx, cy);
+		double d4 = cross(ax, ay, bx, by, dx, dy);
+		if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0)))
+			return true;
+		// collinear and touching cases
+		return (d1 == 0 && onSegment(cx, cy, dx, dy, ax, ay))
+				|| (d2 == 0 && onSegment(cx, cy, dx, dy, bx, by))
+				|| (d3 == 0 && onSegment(ax, ay, bx, by, cx, cy))
+				|| (d4 == 0 && onSegment(ax, ay, bx, by, dx, dy));
+	}
+
+	/**
+	 * @return squared distance between two segments, 0 if they cross
+	 */
+	static double segmentsDistance2(double ax, double ay, double bx, double by,
+			double cx, double cy, double dx, double dy) {
+		if (segmentsCross(ax, ay, bx, by, cx, cy, dx, dy))
+			return 0;
+		return Math.min(
+				Math.min(segmentDistance2(ax, ay, cx, cy, dx, dy), segmentDistance2(bx, by, cx, cy, dx, dy)),
+				Math.min(segmentDistance2(cx, cy, ax, ay, bx, by), segmentDistance2(dx, dy, ax, ay, bx, by)));
+	}
+
+	/**
+	 * Even-odd test, so concave outlines work too
+	 *
+	 * @return true if (x,y) lies inside the polygon
+	 */
+	static boolean inside(double[] xs, double[] ys, double x, double y) {
+		boolean in = false;
+		for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+			// the edge straddles the horizontal through y, and crosses it
+			// right of x
+			in ^= ((ys[i] > y) != (ys[j] > y))
+					&& (x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]);
+		}
+		return in;
+	}
+
+	/**
+	 * @return squared distance from (x,y) to the outline of the polygon
+	 */
+	static double outlineDistance2(double[] xs, double[] ys, double x, double y) {
+		double min = Double.MAX_VALUE;
+		for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+			min = Math.min(min, segmentDistance2(x, y, xs[j], ys[j], xs[i], ys[i]));
+		}
+		return min;
+	}
+
+	/**
+	 * @return true if (x,y) is inside the polygon or within margin of its
+	 * outline
+	 */
+	static boolean polygonHit(double[] xs, double[] ys, double x, double y, double margin) {
+		return inside(xs, ys, x, y) || outlineDistance2(xs, ys, x, y) <= margin*margin;
+	}
+
+	/**
+	 * @return true if the segment (x1,y1)->(x2,y2) enters the polygon or
+	 * comes within margin of its outline
+	 */
+	static boolean polygonHit(double[] xs, double[] ys,
+			double x1, double y1, double x2, double y2, double margin) {
+		if (inside(xs, ys, x1, y1))
+			return true;
+		for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+			if (segmentsDistance2(x1, y1, x2, y2, xs[j], ys[j], xs[i], ys[i]) <= margin*margin)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Liang-Barsky clipping against the box |x| <= hw, |y| <= hh
+	 *
+	 * @return true if the segment (x1,y1)->(x2,y2) touches the box
+	 */
+	static boolean boxHit(double x1, double y1, double x2, double y2, double hw, double hh) {
+		double t0 = 0, t1 = 1;
+		double dx = x2 - x1, dy = y2 - y1;
+		for (int i = 0; i < 4; i++) {
+			double p, q;
+			switch (i) {
+			case 0: p = -dx; q = x1 + hw; break;
+			case 1: p = dx; q = hw - x1; break;
+			case 2: p = -dy; q = y1 + hh; break;
+			default: p = dy; q = hh - y1; break;
+			}
+			if (p == 0) {
+				if (q < 0)
+					return false;
+				continue;
+			}
+			double r = q / p;
+			if (p < 0) {
+				if (r > t1)
+					return false;
+				t0 = Math.max(t0, r);
+			} else {
+				if (r < t0)
+					return false;
+				t1 = Math.min(t1, r);
+			}
+		}
+		return true;
+	}
+
+	// z of (b-a)x(c-a)
+	private static double cross(double ax, double ay, double bx, double by, double cx, double cy) {
+		return (bx - ax)*(cy - ay) - (by - ay)*(cx - ax);
+	}
+
+	// c is collinear with a-b, is it between them
+	private static boolean onSegment(double ax, double ay, double bx, double by, double cx, double cy) {
+		return Math.min(ax, bx) <= cx && cx <= Math.max(ax, bx)
+				&& Math.min(ay, by) <= cy && cy <= Math.max(ay, by);
+	}
+}
@@ -0,0 +1,600 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Copy of a workspace, its paths and optionally a road map, taken so it
+ * can be exported on another thread while planning goes on.
+ *
+ * Obstacles, nodes and edges are copied into flat arrays; paths are
+ * shared, committed paths are not modified once they are in a
+ * workspace. Writers stream straight to a buffered writer, with one
+ * draw command for all road map edges rather than one per edge.
+ *
+ * The binary form is the bounds, start and goal, delta coded obstacles,
+ * the paths framed as in PathCodec, the delta coded nodes and the edges
+ * as node index pairs, all as varints. Version 2 adds the polygons after
+ * the rectangles, turned rectangles are exported as polygons.
+ */
+public class Snapshot {
+
+	public static final int MAGIC = 0xBB;
+	public static final int VERSION = 2;
+
+	final double xMin, xMax, yMin, yMax;
+	final double xStart, yStart, xGoal, yGoal;
+	// x, y, radius
+	final double[] circles;
+	// x, y, width, height of the axis aligned rectangles
+	final double[] rectangles;
+	// x, y of each vertex, per polygon
+	final double[][] polygons;
+	final List<Path> paths;
+	// x, y of each road map node, and the node pairs of the edges
+	final double[] nodes;
+	final int[] edges;
+
+	private Snapshot(double[] bounds, double[] ends, double[] circles, double[] rectangles,
+			double[][] polygons, List<Path> paths, double[] nodes, int[] edges) {
+		this.xMin = bounds[0];
+		this.xMax = bounds[1];
+		this.yMin = bounds[2];
+		this.yMax = bounds[3];
+		this.xStart = ends[0];
+		this.yStart = ends[1];
+		this.xGoal = ends[2];
+		this.yGoal = ends[3];
+		this.circles = circles;
+		this.rectangles = rectangles;
+		this.polygons = polygons;
+		this.paths = paths;
+		this.nodes = nodes;
+		this.edges = edges;
+	}
+
+	/**
+	 * @param workspace obstacles and paths to copy
+	 * @param roadmap road map to copy, may be null
+	 */
+	public static Snapshot of(Workspace workspace, PRMPlanner roadmap) {
+
+		double[] circles = new double[3 * workspace.circles.size()];
+		for (int i = 0; i < workspace.circles.size(); i++) {
+			Circle c = workspace.circles.get(i);
+			circles[3*i] = c.xC;
+			circles[3*i+1] = c.yC;
+			circles[3*i+2] = c.radius;
+		}
+		int turned = 0;
+		for (Rectangle r : workspace.rectangles) {
+			if (r.angle != 0)
+				turned++;
+		}
+		double[] rectangles = new double[4 * (workspace.rectangles.size() - turned)];
+		double[][] polygons = new double[turned + workspace.polygons.size()][];
+		int k = 0, m = 0;
+		for (Rectangle r : workspace.rectangles) {
+			if (r.angle != 0) {
+				polygons[m++] = corners(r);
+				continue;
+			}
+			rectangles[k++] = r.xC;
+			rectangles[k++] = r.yC;
+			rectangles[k++] = r.width;
+			rectangles[k++] = r.height;
+		}
+		for (Polygon poly : workspace.polygons) {
+			double[] ring = new double[2 * poly.xs.length];
+			for (int i = 0; i < poly.xs.length; i++) {
+				ring[2*i] = poly.xs[i];
+				ring[2*i+1] = poly.ys[i];
+			}
+			polygons[m++] = ring;
+		}
+		List<Path> paths;
+		synchronized (workspace.paths) {
+			paths = new ArrayList<Path>(workspace.paths);
+		}
+
+		return new Snapshot(
+				new double[] { workspace.xMin, workspace.xMax, workspace.yMin, workspace.yMax },
+				new double[] { workspace.xStart, workspace.yStart, workspace.xGoal, workspace.yGoal },
+				circles, rectangles, polygons, paths, nodes(roadmap), edges(roadmap));
+	}
+
+	// corners of a turned rectangle, counterclockwise
+	private static double[] corners(Rectangle r) {
+		double c = Math.cos(r.angle), s = Math.sin(r.angle);
+		double[] ring = new double[8];
+		double[] u = { -1, 1, 1, -1 }, v = { -1, -1, 1, 1 };
+		for (int i = 0; i < 4; i++) {
+			double a = u[i] * r.width / 2, b = v[i] * r.height / 2;
+			ring[2*i] = r.xC + a*c - b*s;
+			ring[2*i+1] = r.yC + a*s + b*c;
+		}
+		return ring;
+	}
+
+	/**
+	 * @return snapshot of the road map alone
+	 */
+	public static Snapshot of(PRMPlanner roadmap) {
+		return new Snapshot(new double[4], new double[4], new double[0], new double[0],
+				new double[0][], new ArrayList<Path>(), nodes(roadmap), edges(roadmap));
+	}
+
+	private static double[] nodes(PRMPlanner roadmap) {
+		if (roadmap == null)
+			return new double[0];
+		double[] nodes = new double[2 * roadmap.m_Nodes.size()];
+		for (int i = 0; i < roadmap.m_Nodes.size(); i++) {
+			PRMNode n = roadmap.m_Nodes.get(i);
+			nodes[2*i] = n.getX();
+			nodes[2*i+1] = n.getY();
+		}
+		return nodes;
+	}
+
+	private static int[] edges(PRMPlanner roadmap) {
+		if (roadmap == null)
+			return new int[0];
+		int[] edges = new int[2 * roadmap.m_Edges.size()];
+		for (int i = 0; i < roadmap.m_Edges.size(); i++) {
+			edges[2*i] = roadmap.m_Edges.a(i);
+			edges[2*i+1] = roadmap.m_Edges.b(i);
+		}
+		return edges;
+	}
+
+	public int getNodeCount() {
+		return nodes.length / 2;
+	}
+
+	public int getEdgeCount() {
+		return edges.length / 2;
+	}
+
+	public void write(ExportFormat format, OutputStream out) throws IOException {
+		if (format == ExportFormat.BINARY) {
+			out.write(encode());
+			out.flush();
+			return;
+		}
+		Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		if (format == ExportFormat.SVG) {
+			writeSvg(w);
+		} else {
+			writeMatlabWorkspace(w);
+			if (nodes.length > 0)
+				writeMatlabRoadMap(w, true, true);
+		}
+		w.flush();
+	}
+
+	public void write(ExportFormat format, String file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			write(format, out);
+		}
+	}
+
+	/**
+	 * MATLAB code drawing the obstacles, the paths and the start and goal
+	 */
+	void writeMatlabWorkspace(Writer w) throws IOException {
+
+		w.write("% Auto-generated workspace m-code description\n");
+		w.write("% xMin=" + xMin + "\n");
+		w.write("% xMax=" + xMax + "\n");
+		w.write("% yMin=" + yMin + "\n");
+		w.write("% yMax=" + yMax + "\n");
+		w.write("clf\nhold on\n");
+
+		for (int i = 0; i < circles.length; i += 3) {
+			w.write("fill(");
+			num(w, circles[i]);
+			w.write(" + ");
+			num(w, circles[i+2]);
+			w.write("*cos((0:5:360)/180*pi),");
+			num(w, circles[i+1]);
+			w.write(" + ");
+			num(w, circles[i+2]);
+			w.write("*sin((0:5:360)/180*pi) , 'b')\n");
+		}
+
+		for (int i = 0; i < rectangles.length; i += 4) {
+			double x = rectangles[i], y = rectangles[i+1];
+			double w2 = rectangles[i+2] / 2, h2 = rectangles[i+3] / 2;
+			w.write("fill([");
+			list(w, x-w2, x+w2, x+w2, x-w2, x-w2);
+			w.write("], [");
+			list(w, y-h2, y-h2, y+h2, y+h2, y-h2);
+			w.write("], 'b')\n");
+		}
+
+		for (double[] ring : polygons) {
+			w.write("fill([");
+			for (int i = 0; i < ring.length; i += 2) {
+				if (i > 0)
+					w.write(", ");
+				num(w, ring[i]);
+			}
+			w.write("], [");
+			for (int i = 1; i < ring.length; i += 2) {
+				if (i > 1)
+					w.write(", ");
+				num(w, ring[i]);
+			}
+			w.write("], 'b')\n");
+		}
+
+		for (Path path : paths) {
+			int n = path.points.size();
+			if (n == 0)
+				continue;
+			// one polyline per path
+			w.write("plot([");
+			for (int i = 0; i < n; i++) {
+				if (i > 0)
+					w.write(", ");
+				num(w, path.points.get(i).getX());
+			}
+			w.write("], [");
+			for (int i = 0; i < n; i++) {
+				if (i > 0)
+					w.write(", ");
+				num(w, path.points.get(i).getY());
+			}
+			w.write("], 'r')\n");
+
+			// put some label on the plotted path, short paths included
+			Position label = path.points.get(Math.min(5, n-1));
+			w.write(String.format("plot(%f,%f,'->','MarkerSize',10,'MarkerFaceColor','y');\n",
+					label.getX(), label.getY()));
+			w.write(String.format("text(%f-0.1,%f-0.1,'[%s]');\n",
+					label.getX(), label.getY(), path.id));
+		}
+
+		w.write("plot(" + xStart + ", " + yStart + ",'-s','MarkerSize',10, 'MarkerFaceColor','g');\n");
+		w.write("plot(" + xGoal + ", " + yGoal + ",'-s','MarkerSize',10, 'MarkerFaceColor','g');\n");
+		w.write("text(" + xStart + ", " + yStart + "-0.2,'S','FontSize',12);\n");
+		w.write("text(" + xGoal + ", " + yGoal + "-0.2,'G','FontSize',12);\n");
+		w.write("hold off;grid on;grid minor;\n");
+		w.write("xlim(["+ xMin + " " + xMax + "]);\n");
+		w.write("ylim(["+ yMin + " " + yMax + "]);\n");
+		w.write("title('Multi-Robot Workspace');\n");
+	}
+
+	/**
+	 * MATLAB code drawing the road map. The edges are one NaN separated
+	 * line; if they are not displayed the code is kept inside "if 0 ...
+	 * end" so it can be enabled by hand.
+	 */
+	void writeMatlabRoadMap(Writer w, boolean dispEdges, boolean dispNodes) throws IOException {
+
+		w.write("hold on\n");
+
+		if (dispNodes && nodes.length > 0) {
+			w.write("plot([");
+			for (int i = 0; i < nodes.length; i += 2) {
+				if (i > 0)
+					w.write(" ");
+				num(w, nodes[i]);
+			}
+			w.write("], [");
+			for (int i = 1; i < nodes.length; i += 2) {
+				if (i > 1)
+					w.write(" ");
+				num(w, nodes[i]);
+			}
+			w.write("], '.m')\n");
+		}
+
+		w.write("if " + (dispEdges? 1 : 0) + "\n");
+		if (edges.length > 0) {
+			w.write("  plot([");
+			for (int i = 0; i < edges.length; i += 2) {
+				num(w, nodes[2*edges[i]]);
+				w.write(" ");
+				num(w, nodes[2*edges[i+1]]);
+				w.write(" NaN ");
+			}
+			w.write("], [");
+			for (int i = 0; i < edges.length; i += 2) {
+				num(w, nodes[2*edges[i]+1]);
+				w.write(" ");
+				num(w, nodes[2*edges[i+1]+1]);
+				w.write(" NaN ");
+			}
+			w.write("], 'g')\n");
+		}
+		w.write("end\n");
+		w.write("hold off\n");
+	}
+
+	/**
+	 * SVG image in workspace units, y pointing up
+	 */
+	void writeSvg(Writer w) throws IOException {
+
+		double width = xMax - xMin, height = yMax - yMin;
+		double stroke = Math.max(width, height) / 500;
+
+		w.write("<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"");
+		list(w, 0, 0, width, height);
+		w.write("\">\n");
+		// flip y around the workspace bounds
+		w.write("<g transform=\"matrix(1 0 0 -1 ");
+		num(w, -xMin);
+		w.write(" ");
+		num(w, yMax);
+		w.write(")\" stroke-width=\"");
+		num(w, stroke);
+		w.write("\">\n");
+
+		w.write("<g fill=\"blue\">\n");
+		for (int i = 0; i < circles.length; i += 3) {
+			w.write("<circle cx=\"");
+			num(w, circles[i]);
+			w.write("\" cy=\"");
+			num(w, circles[i+1]);
+			w.write("\" r=\"");
+			num(w, circles[i+2]);
+			w.write("\"/>\n");
+		}
+		for (int i = 0; i < rectangles.length; i += 4) {
+			w.write("<rect x=\"");
+			num(w, rectangles[i] - rectangles[i+2] / 2);
+			w.write("\" y=\"");
+			num(w, rectangles[i+1] - rectangles[i+3] / 2);
+			w.write("\" width=\"");
+			num(w, rectangles[i+2]);
+			w.write("\" height=\"");
+			num(w, rectangles[i+3]);
+			w.write("\"/>\n");
+		}
+		for (double[] ring : polygons) {
+			w.write("<polygon points=\"");
+			for (int i = 0; i < ring.length; i += 2) {
+				if (i > 0)
+					w.write(" ");
+				num(w, ring[i]);
+				w.write(",");
+				num(w, ring[i+1]);
+			}
+			w.write("\"/>\n");
+		}
+		w.write("</g>\n");
+
+		if (edges.length > 0) {
+			w.write("<path fill=\"none\" stroke=\"green\" stroke-opacity=\"0.5\" d=\"");
+			for (int i = 0; i < edges.length; i += 2) {
+				w.write("M");
+				num(w, nodes[2*edges[i]]);
+				w.write(" ");
+				num(w, nodes[2*edges[i]+1]);
+				w.write("L");
+				num(w, nodes[2*edges[i+1]]);
+				w.write(" ");
+				num(w, nodes[2*edges[i+1]+1]);
+			}
+			w.write("\"/>\n");
+		}
+		if (nodes.length > 0) {
+			// zero length segments with round caps draw as dots
+			w.write("<path fill=\"none\" stroke=\"magenta\" stroke-linecap=\"round\" stroke-width=\"");
+			num(w, 3 * stroke);
+			w.write("\" d=\"");
+			for (int i = 0; i < nodes.length; i += 2) {
+				w.write("M");
+				num(w, nodes[i]);
+				w.write(" ");
+				num(w, nodes[i+1]);
+				w.write("h0");
+			}
+			w.write("\"/>\n");
+		}
+
+		for (Path path : paths) {
+			if (path.points.isEmpty())
+				continue;
+			w.write("<polyline fill=\"none\" stroke=\"red\" points=\"");
+			for (int i = 0; i < path.points.size(); i++) {
+				if (i > 0)
+					w.write(" ");
+				num(w, path.points.get(i).getX());
+				w.write(",");
+				num(w, path.points.get(i).getY());
+			}
+			w.write("\"><title>");
+			w.write(escape(path.id));
+			w.write("</title></polyline>\n");
+		}
+
+		w.write("<g fill=\"green\">\n");
+		for (double[] end : new double[][] { { xStart, yStart }, { xGoal, yGoal } }) {
+			w.write("<rect x=\"");
+			num(w, end[0] - 4 * stroke);
+			w.write("\" y=\"");
+			num(w, end[1] - 4 * stroke);
+			w.write("\" width=\"");
+			num(w, 8 * stroke);
+			w.write("\" height=\"");
+			num(w, 8 * stroke);
+			w.write("\"/>\n");
+		}
+		w.write("</g>\n</g>\n</svg>\n");
+	}
+
+	/**
+	 * @return the snapshot in the compact binary format
+	 */
+	public byte[] encode() {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				64 + 8 * (circles.length + rectangles.length + nodes.length + edges.length));
+
+		out.write(MAGIC);
+		out.write(VERSION);
+		double[] header = { xMin, xMax, yMin, yMax, xStart, yStart, xGoal, yGoal };
+		for (double v : header) {
+			PathCodec.writeVarint(out, fixed(v));
+		}
+
+		writeDeltas(out, circles, 3);
+		writeDeltas(out, rectangles, 4);
+		PathCodec.writeUVarint(out, polygons.length);
+		for (double[] ring : polygons) {
+			writeDeltas(out, ring, 2);
+		}
+
+		PathCodec.writeUVarint(out, paths.size());
+		for (Path path : paths) {
+			byte[] bytes = PathCodec.encode(path);
+			PathCodec.writeUVarint(out, bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+
+		writeDeltas(out, nodes, 2);
+		PathCodec.writeUVarint(out, edges.length / 2);
+		for (int i = 0; i < edges.length; i += 2) {
+			PathCodec.writeUVarint(out, edges[i]);
+			PathCodec.writeVarint(out, edges[i+1] - edges[i]);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param payload snapshot in the compact binary format
+	 * @return decoded snapshot
+	 */
+	public static Snapshot decode(byte[] payload) {
+
+		if (payload.length < 2 || (payload[0] & 0xFF) != MAGIC)
+			throw new IllegalArgumentException("Not a snapshot");
+		int version = payload[1] & 0xFF;
+		if (version < 1 || version > VERSION)
+			throw new IllegalArgumentException("Unsupported snapshot version " + version);
+
+		int[] pos = { 2 };
+		double[] header = new double[8];
+		for (int i = 0; i < header.length; i++) {
+			header[i] = unfixed(PathCodec.readVarint(payload, pos));
+		}
+
+		double[] circles = readDeltas(payload, pos, 3);
+		double[] rectangles = readDeltas(payload, pos, 4);
+		// version 1 has no polygons
+		double[][] polygons = new double[0][];
+		if (version >= 2) {
+			int p = (int) PathCodec.readUVarint(payload, pos);
+			if (p < 0 || p > payload.length)
+				throw new IllegalArgumentException("Malformed snapshot");
+			polygons = new double[p][];
+			for (int i = 0; i < p; i++) {
+				polygons[i] = readDeltas(payload, pos, 2);
+			}
+		}
+
+		int n = (int) PathCodec.readUVarint(payload, pos);
+		List<Path> paths = new ArrayList<Path>(n);
+		for (int i = 0; i < n; i++) {
+			int len = (int) PathCodec.readUVarint(payload, pos);
+			int end = pos[0] + len;
+			if (len < 0 || end > payload.length)
+				throw new IllegalArgumentException("Malformed path record");
+			paths.add(PathCodec.decode(payload, pos));
+			pos[0] = end;
+		}
+
+		double[] nodes = readDeltas(payload, pos, 2);
+		int m = (int) PathCodec.readUVarint(payload, pos);
+		int[] edges = new int[2 * m];
+		for (int i = 0; i < edges.length; i += 2) {
+			edges[i] = (int) PathCodec.readUVarint(payload, pos);
+			edges[i+1] = edges[i] + (int) PathCodec.readVarint(payload, pos);
+			if (Math.max(edges[i], edges[i+1]) >= nodes.length / 2 || Math.min(edges[i], edges[i+1]) < 0)
+				throw new IllegalArgumentException("Edge to a missing node");
+		}
+
+		return new Snapshot(Arrays.copyOfRange(header, 0, 4), Arrays.copyOfRange(header, 4, 8),
+				circles, rectangles, polygons, paths, nodes, edges);
+	}
+
+	// records of size fields, the first two (x, y) delta coded
+	private static void writeDeltas(ByteArrayOutputStream out, double[] values, int size) {
+		PathCodec.writeUVarint(out, values.length / size);
+		long x = 0, y = 0;
+		for (int i = 0; i < values.length; i += size) {
+			long xi = fixed(values[i]), yi = fixed(values[i+1]);
+			PathCodec.writeVarint(out, xi - x);
+			PathCodec.writeVarint(out, yi - y);
+			for (int k = 2; k < size; k++) {
+				PathCodec.writeVarint(out, fixed(values[i+k]));
+			}
+			x = xi;
+			y = yi;
+		}
+	}
+
+	private static double[] readDeltas(byte[] payload, int[] pos, int size) {
+		int n = (int) PathCodec.readUVarint(payload, pos);
+		if (n < 0 || n > payload.length)
+			throw new IllegalArgumentException("Malformed snapshot");
+		double[] values = new double[n * size];
+		long x = 0, y = 0;
+		for (int i = 0; i < values.length; i += size) {
+			x += PathCodec.readVarint(payload, pos);
+			y += PathCodec.readVarint(payload, pos);
+			values[i] = unfixed(x);
+			values[i+1] = unfixed(y);
+			for (int k = 2; k < size; k++) {
+				values[i+k] = unfixed(PathCodec.readVarint(payload, pos));
+			}
+		}
+		return values;
+	}
+
+	private static long fixed(double v) {
+		return Math.round(v * PathCodec.COORD_SCALE);
+	}
+
+	private static double unfixed(long v) {
+		return v / PathCodec.COORD_SCALE;
+	}
+
+	// doubles are written without boxing
+	private static void num(Writer w, double v) throws IOException {
+		w.write(Double.toString(v));
+	}
+
+	private static void list(Writer w, double... values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0)
+				w.write(", ");
+			num(w, values[i]);
+		}
+	}
+
+	private static String escape(String s) {
+		if (s == null)
+			return "";
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
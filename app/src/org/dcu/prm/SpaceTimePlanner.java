@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Time-expanded A* over a PRM road map. A search state is a road map
+ * node together with the time step the robot is there. From each state
+ * the robot can either wait one step or move along an edge, taking as
+ * many steps as the edge length needs at the given speed. States and
+ * moves that run into cells reserved by higher priority robots are
+ * skipped, so the returned path waits or goes around them instead of
+ * being rejected.
+ *
+ * The road map should be built without committed paths in the
+ * workspace, conflicts with other robots are handled in time here.
+ */
+public class SpaceTimePlanner {
+
+	/**
+	 * Extra restrictions on the search on top of the reservation table,
+	 * used by CBSPlanner. Node ids are road map indices, the start is
+	 * size() and the goal size()+1 of the road map.
+	 */
+	interface Constraints {
+		/**
+		 * @return false if the move from node a at step t0 to node b at
+		 * step t1 is forbidden, a == b for waits
+		 */
+		boolean allows(int a, int b, int t0, int t1);
+
+		/**
+		 * @return first step at which the robot may stop at its goal
+		 */
+		int minEndStep();
+	}
+
+	/** Start and goal of a search, connected to the road map */
+	static final class Query {
+		final double[] xs, ys;
+		final int[] startAttach, goalAttach;
+		final boolean[] toGoal;
+		final boolean direct;
+		/** steps to the goal along the road map, ignoring other robots */
+		int[] h;
+
+		private Query(double[] xs, double[] ys, int[] startAttach, int[] goalAttach, boolean direct) {
+			this.xs = xs;
+			this.ys = ys;
+			this.startAttach = startAttach;
+			this.goalAttach = goalAttach;
+			this.direct = direct;
+			this.toGoal = new boolean[xs.length-2];
+			for (int i : goalAttach) {
+				toGoal[i] = true;
+			}
+		}
+
+		int start() {
+			return xs.length-2;
+		}
+
+		int goal() {
+			return xs.length-1;
+		}
+	}
+
+	/** Node ids and arrival steps of a search result, every wait included */
+	static final class Plan {
+		final int[] nodes;
+		final int[] steps;
+
+		Plan(int[] nodes, int[] steps) {
+			this.nodes = nodes;
+			this.steps = steps;
+		}
+
+		int getEndStep() {
+			return steps[steps.length-1];
+		}
+	}
+
+	private static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+	/** Search state, the parent chain is the resulting path */
+	private static class State implements Comparable<State> {
+		final int id;
+		final int t;
+		final int f;
+		final State parent;
+
+		State(int id, int t, int f, State parent) {
+			this.id = id;
+			this.t = t;
+			this.f = f;
+			this.parent = parent;
+		}
+
+		@Override
+		public int compareTo(State that) {
+			// lowest f first, ties go to the state furthest in time
+			if (this.f != that.f)
+				return this.f < that.f ? -1 : 1;
+			return that.t - this.t;
+		}
+	}
+
+	private final PRMPlanner roadmap;
+	private final ReservationTable table;
+
+	/** Robot speed in workspace units per second */
+	public double speed = 1.0;
+
+	/** Give up on paths longer than this number of time steps */
+	public int maxSteps = 10000;
+
+	/** Number of road map nodes the start and goal are connected to */
+	public int attachNodes = 10;
+
+	/** Number of states expanded by the last search, if run from one thread */
+	public volatile int expansions;
+
+	public SpaceTimePlanner(PRMPlanner roadmap, ReservationTable table) {
+		this.roadmap = roadmap;
+		this.table = table;
+	}
+
+	/**
+	 * Plan a path from (xS,yS) to (xG,yG) that avoids the reservations
+	 * held by other robots. buildRoadMap must have been called on the
+	 * road map.
+	 *
+	 * @param workspace workspace used to connect start and goal to the road map
+	 * @param owner id of the planning robot in the reservation table
+	 * @return timed path, or null if none was found within maxSteps
+	 */
+	public TimedPath findPath(Workspace workspace, double xS, double yS,
+			double xG, double yG, int owner, String id) {
+
+		Query query = prepare(workspace, xS, yS, xG, yG);
+		Plan plan = search(query, owner, null);
+		return plan == null ? null : toPath(query, plan, id);
+	}
+
+	/**
+	 * Connect start and goal to the road map. The query can be searched
+	 * any number of times, from any thread.
+	 */
+	Query prepare(Workspace workspace, double xS, double yS, double xG, double yG) {
+
+		List<PRMNode> nodes = roadmap.m_Nodes;
+		int n = nodes.size();
+
+		// road map nodes, then start (n) and goal (n+1)
+		double[] xs = new double[n+2];
+		double[] ys = new double[n+2];
+		for (int i = 0; i < n; i++) {
+			xs[i] = nodes.get(i).getX();
+			ys[i] = nodes.get(i).getY();
+		}
+		xs[n] = xS; ys[n] = yS;
+		xs[n+1] = xG; ys[n+1] = yG;
+
+		Query q = new Query(xs, ys, attach(workspace, xS, yS), attach(workspace, xG, yG),
+				roadmap.isCollisionFreePath(workspace, xS, yS, xG, yG, roadmap.m_Step));
+		q.h = distancesToGoal(q, speed * table.getTimeStep());
+		return q;
+	}
+
+	/**
+	 * Dijkstra from the goal in time steps. It is an exact heuristic as
+	 * long as nobody is in the way, and tells unreachable goals apart
+	 * before any time is spent searching.
+	 */
+	private int[] distancesToGoal(Query q, double stepLength) {
+
+		final int start = q.start(), goal = q.goal();
+		final List<PRMNode> nodes = roadmap.m_Nodes;
+		final int[] h = new int[q.xs.length];
+		Arrays.fill(h, UNREACHABLE);
+		h[goal] = 0;
+
+		PriorityQueue<State> open = new PriorityQueue<State>();
+		open.add(new State(goal, 0, 0, null));
+		while (!open.isEmpty()) {
+			State s = open.poll();
+			if (s.f > h[s.id])
+				continue;
+
+			if (s.id == goal) {
+				for (int i : q.goalAttach)
+					relax(q, h, open, s, i, stepLength);
+				if (q.direct)
+					relax(q, h, open, s, start, stepLength);
+			} else if (s.id < start) {
+				for (PRMNode e : nodes.get(s.id).m_Edges)
+					relax(q, h, open, s, e.m_Index, stepLength);
+			}
+		}
+
+		// edges are undirected except for the start, which only leaves
+		for (int i : q.startAttach) {
+			if (h[i] != UNREACHABLE)
+				h[start] = Math.min(h[start], h[i] + duration(q, start, i, stepLength));
+		}
+		return h;
+	}
+
+	private static void relax(Query q, int[] h, PriorityQueue<State> open, State s, int to, double stepLength) {
+		int d = s.f + duration(q, s.id, to, stepLength);
+		if (d < h[to]) {
+			h[to] = d;
+			open.add(new State(to, 0, d, null));
+		}
+	}
+
+	/**
+	 * Run the time-expanded A* for a prepared query.
+	 *
+	 * @param constraints extra restrictions, or null
+	 * @return plan, or null if none was found within maxSteps
+	 */
+	Plan search(Query q, int owner, Constraints constraints) {
+
+		final int start = q.start(), goal = q.goal();
+		final double stepLength = speed * table.getTimeStep();
+		final List<PRMNode> nodes = roadmap.m_Nodes;
+
+		// the goal can only be final once nobody else passes there anymore
+		int goalFree = table.lastReservedStep(q.xs[goal], q.ys[goal], owner, maxSteps);
+		if (goalFree == Integer.MAX_VALUE)
+			return null;
+		int minEnd = goalFree + 1;
+		if (constraints != null)
+			minEnd = Math.max(minEnd, constraints.minEndStep());
+
+		if (q.h[start] == UNREACHABLE || table.isReserved(q.xs[start], q.ys[start], 0, owner))
+			return null;
+
+		PriorityQueue<State> open = new PriorityQueue<State>();
+		LongIntMap closed = new LongIntMap(4 * start);
+		open.add(new State(start, 0, Math.max(q.h[start], minEnd), null));
+		int expanded = 0;
+
+		try {
+			while (!open.isEmpty()) {
+				State s = open.poll();
+
+				long key = stateKey(s.id, s.t);
+				if (closed.containsKey(key))
+					continue;
+				closed.put(key, 0);
+				expanded++;
+
+				if (s.id == goal && s.t >= minEnd)
+					return toPlan(s);
+
+				if (s.t >= maxSteps)
+					continue;
+
+				// wait in place
+				tryMove(q, open, closed, s, minEnd, s.id, 1, stepLength, owner, constraints);
+
+				// move along the edges
+				if (s.id == start) {
+					for (int i : q.startAttach)
+						tryMove(q, open, closed, s, minEnd, i, 0, stepLength, owner, constraints);
+					if (q.direct)
+						tryMove(q, open, closed, s, minEnd, goal, 0, stepLength, owner, constraints);
+				} else if (s.id == goal) {
+					// stepping aside lets others pass before coming back
+					for (int i : q.goalAttach)
+						tryMove(q, open, closed, s, minEnd, i, 0, stepLength, owner, constraints);
+				} else {
+					for (PRMNode e : nodes.get(s.id).m_Edges)
+						tryMove(q, open, closed, s, minEnd, e.m_Index, 0, stepLength, owner, constraints);
+					if (q.toGoal[s.id])
+						tryMove(q, open, closed, s, minEnd, goal, 0, stepLength, owner, constraints);
+				}
+			}
+			return null;
+		} finally {
+			expansions = expanded;
+		}
+	}
+
+	private int[] attach(Workspace workspace, double x, double y) {
+		int[] ids = new int[attachNodes];
+		int n = roadmap.findClosestNodesOnGraph(workspace, x, y, attachNodes, ids);
+		return n < ids.length ? Arrays.copyOf(ids, n) : ids;
+	}
+
+	// d is the duration in steps, 0 to derive it from the edge length
+	private void tryMove(Query q, PriorityQueue<State> open, LongIntMap closed, State s, int minEnd,
+			int to, int d, double stepLength, int owner, Constraints constraints) {
+
+		double[] xs = q.xs, ys = q.ys;
+		if (d == 0)
+			d = duration(q, s.id, to, stepLength);
+
+		int t = s.t + d;
+		if (t > maxSteps || q.h[to] == UNREACHABLE || closed.containsKey(stateKey(to, t)))
+			return;
+		if (constraints != null && !constraints.allows(s.id, to, s.t, t))
+			return;
+
+		// every step of the move has to be clear, not only the arrival
+		for (int k = 1; k <= d; k++) {
+			double f = (double) k / d;
+			double x = xs[s.id] + f * (xs[to] - xs[s.id]);
+			double y = ys[s.id] + f * (ys[to] - ys[s.id]);
+			if (table.isReserved(x, y, s.t + k, owner))
+				return;
+		}
+		// the robot cannot stop before minEnd, whatever the distance
+		open.add(new State(to, t, Math.max(t + q.h[to], minEnd), s));
+	}
+
+	private static int duration(Query q, int a, int b, double stepLength) {
+		double dx = q.xs[b] - q.xs[a];
+		double dy = q.ys[b] - q.ys[a];
+		return Math.max(1, (int) Math.ceil(Math.sqrt(dx*dx + dy*dy) / stepLength));
+	}
+
+	private static long stateKey(int id, int t) {
+		return ((long) id << 24) | t;
+	}
+
+	private static Plan toPlan(State last) {
+
+		int m = 0;
+		for (State s = last; s != null; s = s.parent) {
+			m++;
+		}
+
+		int[] nodes = new int[m];
+		int[] steps = new int[m];
+		for (State s = last; s != null; s = s.parent) {
+			m--;
+			nodes[m] = s.id;
+			steps[m] = s.t;
+		}
+		return new Plan(nodes, steps);
+	}
+
+	/**
+	 * Convert a plan to waypoints, a run of waits only keeps its first
+	 * and last waypoint.
+	 */
+	static TimedPath toPath(Query q, Plan plan, String id) {
+
+		ArrayList<Position> points = new ArrayList<Position>();
+		int[] steps = new int[plan.nodes.length];
+		int m = 0;
+
+		for (int k = 0; k < plan.nodes.length; k++) {
+			int node = plan.nodes[k];
+			if (m >= 2 && sameSpot(points.get(m-1), q, node) && sameSpot(points.get(m-2), q, node)) {
+				steps[m-1] = plan.steps[k];
+				continue;
+			}
+			points.add(new Position(q.xs[node], q.ys[node]));
+			steps[m++] = plan.steps[k];
+		}
+
+		int[] trimmed = new int[m];
+		System.arraycopy(steps, 0, trimmed, 0, m);
+		return new TimedPath(points, trimmed, id);
+	}
+
+	private static boolean sameSpot(Position p, Query q, int node) {
+		return p.getX() == q.xs[node] && p.getY() == q.ys[node];
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A path with the time step at which each waypoint is reached. The
+ * robot moves linearly between consecutive waypoints; two consecutive
+ * waypoints at the same position mean the robot waits there.
+ */
+public class TimedPath extends Path {
+
+	/** Arrival time step of each waypoint, non-decreasing */
+	public int[] steps;
+
+	public TimedPath(ArrayList<Position> points, int[] steps, String id) {
+		super(points, id);
+		if (steps.length != points.size())
+			throw new IllegalArgumentException("One time step per waypoint expected");
+		this.steps = steps;
+	}
+
+	/**
+	 * @return time step at which the goal is reached
+	 */
+	public int getEndStep() {
+		return steps.length == 0 ? 0 : steps[steps.length-1];
+	}
+
+	/**
+	 * @return interpolated position at time step t, the first waypoint
+	 * before the path starts and the last one after it ends
+	 */
+	public Position positionAt(int t) {
+
+		if (t <= steps[0])
+			return points.get(0);
+		if (t >= getEndStep())
+			return points.get(points.size()-1);
+
+		// first waypoint reached after t
+		int i = Arrays.binarySearch(steps, t);
+		if (i >= 0) {
+			// with waits several waypoints share the step, use the last one
+			while (i+1 < steps.length && steps[i+1] == t)
+				i++;
+			return points.get(i);
+		}
+		i = -i - 1;
+
+		Position a = points.get(i-1);
+		Position b = points.get(i);
+		double f = (double) (t - steps[i-1]) / (steps[i] - steps[i-1]);
+		return new Position(a.getX() + f * (b.getX() - a.getX()),
+				a.getY() + f * (b.getY() - a.getY()));
+	}
+}
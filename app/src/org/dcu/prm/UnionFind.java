@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+/**
+ * Disjoint sets over the integers 0..n-1, with union by size and path
+ * halving.
+ */
+final class UnionFind {
+
+	private final int[] parent;
+	private final int[] size;
+	private int sets;
+
+	UnionFind(int n) {
+		parent = new int[n];
+		size = new int[n];
+		for (int i = 0; i < n; i++) {
+			parent[i] = i;
+			size[i] = 1;
+		}
+		sets = n;
+	}
+
+	int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Merge the sets of a and b
+	 *
+	 * @return false if they were in the same set already
+	 */
+	boolean union(int a, int b) {
+		int ra = find(a), rb = find(b);
+		if (ra == rb)
+			return false;
+		if (size[ra] < size[rb]) {
+			int r = ra;
+			ra = rb;
+			rb = r;
+		}
+		parent[rb] = ra;
+		size[ra] += size[rb];
+		sets--;
+		return true;
+	}
+
+	/**
+	 * @return number of disjoint sets
+	 */
+	int sets() {
+		return sets;
+	}
+
+	/**
+	 * @return set label of every element, labels are 0..sets()-1
+	 */
+	int[] labels() {
+		int[] labels = new int[parent.length];
+		int[] ids = new int[parent.length];
+		int next = 0;
+		for (int i = 0; i < parent.length; i++) {
+			int r = find(i);
+			if (ids[r] == 0)
+				ids[r] = ++next;
+			labels[i] = ids[r] - 1;
+		}
+		return labels;
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2004 Patric Jensfelt.
+ * All Rights Reserved.
+ */
+
+package org.dcu.prm;
+
+class Vector {
+
+	double x, y;
+
+	public Vector(double xHead, double yHead, double xTail, double yTail) {
+		x = xHead - xTail;
+		y = yHead - yTail;
+	}
+
+	// return the dot product of vectors this.that
+	double dot(Vector that) {
+		return ((this.x*that.x)+(this.y*that.y));
+	}
+
+	// return the cross product of vectors thisXthat
+	double cross(Vector that) {
+		return ((this.x*that.y)-(this.y*that.x));
+	}
+
+	// return the Euclidean norm of this Vector
+	double magnitude() {
+		return Math.sqrt(this.dot(this));
+	}
+
+	// return the cos(theta) with that vector
+	public double cosTheta(Vector that) {
+		return (this.dot(that)/(this.magnitude()*that.magnitude()));
+	}
+
+	// return the angle with that vector
+	public double angle(Vector that) {
+		return Math.acos(this.cosTheta(that));
+	}
+}
@@ -5,71 +5,23 @@
 
 package org.dcu.prm;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.json.JsonArray;
+import javax.json.JsonNumber;
 import javax.json.JsonObject;
-
-class Circle {
-	double xC, yC, radius;
-
-	public Circle(double xC, double yC, double radius) {
-		this.xC = xC;
-		this.yC = yC;
-		this.radius = radius;
-	}
-};
-
-class Rectangle {
-	double xC, yC, width, height, angle;
-
-	public Rectangle(double xC, double yC, double width, double height) {
-		this.xC = xC;
-		this.yC = yC;
-		this.width = width;
-		this.height = height;
-	}
-};
-
-class Vector {
-
-	double x, y;
-
-	public Vector(double xHead, double yHead, double xTail, double yTail) {
-		x = xHead - xTail;
-		y = yHead - yTail;
-	}
-
-	// return the dot product of vectors this.that
-	double dot(Vector that) {
-		return ((this.x*that.x)+(this.y*that.y));
-	}
-
-	// return the cross product of vectors thisXthat
-	double cross(Vector that) {
-		return ((this.x*that.y)-(this.y*that.x));
-	}
-
-	// return the Euclidean norm of this Vector
-	double magnitude() {
-		return Math.sqrt(this.dot(this));
-	}
-
-	// return the cos(theta) with that vector
-	public double cosTheta(Vector that) {
-		return (this.dot(that)/(this.magnitude()*that.magnitude()));
-	}
-
-	// return the angle with that vector
-	public double angle(Vector that) {
-		return Math.acos(this.cosTheta(that));
-	}
-}
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
 
 /**
  * The base class for represents the world
@@ -81,14 +33,27 @@ public class Workspace {
 	public double xMin, xMax, yMin, yMax;
 	public List<Circle> circles;
 	public List<Rectangle> rectangles;
+	public List<Polygon> polygons;
 	public List<Path> paths;
+	// partition into zones, null if the workspace is not sharded
+	public ZoneMap zones;
+	// version of the last obstacle change applied, see apply()
+	private long obstacleVersion;
+
+	public static final double CLEARANCE = 0.1;
 
-	private static final double CLEARANCE = 0.1;
+	// grid over circles and rectangles, kept in step with the lists
+	private ObstacleIndex index;
+	// obstacles added at run time, by id
+	private Map<String, Obstacle> dynamic;
+	// workspace whose monitor guards the obstacles, this one unless a view
+	private Workspace owner = this;
 
 	public Workspace(JsonObject ws) {
 
 		circles = new ArrayList<Circle>();
 		rectangles = new ArrayList<Rectangle>();
+		polygons = new ArrayList<Polygon>();
 		paths = Collections.synchronizedList(new ArrayList<Path>());
 
 		xStart = ws.getJsonObject("start").getJsonNumber("x").doubleValue();
@@ -120,9 +85,348 @@ public class Workspace {
 			yCenter = jsonRectangles.getJsonObject(i).getJsonNumber("yCenter").doubleValue();
 			width = jsonRectangles.getJsonObject(i).getJsonNumber("width").doubleValue();
 			height = jsonRectangles.getJsonObject(i).getJsonNumber("height").doubleValue();
+			JsonNumber angle = jsonRectangles.getJsonObject(i).getJsonNumber("angle");
+
+			rectangles.add(i, new Rectangle(xCenter, yCenter, width, height,
+					angle != null ? angle.doubleValue() : 0));
+		}
+
+		JsonArray jsonPolygons = ws.getJsonArray("polygons");
+		for (int i = 0; jsonPolygons != null && i < jsonPolygons.size(); i++) {
+			JsonArray points = jsonPolygons.getJsonObject(i).getJsonArray("points");
+			double[] xs = new double[points.size()], ys = new double[points.size()];
+			for (int j = 0; j < points.size(); j++) {
+				xs[j] = points.getJsonObject(j).getJsonNumber("x").doubleValue();
+				ys[j] = points.getJsonObject(j).getJsonNumber("y").doubleValue();
+			}
+			if (xs.length < 3)
+				throw new IllegalArgumentException("Polygon needs 3 or more vertices");
+			polygons.add(new Polygon(xs, ys));
+		}
+
+		JsonArray jsonZones = ws.getJsonArray("zones");
+		if (jsonZones != null && !jsonZones.isEmpty()) {
+			zones = new ZoneMap();
+			for (int i = 0; i < jsonZones.size(); i++) {
+				JsonObject z = jsonZones.getJsonObject(i);
+				zones.addZone(new Zone(z.getString("id"),
+						z.getJsonNumber("xMin").doubleValue(), z.getJsonNumber("xMax").doubleValue(),
+						z.getJsonNumber("yMin").doubleValue(), z.getJsonNumber("yMax").doubleValue()));
+			}
+			JsonArray jsonPortals = ws.getJsonArray("portals");
+			for (int i = 0; jsonPortals != null && i < jsonPortals.size(); i++) {
+				JsonObject p = jsonPortals.getJsonObject(i);
+				zones.addPortal(p.getJsonNumber("x").doubleValue(), p.getJsonNumber("y").doubleValue(),
+						p.getJsonArray("zones").getString(0), p.getJsonArray("zones").getString(1));
+			}
+		}
+
+		buildIndex();
+
+		JsonArray jsonObstacles = ws.getJsonArray("obstacles");
+		for (int i = 0; jsonObstacles != null && i < jsonObstacles.size(); i++) {
+			// one obstacle reader for both forms
+			JsonParser parser = JsonStream.parser(
+					jsonObstacles.getJsonObject(i).toString().getBytes(StandardCharsets.UTF_8));
+			JsonStream.expect(parser, Event.START_OBJECT);
+			addObstacle(Obstacle.readJSON(parser));
+			parser.close();
+		}
+		if (ws.containsKey("obstacleVersion"))
+			obstacleVersion = ws.getJsonNumber("obstacleVersion").longValue();
+	}
+
+	/**
+	 * Parse the workspace straight from the raw JSON payload returned by
+	 * the chaincode, without building an intermediate object tree.
+	 *
+	 * @param payload workspace JSON bytes
+	 */
+	public Workspace(byte[] payload) {
+
+		circles = new ArrayList<Circle>();
+		rectangles = new ArrayList<Rectangle>();
+		polygons = new ArrayList<Polygon>();
+		paths = Collections.synchronizedList(new ArrayList<Path>());
+		List<Obstacle> obstacles = new ArrayList<Obstacle>();
+
+		JsonParser parser = JsonStream.parser(payload);
+		JsonStream.expect(parser, Event.START_OBJECT);
+
+		while (parser.next() == Event.KEY_NAME) {
+
+			String key = parser.getString();
+			if (key.equals("start")) {
+				JsonStream.expect(parser, Event.START_OBJECT);
+				double[] xy = readObject(parser, "x", "y");
+				xStart = xy[0];
+				yStart = xy[1];
+			} else if (key.equals("goal")) {
+				JsonStream.expect(parser, Event.START_OBJECT);
+				double[] xy = readObject(parser, "x", "y");
+				xGoal = xy[0];
+				yGoal = xy[1];
+			} else if (key.equals("bounds")) {
+				JsonStream.expect(parser, Event.START_OBJECT);
+				double[] b = readObject(parser, "xMin", "xMax", "yMin", "yMax");
+				xMin = b[0];
+				xMax = b[1];
+				yMin = b[2];
+				yMax = b[3];
+			} else if (key.equals("circles")) {
+				JsonStream.expect(parser, Event.START_ARRAY);
+				while (parser.next() == Event.START_OBJECT) {
+					double[] c = readObject(parser, "xCenter", "yCenter", "radius");
+					circles.add(new Circle(c[0], c[1], c[2]));
+				}
+			} else if (key.equals("rectangles")) {
+				JsonStream.expect(parser, Event.START_ARRAY);
+				while (parser.next() == Event.START_OBJECT) {
+					double[] r = readObject(parser, "xCenter", "yCenter", "width", "height", "angle");
+					rectangles.add(new Rectangle(r[0], r[1], r[2], r[3], r[4]));
+				}
+			} else if (key.equals("polygons")) {
+				JsonStream.expect(parser, Event.START_ARRAY);
+				while (parser.next() == Event.START_OBJECT) {
+					double[][] points = null;
+					while (parser.next() == Event.KEY_NAME) {
+						if (parser.getString().equals("points"))
+							points = Obstacle.readPoints(parser);
+						else
+							JsonStream.skipValue(parser, parser.next());
+					}
+					if (points == null || points[0].length < 3)
+						throw new IllegalArgumentException("Polygon needs 3 or more vertices");
+					polygons.add(new Polygon(points[0], points[1]));
+				}
+			} else if (key.equals("zones")) {
+				JsonStream.expect(parser, Event.START_ARRAY);
+				if (zones == null)
+					zones = new ZoneMap();
+				zones.readZones(parser);
+			} else if (key.equals("portals")) {
+				JsonStream.expect(parser, Event.START_ARRAY);
+				if (zones == null)
+					zones = new ZoneMap();
+				zones.readPortals(parser);
+			} else if (key.equals("obstacles")) {
+				JsonStream.expect(parser, Event.START_ARRAY);
+				while (parser.next() == Event.START_OBJECT)
+					obstacles.add(Obstacle.readJSON(parser));
+			} else if (key.equals("obstacleVersion")) {
+				obstacleVersion = (long) JsonStream.readNumber(parser);
+			} else {
+				JsonStream.skipValue(parser, parser.next());
+			}
+		}
+		parser.close();
+
+		if (zones != null && zones.size() == 0)
+			zones = null;
+
+		// the bounds may come after the obstacles, index once all is read
+		buildIndex();
+		for (Obstacle o : obstacles)
+			addObstacle(o);
+	}
+
+	/**
+	 * View of the workspace restricted to a box, used to plan within one
+	 * zone. The obstacles, their index and the paths are shared with the
+	 * whole workspace, so obstacle changes show through every view; the
+	 * index keeps the collision checks of a zone from growing with the
+	 * whole floor. Obstacle changes and their version go to the whole
+	 * workspace, under its lock.
+	 */
+	Workspace(Workspace that, double xMin, double xMax, double yMin, double yMax) {
+
+		circles = that.circles;
+		rectangles = that.rectangles;
+		polygons = that.polygons;
+		index = that.index;
+		dynamic = that.dynamic;
+		paths = that.paths;
+		zones = that.zones;
+		owner = that.owner;
+
+		xStart = that.xStart;
+		yStart = that.yStart;
+		xGoal = that.xGoal;
+		yGoal = that.yGoal;
+
+		this.xMin = xMin;
+		this.xMax = xMax;
+		this.yMin = yMin;
+		this.yMax = yMax;
+	}
+
+	private void buildIndex() {
+
+		index = new ObstacleIndex(xMin, xMax, yMin, yMax, CLEARANCE);
+		dynamic = new HashMap<String, Obstacle>();
+
+		for (int i = 0; i < circles.size(); i++)
+			index.add(circles.get(i));
+		for (int i = 0; i < rectangles.size(); i++)
+			index.add(rectangles.get(i));
+		for (int i = 0; i < polygons.size(); i++)
+			index.add(polygons.get(i));
+	}
+
+	/**
+	 * Place an obstacle at run time, replacing the one with the same id
+	 */
+	public synchronized void addObstacle(Obstacle obstacle) {
+
+		if (owner != this) {
+			owner.addObstacle(obstacle);
+			return;
+		}
+		removeObstacle(obstacle.id);
+
+		if (obstacle.type == Obstacle.Type.CIRCLE) {
+			Circle c = new Circle(obstacle.xC, obstacle.yC, obstacle.radius);
+			c.id = obstacle.id;
+			circles.add(c);
+			index.add(c);
+		} else if (obstacle.type == Obstacle.Type.RECTANGLE) {
+			Rectangle r = new Rectangle(obstacle.xC, obstacle.yC, obstacle.width, obstacle.height, obstacle.angle);
+			r.id = obstacle.id;
+			rectangles.add(r);
+			index.add(r);
+		} else {
+			Polygon p = new Polygon(obstacle.xs, obstacle.ys);
+			p.id = obstacle.id;
+			polygons.add(p);
+			index.add(p);
+		}
+		dynamic.put(obstacle.id, obstacle);
+	}
+
+	/**
+	 * @return the obstacle removed, null if there is none with that id
+	 */
+	public synchronized Obstacle removeObstacle(String id) {
+
+		if (owner != this)
+			return owner.removeObstacle(id);
+		Obstacle obstacle = dynamic.remove(id);
+		if (obstacle == null)
+			return null;
+
+		if (obstacle.type == Obstacle.Type.CIRCLE) {
+			for (int i = 0; i < circles.size(); i++) {
+				if (id.equals(circles.get(i).id)) {
+					index.remove(circles.get(i));
+					circles.remove(i);
+					break;
+				}
+			}
+		} else if (obstacle.type == Obstacle.Type.RECTANGLE) {
+			for (int i = 0; i < rectangles.size(); i++) {
+				if (id.equals(rectangles.get(i).id)) {
+					index.remove(rectangles.get(i));
+					rectangles.remove(i);
+					break;
+				}
+			}
+		} else {
+			for (int i = 0; i < polygons.size(); i++) {
+				if (id.equals(polygons.get(i).id)) {
+					index.remove(polygons.get(i));
+					polygons.remove(i);
+					break;
+				}
+			}
+		}
+		return obstacle;
+	}
+
+	/**
+	 * @return the obstacle before the move, null if there is none with
+	 * that id
+	 */
+	public synchronized Obstacle moveObstacle(String id, double xC, double yC) {
+
+		if (owner != this)
+			return owner.moveObstacle(id, xC, yC);
+		Obstacle previous = dynamic.get(id);
+		if (previous != null)
+			addObstacle(previous.moveTo(xC, yC));
+		return previous;
+	}
+
+	public synchronized Obstacle getObstacle(String id) {
+		if (owner != this)
+			return owner.getObstacle(id);
+		return dynamic.get(id);
+	}
 
-			rectangles.add(i, new Rectangle(xCenter, yCenter, width, height));
+	/**
+	 * @return the obstacles added at run time
+	 */
+	public synchronized List<Obstacle> getObstacles() {
+		if (owner != this)
+			return owner.getObstacles();
+		return new ArrayList<Obstacle>(dynamic.values());
+	}
+
+	/**
+	 * Apply a change received from the ledger. Changes at or below the
+	 * current version were already seen, through the workspace query or
+	 * an earlier event, and are ignored.
+	 *
+	 * @return true if the change was applied
+	 */
+	public synchronized boolean apply(ObstacleChange change) {
+
+		if (owner != this)
+			return owner.apply(change);
+		if (change.version <= obstacleVersion)
+			return false;
+
+		switch (change.op) {
+		case ADD:
+		case MOVE:
+			addObstacle(change.obstacle);
+			break;
+		case REMOVE:
+			removeObstacle(change.obstacle.id);
+			break;
 		}
+		obstacleVersion = change.version;
+		return true;
+	}
+
+	/**
+	 * @return version of the last obstacle change applied
+	 */
+	public synchronized long getObstacleVersion() {
+		if (owner != this)
+			return owner.getObstacleVersion();
+		return obstacleVersion;
+	}
+
+	/**
+	 * Read the numeric members of a flat object, the parser must be
+	 * positioned right after START_OBJECT. Missing members are left 0.
+	 */
+	private static double[] readObject(JsonParser parser, String... keys) {
+
+		double[] values = new double[keys.length];
+
+		while (parser.next() == Event.KEY_NAME) {
+			String key = parser.getString();
+			int i = 0;
+			while (i < keys.length && !keys[i].equals(key))
+				i++;
+
+			if (i < keys.length)
+				values[i] = JsonStream.readNumber(parser);
+			else
+				JsonStream.skipValue(parser, parser.next());
+		}
+		return values;
 	}
 
 	/**
@@ -134,48 +438,51 @@ public class Workspace {
 	 * @return true if point (x,y) collides with any of the obstacles
 	 */
 	public boolean collidesWith(double x, double y) {
+		return index.collidesWith(x, y);
+	}
 
-		Circle cir;
-		Rectangle rec;
-		double dx, dy, w2, h2, radius;
-
-		Iterator<Circle> iC = circles.iterator();
+	/**
+	 * Batch form of collidesWith over the first n points of xs and ys
+	 *
+	 * @return index of the first point that collides, -1 if none does
+	 */
+	public int firstCollision(double[] xs, double[] ys, int n) {
+		return index.firstCollision(xs, ys, n);
+	}
 
-		while(iC.hasNext()){
-			cir = iC.next();
+	/**
+	 * Distance from a point to the closest obstacle, including the
+	 * clearance margin; collidesWith(x, y) holds where this is not
+	 * positive. The distance to rectangles is the largest of the x and y
+	 * distances in their frame, matching the box test of collidesWith;
+	 * inside a polygon it is minus the distance to its outline.
+	 *
+	 * @return distance to the closest obstacle, MAX_VALUE if there is none
+	 */
+	public double clearance(double x, double y) {
 
-			dx = x - cir.xC;
-			dy = y - cir.yC;
-			radius = cir.radius;
+		double min = Double.MAX_VALUE;
 
-			if (Math.sqrt(dx*dx+dy*dy) <= (radius + CLEARANCE))
-				return true;
+		for (Circle cir : circles) {
+			double dx = x - cir.xC;
+			double dy = y - cir.yC;
+			min = Math.min(min, Math.sqrt(dx*dx+dy*dy) - cir.radius - CLEARANCE);
 		}
 
-		Iterator<Rectangle> iR = rectangles.iterator();
-
-		while(iR.hasNext()){
-			rec = iR.next();
-
-			//dx = x - rec.xC;
-			//dy = y - rec.yC;
-			w2 = rec.width/2;
-			h2 = rec.height/2;
-			//radius = Math.sqrt(w2*w2+h2*h2);
-
-			//if (Math.sqrt(dx*dx+dy*dy) <= (radius + CLEARANCE))
-			//	return true;
-
-			Vector ca = new Vector(x, y, rec.xC, rec.yC);
-			Vector ck = new Vector(rec.xC, (rec.yC+h2), rec.xC, rec.yC);
-			Vector cl = new Vector((rec.xC+w2), rec.yC, rec.xC, rec.yC);
+		for (Rectangle rec : rectangles) {
+			// in the frame of the rectangle
+			double c = Math.cos(rec.angle), s = Math.sin(rec.angle);
+			double dx = Math.abs((x - rec.xC)*c + (y - rec.yC)*s) - rec.width/2;
+			double dy = Math.abs((y - rec.yC)*c - (x - rec.xC)*s) - rec.height/2;
+			min = Math.min(min, Math.max(dx, dy) - CLEARANCE);
+		}
 
-			if ((Math.abs(ca.magnitude() * ck.cosTheta(ca)) <= (h2+ CLEARANCE)) &&
-					(Math.abs(ca.magnitude() * cl.cosTheta(ca)) <= (w2+ CLEARANCE)))
-				return true;
+		for (Polygon poly : polygons) {
+			double d = Math.sqrt(Shapes.outlineDistance2(poly.xs, poly.ys, x, y));
+			min = Math.min(min, (Shapes.inside(poly.xs, poly.ys, x, y) ? -d : d) - CLEARANCE);
 		}
 
-		return false;
+		return min;
 	}
 
 /*
@@ -301,12 +608,11 @@ public class Workspace {
 */
 	public boolean collidesWithPath(double x1, double y1, double x2, double y2) {
 
-		Path path;
-		Iterator<Path> iP = paths.iterator();
-		while(iP.hasNext()){
-			path = iP.next();
-			if (path.intersectWith(x1, y1, x2, y2))
-				return true;
+		synchronized (paths) {
+			for (int i = 0; i < paths.size(); i++) {
+				if (paths.get(i).intersectWith(x1, y1, x2, y2))
+					return true;
+			}
 		}
 		// If none detected, all clear
 		return false;
@@ -322,78 +628,9 @@ public class Workspace {
 	public void writeMatlabDisplayCode(String mfile)
 			throws IOException {
 
-		Circle cir;
-		Rectangle rec;
-		Path path;
-
-		FileWriter fw = new FileWriter(mfile);
-
-		fw.write("% Auto-generated workspace m-code description\n");
-		fw.write("% xMin=" + xMin + "\n");
-		fw.write("% xMax=" + xMax + "\n");
-		fw.write("% yMin=" + yMin + "\n");
-		fw.write("% yMax=" + yMax + "\n");
-		fw.write("clf\nhold on\n");
-
-		Iterator<Circle> iC = circles.iterator();
-
-		while(iC.hasNext()){
-			cir = iC.next();
-
-			fw.write("fill(" +
-					cir.xC + " + " + cir.radius + "*cos((0:5:360)/180*pi)," +
-					cir.yC + " + " + cir.radius + "*sin((0:5:360)/180*pi) , 'b')\n");
-		}
-
-		double x, y, w, h;
-		Iterator<Rectangle> iR = rectangles.iterator();
-
-		while(iR.hasNext()){
-			rec = iR.next();
-
-			x = rec.xC;
-			y = rec.yC;
-			w = rec.width;
-			h = rec.height;
-
-			fw.write("fill([" +
-					new Double(x-(w/2)) + ", " + new Double(x+(w/2)) + ", " + new Double(x+(w/2)) + ", " +
-					new Double(x-(w/2)) + ", " + new Double(x-(w/2)) + "], [" +
-					new Double(y-(h/2)) + ", " + new Double(y-(h/2)) + ", " + new Double(y+(h/2)) + ", " +
-					new Double(y+(h/2)) + ", " + new Double(y-(h/2)) + "], 'b')\n");
-		}
-
-		Iterator<Path> iP = paths.iterator();
-
-		while(iP.hasNext()){
-			path = iP.next();
-
-			for (int i = 0; i < path.points.size()-1; i++) {
-				Position p1 = path.points.get(i);
-				Position p2 = path.points.get(i+1);
-				fw.write("plot([" + p1.getX() + ", " + p2.getX() + "], ["
-						+ p1.getY() + ", " + p2.getY() + "], 'r')\n");
-				//fw.write("text(" + p1.getX() + ", " + p1.getY() + ",\'["+ String.format("%.2f",p1.getX()) + "," + String.format("%.2f",p1.getY()) +"]\');");
-				//fw.write("text(" + p2.getX() + ", " + p2.getY() + ",\'["+ String.format("%.2f",p2.getX()) + "," + String.format("%.2f",p2.getY()) +"]\');");
-			}
-			// put some label on the plotted path
-			fw.write(String.format("plot(%f,%f,\'->\',\'MarkerSize\',10,\'MarkerFaceColor\',\'y\');\n",
-					path.points.get(5).getX(), path.points.get(5).getY()));
-			fw.write(String.format("text(%f-0.1,%f-0.1,\'[%s]\');\n",
-					path.points.get(5).getX(), path.points.get(5).getY(), path.id));
+		try (Writer w = new BufferedWriter(new FileWriter(mfile))) {
+			Snapshot.of(this, null).writeMatlabWorkspace(w);
 		}
-
-		fw.write("plot(" + xStart + ", " + yStart + ",\'-s\',\'MarkerSize\',10, \'MarkerFaceColor\',\'g\');\n");
-		fw.write("plot(" + xGoal + ", " + yGoal + ",\'-s\',\'MarkerSize\',10, \'MarkerFaceColor\',\'g\');\n");
-		fw.write("text(" + xStart + ", " + yStart + "-0.2,\'S\',\'FontSize\',12);\n");
-		fw.write("text(" + xGoal + ", " + yGoal + "-0.2,\'G\',\'FontSize\',12);\n");
-		fw.write("hold off;grid on;grid minor;\n");
-		fw.write("xlim(["+ xMin + " " + xMax + "]);\n");
-		fw.write("ylim(["+ yMin + " " + yMax + "]);\n");
-		fw.write("title(\'Multi-Robot Workspace\');\n");
-		//fw.write("axis equal");
-
-		fw.close();
 	}
 
 	public void deleteAllPaths() {
@@ -435,7 +672,12 @@ public class Workspace {
 					rectangles.get(i).xC +" "+
 					rectangles.get(i).yC +" "+
 					rectangles.get(i).width +" "+
-					rectangles.get(i).height + "\n");
+					rectangles.get(i).height +" "+
+					rectangles.get(i).angle + "\n");
+		}
+
+		for (int i = 0; i < polygons.size(); i++) {
+			ws.append("Polygon["+i+"]: " + polygons.get(i).xs.length + " vertices\n");
 		}
 
 		return ws.toString();
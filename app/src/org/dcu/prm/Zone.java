@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+/**
+ * Axis aligned part of the floor with its own road map, path index and
+ * chaincode key namespace. Zones are expected to tile the workspace;
+ * robots cross from one zone to the next through portals.
+ */
+public class Zone {
+
+	/** Slack of the overlap tests, paths touching a border belong to both zones */
+	static final double EPSILON = 1e-3;
+
+	public final String id;
+	public final double xMin, xMax, yMin, yMax;
+
+	public Zone(String id, double xMin, double xMax, double yMin, double yMax) {
+		this.id = id;
+		this.xMin = xMin;
+		this.xMax = xMax;
+		this.yMin = yMin;
+		this.yMax = yMax;
+	}
+
+	public boolean contains(double x, double y) {
+		return x >= xMin - EPSILON && x <= xMax + EPSILON
+				&& y >= yMin - EPSILON && y <= yMax + EPSILON;
+	}
+
+	/**
+	 * Liang-Barsky clipping of the segment against the zone, the same
+	 * test the chaincode uses to index paths
+	 */
+	public boolean overlaps(double xa, double ya, double xb, double yb) {
+
+		double t0 = 0, t1 = 1;
+		double dx = xb - xa, dy = yb - ya;
+		double[] p = { -dx, dx, -dy, dy };
+		double[] q = { xa - (xMin - EPSILON), (xMax + EPSILON) - xa,
+				ya - (yMin - EPSILON), (yMax + EPSILON) - ya };
+
+		for (int i = 0; i < 4; i++) {
+			if (p[i] == 0) {
+				if (q[i] < 0)
+					return false;
+				continue;
+			}
+			double r = q[i] / p[i];
+			if (p[i] < 0) {
+				if (r > t1)
+					return false;
+				t0 = Math.max(t0, r);
+			} else {
+				if (r < t0)
+					return false;
+				t1 = Math.min(t1, r);
+			}
+		}
+		return true;
+	}
+
+	public boolean overlaps(Path path) {
+		if (path.points.size() == 1)
+			return contains(path.points.get(0).getX(), path.points.get(0).getY());
+		for (int i = 0; i < path.points.size()-1; i++) {
+			Position a = path.points.get(i);
+			Position b = path.points.get(i+1);
+			if (overlaps(a.getX(), a.getY(), b.getX(), b.getY()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the box of the obstacle, grown by margin, overlaps
+	 * the zone
+	 */
+	public boolean overlaps(Obstacle obstacle, double margin) {
+		return obstacle.xC + obstacle.halfWidth() + margin >= xMin - EPSILON
+				&& obstacle.xC - obstacle.halfWidth() - margin <= xMax + EPSILON
+				&& obstacle.yC + obstacle.halfHeight() + margin >= yMin - EPSILON
+				&& obstacle.yC - obstacle.halfHeight() - margin <= yMax + EPSILON;
+	}
+
+	public Region toRegion() {
+		return Region.box(xMin, yMin, xMax, yMax);
+	}
+
+	@Override
+	public String toString() {
+		return "Zone[" + id + "]";
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+/**
+ * Partition of a workspace into zones, and the portals joining them.
+ * Parsed from the "zones" and "portals" members of the workspace:
+ *
+ *   "zones": [{"id": "A", "xMin": 0, "xMax": 5, "yMin": 0, "yMax": 7}, ...]
+ *   "portals": [{"x": 5, "y": 4, "zones": ["A", "B"]}, ...]
+ */
+public class ZoneMap {
+
+	private final List<Zone> zones = new ArrayList<Zone>();
+	// position of each zone in zones, by id
+	private final Map<String, Integer> index = new HashMap<String, Integer>();
+	private final List<Portal> portals = new ArrayList<Portal>();
+	// portals of each zone, in the order of zones
+	private final List<List<Portal>> zonePortals = new ArrayList<List<Portal>>();
+
+	/**
+	 * Partition a workspace without declared zones into a grid of square
+	 * regions, with portals at evenly spaced free points of every border
+	 * between two neighbors
+	 *
+	 * @param size side length of a region, the last row and column may
+	 * be smaller
+	 * @param portalsPerBorder candidate portals per border, the ones
+	 * inside obstacles are left out
+	 */
+	public static ZoneMap grid(Workspace workspace, double size, int portalsPerBorder) {
+
+		int cols = Math.max(1, (int) Math.ceil((workspace.xMax - workspace.xMin) / size));
+		int rows = Math.max(1, (int) Math.ceil((workspace.yMax - workspace.yMin) / size));
+		ZoneMap map = new ZoneMap();
+
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				double x0 = workspace.xMin + c * size;
+				double y0 = workspace.yMin + r * size;
+				map.addZone(new Zone(c + "," + r, x0, Math.min(x0 + size, workspace.xMax),
+						y0, Math.min(y0 + size, workspace.yMax)));
+			}
+		}
+
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				Zone zone = map.zones.get(r * cols + c);
+				for (int k = 0; k < portalsPerBorder; k++) {
+					double f = (k + 0.5) / portalsPerBorder;
+					// right and upper neighbors
+					if (c+1 < cols) {
+						double y = zone.yMin + f * (zone.yMax - zone.yMin);
+						if (!workspace.collidesWith(zone.xMax, y))
+							map.addPortal(zone.xMax, y, zone.id, map.zones.get(r * cols + c+1).id);
+					}
+					if (r+1 < rows) {
+						double x = zone.xMin + f * (zone.xMax - zone.xMin);
+						if (!workspace.collidesWith(x, zone.yMax))
+							map.addPortal(x, zone.yMax, zone.id, map.zones.get((r+1) * cols + c).id);
+					}
+				}
+			}
+		}
+		return map;
+	}
+
+	public void addZone(Zone zone) {
+		if (index.containsKey(zone.id))
+			throw new IllegalArgumentException("Duplicate zone " + zone.id);
+		index.put(zone.id, zones.size());
+		zones.add(zone);
+		zonePortals.add(new ArrayList<Portal>());
+	}
+
+	public Portal addPortal(double x, double y, String a, String b) {
+		Zone za = get(a);
+		Zone zb = get(b);
+		if (za == null || zb == null || za == zb)
+			throw new IllegalArgumentException("Portal (" + x + "," + y + ") must join two known zones, not "
+					+ a + " and " + b);
+
+		Portal portal = new Portal(portals.size(), x, y, za, zb);
+		portals.add(portal);
+		zonePortals.get(index.get(a)).add(portal);
+		zonePortals.get(index.get(b)).add(portal);
+		return portal;
+	}
+
+	public List<Zone> getZones() {
+		return Collections.unmodifiableList(zones);
+	}
+
+	public List<Portal> getPortals() {
+		return Collections.unmodifiableList(portals);
+	}
+
+	public int size() {
+		return zones.size();
+	}
+
+	/**
+	 * @return zone of that id, null if there is none
+	 */
+	public Zone get(String id) {
+		Integer i = index.get(id);
+		return i == null ? null : zones.get(i);
+	}
+
+	/**
+	 * @return the zone holding the point, the first one for points on a
+	 * border, null if the point is outside all zones
+	 */
+	public Zone zoneAt(double x, double y) {
+		for (int i = 0; i < zones.size(); i++) {
+			if (zones.get(i).contains(x, y))
+				return zones.get(i);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the zones the path passes through, the ones whose paths
+	 * it has to be checked against
+	 */
+	public List<Zone> zonesOf(Path path) {
+		List<Zone> result = new ArrayList<Zone>();
+		for (int i = 0; i < zones.size(); i++) {
+			if (zones.get(i).overlaps(path))
+				result.add(zones.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * @return position of the zone in getZones()
+	 */
+	int indexOf(Zone zone) {
+		return index.get(zone.id);
+	}
+
+	public List<Portal> portalsOf(Zone zone) {
+		return Collections.unmodifiableList(zonePortals.get(index.get(zone.id)));
+	}
+
+	/**
+	 * Read the "zones" array, the parser must be positioned right after
+	 * its START_ARRAY
+	 */
+	void readZones(JsonParser parser) {
+
+		while (parser.next() == Event.START_OBJECT) {
+			String id = null;
+			double xMin = 0, xMax = 0, yMin = 0, yMax = 0;
+
+			while (parser.next() == Event.KEY_NAME) {
+				String key = parser.getString();
+				if (key.equals("id"))
+					id = JsonStream.readString(parser);
+				else if (key.equals("xMin"))
+					xMin = JsonStream.readNumber(parser);
+				else if (key.equals("xMax"))
+					xMax = JsonStream.readNumber(parser);
+				else if (key.equals("yMin"))
+					yMin = JsonStream.readNumber(parser);
+				else if (key.equals("yMax"))
+					yMax = JsonStream.readNumber(parser);
+				else
+					JsonStream.skipValue(parser, parser.next());
+			}
+			addZone(new Zone(id, xMin, xMax, yMin, yMax));
+		}
+	}
+
+	/**
+	 * Read the "portals" array, the parser must be positioned right after
+	 * its START_ARRAY. The zones must be read already.
+	 */
+	void readPortals(JsonParser parser) {
+
+		while (parser.next() == Event.START_OBJECT) {
+			double x = 0, y = 0;
+			List<String> ids = new ArrayList<String>(2);
+
+			while (parser.next() == Event.KEY_NAME) {
+				String key = parser.getString();
+				if (key.equals("x")) {
+					x = JsonStream.readNumber(parser);
+				} else if (key.equals("y")) {
+					y = JsonStream.readNumber(parser);
+				} else if (key.equals("zones")) {
+					JsonStream.expect(parser, Event.START_ARRAY);
+					while (parser.next() == Event.VALUE_STRING) {
+						ids.add(parser.getString());
+					}
+				} else {
+					JsonStream.skipValue(parser, parser.next());
+				}
+			}
+			if (ids.size() != 2)
+				throw new IllegalArgumentException("Portal (" + x + "," + y + ") must join two zones");
+			addPortal(x, y, ids.get(0), ids.get(1));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ZoneMap" + zones + portals;
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Optional event trace of the planners and the ledger client, for
+ * latency analysis after the fact, see TraceAnalyzer.
+ *
+ * Tracing is off until enable is called; then each thread records into
+ * its own ring buffer, without locking or allocating. A disabled trace
+ * costs one volatile read per call. Dumps are meant to be taken once
+ * the traced threads are idle, records added during a dump may be torn.
+ */
+public final class Trace {
+
+	public static final int MAGIC = 0xBA;
+	public static final int VERSION = 1;
+
+	/** Records kept per thread by default */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/** Buffers of one enable call */
+	private static final class Session extends ThreadLocal<TraceBuffer> {
+		final int capacity;
+		final List<TraceBuffer> buffers = new CopyOnWriteArrayList<TraceBuffer>();
+
+		Session(int capacity) {
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected TraceBuffer initialValue() {
+			TraceBuffer buffer = new TraceBuffer(Thread.currentThread().getName(), capacity);
+			buffers.add(buffer);
+			return buffer;
+		}
+	}
+
+	// recording session, null while disabled, and the one to dump
+	private static volatile Session session;
+	private static volatile Session last;
+
+	private Trace() {
+	}
+
+	/**
+	 * Start a new trace, dropping the records of a previous one
+	 *
+	 * @param capacity records kept per thread
+	 */
+	public static void enable(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Trace capacity must be positive");
+		Session s = new Session(capacity);
+		last = s;
+		session = s;
+	}
+
+	/**
+	 * Stop recording, the records are kept for dump
+	 */
+	public static void disable() {
+		session = null;
+	}
+
+	public static boolean isEnabled() {
+		return session != null;
+	}
+
+	public static void begin(TraceEvent event, long a, long b) {
+		record(event, TraceBuffer.BEGIN, a, b);
+	}
+
+	public static void begin(TraceEvent event) {
+		record(event, TraceBuffer.BEGIN, 0, 0);
+	}
+
+	public static void end(TraceEvent event, long a, long b) {
+		record(event, TraceBuffer.END, a, b);
+	}
+
+	public static void end(TraceEvent event) {
+		record(event, TraceBuffer.END, 0, 0);
+	}
+
+	public static void mark(TraceEvent event, long a, long b) {
+		record(event, TraceBuffer.MARK, a, b);
+	}
+
+	private static void record(TraceEvent event, int kind, long a, long b) {
+		Session s = session;
+		if (s == null)
+			return;
+		s.get().add(System.nanoTime(), event, kind, a, b);
+	}
+
+	/**
+	 * Write the buffers of all threads of the current or last trace
+	 */
+	public static void dump(OutputStream out) throws IOException {
+		Session s = last;
+		List<TraceBuffer> buffers = s == null ? new ArrayList<TraceBuffer>() : s.buffers;
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeByte(MAGIC);
+		data.writeByte(VERSION);
+		TraceBuffer.writeUVarint(data, buffers.size());
+		for (TraceBuffer buffer : buffers) {
+			buffer.write(data);
+		}
+		data.flush();
+	}
+
+	public static void dump(String file) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			dump(out);
+		}
+	}
+
+	/**
+	 * @return the per thread buffers of a dump
+	 */
+	public static List<TraceBuffer> read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readUnsignedByte() != MAGIC)
+			throw new IOException("Not a trace file");
+		int version = data.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException("Unsupported trace version " + version);
+
+		int n = (int) TraceBuffer.readUVarint(data);
+		List<TraceBuffer> buffers = new ArrayList<TraceBuffer>(n);
+		for (int i = 0; i < n; i++) {
+			buffers.add(TraceBuffer.read(data));
+		}
+		return buffers;
+	}
+
+	public static List<TraceBuffer> read(String file) throws IOException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			return read(in);
+		}
+	}
+}
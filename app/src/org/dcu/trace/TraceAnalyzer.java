@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.trace;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+import org.dcu.prm.RoadMapSearch;
+
+/**
+ * Offline analysis of a trace dump: latency distribution of every
+ * phase, counts of the marks, outcome of the searches, and where the
+ * time of the slowest plans went.
+ *
+ * Usage: TraceAnalyzer file [slowest plans to break down, default 5]
+ */
+public class TraceAnalyzer {
+
+	private static final double MILLIS = 1e6;
+
+	/** Matched begin and end records of one phase */
+	static final class Span {
+		final TraceBuffer buffer;
+		final TraceEvent event;
+		final int begin, end;
+
+		Span(TraceBuffer buffer, TraceEvent event, int begin, int end) {
+			this.buffer = buffer;
+			this.event = event;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		long nanos() {
+			return buffer.time(end) - buffer.time(begin);
+		}
+	}
+
+	private final List<TraceBuffer> buffers;
+	private final List<Span> spans = new ArrayList<Span>();
+	private final Map<TraceEvent, Histogram> phases = new EnumMap<TraceEvent, Histogram>(TraceEvent.class);
+	private final long[] marks = new long[TraceEvent.values().length];
+	private final long[] searches = new long[RoadMapSearch.Status.values().length];
+	private long unmatched;
+
+	public TraceAnalyzer(List<TraceBuffer> buffers) {
+		this.buffers = buffers;
+		for (TraceBuffer buffer : buffers) {
+			match(buffer);
+		}
+	}
+
+	// pair each end with the latest open begin of the same phase
+	private void match(TraceBuffer buffer) {
+
+		Map<TraceEvent, ArrayDeque<Integer>> open = new EnumMap<TraceEvent, ArrayDeque<Integer>>(TraceEvent.class);
+
+		for (int i = 0; i < buffer.size(); i++) {
+			TraceEvent event = buffer.event(i);
+
+			if (buffer.isBegin(i)) {
+				ArrayDeque<Integer> stack = open.get(event);
+				if (stack == null) {
+					stack = new ArrayDeque<Integer>();
+					open.put(event, stack);
+				}
+				stack.push(i);
+
+			} else if (buffer.isEnd(i)) {
+				ArrayDeque<Integer> stack = open.get(event);
+				if (stack == null || stack.isEmpty()) {
+					// the begin was overwritten
+					unmatched++;
+					continue;
+				}
+				Span span = new Span(buffer, event, stack.pop(), i);
+				spans.add(span);
+				histogram(event).recordValue(Math.max(0, span.nanos()));
+				if (event == TraceEvent.SEARCH && buffer.a(i) < searches.length)
+					searches[(int) buffer.a(i)]++;
+
+			} else {
+				marks[event.ordinal()]++;
+				// commit latency is measured by the robot, not by a span
+				if (event == TraceEvent.COMMITTED)
+					histogram(event).recordValue(Math.max(0, buffer.a(i)));
+			}
+		}
+	}
+
+	private Histogram histogram(TraceEvent event) {
+		Histogram h = phases.get(event);
+		if (h == null) {
+			h = new Histogram(3);
+			phases.put(event, h);
+		}
+		return h;
+	}
+
+	public void printThreads() {
+		System.out.println(String.format("%-24s %9s %9s", "thread", "records", "dropped"));
+		for (TraceBuffer buffer : buffers) {
+			System.out.println(String.format("%-24s %9d %9d", buffer.getThread(), buffer.size(), buffer.getDropped()));
+		}
+		if (unmatched > 0)
+			System.out.println(unmatched + " phase ends without their begin (overwritten)");
+	}
+
+	public void printPhases() {
+		System.out.println(String.format("%-12s %7s %9s %9s %9s %9s %9s",
+				"phase", "count", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+		for (Map.Entry<TraceEvent, Histogram> e : phases.entrySet()) {
+			Histogram h = e.getValue();
+			System.out.println(String.format("%-12s %7d %9.3f %9.3f %9.3f %9.3f %9.3f",
+					e.getKey(), h.getTotalCount(), h.getMean() / MILLIS,
+					h.getValueAtPercentile(50) / MILLIS, h.getValueAtPercentile(90) / MILLIS,
+					h.getValueAtPercentile(99) / MILLIS, h.getMaxValue() / MILLIS));
+		}
+	}
+
+	public void printMarks() {
+		for (TraceEvent event : TraceEvent.values()) {
+			if (marks[event.ordinal()] > 0)
+				System.out.println(String.format("%-14s %9d", event, marks[event.ordinal()]));
+		}
+		for (RoadMapSearch.Status status : RoadMapSearch.Status.values()) {
+			if (searches[status.ordinal()] > 0)
+				System.out.println(String.format("search %-19s %9d", status, searches[status.ordinal()]));
+		}
+	}
+
+	/**
+	 * Break the slowest plans down into the phases nested in them
+	 */
+	public void printSlowestPlans(int top) {
+
+		List<Span> plans = new ArrayList<Span>();
+		for (Span span : spans) {
+			if (span.event == TraceEvent.PLAN)
+				plans.add(span);
+		}
+		Collections.sort(plans, new Comparator<Span>() {
+			@Override
+			public int compare(Span s1, Span s2) {
+				return Long.compare(s2.nanos(), s1.nanos());
+			}
+		});
+
+		for (int k = 0; k < Math.min(top, plans.size()); k++) {
+			Span plan = plans.get(k);
+			TraceBuffer buffer = plan.buffer;
+			System.out.println(String.format("%s plan %.3f ms, %s", buffer.getThread(), plan.nanos() / MILLIS,
+					buffer.a(plan.end) != 0 ? buffer.b(plan.end) + " waypoints" : "NO PATH"));
+
+			long[] nanos = new long[TraceEvent.values().length];
+			int[] count = new int[TraceEvent.values().length];
+			long[] nested = new long[TraceEvent.values().length];
+			for (Span span : spans) {
+				if (span.buffer == buffer && span != plan && span.begin > plan.begin && span.end < plan.end) {
+					nanos[span.event.ordinal()] += span.nanos();
+					count[span.event.ordinal()]++;
+				}
+			}
+			for (int i = plan.begin + 1; i < plan.end; i++) {
+				if (!buffer.isBegin(i) && !buffer.isEnd(i))
+					nested[buffer.event(i).ordinal()]++;
+			}
+			for (TraceEvent event : TraceEvent.values()) {
+				int e = event.ordinal();
+				if (count[e] > 0)
+					System.out.println(String.format("  %-12s %4dx %9.3f ms", event, count[e], nanos[e] / MILLIS));
+				else if (nested[e] > 0)
+					System.out.println(String.format("  %-12s %4dx", event, nested[e]));
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 1) {
+			System.err.println("Usage: TraceAnalyzer <file> [slowest plans]");
+			return;
+		}
+		int top = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		TraceAnalyzer analyzer = new TraceAnalyzer(Trace.read(args[0]));
+		analyzer.printThreads();
+		System.out.println();
+		analyzer.printPhases();
+		System.out.println();
+		analyzer.printMarks();
+		System.out.println();
+		analyzer.printSlowestPlans(top);
+	}
+}
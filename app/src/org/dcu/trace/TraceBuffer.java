@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.trace;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Ring of trace records written by a single thread. Once full the
+ * oldest records are overwritten, so a trace always holds the latest
+ * history of each thread. Records are stored in parallel primitive
+ * arrays and adding one never allocates.
+ *
+ * On disk a buffer is the thread name, the record and drop counts, and
+ * the records oldest first: time delta to the previous record, event
+ * code, a and b, all as varints.
+ */
+public final class TraceBuffer {
+
+	static final int BEGIN = 0;
+	static final int END = 1;
+	static final int MARK = 2;
+
+	private static final TraceEvent[] EVENTS = TraceEvent.values();
+
+	private final String thread;
+	private final long[] time;
+	private final byte[] code;
+	private final long[] a;
+	private final long[] b;
+	private int head;
+	private int count;
+	private long dropped;
+
+	TraceBuffer(String thread, int capacity) {
+		this.thread = thread;
+		this.time = new long[capacity];
+		this.code = new byte[capacity];
+		this.a = new long[capacity];
+		this.b = new long[capacity];
+	}
+
+	void add(long t, TraceEvent event, int kind, long a, long b) {
+		time[head] = t;
+		code[head] = (byte) (event.ordinal() << 2 | kind);
+		this.a[head] = a;
+		this.b[head] = b;
+		if (++head == time.length)
+			head = 0;
+		if (count < time.length)
+			count++;
+		else
+			dropped++;
+	}
+
+	public String getThread() {
+		return thread;
+	}
+
+	/** @return number of records held */
+	public int size() {
+		return count;
+	}
+
+	/** @return number of records overwritten */
+	public long getDropped() {
+		return dropped;
+	}
+
+	// ring index of the i-th oldest record
+	private int index(int i) {
+		if (count < time.length)
+			return i;
+		int k = head + i;
+		return k < time.length ? k : k - time.length;
+	}
+
+	/** @return System.nanoTime() of the i-th oldest record */
+	public long time(int i) {
+		return time[index(i)];
+	}
+
+	public TraceEvent event(int i) {
+		return EVENTS[code[index(i)] >> 2];
+	}
+
+	public boolean isBegin(int i) {
+		return (code[index(i)] & 3) == BEGIN;
+	}
+
+	public boolean isEnd(int i) {
+		return (code[index(i)] & 3) == END;
+	}
+
+	public long a(int i) {
+		return a[index(i)];
+	}
+
+	public long b(int i) {
+		return b[index(i)];
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeUTF(thread);
+		// a concurrent writer may still add, take one consistent count
+		int n = count;
+		writeUVarint(out, n);
+		writeUVarint(out, dropped);
+		long last = 0;
+		for (int i = 0; i < n; i++) {
+			int k = index(i);
+			writeVarint(out, time[k] - last);
+			last = time[k];
+			out.writeByte(code[k]);
+			writeVarint(out, a[k]);
+			writeVarint(out, b[k]);
+		}
+	}
+
+	static TraceBuffer read(DataInputStream in) throws IOException {
+		String thread = in.readUTF();
+		int n = (int) readUVarint(in);
+		TraceBuffer buffer = new TraceBuffer(thread, Math.max(1, n));
+		buffer.dropped = readUVarint(in);
+		long t = 0;
+		for (int i = 0; i < n; i++) {
+			t += readVarint(in);
+			int c = in.readByte();
+			if ((c >> 2) >= EVENTS.length)
+				throw new IOException("Unknown trace event " + (c >> 2));
+			buffer.time[i] = t;
+			buffer.code[i] = (byte) c;
+			buffer.a[i] = readVarint(in);
+			buffer.b[i] = readVarint(in);
+		}
+		buffer.count = n;
+		return buffer;
+	}
+
+	static void writeUVarint(DataOutputStream out, long v) throws IOException {
+		while ((v & ~0x7FL) != 0) {
+			out.writeByte((int) (v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	// zig-zag, small negative values stay short
+	static void writeVarint(DataOutputStream out, long v) throws IOException {
+		writeUVarint(out, (v << 1) ^ (v >> 63));
+	}
+
+	static long readUVarint(DataInputStream in) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	static long readVarint(DataInputStream in) throws IOException {
+		long v = readUVarint(in);
+		return (v >>> 1) ^ -(v & 1);
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.trace;
+
+/**
+ * What a trace record is about. Phases are recorded as a begin and an
+ * end record, the others as single marks; each record carries two
+ * event specific arguments a and b.
+ */
+public enum TraceEvent {
+	/** phase Robot.findPath, including submission; begin a = re-plans, end a = 1 if found, b = waypoints */
+	PLAN,
+	/** phase PRMPlanner.buildRoadMap; begin a = nodes, b = K, end a = nodes, b = edges */
+	BUILD,
+	/** phase node sampling; end a = samples, b = rejected samples */
+	SAMPLING,
+	/** phase node connection; end a = edges checked, b = edges */
+	CONNECT,
+	/** phase RoadMapSearch.find; begin a = search mode, end a = status, b = expansions */
+	SEARCH,
+	/** phase RoadMapSearch.improve; end a = expansions */
+	IMPROVE,
+	/** phase PathSmoother.smooth; begin a = waypoints, end a = waypoints */
+	SMOOTH,
+	/** phase chaincode query; end a = peer responses */
+	QUERY,
+	/** phase transaction proposal; end a = successful endorsements */
+	ENDORSEMENT,
+	/** phase broadcast to the orderer */
+	ORDERING,
+	/** mark, road map edge a-b in collision */
+	EDGE_REJECTED,
+	/** mark, a = start attachment nodes, b = goal attachment nodes */
+	ATTACHMENT,
+	/** mark at the end of a search, a = forward and b = backward open list size */
+	OPEN_LIST,
+	/** mark, conflict with a committed path, a = re-plans so far */
+	REPLAN,
+	/** mark, own path committed, a = nanoseconds since submission */
+	COMMITTED
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs PlannerBenchmark with the GC profiler and exits with an error if
+ * a benchmark allocates more bytes per operation than allowed. The hot
+ * loops must not allocate at all; the limits leave room for profiler
+ * noise, and for the result of search(). Run from the parent directory
+ * with mvn -B verify -Pallocation-gate.
+ */
+public class AllocationGate {
+
+	private static final String ALLOC_NORM = "·gc.alloc.rate.norm";
+
+	public static void main(String[] args) throws RunnerException {
+
+		// bytes per operation
+		Map<String, Double> limits = new LinkedHashMap<String, Double>();
+		limits.put("sampleUniform", 16.0);
+		limits.put("sampleBridge", 16.0);
+		limits.put("nearest", 16.0);
+		limits.put("edgeCheck", 16.0);
+		limits.put("search", 2048.0);
+
+		Options options = new OptionsBuilder()
+				.include(PlannerBenchmark.class.getName())
+				.addProfiler(GCProfiler.class)
+				.forks(1)
+				.warmupIterations(3)
+				.warmupTime(TimeValue.seconds(1))
+				.measurementIterations(3)
+				.measurementTime(TimeValue.seconds(1))
+				.build();
+
+		Collection<RunResult> results = new Runner(options).run();
+
+		boolean failed = false;
+		for (RunResult run : results) {
+			String name = run.getParams().getBenchmark();
+			String method = name.substring(name.lastIndexOf('.') + 1);
+			Result<?> alloc = run.getSecondaryResults().get(ALLOC_NORM);
+			Double limit = limits.get(method);
+			if (alloc == null || limit == null) {
+				System.err.println(method + ": no allocation result or limit");
+				failed = true;
+				continue;
+			}
+
+			boolean ok = alloc.getScore() <= limit;
+			System.out.println(String.format("%-14s %10.1f B/op (limit %.0f) %s",
+					method, alloc.getScore(), limit, ok ? "OK" : "FAILED"));
+			failed |= !ok;
+		}
+
+		if (failed)
+			System.exit(1);
+	}
+}
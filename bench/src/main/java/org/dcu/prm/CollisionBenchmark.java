@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Collision checks: a point against the obstacles, an edge against the
+ * obstacles and committed paths, and a path against the committed paths
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionBenchmark {
+
+	private static final int SAMPLES = 1024;
+
+	@Param({ "10", "50", "200" })
+	public int obstacles;
+
+	@Param({ "0", "8", "32" })
+	public int paths;
+
+	@Param({ "20", "100" })
+	public int pathLength;
+
+	private Workspace workspace;
+	private PRMPlanner planner;
+	private double[] points;
+	private Path[] probes;
+	private int i;
+
+	@Setup
+	public void setUp() {
+		workspace = Workspaces.generate(1, obstacles, paths, pathLength);
+		planner = new PRMPlanner();
+
+		Random random = new Random(5);
+		points = new double[2*SAMPLES];
+		for (int j = 0; j < points.length; j++) {
+			points[j] = random.nextDouble() * Workspaces.SIZE;
+		}
+		probes = new Path[16];
+		for (int j = 0; j < probes.length; j++) {
+			probes[j] = Workspaces.randomWalk(random, "P" + j, pathLength, Workspaces.SIZE);
+		}
+	}
+
+	@Benchmark
+	public boolean collidesWith() {
+		int j = 2 * (i++ % SAMPLES);
+		return workspace.collidesWith(points[j], points[j+1]);
+	}
+
+	/** Edges about one road map neighbour apart */
+	@Benchmark
+	public boolean isCollisionFreePath() {
+		int j = 2 * (i++ % SAMPLES);
+		double x = points[j], y = points[j+1];
+		return planner.isCollisionFreePath(workspace, x, y,
+				x + 0.5 * Math.cos(j), y + 0.5 * Math.sin(j), 0.1);
+	}
+
+	@Benchmark
+	public boolean pathCollidesWith() {
+		Path probe = probes[i++ % probes.length];
+		boolean collides = false;
+		for (int j = 0; j < workspace.paths.size(); j++) {
+			collides |= probe.collidesWith(workspace.paths.get(j));
+		}
+		return collides;
+	}
+}
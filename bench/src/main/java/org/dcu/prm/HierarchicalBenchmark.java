@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HierarchicalPlanner.findPath on growing clutter floors of the same
+ * obstacle density and road map density. The regions along the routes
+ * are built in the setup, so this measures warm queries, which should
+ * take about as long on every floor size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HierarchicalBenchmark {
+
+	private static final int QUERIES = 64;
+
+	@Param({ "25", "50", "100" })
+	public double size;
+
+	@Param({ "5" })
+	public double regionSize;
+
+	/** road map nodes per unit of area */
+	@Param({ "20" })
+	public int density;
+
+	@Param({ "20" })
+	public int k;
+
+	private Scenario scenario;
+	private Workspace workspace;
+	private HierarchicalPlanner planner;
+	private int query;
+
+	@Setup
+	public void setUp() {
+		scenario = Workspaces.scenario("CLUTTER", 1, size, 0, QUERIES);
+		workspace = scenario.toWorkspace();
+		planner = new HierarchicalPlanner(ZoneMap.grid(workspace, regionSize, 3),
+				(int) (density * size * size), k, 0.1);
+		for (int q = 0; q < QUERIES; q++) {
+			findPath();
+		}
+	}
+
+	/** Queries of the scenario robots in turn */
+	@Benchmark
+	public Path findPath() {
+		int q = query++ % QUERIES;
+		workspace.xStart = scenario.starts[2*q];
+		workspace.yStart = scenario.starts[2*q+1];
+		workspace.xGoal = scenario.goals[2*q];
+		workspace.yGoal = scenario.goals[2*q+1];
+		return planner.findPath(workspace, 10);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of what goes over the ledger: the workspace
+ * JSON, and paths as JSON and in the binary encoding
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+	@Param({ "10", "200" })
+	public int obstacles;
+
+	@Param({ "1", "16" })
+	public int paths;
+
+	@Param({ "20", "200" })
+	public int pathLength;
+
+	private byte[] workspaceJson;
+	private Path path;
+	private byte[] pathJson, pathBinary, pathArrayJson;
+
+	@Setup
+	public void setUp() {
+		workspaceJson = Workspaces.json(1, obstacles);
+
+		Random random = new Random(9);
+		StringBuilder array = new StringBuilder("[");
+		for (int i = 0; i < paths; i++) {
+			Path p = Workspaces.randomWalk(random, "R" + i, pathLength, Workspaces.SIZE);
+			if (i > 0)
+				array.append(',');
+			array.append(toJson(p));
+			path = p;
+		}
+		pathArrayJson = array.append(']').toString().getBytes();
+		pathJson = toJson(path).getBytes();
+		pathBinary = path.toBytes();
+	}
+
+	@Benchmark
+	public Workspace parseWorkspace() {
+		return new Workspace(workspaceJson);
+	}
+
+	@Benchmark
+	public String writePathJson() {
+		return path.toJSONString();
+	}
+
+	@Benchmark
+	public Path readPathJson() {
+		return Path.parse(pathJson);
+	}
+
+	@Benchmark
+	public Path roundTripPathJson() {
+		return Path.parse(toJson(path).getBytes());
+	}
+
+	@Benchmark
+	public Path roundTripPathBinary() {
+		return Path.parse(path.toBytes());
+	}
+
+	@Benchmark
+	public List<Path> readPathArrayJson() {
+		List<Path> list = new ArrayList<Path>(paths);
+		Path.readJSONArray(pathArrayJson, list);
+		return list;
+	}
+
+	// path object as the chaincode stores it
+	private static String toJson(Path p) {
+		return "{\"robotId\":\"" + p.id + "\",\"points\":" + p.toJSONString() + "}";
+	}
+}
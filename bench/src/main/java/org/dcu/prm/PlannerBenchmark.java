@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Hot loops of road map planning on the workspace of Main: sampling,
+ * nearest neighbours, edge checks and the graph search. Run with
+ * -prof gc to see the bytes allocated per operation; AllocationGate
+ * checks them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlannerBenchmark {
+
+	private Workspace workspace;
+	private PRMPlanner planner;
+	private Sampler uniform, bridge;
+	private Random random;
+
+	private final double[] xy = new double[2];
+	private final int[] attach = new int[10];
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		workspace = new Workspace(Main.WORKSPACE.getBytes());
+		planner = new PRMPlanner();
+		planner.setRandom(new Random(7));
+		planner.buildRoadMap(workspace, 1000, 20, 0.1);
+
+		random = new Random(1);
+		uniform = Samplers.uniform(random);
+		bridge = Samplers.bridge(random, 0.5);
+	}
+
+	@Benchmark
+	public boolean sampleUniform() {
+		return uniform.sample(workspace, xy) && !workspace.collidesWith(xy[0], xy[1]);
+	}
+
+	@Benchmark
+	public boolean sampleBridge() {
+		return bridge.sample(workspace, xy) && !workspace.collidesWith(xy[0], xy[1]);
+	}
+
+	@Benchmark
+	public int nearest() {
+		PRMNode n = node();
+		return planner.findClosestNodesOnGraph(workspace, n.getX(), n.getY(), attach.length, attach);
+	}
+
+	@Benchmark
+	public boolean edgeCheck() {
+		PRMNode a = node();
+		PRMNode b = node();
+		return planner.isCollisionFreePath(workspace, a.getX(), a.getY(), b.getX(), b.getY(), 0.1);
+	}
+
+	/** Allocates the returned path, and nothing else once warmed up */
+	@Benchmark
+	public Path search() {
+		PRMNode s = node();
+		PRMNode g = node();
+		workspace.xStart = s.getX();
+		workspace.yStart = s.getY();
+		workspace.xGoal = g.getX();
+		workspace.yGoal = g.getY();
+		return planner.findPath(workspace, 10);
+	}
+
+	private PRMNode node() {
+		return planner.m_Nodes.get(random.nextInt(planner.m_Nodes.size()));
+	}
+}
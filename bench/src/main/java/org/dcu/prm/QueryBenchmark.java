@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PRMPlanner.findPath over the start and goal positions of a generated
+ * fleet, with committed paths that the attachment edges must avoid, with
+ * and without the landmark heuristic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+	private static final int QUERIES = 64;
+
+	@Param({ "CLUTTER" })
+	public String layout;
+
+	@Param({ "10" })
+	public double size;
+
+	@Param({ "500", "2000" })
+	public int nodes;
+
+	@Param({ "20" })
+	public int k;
+
+	@Param({ "10", "50" })
+	public int obstacles;
+
+	@Param({ "0", "8" })
+	public int paths;
+
+	@Param({ "20" })
+	public int pathLength;
+
+	@Param({ "ASTAR", "BIDIRECTIONAL" })
+	public SearchMode mode;
+
+	@Param({ "0", "16" })
+	public int landmarks;
+
+	private Scenario scenario;
+	private Workspace workspace;
+	private PRMPlanner planner;
+	private int query;
+
+	@Setup
+	public void setUp() {
+		scenario = Workspaces.scenario(layout, 1, size, obstacles, QUERIES);
+		workspace = Workspaces.withPaths(scenario.toWorkspace(), 1, paths, pathLength);
+		planner = new PRMPlanner();
+		planner.setRandom(new Random(7));
+		planner.setLandmarks(landmarks);
+		planner.buildRoadMap(workspace, nodes, k, 0.1);
+	}
+
+	/** Queries of the scenario robots in turn */
+	@Benchmark
+	public Path findPath() {
+		int q = query++ % QUERIES;
+		workspace.xStart = scenario.starts[2*q];
+		workspace.yStart = scenario.starts[2*q+1];
+		workspace.xGoal = scenario.goals[2*q];
+		workspace.yGoal = scenario.goals[2*q+1];
+		return planner.findPath(workspace, 10, mode);
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PRMPlanner.buildRoadMap on generated workspaces. The road map is
+ * sampled from a seeded generator, so every invocation builds the same
+ * road map.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoadMapBuildBenchmark {
+
+	@Param({ "CLUTTER" })
+	public String layout;
+
+	@Param({ "10" })
+	public double size;
+
+	@Param({ "200", "1000" })
+	public int nodes;
+
+	@Param({ "10", "40" })
+	public int k;
+
+	@Param({ "10", "50" })
+	public int obstacles;
+
+	@Param({ "K_NEAREST", "PRM_STAR" })
+	public ConnectionStrategy strategy;
+
+	private Workspace workspace;
+
+	@Setup
+	public void setUp() {
+		workspace = Workspaces.scenario(layout, 1, size, obstacles, 0).toWorkspace();
+	}
+
+	@Benchmark
+	public PRMPlanner buildRoadMap() {
+		PRMPlanner planner = new PRMPlanner();
+		planner.setRandom(new Random(7));
+		planner.setConnectionStrategy(strategy);
+		planner.buildRoadMap(workspace, nodes, k, 0.1);
+		return planner;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Collision checks against slanted walls, modelled as turned rectangles,
+ * as polygons, or as a staircase of axis aligned rectangles the way they
+ * had to be drawn before turned shapes were supported
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShapeBenchmark {
+
+	private static final int SAMPLES = 1024;
+	private static final int WALLS = 20;
+	private static final int STAIRS = 8;
+
+	@Param({ "TURNED", "POLYGON", "STAIRCASE" })
+	public String shape;
+
+	private Workspace workspace;
+	private PRMPlanner planner;
+	private double[] points;
+	private int i;
+
+	@Setup
+	public void setUp() {
+		workspace = new Workspace(walls(shape, new Random(3)).getBytes(StandardCharsets.UTF_8));
+		planner = new PRMPlanner();
+
+		Random random = new Random(5);
+		points = new double[2*SAMPLES];
+		for (int j = 0; j < points.length; j++) {
+			points[j] = random.nextDouble() * Workspaces.SIZE;
+		}
+	}
+
+	/**
+	 * @return workspace JSON with walls 1.5 long and 0.1 thick at random
+	 * places and angles
+	 */
+	static String walls(String shape, Random random) {
+
+		StringBuilder rectangles = new StringBuilder();
+		StringBuilder polygons = new StringBuilder();
+		for (int k = 0; k < WALLS; k++) {
+			double x = random.nextDouble() * Workspaces.SIZE;
+			double y = random.nextDouble() * Workspaces.SIZE;
+			double a = random.nextDouble() * Math.PI;
+			double c = Math.cos(a), s = Math.sin(a);
+			double len = 1.5, thick = 0.1;
+
+			if (shape.equals("TURNED")) {
+				rect(rectangles, x, y, len, thick, a);
+			} else if (shape.equals("POLYGON")) {
+				double[] u = { -len/2, len/2, len/2, -len/2 }, v = { -thick/2, -thick/2, thick/2, thick/2 };
+				polygons.append(polygons.length() > 0 ? "," : "").append("{\"points\":[");
+				for (int j = 0; j < 4; j++) {
+					polygons.append(j > 0 ? "," : "")
+							.append("{\"x\":").append(x + u[j]*c - v[j]*s)
+							.append(",\"y\":").append(y + u[j]*s + v[j]*c).append("}");
+				}
+				polygons.append("]}");
+			} else {
+				// boxes along the wall, each covering its share of the slant
+				double w = Math.abs(c) * len / STAIRS + thick, h = Math.abs(s) * len / STAIRS + thick;
+				for (int j = 0; j < STAIRS; j++) {
+					double t = (j + 0.5) / STAIRS - 0.5;
+					rect(rectangles, x + t*len*c, y + t*len*s, w, h, 0);
+				}
+			}
+		}
+
+		return "{\"start\":{\"x\":0,\"y\":0},\"goal\":{\"x\":" + Workspaces.SIZE + ",\"y\":" + Workspaces.SIZE + "},"
+				+ "\"bounds\":{\"xMin\":0,\"xMax\":" + Workspaces.SIZE + ",\"yMin\":0,\"yMax\":" + Workspaces.SIZE + "},"
+				+ "\"circles\":[],\"rectangles\":[" + rectangles + "],\"polygons\":[" + polygons + "]}";
+	}
+
+	private static void rect(StringBuilder out, double x, double y, double w, double h, double a) {
+		out.append(out.length() > 0 ? "," : "")
+				.append("{\"xCenter\":").append(x).append(",\"yCenter\":").append(y)
+				.append(",\"width\":").append(w).append(",\"height\":").append(h)
+				.append(",\"angle\":").append(a).append("}");
+	}
+
+	@Benchmark
+	public boolean collidesWith() {
+		int j = 2 * (i++ % SAMPLES);
+		return workspace.collidesWith(points[j], points[j+1]);
+	}
+
+	/** Edges about one road map neighbour apart */
+	@Benchmark
+	public boolean isCollisionFreePath() {
+		int j = 2 * (i++ % SAMPLES);
+		double x = points[j], y = points[j+1];
+		return planner.isCollisionFreePath(workspace, x, y,
+				x + 0.5 * Math.cos(j), y + 0.5 * Math.sin(j), 0.1);
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the road map connection strategies on the workspace of Main:
+ * build time, and time and success rate of queries between the same
+ * random start and goal positions. VISIBILITY ignores skip.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StrategyBenchmark {
+
+	private static final int K = 20;
+	private static final double STEP = 0.1;
+	private static final int QUERIES = 200;
+	private static final int MAX_ATTEMPTS = 10;
+	private static final int MAX_DRAWS = 1000;
+
+	@Param({ "200", "500", "1000" })
+	public int nodes;
+
+	@Param({ "K_NEAREST", "PRM_STAR", "VISIBILITY" })
+	public ConnectionStrategy strategy;
+
+	@Param({ "false", "true" })
+	public boolean skip;
+
+	/** Queries that found a path and that did not, per iteration */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Outcome {
+		public long found, missed;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			found = missed = 0;
+		}
+	}
+
+	private Workspace workspace;
+	private PRMPlanner planner;
+	private double[] queries;
+	private int q;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		workspace = new Workspace(Main.WORKSPACE.getBytes(StandardCharsets.UTF_8));
+		planner = planner();
+		planner.buildRoadMap(workspace, nodes, K, STEP);
+
+		// same queries for every strategy
+		Random random = new Random(42);
+		queries = new double[4*QUERIES];
+		for (int j = 0; j < queries.length; j += 2) {
+			freePosition(workspace, random, queries, j);
+		}
+	}
+
+	private PRMPlanner planner() {
+		PRMPlanner p = new PRMPlanner();
+		p.setRandom(new Random(7));
+		p.setConnectionStrategy(strategy);
+		p.setSkipConnected(skip);
+		return p;
+	}
+
+	/** Draw (x, y) pairs until one is free, at most MAX_DRAWS of them */
+	static void freePosition(Workspace workspace, Random random, double[] xy, int at) {
+		for (int d = 0; d < MAX_DRAWS; d++) {
+			double x = workspace.xMin + random.nextDouble() * (workspace.xMax - workspace.xMin);
+			double y = workspace.yMin + random.nextDouble() * (workspace.yMax - workspace.yMin);
+			if (!workspace.collidesWith(x, y)) {
+				xy[at] = x;
+				xy[at+1] = y;
+				return;
+			}
+		}
+		throw new IllegalStateException("No free position in " + MAX_DRAWS + " draws");
+	}
+
+	@Benchmark
+	public PRMPlanner buildRoadMap() {
+		PRMPlanner p = planner();
+		p.buildRoadMap(workspace, nodes, K, STEP);
+		return p;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Path findPath(Outcome outcome) {
+		int j = 4 * (q++ % QUERIES);
+		workspace.xStart = queries[j];
+		workspace.yStart = queries[j+1];
+		workspace.xGoal = queries[j+2];
+		workspace.yGoal = queries[j+3];
+
+		Path path = planner.findPath(workspace, MAX_ATTEMPTS);
+		if (path != null)
+			outcome.found++;
+		else
+			outcome.missed++;
+		return path;
+	}
+}
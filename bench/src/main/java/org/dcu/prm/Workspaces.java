@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.dcu.prm;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Workspaces for the benchmarks, from ScenarioGenerator. The same seed
+ * and parameters always give the same workspace, so runs on different
+ * builds measure the same problem.
+ */
+final class Workspaces {
+
+	static final double SIZE = 10.0;
+
+	private Workspaces() {
+	}
+
+	/**
+	 * @param layout ScenarioGenerator layout name
+	 * @param size workspace width and height
+	 * @param obstacles number of CLUTTER obstacles, ignored by other layouts
+	 * @param robots number of start and goal pairs
+	 */
+	static Scenario scenario(String layout, long seed, double size, int obstacles, int robots) {
+		ScenarioGenerator generator = new ScenarioGenerator();
+		generator.width = generator.height = size;
+		generator.obstacles = obstacles;
+		return generator.generate(ScenarioGenerator.Layout.valueOf(layout), seed, robots);
+	}
+
+	/**
+	 * @return workspace JSON as the chaincode returns it, without paths
+	 */
+	static byte[] json(long seed, int obstacles) {
+		return scenario("CLUTTER", seed, SIZE, obstacles, 1).toJson(false);
+	}
+
+	/**
+	 * @param paths number of committed paths to add
+	 * @param pathLength number of points of each path
+	 * @return parsed clutter workspace with committed paths
+	 */
+	static Workspace generate(long seed, int obstacles, int paths, int pathLength) {
+		return withPaths(scenario("CLUTTER", seed, SIZE, obstacles, 1).toWorkspace(),
+				seed, paths, pathLength);
+	}
+
+	/**
+	 * @return the workspace, with random committed paths added
+	 */
+	static Workspace withPaths(Workspace workspace, long seed, int paths, int pathLength) {
+		Random random = new Random(seed + 1);
+		for (int i = 0; i < paths; i++) {
+			workspace.addPath(randomWalk(random, "R" + i, pathLength, workspace.xMax));
+		}
+		return workspace;
+	}
+
+	/**
+	 * @return path of random steps of about 0.3 inside the workspace
+	 */
+	static Path randomWalk(Random random, String id, int length, double size) {
+
+		ArrayList<Position> points = new ArrayList<Position>(length);
+		double x = random.nextDouble() * size;
+		double y = random.nextDouble() * size;
+		double heading = random.nextDouble() * 2 * Math.PI;
+		for (int i = 0; i < length; i++) {
+			points.add(new Position(x, y));
+			heading += random.nextGaussian() * 0.5;
+			x = Math.min(size, Math.max(0, x + 0.3 * Math.cos(heading)));
+			y = Math.min(size, Math.max(0, y + 0.3 * Math.sin(heading)));
+		}
+		return new Path(points, id);
+	}
+}
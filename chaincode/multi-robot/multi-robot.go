@@ -11,6 +11,7 @@ import (
 	"bytes"
 	"encoding/json"
 	"fmt"
+	"strconv"
 	"github.com/hyperledger/fabric/core/chaincode/shim"
 	pb "github.com/hyperledger/fabric/protos/peer"
 )
@@ -20,6 +21,11 @@ const (
 	INVK_GET_WORKSPACE = "getWorkspace"
 	INVK_GET_ALL_PATHS = "getAllPaths"
 	INVK_SET_MY_PATH   = "setMyPath"
+	INVK_GET_PATHS_IN_REGION = "getPathsInRegion"
+	INVK_GET_ZONE_PATHS = "getZonePaths"
+	INVK_ADD_OBSTACLE = "addObstacle"
+	INVK_REMOVE_OBSTACLE = "removeObstacle"
+	INVK_MOVE_OBSTACLE = "moveObstacle"
 )
 
 // Database keys & indexes
@@ -27,11 +33,24 @@ const (
 	K_WORKSPACE = "workspace"
 	K_ROBOTPATH  = "allpaths~robot"
 	K_ALLPATHS  = "allpaths"
+	K_CELLROBOT = "cell~robot"
+	K_ZONES     = "zones"
+	K_ZONEROBOT = "zone~robot"
+	K_OBSTACLE  = "obstacle~id"
+	K_OBSTACLE_VERSION = "obstacleVersion"
+)
+
+// Spatial index
+const (
+	CELL_SIZE = 1.0   // side length of a grid cell in workspace units
+	MAX_PAGE_SIZE = 100
+	ZONE_MARGIN = 0.01  // paths this close to a zone border are indexed in the zone
 )
 
 // events
 const (
 	E_PATH_COMMITTED = "path-committed"
+	E_OBSTACLE_CHANGED = "obstacle-changed"
 )
 
 // MultiRobotChaincode Smart Contract structure
@@ -44,6 +63,9 @@ type Workspace struct {
 	Bounds Boundary `json:"bounds"`
 	Circles []Circle `json:"circles"`
 	Rectangles []Rectangle `json:"rectangles"`
+	Polygons []Polygon `json:"polygons,omitempty"`
+	Zones []Zone `json:"zones"`
+	Portals []Portal `json:"portals"`
 }
 
 type Point struct {
@@ -69,6 +91,12 @@ type Rectangle struct {
 	YCenter float32 `json:"yCenter"`
 	Width float32 `json:"width"`
 	Height float32 `json:"height"`
+	Angle float32 `json:"angle,omitempty"` // radians, counterclockwise
+}
+
+// Polygon outline, closed from the last point to the first, may be concave
+type Polygon struct {
+	Points []Point `json:"points"`
 }
 
 // Path Table store in DB
@@ -96,8 +124,15 @@ func (t *MultiRobotChaincode) Init(stub shim.ChaincodeStubInterface) pb.Response
 	// set logging level
 	logger.SetLevel(shim.LogInfo)
 
+	// === Pick the workspace, the default one has no zones ===
+	def := workspaceDef
+	_, args := stub.GetFunctionAndParameters()
+	if len(args) > 0 && args[0] == WORKSPACE_ZONED {
+		def = zonedWorkspaceDef
+	}
+
 	// === Save workspace to state ===
-	err := stub.PutState(K_WORKSPACE, []byte(workspaceDef))
+	err := stub.PutState(K_WORKSPACE, []byte(def))
 	if err != nil {
 		return shim.Error(err.Error())
 	}
@@ -105,13 +140,26 @@ func (t *MultiRobotChaincode) Init(stub shim.ChaincodeStubInterface) pb.Response
 	logger.Info("MULTI-ROBOT chaincode instantiated successfully!")
 	
 	var workspace Workspace
-	err = json.Unmarshal([]byte(workspaceDef), &workspace)
+	err = json.Unmarshal([]byte(def), &workspace)
+	if err != nil {
+		return shim.Error(err.Error())
+	}
 	logger.Debug("Workspace.Start: ", workspace.Start)
 	logger.Debug("Workspace.Goal: ", workspace.Goal)
 	logger.Debug("Workspace.Bounds: ", workspace.Bounds)
 	logger.Debug("Workspace.Circles: ", workspace.Circles)
 	logger.Debug("Workspace.Rectangles: ", workspace.Rectangles)
-	
+	logger.Debug("Workspace.Zones: ", workspace.Zones)
+
+	// === Save the zones apart, setMyPath indexes every path by zone ===
+	if len(workspace.Zones) > 0 {
+		bytesZones, _ := json.Marshal(workspace.Zones)
+		err = stub.PutState(K_ZONES, bytesZones)
+		if err != nil {
+			return shim.Error(err.Error())
+		}
+	}
+
 	return shim.Success(nil)
 }
 
@@ -128,6 +176,16 @@ func (t *MultiRobotChaincode) Invoke(stub shim.ChaincodeStubInterface) pb.Respon
 		return t.getAllPaths(stub, args)
 	} else if function == INVK_SET_MY_PATH {
 		return t.setMyPath(stub, args)
+	} else if function == INVK_GET_PATHS_IN_REGION {
+		return t.getPathsInRegion(stub, args)
+	} else if function == INVK_GET_ZONE_PATHS {
+		return t.getZonePaths(stub, args)
+	} else if function == INVK_ADD_OBSTACLE {
+		return t.addObstacle(stub, args)
+	} else if function == INVK_REMOVE_OBSTACLE {
+		return t.removeObstacle(stub, args)
+	} else if function == INVK_MOVE_OBSTACLE {
+		return t.moveObstacle(stub, args)
 	}
 
 	logger.Info("Invoke did not find func: " + function) //error
@@ -158,17 +216,28 @@ func (t *MultiRobotChaincode) getWorkspace(stub shim.ChaincodeStubInterface, arg
 		return shim.Error(jsonResp)
 	}
 
+	bytesWorkspace, err = withObstacles(stub, bytesWorkspace)
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+
 	return shim.Success(bytesWorkspace)
 }
 
 func (t *MultiRobotChaincode) getAllPaths(stub shim.ChaincodeStubInterface, args []string) pb.Response {
 	var jsonResp string
 
-	if len(args) != 1 {
-		jsonResp = "{\"Error\": \"Expecting Id argument for " + INVK_GET_ALL_PATHS + "\"}"
+	if len(args) != 1 && len(args) != 2 {
+		jsonResp = "{\"Error\": \"Expecting Id and optional format arguments for " + INVK_GET_ALL_PATHS + "\"}"
 		return shim.Error(jsonResp)
 	}
 
+	// JSON unless the client asks for the binary encoding
+	format := FORMAT_JSON
+	if len(args) == 2 {
+		format = args[1]
+	}
+
 	// Query the allpaths~robotId index by color
 	resultsIterator, err := stub.GetStateByPartialCompositeKey(K_ROBOTPATH, []string{K_ALLPATHS})
 	if err != nil {
@@ -176,9 +245,46 @@ func (t *MultiRobotChaincode) getAllPaths(stub shim.ChaincodeStubInterface, args
 	}
 	defer resultsIterator.Close()
 
-	// buffer is a JSON array containing QueryResults
+	return writePaths(stub, resultsIterator, args[0], format)
+}
+
+// getZonePaths returns the paths passing through one zone.
+// args: robotId, zoneId and optionally the format; the response is the
+// same as getAllPaths.
+func (t *MultiRobotChaincode) getZonePaths(stub shim.ChaincodeStubInterface, args []string) pb.Response {
+	var jsonResp string
+
+	if len(args) != 2 && len(args) != 3 {
+		jsonResp = "{\"Error\": \"Expecting Id, zone and optional format arguments for " + INVK_GET_ZONE_PATHS + "\"}"
+		return shim.Error(jsonResp)
+	}
+
+	format := FORMAT_JSON
+	if len(args) == 3 {
+		format = args[2]
+	}
+
+	// Query the zone~robotId index of the zone
+	resultsIterator, err := stub.GetStateByPartialCompositeKey(K_ZONEROBOT, []string{args[1]})
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	defer resultsIterator.Close()
+
+	return writePaths(stub, resultsIterator, args[0], format)
+}
+
+// writePaths answers a path query from an index iterator whose composite keys
+// end with the robot id, leaving out the path of the asking robot
+func writePaths(stub shim.ChaincodeStubInterface, resultsIterator shim.StateQueryIteratorInterface,
+	robotId string, format string) pb.Response {
+
+	// buffer is a JSON array containing QueryResults, or a sequence of
+	// length-prefixed binary paths
 	var bytesResults bytes.Buffer
-	bytesResults.WriteString("[")
+	if format != FORMAT_BINARY {
+		bytesResults.WriteString("[")
+	}
 
 	// Iterate through result set and for each marble found, transfer to newOwner
 	var i int
@@ -189,17 +295,17 @@ func (t *MultiRobotChaincode) getAllPaths(stub shim.ChaincodeStubInterface, args
 			return shim.Error(err.Error())
 		}
 
-		// get allpaths and robotId from allpaths~robotId composite key
+		// robotId is the last part of the index key (allpaths~robot or zone~robot)
 		_, compositeKeyParts, err := stub.SplitCompositeKey(responseRange.Key)
 
 		if err != nil {
 			return shim.Error(err.Error())
 		}
 		
-		pathRobotId := compositeKeyParts[1]
+		pathRobotId := compositeKeyParts[len(compositeKeyParts)-1]
 		
 		// exclude this robot's from returned paths
-		if pathRobotId == args[0] {
+		if pathRobotId == robotId {
 			continue;
 		}
 
@@ -210,8 +316,22 @@ func (t *MultiRobotChaincode) getAllPaths(stub shim.ChaincodeStubInterface, args
 			return shim.Error(err.Error())
 		}
 
-		bytesResults.Write(bytesPath)
-		bytesResults.WriteString(",")
+		bytesPath, err = formatPath(bytesPath, format)
+		if err != nil {
+			return shim.Error(err.Error())
+		}
+
+		if format == FORMAT_BINARY {
+			writeFramed(&bytesResults, bytesPath)
+		} else {
+			bytesResults.Write(bytesPath)
+			bytesResults.WriteString(",")
+		}
+	}
+
+	if format == FORMAT_BINARY {
+		logger.Info("Found" , i , "paths!")
+		return shim.Success(bytesResults.Bytes())
 	}
 
 	// check if the result list is bigger than just two SQUARECLOSE '[]'
@@ -226,6 +346,158 @@ func (t *MultiRobotChaincode) getAllPaths(stub shim.ChaincodeStubInterface, args
 	return shim.Success(bytesResults.Bytes())
 }
 
+// getPathsInRegion returns one page of the paths passing through a region.
+// args: robotId, region polygon as JSON array of points, page size, bookmark
+// and optionally the format. The JSON response is
+// {"bookmark": "...", "paths": [...]}, the binary one is the length-prefixed
+// bookmark followed by length-prefixed paths. An empty bookmark means the
+// region is exhausted. A path crossing several cells may show up
+// in more than one page, so callers de-duplicate on robotId.
+func (t *MultiRobotChaincode) getPathsInRegion(stub shim.ChaincodeStubInterface, args []string) pb.Response {
+	var jsonResp string
+	var region []Point
+
+	if len(args) != 4 && len(args) != 5 {
+		jsonResp = "{\"Error\": \"Expecting 4 or 5 arguments for " + INVK_GET_PATHS_IN_REGION + "\"}"
+		return shim.Error(jsonResp)
+	}
+
+	format := FORMAT_JSON
+	if len(args) == 5 {
+		format = args[4]
+	}
+
+	err := json.Unmarshal([]byte(args[1]), &region)
+	if err != nil || len(region) < 3 {
+		jsonResp = "{\"Error\": \"Failed to unmarshal given region: " + args[1] + "\"}"
+		return shim.Error(jsonResp)
+	}
+
+	pageSize, err := strconv.Atoi(args[2])
+	if err != nil || pageSize <= 0 {
+		jsonResp = "{\"Error\": \"Invalid page size: " + args[2] + "\"}"
+		return shim.Error(jsonResp)
+	}
+	if pageSize > MAX_PAGE_SIZE {
+		pageSize = MAX_PAGE_SIZE
+	}
+
+	cells := regionCells(region)
+
+	// bookmark is "<cell ordinal>/<bookmark within that cell>"
+	cellIndex, cellBookmark, err := splitBookmark(args[3])
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+
+	// buffer is a JSON array containing QueryResults, or a sequence of
+	// length-prefixed binary paths
+	var bytesResults bytes.Buffer
+	if format != FORMAT_BINARY {
+		bytesResults.WriteString("[")
+	}
+
+	seen := make(map[string]bool)
+	remaining := pageSize
+	nextBookmark := ""
+
+	for ; cellIndex < len(cells); cellIndex++ {
+		cellKey := cells[cellIndex].keyParts()
+		resultsIterator, metadata, err := stub.GetStateByPartialCompositeKeyWithPagination(
+			K_CELLROBOT, cellKey, int32(remaining), cellBookmark)
+		if err != nil {
+			return shim.Error(err.Error())
+		}
+
+		for resultsIterator.HasNext() {
+			responseRange, err := resultsIterator.Next()
+			if err != nil {
+				resultsIterator.Close()
+				return shim.Error(err.Error())
+			}
+
+			// get cellX, cellY and robotId from cell~robot composite key
+			_, compositeKeyParts, err := stub.SplitCompositeKey(responseRange.Key)
+			if err != nil {
+				resultsIterator.Close()
+				return shim.Error(err.Error())
+			}
+
+			pathRobotId := compositeKeyParts[2]
+
+			// exclude this robot's own path and paths already in this page
+			if pathRobotId == args[0] || seen[pathRobotId] {
+				continue
+			}
+			seen[pathRobotId] = true
+
+			bytesPath, err := stub.GetState(pathRobotId)
+			if err != nil {
+				resultsIterator.Close()
+				return shim.Error(err.Error())
+			} else if bytesPath == nil {
+				continue
+			}
+
+			bytesPath, err = formatPath(bytesPath, format)
+			if err != nil {
+				resultsIterator.Close()
+				return shim.Error(err.Error())
+			}
+
+			if format == FORMAT_BINARY {
+				writeFramed(&bytesResults, bytesPath)
+			} else {
+				bytesResults.Write(bytesPath)
+				bytesResults.WriteString(",")
+			}
+		}
+		resultsIterator.Close()
+
+		remaining -= int(metadata.FetchedRecordsCount)
+		cellBookmark = ""
+		if remaining <= 0 {
+			if metadata.Bookmark != "" {
+				// page is full, resume within this cell next time
+				nextBookmark = strconv.Itoa(cellIndex) + "/" + metadata.Bookmark
+			} else if cellIndex+1 < len(cells) {
+				// the page filled up at the end of the cell, an empty
+				// bookmark would restart it, so resume at the next one
+				nextBookmark = strconv.Itoa(cellIndex+1) + "/"
+			}
+			break
+		}
+	}
+
+	if format == FORMAT_BINARY {
+		var bytesResponse bytes.Buffer
+		writeFramed(&bytesResponse, []byte(nextBookmark))
+		bytesResponse.Write(bytesResults.Bytes())
+
+		logger.Info("Found", len(seen), "paths in", len(cells), "cells!")
+		return shim.Success(bytesResponse.Bytes())
+	}
+
+	// check if the result list is bigger than just SQUAREOPEN '['
+	if bytesResults.Len() > 1 {
+		// revert back the last appended comma ','
+		bytesResults.Truncate(bytesResults.Len() - 1)
+	}
+	bytesResults.WriteString("]")
+
+	bytesBookmark, _ := json.Marshal(nextBookmark)
+
+	var bytesResponse bytes.Buffer
+	bytesResponse.WriteString("{\"bookmark\":")
+	bytesResponse.Write(bytesBookmark)
+	bytesResponse.WriteString(",\"paths\":")
+	bytesResponse.Write(bytesResults.Bytes())
+	bytesResponse.WriteString("}")
+
+	logger.Info("Found", len(seen), "paths in", len(cells), "cells!")
+	return shim.Success(bytesResponse.Bytes())
+}
+
 func (t *MultiRobotChaincode) setMyPath(stub shim.ChaincodeStubInterface, args []string) pb.Response {
 	var jsonResp string
 	var err error
@@ -248,14 +520,14 @@ func (t *MultiRobotChaincode) setMyPath(stub shim.ChaincodeStubInterface, args [
 	if bytesPath == nil {
 
 		path.RobotId = robotId
-		err = json.Unmarshal([]byte(args[1]), &path.Points)
+		path.Points, err = parsePoints([]byte(args[1]))
 		if err != nil {
-			jsonResp = "{\"Error\": \"Failed to unmarshal given path: " + args[1] + "\"}"
+			jsonResp = "{\"Error\": \"Failed to unmarshal given path: " + printablePath(args[1]) + "\"}"
 			return shim.Error(jsonResp)
 		}
 
-		// === save path to state ===
-		bytesPath, _ = json.Marshal(path)
+		// === save path to state, always in the compact encoding ===
+		bytesPath = encodePath(&path)
 		err = stub.PutState(robotId, bytesPath)
 		if err != nil {
 			return shim.Error(err.Error())
@@ -273,30 +545,67 @@ func (t *MultiRobotChaincode) setMyPath(stub shim.ChaincodeStubInterface, args [
 		value := []byte{0x00}
 		stub.PutState(pathsIndexKey, value)
 
+		// ==== Index the grid cells the path passes through for region queries ====
+		err = updateCellIndex(stub, &path, true)
+		if err != nil {
+			return shim.Error(err.Error())
+		}
+
+		// ==== and the zones, for zone queries ====
+		err = updateZoneIndex(stub, &path, true)
+		if err != nil {
+			return shim.Error(err.Error())
+		}
+
 	} else {
 
-		err = json.Unmarshal(bytesPath, &path)
+		path, err = loadPath(bytesPath)
+		if err != nil {
+			return shim.Error(err.Error())
+		}
+
+		// drop cell and zone index entries of the old path before it is replaced
+		err = updateCellIndex(stub, &path, false)
+		if err != nil {
+			return shim.Error(err.Error())
+		}
+		err = updateZoneIndex(stub, &path, false)
 		if err != nil {
 			return shim.Error(err.Error())
 		}
 
-		err = json.Unmarshal([]byte(args[1]), &path.Points)
+		path.RobotId = robotId
+		path.Points, err = parsePoints([]byte(args[1]))
 		if err != nil {
-			jsonResp = "{\"Error\": \"Failed to unmarshal given path: " + args[1] + "\"}"
+			jsonResp = "{\"Error\": \"Failed to unmarshal given path: " + printablePath(args[1]) + "\"}"
 			return shim.Error(jsonResp)
 		}
 
 		// === update path to state ===
-		bytesPath, _ = json.Marshal(path)
+		bytesPath = encodePath(&path)
 		err = stub.PutState(robotId, bytesPath)
 		if err != nil {
 			return shim.Error(err.Error())
 		}
 		
+		err = updateCellIndex(stub, &path, true)
+		if err != nil {
+			return shim.Error(err.Error())
+		}
+		err = updateZoneIndex(stub, &path, true)
+		if err != nil {
+			return shim.Error(err.Error())
+		}
+
 		logger.Info("Robot[" + robotId + "] updated path")
 		logger.Debug(path.Points)
 	}
 
+	// event carries the path in the same encoding the robot submitted it
+	if !isBinaryPath([]byte(args[1])) {
+		bytesPath, _ = json.Marshal(path)
+	}
+
 	err = stub.SetEvent(E_PATH_COMMITTED, bytesPath)
 	logger.Info("Event[" + E_PATH_COMMITTED + "] set from Robot[" + robotId + "]")
 	if err != nil {
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package main
+
+import (
+	"bytes"
+	"encoding/json"
+	"strconv"
+	"github.com/hyperledger/fabric/core/chaincode/shim"
+	pb "github.com/hyperledger/fabric/protos/peer"
+)
+
+// Obstacle is placed in the workspace at run time, on top of the static
+// circles and rectangles of the workspace definition
+type Obstacle struct {
+	Id string `json:"id"`
+	Type string `json:"type"` // "circle", "rectangle" or "polygon"
+	XCenter float32 `json:"xCenter"`
+	YCenter float32 `json:"yCenter"`
+	Radius float32 `json:"radius,omitempty"`
+	Width float32 `json:"width,omitempty"`
+	Height float32 `json:"height,omitempty"`
+	Angle float32 `json:"angle,omitempty"` // rectangles, radians counterclockwise
+	Points []Point `json:"points,omitempty"` // polygons
+}
+
+// ObstacleChange is the payload of the obstacle-changed event. Every change
+// bumps the obstacle version, robots apply changes in version order and
+// skip the ones their workspace query already included.
+type ObstacleChange struct {
+	Version uint64 `json:"version"`
+	Op string `json:"op"` // "add", "remove" or "move"
+	Obstacle Obstacle `json:"obstacle"`
+	Previous *Obstacle `json:"previous,omitempty"`
+}
+
+func validObstacle(o *Obstacle) bool {
+	if o.Id == "" {
+		return false
+	}
+	if o.Type == "circle" {
+		return o.Radius > 0
+	}
+	if o.Type == "polygon" {
+		return len(o.Points) >= 3
+	}
+	return o.Type == "rectangle" && o.Width > 0 && o.Height > 0
+}
+
+// addObstacle places a new obstacle.
+// args: obstacle JSON
+func (t *MultiRobotChaincode) addObstacle(stub shim.ChaincodeStubInterface, args []string) pb.Response {
+	var jsonResp string
+	var obstacle Obstacle
+
+	if len(args) != 1 {
+		jsonResp = "{\"Error\": \"Expecting 1 argument for " + INVK_ADD_OBSTACLE + "\"}"
+		return shim.Error(jsonResp)
+	}
+
+	err := json.Unmarshal([]byte(args[0]), &obstacle)
+	if err != nil || !validObstacle(&obstacle) {
+		jsonResp = "{\"Error\": \"Invalid obstacle: " + args[0] + "\"}"
+		return shim.Error(jsonResp)
+	}
+
+	if obstacle.Type == "polygon" {
+		obstacle.XCenter, obstacle.YCenter = polygonCenter(obstacle.Points)
+	}
+
+	existing, err := loadObstacle(stub, obstacle.Id)
+	if err != nil {
+		return shim.Error(err.Error())
+	} else if existing != nil {
+		jsonResp = "{\"Error\": \"Obstacle " + obstacle.Id + " exists already\"}"
+		return shim.Error(jsonResp)
+	}
+
+	err = storeObstacle(stub, &obstacle)
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	return setObstacleChanged(stub, "add", &obstacle, nil)
+}
+
+// removeObstacle takes an obstacle away.
+// args: obstacle id
+func (t *MultiRobotChaincode) removeObstacle(stub shim.ChaincodeStubInterface, args []string) pb.Response {
+	var jsonResp string
+
+	if len(args) != 1 {
+		jsonResp = "{\"Error\": \"Expecting 1 argument for " + INVK_REMOVE_OBSTACLE + "\"}"
+		return shim.Error(jsonResp)
+	}
+
+	obstacle, err := loadObstacle(stub, args[0])
+	if err != nil {
+		return shim.Error(err.Error())
+	} else if obstacle == nil {
+		jsonResp = "{\"Error\": \"Obstacle " + args[0] + " does not exist!\"}"
+		return shim.Error(jsonResp)
+	}
+
+	key, err := stub.CreateCompositeKey(K_OBSTACLE, []string{obstacle.Id})
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	err = stub.DelState(key)
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	return setObstacleChanged(stub, "remove", obstacle, nil)
+}
+
+// moveObstacle places an obstacle at a new center.
+// args: obstacle id, x, y
+func (t *MultiRobotChaincode) moveObstacle(stub shim.ChaincodeStubInterface, args []string) pb.Response {
+	var jsonResp string
+
+	if len(args) != 3 {
+		jsonResp = "{\"Error\": \"Expecting 3 arguments for " + INVK_MOVE_OBSTACLE + "\"}"
+		return shim.Error(jsonResp)
+	}
+
+	x, errX := strconv.ParseFloat(args[1], 32)
+	y, errY := strconv.ParseFloat(args[2], 32)
+	if errX != nil || errY != nil {
+		jsonResp = "{\"Error\": \"Expecting numeric center for " + INVK_MOVE_OBSTACLE + "\"}"
+		return shim.Error(jsonResp)
+	}
+
+	previous, err := loadObstacle(stub, args[0])
+	if err != nil {
+		return shim.Error(err.Error())
+	} else if previous == nil {
+		jsonResp = "{\"Error\": \"Obstacle " + args[0] + " does not exist!\"}"
+		return shim.Error(jsonResp)
+	}
+
+	obstacle := *previous
+	obstacle.XCenter = float32(x)
+	obstacle.YCenter = float32(y)
+	if obstacle.Type == "polygon" {
+		obstacle.Points = movePoints(previous.Points, float32(x), float32(y))
+	}
+	err = storeObstacle(stub, &obstacle)
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	return setObstacleChanged(stub, "move", &obstacle, previous)
+}
+
+// polygonCenter returns the middle of the bounding box of the points, the
+// center the robots use for polygons
+func polygonCenter(points []Point) (float32, float32) {
+	xMin, xMax, yMin, yMax := points[0].X, points[0].X, points[0].Y, points[0].Y
+	for _, p := range points[1:] {
+		if p.X < xMin {
+			xMin = p.X
+		} else if p.X > xMax {
+			xMax = p.X
+		}
+		if p.Y < yMin {
+			yMin = p.Y
+		} else if p.Y > yMax {
+			yMax = p.Y
+		}
+	}
+	return (xMin + xMax) / 2, (yMin + yMax) / 2
+}
+
+// movePoints translates a polygon so its center lands on (x,y). The points
+// are copied, the previous obstacle still goes out with the change.
+func movePoints(points []Point, x float32, y float32) []Point {
+	xC, yC := polygonCenter(points)
+	moved := make([]Point, len(points))
+	for i, p := range points {
+		moved[i] = Point{X: p.X + x - xC, Y: p.Y + y - yC}
+	}
+	return moved
+}
+
+func loadObstacle(stub shim.ChaincodeStubInterface, id string) (*Obstacle, error) {
+	key, err := stub.CreateCompositeKey(K_OBSTACLE, []string{id})
+	if err != nil {
+		return nil, err
+	}
+	bytesObstacle, err := stub.GetState(key)
+	if err != nil || bytesObstacle == nil {
+		return nil, err
+	}
+
+	var obstacle Obstacle
+	err = json.Unmarshal(bytesObstacle, &obstacle)
+	if err != nil {
+		return nil, err
+	}
+	return &obstacle, nil
+}
+
+func storeObstacle(stub shim.ChaincodeStubInterface, obstacle *Obstacle) error {
+	key, err := stub.CreateCompositeKey(K_OBSTACLE, []string{obstacle.Id})
+	if err != nil {
+		return err
+	}
+	bytesObstacle, _ := json.Marshal(obstacle)
+	return stub.PutState(key, bytesObstacle)
+}
+
+// loadObstacleVersion returns the number of obstacle changes so far
+func loadObstacleVersion(stub shim.ChaincodeStubInterface) (uint64, error) {
+	bytesVersion, err := stub.GetState(K_OBSTACLE_VERSION)
+	if err != nil || bytesVersion == nil {
+		return 0, err
+	}
+	return strconv.ParseUint(string(bytesVersion), 10, 64)
+}
+
+// setObstacleChanged bumps the obstacle version and announces the change.
+// Every change reads and writes the version key, so concurrent changes
+// conflict at validation and the versions follow the ledger order.
+func setObstacleChanged(stub shim.ChaincodeStubInterface, op string, obstacle *Obstacle, previous *Obstacle) pb.Response {
+	version, err := loadObstacleVersion(stub)
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	version++
+
+	err = stub.PutState(K_OBSTACLE_VERSION, []byte(strconv.FormatUint(version, 10)))
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+
+	change := ObstacleChange{Version: version, Op: op, Obstacle: *obstacle, Previous: previous}
+	bytesChange, _ := json.Marshal(change)
+
+	err = stub.SetEvent(E_OBSTACLE_CHANGED, bytesChange)
+	logger.Info("Event[" + E_OBSTACLE_CHANGED + "] " + op + " obstacle[" + obstacle.Id + "] version " + strconv.FormatUint(version, 10))
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	return shim.Success(bytesChange)
+}
+
+// withObstacles appends the obstacles placed at run time and their version
+// to the workspace JSON, so a robot joining late starts from the current
+// state and only needs the events after that version
+func withObstacles(stub shim.ChaincodeStubInterface, bytesWorkspace []byte) ([]byte, error) {
+	version, err := loadObstacleVersion(stub)
+	if err != nil || version == 0 {
+		return bytesWorkspace, err
+	}
+
+	resultsIterator, err := stub.GetStateByPartialCompositeKey(K_OBSTACLE, []string{})
+	if err != nil {
+		return nil, err
+	}
+	defer resultsIterator.Close()
+
+	obstacles := []json.RawMessage{}
+	for resultsIterator.HasNext() {
+		kv, err := resultsIterator.Next()
+		if err != nil {
+			return nil, err
+		}
+		obstacles = append(obstacles, json.RawMessage(kv.Value))
+	}
+	bytesObstacles, _ := json.Marshal(obstacles)
+
+	// splice the members in before the closing brace of the workspace
+	trimmed := bytes.TrimRight(bytesWorkspace, " \t\r\n")
+	var buffer bytes.Buffer
+	buffer.Write(trimmed[:len(trimmed)-1])
+	buffer.WriteString(",\"obstacleVersion\":" + strconv.FormatUint(version, 10) + ",\"obstacles\":")
+	buffer.Write(bytesObstacles)
+	buffer.WriteString("}")
+	return buffer.Bytes(), nil
+}
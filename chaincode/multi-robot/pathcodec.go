@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package main
+
+import (
+	"bytes"
+	"encoding/binary"
+	"encoding/json"
+	"errors"
+	"math"
+)
+
+// Compact binary path encoding, mirrors org.dcu.prm.PathCodec
+//
+//   magic (1 byte) | version (1 byte) |
+//   uvarint id length | id bytes |
+//   uvarint point count |
+//   zig-zag varint x, y of every point as fixed-point delta to the previous one
+const (
+	PATH_MAGIC   = 0xB7
+	PATH_VERSION = 1
+	COORD_SCALE  = 10000.0 // fixed-point resolution of 1e-4 workspace units
+)
+
+// Encodings negotiated with the clients
+const (
+	FORMAT_JSON   = "json"
+	FORMAT_BINARY = "bin"
+)
+
+func isBinaryPath(b []byte) bool {
+	return len(b) >= 2 && b[0] == PATH_MAGIC
+}
+
+func toFixed(v float32) int64 {
+	return int64(math.Floor(float64(v)*COORD_SCALE + 0.5))
+}
+
+func encodePath(path *Path) []byte {
+	var buf bytes.Buffer
+	tmp := make([]byte, binary.MaxVarintLen64)
+
+	buf.WriteByte(PATH_MAGIC)
+	buf.WriteByte(PATH_VERSION)
+
+	n := binary.PutUvarint(tmp, uint64(len(path.RobotId)))
+	buf.Write(tmp[:n])
+	buf.WriteString(path.RobotId)
+
+	n = binary.PutUvarint(tmp, uint64(len(path.Points)))
+	buf.Write(tmp[:n])
+
+	var xPrev, yPrev int64
+	for _, p := range path.Points {
+		x := toFixed(p.X)
+		y := toFixed(p.Y)
+		n = binary.PutVarint(tmp, x-xPrev)
+		buf.Write(tmp[:n])
+		n = binary.PutVarint(tmp, y-yPrev)
+		buf.Write(tmp[:n])
+		xPrev, yPrev = x, y
+	}
+	return buf.Bytes()
+}
+
+func decodePath(b []byte) (Path, error) {
+	var path Path
+	malformed := errors.New("Malformed binary path")
+
+	if !isBinaryPath(b) {
+		return path, malformed
+	}
+	if b[1] != PATH_VERSION {
+		return path, errors.New("Unsupported binary path version")
+	}
+	pos := 2
+
+	idLen, n := binary.Uvarint(b[pos:])
+	if n <= 0 || pos+n+int(idLen) > len(b) {
+		return path, malformed
+	}
+	pos += n
+	path.RobotId = string(b[pos : pos+int(idLen)])
+	pos += int(idLen)
+
+	count, n := binary.Uvarint(b[pos:])
+	if n <= 0 || count > uint64(len(b)) {
+		return path, malformed
+	}
+	pos += n
+
+	path.Points = make([]Point, count)
+	var x, y int64
+	for i := range path.Points {
+		dx, n := binary.Varint(b[pos:])
+		if n <= 0 {
+			return path, malformed
+		}
+		pos += n
+		dy, n := binary.Varint(b[pos:])
+		if n <= 0 {
+			return path, malformed
+		}
+		pos += n
+
+		x += dx
+		y += dy
+		path.Points[i] = Point{float32(float64(x) / COORD_SCALE), float32(float64(y) / COORD_SCALE)}
+	}
+	return path, nil
+}
+
+// loadPath parses a stored path in either encoding, older states were JSON
+func loadPath(b []byte) (Path, error) {
+	if isBinaryPath(b) {
+		return decodePath(b)
+	}
+	var path Path
+	err := json.Unmarshal(b, &path)
+	return path, err
+}
+
+// parsePoints parses the points given to setMyPath in either encoding
+func parsePoints(arg []byte) ([]Point, error) {
+	if isBinaryPath(arg) {
+		path, err := decodePath(arg)
+		return path.Points, err
+	}
+	var points []Point
+	err := json.Unmarshal(arg, &points)
+	return points, err
+}
+
+// formatPath renders a stored path in the requested encoding
+func formatPath(b []byte, format string) ([]byte, error) {
+	if format == FORMAT_BINARY {
+		if isBinaryPath(b) {
+			return b, nil
+		}
+		path, err := loadPath(b)
+		if err != nil {
+			return nil, err
+		}
+		return encodePath(&path), nil
+	}
+
+	if !isBinaryPath(b) {
+		return b, nil
+	}
+	path, err := decodePath(b)
+	if err != nil {
+		return nil, err
+	}
+	return json.Marshal(path)
+}
+
+// writeFramed appends a length-prefixed record to a binary response
+func writeFramed(buf *bytes.Buffer, record []byte) {
+	tmp := make([]byte, binary.MaxVarintLen64)
+	n := binary.PutUvarint(tmp, uint64(len(record)))
+	buf.Write(tmp[:n])
+	buf.Write(record)
+}
+
+// printablePath keeps binary payloads out of error messages
+func printablePath(arg string) string {
+	if isBinaryPath([]byte(arg)) {
+		return "<binary>"
+	}
+	return arg
+}
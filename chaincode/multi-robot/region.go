@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package main
+
+import (
+	"errors"
+	"math"
+	"strconv"
+	"strings"
+	"github.com/hyperledger/fabric/core/chaincode/shim"
+)
+
+// Cell is one square of the uniform grid used to index paths spatially
+type Cell struct {
+	X int
+	Y int
+}
+
+func (c Cell) keyParts() []string {
+	return []string{strconv.Itoa(c.X), strconv.Itoa(c.Y)}
+}
+
+func cellOf(v float64) int {
+	return int(math.Floor(v / CELL_SIZE))
+}
+
+// pathCells returns the cells covered by the bounding boxes of the path
+// segments. This over-approximates the cells the path really crosses,
+// which is fine for a filter.
+func pathCells(path *Path) []Cell {
+	var cells []Cell
+	seen := make(map[Cell]bool)
+
+	for i := 0; i < len(path.Points); i++ {
+		a := path.Points[i]
+		b := a
+		if i+1 < len(path.Points) {
+			b = path.Points[i+1]
+		}
+
+		xMin := cellOf(math.Min(float64(a.X), float64(b.X)))
+		xMax := cellOf(math.Max(float64(a.X), float64(b.X)))
+		yMin := cellOf(math.Min(float64(a.Y), float64(b.Y)))
+		yMax := cellOf(math.Max(float64(a.Y), float64(b.Y)))
+
+		for cx := xMin; cx <= xMax; cx++ {
+			for cy := yMin; cy <= yMax; cy++ {
+				c := Cell{cx, cy}
+				if !seen[c] {
+					seen[c] = true
+					cells = append(cells, c)
+				}
+			}
+		}
+	}
+	return cells
+}
+
+// regionCells returns the cells overlapping the given polygon in
+// row-major order, so that bookmarks stay stable between pages.
+func regionCells(region []Point) []Cell {
+	var cells []Cell
+
+	xLo, yLo := math.Inf(1), math.Inf(1)
+	xHi, yHi := math.Inf(-1), math.Inf(-1)
+	for _, p := range region {
+		xLo = math.Min(xLo, float64(p.X))
+		yLo = math.Min(yLo, float64(p.Y))
+		xHi = math.Max(xHi, float64(p.X))
+		yHi = math.Max(yHi, float64(p.Y))
+	}
+
+	for cy := cellOf(yLo); cy <= cellOf(yHi); cy++ {
+		for cx := cellOf(xLo); cx <= cellOf(xHi); cx++ {
+			if cellOverlapsPolygon(cx, cy, region) {
+				cells = append(cells, Cell{cx, cy})
+			}
+		}
+	}
+	return cells
+}
+
+func cellOverlapsPolygon(cx, cy int, region []Point) bool {
+	x0 := float64(cx) * CELL_SIZE
+	y0 := float64(cy) * CELL_SIZE
+	x1 := x0 + CELL_SIZE
+	y1 := y0 + CELL_SIZE
+
+	// cell center inside the polygon
+	if pointInPolygon((x0+x1)/2, (y0+y1)/2, region) {
+		return true
+	}
+
+	// any polygon edge touching the cell
+	for i := 0; i < len(region); i++ {
+		a := region[i]
+		b := region[(i+1)%len(region)]
+		if segmentOverlapsBox(float64(a.X), float64(a.Y), float64(b.X), float64(b.Y), x0, y0, x1, y1) {
+			return true
+		}
+	}
+	return false
+}
+
+// even-odd rule point in polygon test
+func pointInPolygon(x, y float64, region []Point) bool {
+	inside := false
+	j := len(region) - 1
+	for i := 0; i < len(region); i++ {
+		xi, yi := float64(region[i].X), float64(region[i].Y)
+		xj, yj := float64(region[j].X), float64(region[j].Y)
+		if (yi > y) != (yj > y) && x < (xj-xi)*(y-yi)/(yj-yi)+xi {
+			inside = !inside
+		}
+		j = i
+	}
+	return inside
+}
+
+// Liang-Barsky clipping of segment (xa,ya)-(xb,yb) against a box
+func segmentOverlapsBox(xa, ya, xb, yb, x0, y0, x1, y1 float64) bool {
+	t0, t1 := 0.0, 1.0
+	dx := xb - xa
+	dy := yb - ya
+	p := []float64{-dx, dx, -dy, dy}
+	q := []float64{xa - x0, x1 - xa, ya - y0, y1 - ya}
+
+	for i := 0; i < 4; i++ {
+		if p[i] == 0 {
+			if q[i] < 0 {
+				return false
+			}
+			continue
+		}
+		r := q[i] / p[i]
+		if p[i] < 0 {
+			if r > t1 {
+				return false
+			} else if r > t0 {
+				t0 = r
+			}
+		} else {
+			if r < t0 {
+				return false
+			} else if r < t1 {
+				t1 = r
+			}
+		}
+	}
+	return true
+}
+
+// updateCellIndex adds (or removes) the cell~robot entries of a path
+func updateCellIndex(stub shim.ChaincodeStubInterface, path *Path, add bool) error {
+	for _, c := range pathCells(path) {
+		cellIndexKey, err := stub.CreateCompositeKey(K_CELLROBOT,
+			[]string{strconv.Itoa(c.X), strconv.Itoa(c.Y), path.RobotId})
+		if err != nil {
+			return err
+		}
+
+		if add {
+			// Only the key name is needed, no need to store a duplicate value
+			err = stub.PutState(cellIndexKey, []byte{0x00})
+		} else {
+			err = stub.DelState(cellIndexKey)
+		}
+		if err != nil {
+			return err
+		}
+	}
+	return nil
+}
+
+func splitBookmark(bookmark string) (int, string, error) {
+	if bookmark == "" {
+		return 0, "", nil
+	}
+
+	parts := strings.SplitN(bookmark, "/", 2)
+	if len(parts) != 2 {
+		return 0, "", errors.New("Malformed bookmark: " + bookmark)
+	}
+
+	cellIndex, err := strconv.Atoi(parts[0])
+	if err != nil || cellIndex < 0 {
+		return 0, "", errors.New("Malformed bookmark: " + bookmark)
+	}
+	return cellIndex, parts[1], nil
+}
@@ -11,6 +11,11 @@ import (
 
 )
 
+// Init argument selecting the workspace
+const (
+	WORKSPACE_ZONED = "zoned"
+)
+
 var (
 	workspaceDef =
 		`{
@@ -61,4 +66,89 @@ var (
 		      }
 		   ]
 		}`
+
+	// the same floor split into two zones joined by three portals,
+	// instantiate with the argument "zoned" to use it
+	zonedWorkspaceDef =
+		`{
+		   "start": {
+		      "x": 1,
+		      "y": 5
+		   },
+		   "goal": {
+		      "x": 9,
+		      "y": 1
+		   },
+		   "bounds": {
+		      "xMin": 0,
+		      "xMax": 10,
+		      "yMin": 0,
+		      "yMax": 7
+		   },
+		   "circles": [
+		      {
+		         "xCenter": 6,
+		         "yCenter": 2,
+		         "radius": 0.9
+		      },
+		      {
+		         "xCenter": 4.5,
+		         "yCenter": 5.5,
+		         "radius": 0.6
+		      }
+		   ],
+		   "rectangles": [
+		      {
+		         "xCenter": 2.5,
+		         "yCenter": 2,
+		         "width": 1.4,
+		         "height": 1.4
+		      },
+		      {
+		         "xCenter": 4,
+		         "yCenter": 3.5,
+		         "width": 1,
+		         "height": 0.4
+		      },
+		      {
+		         "xCenter": 7.5,
+		         "yCenter": 4,
+		         "width": 1.4,
+		         "height": 1
+		      }
+		   ],
+		   "zones": [
+		      {
+		         "id": "A",
+		         "xMin": 0,
+		         "xMax": 5,
+		         "yMin": 0,
+		         "yMax": 7
+		      },
+		      {
+		         "id": "B",
+		         "xMin": 5,
+		         "xMax": 10,
+		         "yMin": 0,
+		         "yMax": 7
+		      }
+		   ],
+		   "portals": [
+		      {
+		         "x": 5,
+		         "y": 0.8,
+		         "zones": ["A", "B"]
+		      },
+		      {
+		         "x": 5,
+		         "y": 4,
+		         "zones": ["A", "B"]
+		      },
+		      {
+		         "x": 5,
+		         "y": 6.6,
+		         "zones": ["A", "B"]
+		      }
+		   ]
+		}`
 )
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2018 Amr Mokhtar.
+ * All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package main
+
+import (
+	"encoding/json"
+	"github.com/hyperledger/fabric/core/chaincode/shim"
+)
+
+// Zone is an axis aligned shard of the workspace. Every zone keeps its own
+// zone~robot index, so robots and the grapher only read the paths of the
+// zones they care about.
+type Zone struct {
+	Id string `json:"id"`
+	XMin float32 `json:"xMin"`
+	XMax float32 `json:"xMax"`
+	YMin float32 `json:"yMin"`
+	YMax float32 `json:"yMax"`
+}
+
+// Portal is a free point on the border of two zones
+type Portal struct {
+	X float32 `json:"x"`
+	Y float32 `json:"y"`
+	Zones []string `json:"zones"`
+}
+
+// loadZones returns the zones stored at Init, none if the workspace is not sharded
+func loadZones(stub shim.ChaincodeStubInterface) ([]Zone, error) {
+	var zones []Zone
+
+	bytesZones, err := stub.GetState(K_ZONES)
+	if err != nil || bytesZones == nil {
+		return zones, err
+	}
+	err = json.Unmarshal(bytesZones, &zones)
+	return zones, err
+}
+
+// pathZones returns the ids of the zones the path passes through. Zones are
+// grown by ZONE_MARGIN, a path running along a border is indexed in both.
+func pathZones(path *Path, zones []Zone) []string {
+	var ids []string
+
+	for _, z := range zones {
+		x0 := float64(z.XMin) - ZONE_MARGIN
+		y0 := float64(z.YMin) - ZONE_MARGIN
+		x1 := float64(z.XMax) + ZONE_MARGIN
+		y1 := float64(z.YMax) + ZONE_MARGIN
+
+		for i := range path.Points {
+			a := path.Points[i]
+			b := a
+			if i+1 < len(path.Points) {
+				b = path.Points[i+1]
+			} else if i > 0 {
+				break
+			}
+			if segmentOverlapsBox(float64(a.X), float64(a.Y), float64(b.X), float64(b.Y), x0, y0, x1, y1) {
+				ids = append(ids, z.Id)
+				break
+			}
+		}
+	}
+	return ids
+}
+
+// updateZoneIndex adds (or removes) the zone~robot entries of a path
+func updateZoneIndex(stub shim.ChaincodeStubInterface, path *Path, add bool) error {
+	zones, err := loadZones(stub)
+	if err != nil {
+		return err
+	}
+
+	for _, id := range pathZones(path, zones) {
+		zoneIndexKey, err := stub.CreateCompositeKey(K_ZONEROBOT, []string{id, path.RobotId})
+		if err != nil {
+			return err
+		}
+
+		if add {
+			// Only the key name is needed, no need to store a duplicate value
+			err = stub.PutState(zoneIndexKey, []byte{0x00})
+		} else {
+			err = stub.DelState(zoneIndexKey)
+		}
+		if err != nil {
+			return err
+		}
+	}
+	return nil
+}
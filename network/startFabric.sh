@@ -11,6 +11,8 @@ set -e
 export MSYS_NO_PATHCONV=1
 starttime=$(date +%s)
 LANGUAGE=${1:-"golang"}
+# "zoned" instantiates the workspace split into zones, empty for the plain one
+WORKSPACE=${2:-""}
 CC_SRC_PATH=github.com/multi-robot
 
 # clean the keystore
@@ -24,6 +26,6 @@ rm -rf ./hfc-key-store
 docker-compose -f ./docker-compose.yml up -d cli
 
 docker exec -e "CORE_PEER_LOCALMSPID=Org1MSP" -e "CORE_PEER_MSPCONFIGPATH=/opt/gopath/src/github.com/hyperledger/fabric/peer/crypto/peerOrganizations/org1.dcu.ie/users/Admin@org1.dcu.ie/msp" cli peer chaincode install -n "multi-robot" -v 1.0 -p "$CC_SRC_PATH" -l "$LANGUAGE"
-docker exec -e "CORE_PEER_LOCALMSPID=Org1MSP" -e "CORE_PEER_MSPCONFIGPATH=/opt/gopath/src/github.com/hyperledger/fabric/peer/crypto/peerOrganizations/org1.dcu.ie/users/Admin@org1.dcu.ie/msp" cli peer chaincode instantiate -o "orderer.dcu.ie:7050" -C "mychannel" -n "multi-robot" -l "$LANGUAGE" -v 1.0 -c '{"Args":[""]}' -P "OR ('Org1MSP.member','Org2MSP.member')"
+docker exec -e "CORE_PEER_LOCALMSPID=Org1MSP" -e "CORE_PEER_MSPCONFIGPATH=/opt/gopath/src/github.com/hyperledger/fabric/peer/crypto/peerOrganizations/org1.dcu.ie/users/Admin@org1.dcu.ie/msp" cli peer chaincode instantiate -o "orderer.dcu.ie:7050" -C "mychannel" -n "multi-robot" -l "$LANGUAGE" -v 1.0 -c '{"Args":["init","'"$WORKSPACE"'"]}' -P "OR ('Org1MSP.member','Org2MSP.member')"
 
 printf "\nTotal setup execution time : $(($(date +%s) - starttime)) secs ...\n\n\n"